@@ -18,11 +18,19 @@ package com.google.devtools.moe.client;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /** A partial implementation of FileSystem */
 public abstract class AbstractFileSystem implements FileSystem {
   @Override
   public void copyDirectory(File src, File dest) throws IOException {
+    cloneDirectory(src, dest, null);
+  }
+
+  @Override
+  public void cloneDirectory(File src, File dest, @Nullable Set<String> mutableFiles)
+      throws IOException {
     if (src == null) {
       return; // TODO(cgruber): Should this be an error?
     }
@@ -31,17 +39,29 @@ public abstract class AbstractFileSystem implements FileSystem {
       this.copyFile(src, dest);
       return;
     }
+    cloneDirectory(src, dest, "", mutableFiles);
+  }
+
+  private void cloneDirectory(
+      File src, File dest, String relativePrefix, @Nullable Set<String> mutableFiles)
+      throws IOException {
     File[] files = this.listFiles(src);
     if (files == null) {
       return; // src did not represent a file or an io error occurred, per File.listFiles()
     }
     for (File subFile : files) {
+      String relativeName = relativePrefix + this.getName(subFile);
       File newFile = new File(dest, this.getName(subFile));
       if (this.isDirectory(subFile)) {
-        this.copyDirectory(subFile, newFile);
+        this.makeDirsForFile(newFile);
+        cloneDirectory(subFile, newFile, relativeName + File.separator, mutableFiles);
       } else {
         this.makeDirsForFile(newFile);
-        this.copyFile(subFile, newFile);
+        if (mutableFiles == null || mutableFiles.contains(relativeName)) {
+          this.copyFile(subFile, newFile);
+        } else {
+          this.linkFile(subFile, newFile);
+        }
       }
     }
   }
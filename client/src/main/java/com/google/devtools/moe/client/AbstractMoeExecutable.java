@@ -76,6 +76,7 @@ public abstract class AbstractMoeExecutable<T extends AbstractMoeExecutable<T>>
   @Inject Directives directives;
   @Inject Ui ui;
   @Inject FileSystem filesystem;
+  @Inject CommandStatistics commandStatistics;
 
   private boolean debug = false;
 
@@ -123,9 +124,14 @@ public abstract class AbstractMoeExecutable<T extends AbstractMoeExecutable<T>>
         return parseError ? 64 : 0;
       }
 
-      result = directive.perform();
+      try {
+        result = directive.perform();
+      } finally {
+        commandStatistics.report(ui);
+      }
       try (Task task = ui.newTask(MOE_TERMINATION_TASK_NAME, "Final clean-up")) {
         filesystem.cleanUpTempDirs();
+        filesystem.awaitCleanUp();
       } catch (IOException e) {
         ui.message(
             "WARNING: Moe encountered a problem cleaning up temporary directories: %s",
@@ -16,8 +16,20 @@
 
 package com.google.devtools.moe.client;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A wrapper around call-outs to out-of-process executable programs.
@@ -49,6 +61,15 @@ public interface CommandRunner {
     }
   }
 
+  /** Thrown when a command is killed for running past its deadline. */
+  public static class CommandTimeoutException extends CommandException {
+    private static final long serialVersionUID = 1L;
+
+    public CommandTimeoutException(String cmd, List<String> args, long timeout, TimeUnit unit) {
+      super(cmd, args, "", "Killed after " + timeout + " " + unit.toString().toLowerCase(), -1);
+    }
+  }
+
   /**
    * The complete result, including stdout and stderr, of running a command.
    */
@@ -94,4 +115,79 @@ public interface CommandRunner {
    */
   CommandOutput runCommandWithFullOutput(String workingDirectory, String command, List<String> args)
       throws CommandException;
+
+  /**
+   * Runs a command, handing each line of its stdout (without the line terminator) to {@code
+   * lineHandler}.
+   *
+   * <p>Implementations that can do so should deliver lines as the command produces them, so that
+   * large outputs can be parsed incrementally rather than materialized. The default implementation
+   * runs the command to completion and then splits its output.
+   *
+   * <p>If the command fails, the {@link CommandException} carries the command's stderr, but its
+   * stdout may be empty, since the lines have already been handed off.
+   *
+   * @param workingDirectory the directory to run in
+   * @param command the binary to invoke. If not a path, it will be resolved.
+   * @param args the arguments to pass to the binary
+   * @param lineHandler a callback invoked once per line of stdout, in order
+   * @throws CommandException
+   */
+  default void runCommandByLine(
+      String workingDirectory, String command, List<String> args, Consumer<String> lineHandler)
+      throws CommandException {
+    String stdout = runCommand(workingDirectory, command, args);
+    try (BufferedReader reader = new BufferedReader(new StringReader(stdout))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lineHandler.accept(line);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // Can't happen when reading from a String.
+    }
+  }
+
+  /**
+   * Starts a command and returns its stdout as an {@link InputStream}.
+   *
+   * <p>Closing the stream waits for the command to exit. If the command exited with a non-zero
+   * status, {@link InputStream#close()} throws an {@link IOException} whose cause is the {@link
+   * CommandException}. The default implementation runs the command to completion first, and so
+   * reports failures from this method instead.
+   *
+   * @param workingDirectory the directory to run in
+   * @param command the binary to invoke. If not a path, it will be resolved.
+   * @param args the arguments to pass to the binary
+   * @return the stdout of the command, which the caller must close
+   * @throws CommandException
+   */
+  default InputStream runCommandAsStream(String workingDirectory, String command, List<String> args)
+      throws CommandException {
+    return new ByteArrayInputStream(runCommand(workingDirectory, command, args).getBytes(UTF_8));
+  }
+
+  /**
+   * Schedules a command to run, returning a future for its full results.
+   *
+   * <p>Implementations may bound how many commands run at once, so a command may wait for others
+   * to finish before it starts. A command which runs past {@code timeout} is killed, along with
+   * any processes it started, and its future fails with a {@link CommandTimeoutException}.
+   * Cancelling the future kills the command in the same way. A command which exits with a non-zero
+   * status fails its future with a {@link CommandException}.
+   *
+   * <p>The default implementation runs the command synchronously and ignores the timeout.
+   *
+   * @param workingDirectory the directory to run in
+   * @param command the binary to invoke. If not a path, it will be resolved.
+   * @param args the arguments to pass to the binary
+   * @param timeout how long the command may run once started, or 0 for no deadline
+   * @param unit the unit of {@code timeout}
+   */
+  default ListenableFuture<CommandOutput> runCommandAsync(
+      String workingDirectory, String command, List<String> args, long timeout, TimeUnit unit) {
+    try {
+      return Futures.immediateFuture(runCommandWithFullOutput(workingDirectory, command, args));
+    } catch (CommandException | RuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
 }
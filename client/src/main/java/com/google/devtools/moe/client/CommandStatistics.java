@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.qualifiers.Argument;
+import com.google.devtools.moe.client.qualifiers.Flag;
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Statistics about the external commands MOE runs, to find which of them dominate a slow run.
+ *
+ * <p>Commands are grouped by binary and, for version control tools, subcommand (e.g. {@code git
+ * log}). For each group this records the number of invocations and failures, the bytes of output,
+ * and a histogram of wall times. Statistics are only gathered with {@code --trace}, which reports
+ * them as a table at the end of the directive, or {@code --command_stats_file}, which writes them
+ * to the given file as JSON.
+ */
+@Singleton
+public class CommandStatistics {
+  /** Binaries whose first argument names a subcommand worth distinguishing. */
+  private static final ImmutableSet<String> MULTI_COMMAND_BINARIES =
+      ImmutableSet.of("git", "hg", "svn", "svnadmin");
+
+  /** The upper bounds of the wall time histogram's buckets, in milliseconds, bar the last. */
+  @VisibleForTesting
+  static final ImmutableList<Long> BUCKET_BOUNDS_MILLIS =
+      ImmutableList.of(10L, 100L, 1_000L, 10_000L, 60_000L);
+
+  private static final ImmutableList<String> BUCKET_LABELS =
+      ImmutableList.of("<10ms", "<100ms", "<1s", "<10s", "<1m", ">=1m");
+
+  private final boolean trace;
+  @Nullable private final String jsonFile;
+  private final Gson gson;
+
+  // Guarded by this.
+  private final Map<String, CommandStats> stats = new TreeMap<>();
+
+  @Inject
+  CommandStatistics(
+      @Flag("trace") boolean trace,
+      @Nullable @Argument("command_stats_file") String jsonFile,
+      Gson gson) {
+    this.trace = trace;
+    this.jsonFile = Strings.emptyToNull(jsonFile);
+    this.gson = gson;
+  }
+
+  /** Returns statistics which record nothing. */
+  public static CommandStatistics disabled() {
+    return new CommandStatistics(false, null, GsonModule.provideGson());
+  }
+
+  public boolean isEnabled() {
+    return trace || jsonFile != null;
+  }
+
+  /**
+   * Records a completed (or failed) invocation of a command.
+   *
+   * @param command the binary run
+   * @param args the arguments it was run with
+   * @param wallTimeNanos how long it ran
+   * @param stdoutBytes how much it wrote to stdout
+   * @param stderrBytes how much it wrote to stderr
+   * @param failed whether it failed, by exit status, timeout or otherwise
+   */
+  public void record(
+      String command,
+      List<String> args,
+      long wallTimeNanos,
+      long stdoutBytes,
+      long stderrBytes,
+      boolean failed) {
+    if (!isEnabled()) {
+      return;
+    }
+    String key = key(command, args);
+    synchronized (this) {
+      stats.computeIfAbsent(key, CommandStats::new)
+          .add(TimeUnit.NANOSECONDS.toMillis(wallTimeNanos), stdoutBytes, stderrBytes, failed);
+    }
+  }
+
+  @VisibleForTesting
+  static String key(String command, List<String> args) {
+    String binary = new File(command).getName();
+    if (MULTI_COMMAND_BINARIES.contains(binary)) {
+      for (String arg : args) {
+        if (!arg.startsWith("-")) {
+          return binary + " " + arg;
+        }
+      }
+    }
+    return binary;
+  }
+
+  /** Returns the statistics gathered so far, most expensive (in total wall time) first. */
+  @VisibleForTesting
+  synchronized List<CommandStats> snapshot() {
+    List<CommandStats> snapshot = new ArrayList<>();
+    for (CommandStats commandStats : stats.values()) {
+      snapshot.add(commandStats.copy());
+    }
+    snapshot.sort(Comparator.comparingLong((CommandStats s) -> s.totalMillis).reversed());
+    return snapshot;
+  }
+
+  /** Reports the statistics gathered so far, as configured by the flags. */
+  public void report(Ui ui) {
+    if (!isEnabled()) {
+      return;
+    }
+    List<CommandStats> snapshot = snapshot();
+    if (trace) {
+      ui.message("%s", formatTable(snapshot));
+    }
+    if (jsonFile != null) {
+      try (Writer writer = Files.newBufferedWriter(new File(jsonFile).toPath(), UTF_8)) {
+        gson.toJson(snapshot, writer);
+      } catch (IOException e) {
+        ui.message("WARNING: Could not write command statistics to %s: %s", jsonFile, e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static String formatTable(List<CommandStats> snapshot) {
+    StringBuilder table = new StringBuilder("External commands:\n");
+    String rowFormat = "%-20s %6s %6s %9s %9s %10s %10s";
+    table.append(
+        String.format(
+            rowFormat, "command", "calls", "failed", "total(s)", "max(ms)", "stdout", "stderr"));
+    for (String label : BUCKET_LABELS) {
+      table.append(String.format(" %6s", label));
+    }
+    for (CommandStats s : snapshot) {
+      table
+          .append('\n')
+          .append(
+              String.format(
+                  rowFormat,
+                  s.command,
+                  s.invocations,
+                  s.failures,
+                  String.format("%.1f", s.totalMillis / 1000.0),
+                  s.maxMillis,
+                  s.stdoutBytes,
+                  s.stderrBytes));
+      for (long count : s.histogram) {
+        table.append(String.format(" %6d", count));
+      }
+    }
+    return table.toString();
+  }
+
+  /** The statistics for one binary or subcommand. Field names double as JSON keys. */
+  @VisibleForTesting
+  static final class CommandStats {
+    final String command;
+    long invocations;
+    long failures;
+    long totalMillis;
+    long maxMillis;
+    long stdoutBytes;
+    long stderrBytes;
+    /** Counts of invocations by wall time, bucketed per {@link #BUCKET_BOUNDS_MILLIS}. */
+    final long[] histogram = new long[BUCKET_BOUNDS_MILLIS.size() + 1];
+
+    CommandStats(String command) {
+      this.command = command;
+    }
+
+    void add(long millis, long stdout, long stderr, boolean failed) {
+      invocations++;
+      failures += failed ? 1 : 0;
+      totalMillis += millis;
+      maxMillis = Math.max(maxMillis, millis);
+      stdoutBytes += stdout;
+      stderrBytes += stderr;
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MILLIS.size() && millis >= BUCKET_BOUNDS_MILLIS.get(bucket)) {
+        bucket++;
+      }
+      histogram[bucket]++;
+    }
+
+    CommandStats copy() {
+      CommandStats copy = new CommandStats(command);
+      copy.invocations = invocations;
+      copy.failures = failures;
+      copy.totalMillis = totalMillis;
+      copy.maxMillis = maxMillis;
+      copy.stdoutBytes = stdoutBytes;
+      copy.stderrBytes = stderrBytes;
+      System.arraycopy(histogram, 0, copy.histogram, 0, histogram.length);
+      return copy;
+    }
+  }
+}
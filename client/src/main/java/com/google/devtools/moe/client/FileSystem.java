@@ -19,11 +19,14 @@ package com.google.devtools.moe.client;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.PathMatcher;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Interface for MOE to interact with the local filesystem.
@@ -58,12 +61,28 @@ public interface FileSystem {
    */
   public void cleanUpTempDirs() throws IOException;
 
+  /**
+   * Waits for the deletions begun by {@link #cleanUpTempDirs()} to finish, if it leaves them to
+   * finish in the background.
+   *
+   * @throws IOException if any of them failed
+   */
+  default void awaitCleanUp() throws IOException {}
+
   /**
    * Sets the {@link Lifetime} for a path. The path must have been provided by
    * {@link #getTemporaryDirectory(String, Lifetime)}.
    */
   public void setLifetime(File path, Lifetime lifetime);
 
+  /**
+   * Closes {@code resource}, e.g. a process serving queries against a clone, when the temp dir it
+   * works in is cleaned up. The path must have been provided by {@link
+   * #getTemporaryDirectory(String, Lifetime)}. The default implementation leaves the resource to
+   * be released when MOE exits.
+   */
+  default void closeWithTempDir(File path, Closeable resource) {}
+
   /**
    * Find the names of files under path.
    *
@@ -71,6 +90,44 @@ public interface FileSystem {
    */
   public Set<File> findFiles(File path);
 
+  /**
+   * Find the names, relative to path, of files under path, in sorted order.
+   *
+   * <p>NB: returns only files, not directories
+   */
+  default Set<String> findRelativeFiles(File path) {
+    return ImmutableSortedSet.copyOf(Utils.makeFilenamesRelative(findFiles(path), path));
+  }
+
+  /** Receives each file found by {@link FileSystem#walkFiles}, with its attributes. */
+  interface FileVisitor {
+    /**
+     * @param relativeName the file's name, relative to the root of the walk
+     * @param file the file
+     * @param size the file's length in bytes, or -1 if unknown
+     * @param lastModifiedMillis the file's mtime, or -1 if unknown
+     * @param mode the file's POSIX permission bits, e.g. {@code 0644}
+     */
+    void visit(String relativeName, File file, long size, long lastModifiedMillis, int mode);
+  }
+
+  /**
+   * Passes each file under root, as {@link #findRelativeFiles(File)} finds them, to {@code
+   * visitor}. Files may be visited concurrently, by the threads which find them. The default
+   * implementation asks about each file separately, in turn, and knows only their modes.
+   */
+  default void walkFiles(File root, FileVisitor visitor) {
+    for (String name : findRelativeFiles(root)) {
+      File file = new File(root, name);
+      visitor.visit(name, file, -1, -1, isExecutable(file) ? 0755 : 0644);
+    }
+  }
+
+  /** Reads the contents of a file, byte for byte. */
+  default byte[] readBytes(File file) throws IOException {
+    return java.nio.file.Files.readAllBytes(file.toPath());
+  }
+
   /**
    * Find the relative names of files under path, if they match the supplied globs and exclusions
    *
@@ -188,6 +245,27 @@ public interface FileSystem {
    */
   public void copyDirectory(File src, File dest) throws IOException;
 
+  /**
+   * Copies {@code src} to {@code dest} like {@link #copyFile}, but possibly by hard-linking it. The
+   * caller must not modify either file in place afterwards, though it may replace or delete them.
+   */
+  default void linkFile(File src, File dest) throws IOException {
+    copyFile(src, dest);
+  }
+
+  /**
+   * Copies the contents of directory {@code src} into {@code dest} like {@link #copyDirectory},
+   * but possibly sharing storage: any file not named in {@code mutableFiles} may be copied with
+   * {@link #linkFile}, rather than byte-for-byte.
+   *
+   * @param mutableFiles the names, relative to {@code src}, of the files the caller may modify in
+   *     place afterwards, or null if it may modify any of them
+   */
+  default void cloneDirectory(File src, File dest, @Nullable Set<String> mutableFiles)
+      throws IOException {
+    copyDirectory(src, dest);
+  }
+
   /** Write contents to File f. */
   public void write(String contents, File f) throws IOException;
 
@@ -29,8 +29,10 @@ import com.google.devtools.moe.client.project.ProjectContextFactory;
 import com.google.devtools.moe.client.qualifiers.Argument;
 import com.google.devtools.moe.client.repositories.MetadataScrubber;
 import com.google.devtools.moe.client.repositories.Repositories;
-import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileMerger;
+import com.google.devtools.moe.client.tools.InProcessFileDiffer;
+import com.google.devtools.moe.client.tools.InProcessFileMerger;
 import com.google.devtools.moe.client.translation.editors.Editors;
 import com.squareup.okhttp.OkHttpClient;
 import dagger.Module;
@@ -87,7 +89,7 @@ public class MoeModule {
 
   @Provides
   @Singleton
-  CommandRunner commandRunner(SystemCommandRunner runner) {
+  CommandRunner commandRunner(StreamingCommandRunner runner) {
     return runner;
   }
 
@@ -99,8 +101,14 @@ public class MoeModule {
 
   @Provides
   @Singleton
-  FileDiffer fileDiffer(ConcreteFileDiffer cfd) {
-    return cfd;
+  FileDiffer fileDiffer(InProcessFileDiffer differ) {
+    return differ;
+  }
+
+  @Provides
+  @Singleton
+  FileMerger fileMerger(InProcessFileMerger merger) {
+    return merger;
   }
 
   @Provides
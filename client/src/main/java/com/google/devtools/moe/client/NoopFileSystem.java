@@ -16,6 +16,7 @@
 
 package com.google.devtools.moe.client;
 
+import com.google.common.collect.ImmutableSet;
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
@@ -49,6 +50,11 @@ public class NoopFileSystem implements FileSystem {
     return null;
   }
 
+  @Override
+  public Set<String> findRelativeFiles(File path) {
+    return ImmutableSet.of();
+  }
+
   @Override
   public File[] listFiles(File path) {
     return null;
@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.moe.client.qualifiers.Argument;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * An implementation of {@link CommandRunner} that drains the output of external programs on
+ * dedicated pump threads, rather than polling the streams.
+ *
+ * <p>Each of stdout and stderr is read in bulk into a growable buffer by its own thread, and the
+ * calling thread simply blocks until the process exits. This avoids both the latency of a polling
+ * loop and the cost of buffering output a byte at a time, and allows stdout to be consumed
+ * incrementally via {@link #runCommandByLine} or {@link #runCommandAsStream}. A synchronous
+ * command which runs past {@code --command_timeout_seconds} is killed, and fails with a {@link
+ * CommandTimeoutException}.
+ *
+ * <p>Commands started with {@link #runCommandAsync} are queued, and run in submission order on
+ * background threads subject to two limits: the number of such commands running at once, and the
+ * number of those running any one binary (so that, say, a burst of {@code git} commands can't
+ * starve a concurrent {@code svn export}).
+ */
+@Singleton
+public class StreamingCommandRunner implements CommandRunner {
+  private static final Logger logger = Logger.getLogger(StreamingCommandRunner.class.getName());
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Pump threads are daemons, so that a wedged child process can't keep MOE alive. */
+  private static final ExecutorService pumps =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-output-pump-%d").build());
+
+  /** Threads which run asynchronous commands, once they are dispatched from the queue. */
+  private static final ExecutorService launchers =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-command-%d").build());
+
+  /** Kills commands which outlive their deadlines. */
+  private static final ScheduledExecutorService watchdog =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-command-watchdog").build());
+
+  private final int maxConcurrentCommands;
+  private final int maxConcurrentCommandsPerBinary;
+  private final int commandTimeoutSeconds;
+  private final CommandStatistics statistics;
+
+  // Guarded by this.
+  private final Deque<ScheduledCommand> queued = new ArrayDeque<>();
+  private final Multiset<String> runningBinaries = HashMultiset.create();
+  private int running = 0;
+
+  /**
+   * Creates a runner which runs up to one asynchronous command per available processor, and
+   * doesn't time out synchronous commands.
+   */
+  public StreamingCommandRunner() {
+    this(Runtime.getRuntime().availableProcessors(), 0);
+  }
+
+  public StreamingCommandRunner(int maxConcurrentCommands, int maxConcurrentCommandsPerBinary) {
+    this(maxConcurrentCommands, maxConcurrentCommandsPerBinary, 0, CommandStatistics.disabled());
+  }
+
+  /**
+   * @param maxConcurrentCommands how many asynchronous commands may run at once
+   * @param maxConcurrentCommandsPerBinary how many asynchronous commands running the same binary
+   *     may run at once, or 0 to apply only the overall limit
+   * @param commandTimeoutSeconds how long a synchronous command may run, or 0 for no deadline
+   * @param statistics where to record the commands run
+   */
+  @Inject
+  public StreamingCommandRunner(
+      @Argument("max_concurrent_commands") int maxConcurrentCommands,
+      @Argument("max_concurrent_commands_per_binary") int maxConcurrentCommandsPerBinary,
+      @Argument("command_timeout_seconds") int commandTimeoutSeconds,
+      CommandStatistics statistics) {
+    checkArgument(maxConcurrentCommands > 0, "max_concurrent_commands must be positive");
+    checkArgument(
+        maxConcurrentCommandsPerBinary >= 0, "max_concurrent_commands_per_binary is negative");
+    checkArgument(commandTimeoutSeconds >= 0, "command_timeout_seconds is negative");
+    this.maxConcurrentCommands = maxConcurrentCommands;
+    this.maxConcurrentCommandsPerBinary =
+        maxConcurrentCommandsPerBinary == 0
+            ? maxConcurrentCommands
+            : Math.min(maxConcurrentCommandsPerBinary, maxConcurrentCommands);
+    this.commandTimeoutSeconds = commandTimeoutSeconds;
+    this.statistics = statistics;
+  }
+
+  @Override
+  public String runCommand(String workingDirectory, String command, List<String> args)
+      throws CommandException {
+    return runCommandWithFullOutput(workingDirectory, command, args).getStdout();
+  }
+
+  @Override
+  public CommandOutput runCommandWithFullOutput(
+      String workingDirectory, String command, List<String> args) throws CommandException {
+    ImmutableList<String> cmdArgs = commandLine(command, args);
+    long startNanos = System.nanoTime();
+    Process p = start(workingDirectory, cmdArgs);
+    Future<byte[]> stdout = pumps.submit(drain(p.getInputStream()));
+    Future<byte[]> stderr = pumps.submit(drain(p.getErrorStream()));
+    AtomicBoolean timedOut = new AtomicBoolean();
+    ScheduledFuture<?> deadline = killAfter(p, commandTimeoutSeconds, TimeUnit.SECONDS, timedOut);
+    int returnStatus;
+    try {
+      returnStatus = waitFor(p, cmdArgs);
+    } finally {
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+    }
+    if (timedOut.get()) {
+      record(command, args, startNanos, 0, 0, true);
+      throw new CommandTimeoutException(command, args, commandTimeoutSeconds, TimeUnit.SECONDS);
+    }
+    byte[] stdoutBytes = collect(stdout, cmdArgs);
+    byte[] stderrBytes = collect(stderr, cmdArgs);
+    record(command, args, startNanos, stdoutBytes.length, stderrBytes.length, returnStatus != 0);
+    String stdoutData = new String(stdoutBytes, UTF_8);
+    String stderrData = new String(stderrBytes, UTF_8);
+    if (returnStatus == 0) {
+      return new CommandOutput(stdoutData, stderrData);
+    }
+    throw new CommandException(command, args, stdoutData, stderrData, returnStatus);
+  }
+
+  @Override
+  public void runCommandByLine(
+      String workingDirectory, String command, List<String> args, Consumer<String> lineHandler)
+      throws CommandException {
+    ImmutableList<String> cmdArgs = commandLine(command, args);
+    long startNanos = System.nanoTime();
+    Process p = start(workingDirectory, cmdArgs);
+    Future<byte[]> stderr = pumps.submit(drain(p.getErrorStream()));
+    AtomicBoolean timedOut = new AtomicBoolean();
+    ScheduledFuture<?> deadline = killAfter(p, commandTimeoutSeconds, TimeUnit.SECONDS, timedOut);
+    CountingInputStream stdout = new CountingInputStream(p.getInputStream());
+    boolean consumed = false;
+    int returnStatus;
+    try {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(stdout, UTF_8), BUFFER_SIZE)) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          lineHandler.accept(line);
+        }
+        consumed = true;
+      } catch (IOException e) {
+        if (!timedOut.get()) {
+          throw new MoeProblem(
+              e, "Cannot read output of process: %s: %s", cmdArgs, e.getMessage());
+        }
+      } finally {
+        if (!consumed) {
+          // The handler threw, so nobody is left to read the output.
+          p.destroy();
+        }
+      }
+      returnStatus = waitFor(p, cmdArgs);
+    } finally {
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+    }
+    if (timedOut.get()) {
+      record(command, args, startNanos, stdout.getCount(), 0, true);
+      throw new CommandTimeoutException(command, args, commandTimeoutSeconds, TimeUnit.SECONDS);
+    }
+    byte[] stderrBytes = collect(stderr, cmdArgs);
+    record(command, args, startNanos, stdout.getCount(), stderrBytes.length, returnStatus != 0);
+    if (returnStatus != 0) {
+      throw new CommandException(
+          command, args, "", new String(stderrBytes, UTF_8), returnStatus);
+    }
+  }
+
+  @Override
+  public InputStream runCommandAsStream(
+      String workingDirectory, String command, List<String> args) {
+    ImmutableList<String> cmdArgs = commandLine(command, args);
+    long startNanos = System.nanoTime();
+    Process p = start(workingDirectory, cmdArgs);
+    Future<byte[]> stderr = pumps.submit(drain(p.getErrorStream()));
+    AtomicBoolean timedOut = new AtomicBoolean();
+    ScheduledFuture<?> deadline = killAfter(p, commandTimeoutSeconds, TimeUnit.SECONDS, timedOut);
+    return new ProcessOutputStream(p, stderr, deadline, timedOut, command, args, startNanos);
+  }
+
+  private void record(
+      String command,
+      List<String> args,
+      long startNanos,
+      long stdoutBytes,
+      long stderrBytes,
+      boolean failed) {
+    statistics.record(
+        command, args, System.nanoTime() - startNanos, stdoutBytes, stderrBytes, failed);
+  }
+
+  @Override
+  public ListenableFuture<CommandOutput> runCommandAsync(
+      String workingDirectory, String command, List<String> args, long timeout, TimeUnit unit) {
+    checkArgument(timeout >= 0, "Negative timeout: %s", timeout);
+    ScheduledCommand scheduled =
+        new ScheduledCommand(workingDirectory, command, ImmutableList.copyOf(args), timeout, unit);
+    synchronized (this) {
+      queued.add(scheduled);
+      dispatch();
+    }
+    return scheduled;
+  }
+
+  /**
+   * Launches queued commands, oldest first, until either the queue or the overall limit is
+   * exhausted. Commands whose binary is at its limit stay queued without blocking the others.
+   */
+  private synchronized void dispatch() {
+    Iterator<ScheduledCommand> commands = queued.iterator();
+    while (running < maxConcurrentCommands && commands.hasNext()) {
+      ScheduledCommand next = commands.next();
+      if (next.isDone()) {
+        commands.remove(); // Cancelled while queued.
+      } else if (runningBinaries.count(next.binary) < maxConcurrentCommandsPerBinary) {
+        commands.remove();
+        running++;
+        runningBinaries.add(next.binary);
+        launchers.execute(next);
+      }
+    }
+  }
+
+  private synchronized void finished(ScheduledCommand command) {
+    running--;
+    runningBinaries.remove(command.binary);
+    dispatch();
+  }
+
+  /**
+   * An asynchronous command, whose future is completed by running it. Cancelling the future kills
+   * the command's process tree if it has started.
+   */
+  private final class ScheduledCommand extends AbstractFuture<CommandOutput> implements Runnable {
+    private final String workingDirectory;
+    private final String command;
+    private final ImmutableList<String> args;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final String binary;
+    private final AtomicBoolean timedOut = new AtomicBoolean();
+    private volatile Process process;
+
+    ScheduledCommand(
+        String workingDirectory,
+        String command,
+        ImmutableList<String> args,
+        long timeout,
+        TimeUnit unit) {
+      this.workingDirectory = workingDirectory;
+      this.command = command;
+      this.args = args;
+      this.timeout = timeout;
+      this.unit = unit;
+      this.binary = new File(command).getName();
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!isDone()) {
+          execute();
+        }
+      } catch (RuntimeException e) {
+        setException(e);
+      } finally {
+        finished(this);
+      }
+    }
+
+    private void execute() {
+      ImmutableList<String> cmdArgs = commandLine(command, args);
+      long startNanos = System.nanoTime();
+      Process p = start(workingDirectory, cmdArgs);
+      process = p;
+      if (isDone()) {
+        destroyProcessTree(p); // Cancelled while starting, so afterDone() missed the process.
+        return;
+      }
+      Future<byte[]> stdout = pumps.submit(drain(p.getInputStream()));
+      Future<byte[]> stderr = pumps.submit(drain(p.getErrorStream()));
+      ScheduledFuture<?> deadline = killAfter(p, timeout, unit, timedOut);
+      int returnStatus;
+      try {
+        returnStatus = waitFor(p, cmdArgs);
+      } finally {
+        if (deadline != null) {
+          deadline.cancel(false);
+        }
+      }
+      // A killed command's output may never be closed by orphaned grandchildren, so don't wait.
+      if (timedOut.get()) {
+        record(command, args, startNanos, 0, 0, true);
+        setException(new CommandTimeoutException(command, args, timeout, unit));
+      } else if (!isDone()) {
+        byte[] stdoutBytes = collect(stdout, cmdArgs);
+        byte[] stderrBytes = collect(stderr, cmdArgs);
+        record(
+            command, args, startNanos, stdoutBytes.length, stderrBytes.length, returnStatus != 0);
+        String stdoutData = new String(stdoutBytes, UTF_8);
+        String stderrData = new String(stderrBytes, UTF_8);
+        if (returnStatus == 0) {
+          set(new CommandOutput(stdoutData, stderrData));
+        } else {
+          setException(
+              new CommandException(command, args, stdoutData, stderrData, returnStatus));
+        }
+      }
+    }
+
+    @Override
+    protected void afterDone() {
+      Process p = process;
+      if (p != null && isCancelled()) {
+        destroyProcessTree(p);
+      }
+    }
+  }
+
+  /**
+   * Schedules {@code process} to be killed, and {@code timedOut} set, once {@code timeout} has
+   * passed. Returns the scheduled kill, or null if {@code timeout} is 0.
+   */
+  private static ScheduledFuture<?> killAfter(
+      Process process, long timeout, TimeUnit unit, AtomicBoolean timedOut) {
+    if (timeout == 0) {
+      return null;
+    }
+    return watchdog.schedule(
+        () -> {
+          timedOut.set(true);
+          destroyProcessTree(process);
+        },
+        timeout,
+        unit);
+  }
+
+  /**
+   * Forcibly kills a process and, where the JVM can enumerate them (Java 9 and later), all of its
+   * descendants. Descendants are listed before anything is killed, since they are reparented once
+   * their parent dies.
+   */
+  private static void destroyProcessTree(Process process) {
+    try {
+      Method descendants = Process.class.getMethod("descendants");
+      Method destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+      List<?> handles = ((Stream<?>) descendants.invoke(process)).collect(Collectors.toList());
+      process.destroyForcibly();
+      for (Object handle : handles) {
+        destroy.invoke(handle);
+      }
+    } catch (NoSuchMethodException | ClassNotFoundException e) {
+      process.destroyForcibly(); // Java 8 can only kill the direct child.
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.log(Level.WARNING, "Could not kill the descendants of a process", e);
+      process.destroyForcibly();
+    }
+  }
+
+  private static ImmutableList<String> commandLine(String command, List<String> args) {
+    return new ImmutableList.Builder<String>().add(command).addAll(args).build();
+  }
+
+  private static Process start(String workingDirectory, ImmutableList<String> cmdArgs) {
+    logger.fine(workingDirectory + " $ " + Joiner.on(" ").join(cmdArgs));
+
+    ProcessBuilder pb = new ProcessBuilder(cmdArgs);
+    if (!Strings.isNullOrEmpty(workingDirectory)) {
+      pb.directory(new File(workingDirectory));
+    }
+    try {
+      Process p = pb.start();
+      p.getOutputStream().close();
+      return p;
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Cannot run process: %s: %s", cmdArgs, e.getMessage());
+    }
+  }
+
+  private static int waitFor(Process p, ImmutableList<String> cmdArgs) {
+    try {
+      return p.waitFor();
+    } catch (InterruptedException e) {
+      p.destroy();
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted while running process: %s", cmdArgs);
+    }
+  }
+
+  /** Returns a task which reads {@code stream} to exhaustion, returning everything it read. */
+  private static Callable<byte[]> drain(InputStream stream) {
+    return () -> {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+      byte[] chunk = new byte[BUFFER_SIZE];
+      try (InputStream in = stream) {
+        for (int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+          buffer.write(chunk, 0, read);
+        }
+      }
+      return buffer.toByteArray();
+    };
+  }
+
+  private static byte[] collect(Future<byte[]> pumped, ImmutableList<String> cmdArgs) {
+    try {
+      return pumped.get();
+    } catch (ExecutionException e) {
+      throw new MoeProblem(
+          e.getCause(), "Cannot read output of process: %s: %s", cmdArgs, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted while reading output of process: %s", cmdArgs);
+    }
+  }
+
+  /**
+   * The stdout of a running process. Closing it reaps the process, reporting a non-zero exit
+   * status as an {@link IOException} caused by a {@link CommandException}, or by a {@link
+   * CommandTimeoutException} if the process was killed at its deadline. Closing it before the end
+   * of the output is reached kills the process instead, since the caller has no further interest
+   * in it.
+   */
+  private class ProcessOutputStream extends FilterInputStream {
+    private final Process process;
+    private final Future<byte[]> stderr;
+    private final ScheduledFuture<?> deadline;
+    private final AtomicBoolean timedOut;
+    private final String command;
+    private final List<String> args;
+    private final long startNanos;
+    private long bytesRead = 0;
+    private boolean exhausted = false;
+    private boolean closed = false;
+
+    ProcessOutputStream(
+        Process process,
+        Future<byte[]> stderr,
+        ScheduledFuture<?> deadline,
+        AtomicBoolean timedOut,
+        String command,
+        List<String> args,
+        long startNanos) {
+      super(process.getInputStream());
+      this.process = process;
+      this.stderr = stderr;
+      this.deadline = deadline;
+      this.timedOut = timedOut;
+      this.command = command;
+      this.args = args;
+      this.startNanos = startNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      exhausted |= b == -1;
+      bytesRead += b == -1 ? 0 : 1;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      exhausted |= read == -1;
+      bytesRead += Math.max(read, 0);
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (!exhausted) {
+        process.destroy();
+      }
+      super.close();
+      ImmutableList<String> cmdArgs = commandLine(command, args);
+      int returnStatus;
+      try {
+        returnStatus = waitFor(process, cmdArgs);
+      } finally {
+        if (deadline != null) {
+          deadline.cancel(false);
+        }
+      }
+      if (timedOut.get()) {
+        record(command, args, startNanos, bytesRead, 0, true);
+        throw new IOException(
+            new CommandTimeoutException(command, args, commandTimeoutSeconds, TimeUnit.SECONDS));
+      }
+      if (!exhausted) {
+        record(command, args, startNanos, bytesRead, 0, false);
+        return;
+      }
+      byte[] stderrBytes = collect(stderr, cmdArgs);
+      record(command, args, startNanos, bytesRead, stderrBytes.length, returnStatus != 0);
+      if (returnStatus != 0) {
+        String stderrData = new String(stderrBytes, UTF_8);
+        throw new IOException(new CommandException(command, args, "", stderrData, returnStatus));
+      }
+    }
+  }
+}
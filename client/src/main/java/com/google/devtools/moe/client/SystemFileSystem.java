@@ -17,39 +17,99 @@
 package com.google.devtools.moe.client;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.readAttributes;
 import static java.nio.file.Files.walkFileTree;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.qualifiers.Flag;
 import dagger.Binds;
 import dagger.Lazy;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
 import java.nio.file.FileVisitResult;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /** A {@link FileSystem} using the real local filesystem via operations in {@link File}. */
 @Singleton
 public class SystemFileSystem extends AbstractFileSystem {
+  private static final Logger logger = Logger.getLogger(SystemFileSystem.class.getName());
+
+  /** Lists directories in parallel when finding files. */
+  private static final ForkJoinPool directoryListers =
+      WorkerPools.withParallelism(WorkerPools.IO_BOUND_PARALLELISM);
+
   private final Map<File, Lifetime> tempDirLifetimes = Maps.newHashMap();
+  /** The inverse of {@link #tempDirLifetimes}. Lifetimes are grouped by identity. */
+  private final SetMultimap<Lifetime, File> tempDirsByLifetime = LinkedHashMultimap.create();
+
+  /** Resources to close when their temp dirs are cleaned up. Guarded by itself. */
+  private final SetMultimap<File, Closeable> tempDirResources = LinkedHashMultimap.create();
+
+  /** Deletes reaped temp dirs without holding up MOE's main thread. */
+  private final Executor reaper =
+      Executors.newFixedThreadPool(
+          2,
+          new ThreadFactoryBuilder()
+              .setNameFormat("moe-temp-reaper-%d")
+              .setDaemon(true)
+              .setPriority(Thread.MIN_PRIORITY)
+              .build());
+
+  // Guarded by this.
+  private Path trash;
+  private int pendingDeletions;
+  private final List<IOException> deletionFailures = new ArrayList<>();
+
+  /**
+   * Whether directories can be reflinked from one file store (the first element of a key) to
+   * another (the second), as learned by trying it.
+   */
+  private final Map<List<FileStore>, Boolean> reflinkSupport = new ConcurrentHashMap<>();
+
   @Inject Lazy<Lifetimes> lifetimes;
 
+  /** Runs {@code cp} for reflinking; tests which don't inject this get an unlimited runner. */
+  @Inject Lazy<CommandRunner> cmd = StreamingCommandRunner::new;
+
   @Inject
   @Flag("debug")
   Lazy<Boolean> debug = () -> false;
@@ -72,20 +132,131 @@ public class SystemFileSystem extends AbstractFileSystem {
       throw new MoeProblem(e, "could not create temp file");
     }
     tempDirLifetimes.put(tempDir, lifetime);
+    tempDirsByLifetime.put(lifetime, tempDir);
     return tempDir;
   }
 
+  /**
+   * Cleans up temp dirs whose lifetime has expired, checking each distinct lifetime (i.e. each
+   * Task on the stack) once rather than each temp dir. Directories are only moved aside here; they
+   * are deleted in the background, and {@link #awaitCleanUp()} waits for that to finish.
+   */
   @Override
   public void cleanUpTempDirs() throws IOException {
-    Iterator<Entry<File, Lifetime>> tempDirIterator = tempDirLifetimes.entrySet().iterator();
-    if (!debug.get()) {
-      while (tempDirIterator.hasNext()) {
-        Entry<File, Lifetime> entry = tempDirIterator.next();
-        if (entry.getValue().shouldCleanUp()) {
-          deleteRecursively(entry.getKey());
-          tempDirIterator.remove();
+    if (debug.get()) {
+      return;
+    }
+    List<Lifetime> expired = new ArrayList<>();
+    for (Lifetime lifetime : tempDirsByLifetime.keySet()) {
+      if (lifetime.shouldCleanUp()) {
+        expired.add(lifetime);
+      }
+    }
+    for (Lifetime lifetime : expired) {
+      for (File tempDir : ImmutableList.copyOf(tempDirsByLifetime.get(lifetime))) {
+        closeResources(tempDir);
+        reap(tempDir);
+        tempDirsByLifetime.remove(lifetime, tempDir);
+        tempDirLifetimes.remove(tempDir);
+      }
+    }
+  }
+
+  @Override
+  public void closeWithTempDir(File path, Closeable resource) {
+    Preconditions.checkState(
+        tempDirLifetimes.containsKey(path), "Trying to close with an unknown path: %s", path);
+    synchronized (tempDirResources) {
+      tempDirResources.put(path, resource);
+    }
+  }
+
+  /** Closes the resources working in a temp dir, before it's deleted from under them. */
+  private void closeResources(File tempDir) {
+    Set<Closeable> resources;
+    synchronized (tempDirResources) {
+      resources = tempDirResources.removeAll(tempDir);
+    }
+    for (Closeable resource : resources) {
+      try {
+        resource.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not close " + resource + " in " + tempDir, e);
+      }
+    }
+  }
+
+  /**
+   * Renames a temp dir into the trash directory, and deletes it from there in the background. If
+   * it can't be renamed, it is deleted in place.
+   */
+  private void reap(File tempDir) throws IOException {
+    Path path = tempDir.toPath();
+    if (!java.nio.file.Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      return; // Never created.
+    }
+    Path doomed;
+    try {
+      doomed = trash().resolve(path.getFileName());
+      java.nio.file.Files.move(path, doomed, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      deleteRecursively(path);
+      return;
+    }
+    synchronized (this) {
+      pendingDeletions++;
+    }
+    reaper.execute(
+        () -> {
+          try {
+            deleteRecursively(doomed);
+          } catch (IOException e) {
+            synchronized (this) {
+              deletionFailures.add(e);
+            }
+          } finally {
+            synchronized (this) {
+              pendingDeletions--;
+              notifyAll();
+            }
+          }
+        });
+  }
+
+  /**
+   * Returns a directory into which temp dirs are moved for deletion. It's made in the same
+   * directory as the temp dirs, so that moving them is a rename.
+   */
+  private synchronized Path trash() throws IOException {
+    if (trash == null) {
+      trash = java.nio.file.Files.createTempDirectory("moe_trash_");
+    }
+    return trash;
+  }
+
+  @Override
+  public void awaitCleanUp() throws IOException {
+    List<IOException> failures;
+    synchronized (this) {
+      try {
+        while (pendingDeletions > 0) {
+          wait();
         }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted awaiting deletion of temp dirs");
       }
+      failures = new ArrayList<>(deletionFailures);
+      deletionFailures.clear();
+      if (trash != null) {
+        java.nio.file.Files.deleteIfExists(trash);
+        trash = null;
+      }
+    }
+    if (!failures.isEmpty()) {
+      IOException failure = new IOException("Errors deleting temp dirs");
+      failures.forEach(failure::addSuppressed);
+      throw failure;
     }
   }
 
@@ -95,7 +266,8 @@ public class SystemFileSystem extends AbstractFileSystem {
         tempDirLifetimes.containsKey(path),
         "Trying to set the Lifetime for an unknown path: %s",
         path);
-    tempDirLifetimes.put(path, lifetime);
+    tempDirsByLifetime.remove(tempDirLifetimes.put(path, lifetime), path);
+    tempDirsByLifetime.put(lifetime, path);
   }
 
   /**
@@ -104,23 +276,114 @@ public class SystemFileSystem extends AbstractFileSystem {
   @Override
   public Set<File> findFiles(File path) {
     Set<File> result = Sets.newHashSet();
-    findFilesRecursiveHelper(path, result);
+    if (path.isFile()) {
+      result.add(path);
+      return result;
+    }
+    for (String relativeName : findRelativeFiles(path)) {
+      result.add(new File(path, relativeName));
+    }
     return result;
   }
 
-  void findFilesRecursiveHelper(File f, Set<File> result) {
-    if (f.exists() && f.isFile()) {
-      result.add(f);
-      return;
-    }
+  /**
+   * Find the names, relative to path, of files under path.
+   *
+   * <p>Each directory is listed by its own fork-join task, reading the attributes of each entry
+   * once. As with {@link File#isFile()}, symbolic links are followed, and anything which is neither
+   * a file nor a directory (e.g. a dangling link) is skipped.
+   */
+  @Override
+  public ImmutableSortedSet<String> findRelativeFiles(File path) {
+    Queue<String> found = new ConcurrentLinkedQueue<>();
+    directoryListers.invoke(
+        new ListDirectoryTask(
+            path.toPath(), "", BasicFileAttributes.class, (name, entry, attrs) -> found.add(name)));
+    return ImmutableSortedSet.copyOf(found);
+  }
 
-    for (File subFile : nullSafeArray(f.listFiles())) {
-      findFilesRecursiveHelper(subFile, result);
+  /**
+   * Walks the files under root, as {@link #findRelativeFiles(File)} finds them, reading the
+   * attributes of each file in the same call which finds it. Each file is visited by the task that
+   * finds it, so anything the visitor reads is read in parallel.
+   */
+  @Override
+  public void walkFiles(File root, FileVisitor visitor) {
+    boolean posix = root.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+    directoryListers.invoke(
+        new ListDirectoryTask(
+            root.toPath(),
+            "",
+            posix ? PosixFileAttributes.class : BasicFileAttributes.class,
+            (name, entry, attrs) -> {
+              int mode =
+                  (attrs instanceof PosixFileAttributes)
+                      ? toMode(((PosixFileAttributes) attrs).permissions())
+                      : (java.nio.file.Files.isExecutable(entry) ? 0755 : 0644);
+              visitor.visit(
+                  name, entry.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis(), mode);
+            }));
+  }
+
+  private static int toMode(Set<PosixFilePermission> permissions) {
+    int mode = 0;
+    // PosixFilePermission's constants run from OWNER_READ (0400) to OTHERS_EXECUTE (01).
+    for (PosixFilePermission permission : permissions) {
+      mode |= 0400 >> permission.ordinal();
     }
+    return mode;
   }
 
-  private File[] nullSafeArray(File[] array) {
-    return array == null ? new File[0] : array;
+  /** Receives each file found by a {@link ListDirectoryTask}. */
+  private interface FoundFile {
+    void accept(String relativeName, Path entry, BasicFileAttributes attributes);
+  }
+
+  /** Lists a directory, and then its subdirectories in parallel. */
+  private static class ListDirectoryTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path directory;
+    private final String relativePrefix;
+    private final Class<? extends BasicFileAttributes> attributesType;
+    private final FoundFile found;
+
+    ListDirectoryTask(
+        Path directory,
+        String relativePrefix,
+        Class<? extends BasicFileAttributes> attributesType,
+        FoundFile found) {
+      this.directory = directory;
+      this.relativePrefix = relativePrefix;
+      this.attributesType = attributesType;
+      this.found = found;
+    }
+
+    @Override
+    protected void compute() {
+      List<ListDirectoryTask> subdirectories = new ArrayList<>();
+      try (DirectoryStream<Path> entries = newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = readAttributes(entry, attributesType);
+          } catch (IOException e) {
+            continue; // A dangling link, or deleted since the listing.
+          }
+          String relativeName = relativePrefix + entry.getFileName();
+          if (attributes.isRegularFile()) {
+            found.accept(relativeName, entry, attributes);
+          } else if (attributes.isDirectory()) {
+            subdirectories.add(
+                new ListDirectoryTask(
+                    entry, relativeName + File.separator, attributesType, found));
+          }
+        }
+      } catch (IOException e) {
+        return; // Like File.listFiles(), treat a missing or unreadable directory as empty.
+      }
+      invokeAll(subdirectories);
+    }
   }
 
   @Override
@@ -184,6 +447,107 @@ public class SystemFileSystem extends AbstractFileSystem {
     dest.setExecutable(src.canExecute(), false);
   }
 
+  /**
+   * Hard-links {@code dest} to {@code src}, or copies it if that's not possible, e.g. across file
+   * systems. Symbolic links are always copied, so that {@code dest} gets the contents of their
+   * target.
+   */
+  @Override
+  public void linkFile(File src, File dest) throws IOException {
+    if (!java.nio.file.Files.isSymbolicLink(src.toPath())) {
+      try {
+        java.nio.file.Files.deleteIfExists(dest.toPath());
+        java.nio.file.Files.createLink(dest.toPath(), src.toPath());
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        // Fall back to copying.
+      }
+    }
+    copyFile(src, dest);
+  }
+
+  /**
+   * Clones a directory by reflinking where the file system supports it (see {@link
+   * #reflinkDirectory}), which makes independent copies, or else by hard-linking the files which
+   * won't be modified and copying the rest.
+   */
+  @Override
+  public void cloneDirectory(File src, File dest, @Nullable Set<String> mutableFiles)
+      throws IOException {
+    if (src != null && src.isDirectory() && reflinkDirectory(src, dest)) {
+      return;
+    }
+    super.cloneDirectory(src, dest, mutableFiles);
+  }
+
+  /**
+   * Tries to copy the contents of directory {@code src} into {@code dest} by cloning each file
+   * copy-on-write (e.g. with Linux's {@code FICLONE} ioctl), so that the copies share storage until
+   * one is modified. The JDK has no API for this, so it runs {@code cp --reflink=always} once for
+   * the whole tree. Copies are made writable by their owner, as their source may be read-only
+   * (e.g. files materialized from a blob store) while copies may be modified.
+   *
+   * @return whether all files were reflinked; if not, {@code dest} may be partially populated
+   */
+  private boolean reflinkDirectory(File src, File dest) throws IOException {
+    makeDirsForFile(dest);
+    List<FileStore> stores =
+        ImmutableList.of(
+            java.nio.file.Files.getFileStore(src.toPath()),
+            java.nio.file.Files.getFileStore(dest.getAbsoluteFile().getParentFile().toPath()));
+    if (Boolean.FALSE.equals(reflinkSupport.get(stores))) {
+      return false;
+    }
+    boolean reflinked;
+    try {
+      cmd.get()
+          .runCommand(
+              "",
+              "cp",
+              ImmutableList.of(
+                  "-R", "-L", "--reflink=always", src.getPath() + "/.", dest.getPath()));
+      reflinked = true;
+    } catch (CommandException e) {
+      reflinked = false;
+    }
+    // A failure after an earlier success means something other than missing support went wrong.
+    if (reflinkSupport.putIfAbsent(stores, reflinked) == null && !reflinked) {
+      logger.fine("Cannot reflink from " + stores.get(0) + " to " + stores.get(1));
+    }
+    if (reflinked) {
+      makeOwnerWritable(dest.toPath());
+    }
+    return reflinked;
+  }
+
+  /** Adds owner write permission to every file and directory under {@code root}. */
+  private static void makeOwnerWritable(Path root) throws IOException {
+    walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            addOwnerWrite(dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            addOwnerWrite(file);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void addOwnerWrite(Path path) throws IOException {
+    Set<PosixFilePermission> permissions = java.nio.file.Files.getPosixFilePermissions(path);
+    if (permissions.add(PosixFilePermission.OWNER_WRITE)) {
+      java.nio.file.Files.setPosixFilePermissions(path, permissions);
+    }
+  }
+
   @Override
   public void write(String contents, File f) throws IOException {
     Files.write(contents, f, UTF_8);
@@ -58,6 +58,7 @@ public class Ui {
   private final PrintStream out;
   private final Deque<Task> tasks;
   private final boolean shouldTrace;
+  private final Lifetime moeExecutionLifetime = new MoeExecutionLifetime();
 
   // We store the task that is the current output, if any, so that we can special case a Task that
   // is popped right after it is pushed. In this case, we can output: "Doing...Done" on one line.
@@ -105,11 +106,14 @@ public class Ui {
     currentOutput = null;
   }
 
+  private String indentation() {
+    return this.shouldTrace
+        ? repeat("  ", tasks.size()) // use all tasks, including trace tasks.
+        : repeat("  ", (int) tasks.stream().filter(t -> !t.traceOnly).count());
+  }
+
   private String indent(CharSequence msg) {
-    String indentation =
-        this.shouldTrace
-            ? repeat("  ", tasks.size()) // use all tasks, including trace tasks.
-            : repeat("  ", (int) tasks.stream().filter(t -> !t.traceOnly).count());
+    String indentation = indentation();
     return indentation + Joiner.on("\n" + indentation).join(Splitter.on('\n').split(msg));
   }
 
@@ -118,6 +122,57 @@ public class Ui {
     out.println(indent(String.format(msg, args)));
   }
 
+  /**
+   * Returns an Appendable which prints a message as it's appended, indented as {@link #message}
+   * indents it, for messages too long to build up before printing. The message should end with a
+   * newline, and nothing else should be printed until it's complete.
+   */
+  public Appendable messageStream() {
+    clearOutput();
+    return new IndentingAppendable(indentation());
+  }
+
+  /** Prints what's appended to it, starting each line with an indentation. */
+  private class IndentingAppendable implements Appendable {
+    private final String indentation;
+    private boolean atLineStart = true;
+
+    IndentingAppendable(String indentation) {
+      this.indentation = indentation;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      // Print a line at a time, rather than a character at a time.
+      for (int lineStart = start; lineStart < end; ) {
+        int lineEnd = lineStart;
+        while (lineEnd < end && csq.charAt(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        if (lineEnd < end) {
+          lineEnd++; // Include the newline.
+        }
+        if (atLineStart) {
+          out.print(indentation);
+        }
+        out.append(csq, lineStart, lineEnd);
+        atLineStart = csq.charAt(lineEnd - 1) == '\n';
+        lineStart = lineEnd;
+      }
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return append(String.valueOf(c));
+    }
+  }
+
   public static class Task implements Closeable {
     public final Ui ui;
     public final String taskName;
@@ -126,10 +181,13 @@ public class Ui {
     public final DateTime start = DateTime.now();
     public final StringBuilder result = new StringBuilder();
     private final List<File> kept = new ArrayList<>();
+    /** The lifetime of temp dirs created within this task, shared so that they're grouped. */
+    private final Lifetime lifetime;
 
     Task(Ui ui, String taskName, boolean traceOnly, String descriptionFormat, Object... args) {
       ui.tasks.push(this);
       this.ui = ui;
+      this.lifetime = new TaskLifetime(this, ui);
       this.taskName = taskName;
       this.traceOnly = traceOnly;
       this.description = String.format(descriptionFormat, args);
@@ -234,7 +292,7 @@ public class Ui {
           newLifetime = Lifetimes.persistent();
         } else {
           Task parentTask = Iterables.get(ui.tasks, 1);
-          newLifetime = new TaskLifetime(parentTask, ui);
+          newLifetime = parentTask.lifetime;
         }
         ui.fileSystem.setLifetime(toKeep, newLifetime);
       }
@@ -304,11 +362,11 @@ public class Ui {
 
   Lifetime currentTaskLifetime() {
     Preconditions.checkState(!tasks.isEmpty());
-    return new TaskLifetime(tasks.peek(), this);
+    return tasks.peek().lifetime;
   }
 
   Lifetime moeExecutionLifetime() {
-    return new MoeExecutionLifetime();
+    return moeExecutionLifetime;
   }
 
   /**
@@ -61,11 +61,13 @@ public class Utils {
 
   public static Set<String> makeFilenamesRelative(Set<File> files, File basePath) {
     Set<String> result = Sets.newLinkedHashSet();
+    String baseAbsolutePath = basePath.getAbsolutePath();
     for (File f : files) {
-      if (!f.getAbsolutePath().startsWith(basePath.getAbsolutePath())) {
+      String absolutePath = f.getAbsolutePath();
+      if (!absolutePath.startsWith(baseAbsolutePath)) {
         throw new MoeProblem("File %s is under %s but does not begin with it", f, basePath);
       }
-      result.add(f.getAbsolutePath().substring(basePath.getAbsolutePath().length() + 1));
+      result.add(absolutePath.substring(baseAbsolutePath.length() + 1));
     }
     return ImmutableSet.copyOf(result);
   }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The fork-join pools on which MOE does work in parallel, such as listing directories and diffing
+ * or merging files.
+ *
+ * <p>Pools are shared across the process, one per level of parallelism, rather than created by
+ * each object which uses one; so however many differs or mergers are created, there are only as
+ * many pools as distinct {@code --diff_threads} and {@code --merge_threads} settings. Like the
+ * common pool, their workers are daemon threads which retire once idle, so the pools live as long
+ * as MOE does and are never shut down. Unlike it, work in them can't starve, or be starved by,
+ * unrelated uses of parallel streams.
+ */
+public final class WorkerPools {
+  /**
+   * The parallelism for I/O-bound work. Such work spends much of its time waiting on the disk, so
+   * this uses more threads than there are processors.
+   */
+  public static final int IO_BOUND_PARALLELISM =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /** The parallelism for CPU-bound work: one thread per processor. */
+  public static final int CPU_BOUND_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  private static final ConcurrentMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+  /** Returns the shared pool with the given parallelism, creating it on first use. */
+  public static ForkJoinPool withParallelism(int parallelism) {
+    checkArgument(parallelism > 0, "Parallelism must be positive: %s", parallelism);
+    return pools.computeIfAbsent(parallelism, WorkerPools::create);
+  }
+
+  private static ForkJoinPool create(int parallelism) {
+    return new ForkJoinPool(
+        parallelism,
+        pool -> {
+          ForkJoinWorkerThread worker =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+          worker.setName("moe-worker-" + parallelism + "-" + worker.getPoolIndex());
+          worker.setDaemon(true);
+          return worker;
+        },
+        null,
+        false);
+  }
+
+  private WorkerPools() {}
+}
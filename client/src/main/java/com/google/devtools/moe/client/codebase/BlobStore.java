@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.qualifiers.Argument;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A content-addressed store of file contents, so that a file which appears in many codebases (e.g.
+ * in successive revisions of a repository) is stored once, and hard-linked into each of them.
+ *
+ * <p>Contents are named by their git blob hash, so that a git tree can be checked against the
+ * store without reading any of its files. Since materialized files may be links to the store (see
+ * {@link FileSystem#linkFile}), they must never be modified in place. To enforce that, the store's
+ * files are read-only, and one found writable is rehashed before it is used again.
+ *
+ * <p>The store lasts for the length of a run, unless a directory is given with {@code
+ * --blob_store}, in which case it is shared with later (and concurrent) runs. Nothing is ever
+ * evicted from that directory, but it may be deleted whenever MOE isn't running.
+ */
+@Singleton
+public class BlobStore {
+  private static final Logger logger = Logger.getLogger(BlobStore.class.getName());
+  private static final Pattern HASH = Pattern.compile("[0-9a-f]{40}");
+  private static final EnumSet<PosixFilePermission> WRITE_PERMISSIONS =
+      EnumSet.of(
+          PosixFilePermission.OWNER_WRITE,
+          PosixFilePermission.GROUP_WRITE,
+          PosixFilePermission.OTHERS_WRITE);
+
+  private final FileSystem filesystem;
+  private final Supplier<Path> directory;
+
+  @Inject
+  BlobStore(
+      FileSystem filesystem,
+      Lifetimes lifetimes,
+      @Nullable @Argument("blob_store") String directory) {
+    this.filesystem = filesystem;
+    this.directory =
+        Strings.isNullOrEmpty(directory)
+            ? Suppliers.memoize(
+                () ->
+                    filesystem
+                        .getTemporaryDirectory("blob_store_", lifetimes.moeExecution())
+                        .toPath())
+            : Suppliers.ofInstance(new File(directory).toPath());
+  }
+
+  /** Creates a store in the given directory. */
+  public BlobStore(FileSystem filesystem, File directory) {
+    this.filesystem = filesystem;
+    this.directory = Suppliers.ofInstance(directory.toPath());
+  }
+
+  /** Returns the hash naming the given contents, the same as git's for a blob of them. */
+  public static String hash(byte[] content) {
+    MessageDigest sha1;
+    try {
+      sha1 = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("Every JRE supports SHA-1", e);
+    }
+    sha1.update(("blob " + content.length + "\0").getBytes(UTF_8));
+    return BaseEncoding.base16().lowerCase().encode(sha1.digest(content));
+  }
+
+  /** Returns whether the contents named by {@code hash} are in the store, intact. */
+  public boolean contains(String hash) throws IOException {
+    return HASH.matcher(hash).matches() && isIntact(blob(hash, false), hash);
+  }
+
+  /** Adds the given contents to the store, if they're not already there, returning their hash. */
+  public String put(byte[] content) throws IOException {
+    String hash = hash(content);
+    Path blob = blob(hash, false);
+    if (!isIntact(blob, hash)) {
+      write(blob, content, false);
+    }
+    return hash;
+  }
+
+  /**
+   * Creates {@code dest} with the contents named by {@code hash}, which must be in the store.
+   *
+   * @param executable whether the file should be executable; as hard links share their mode,
+   *     executable and non-executable files link to separate copies of the contents
+   */
+  public void materialize(String hash, boolean executable, File dest) throws IOException {
+    if (!contains(hash)) {
+      throw new NoSuchFileException(blob(hash, false).toString(), null, "No such blob");
+    }
+    Path blob = blob(hash, executable);
+    if (executable && !isIntact(blob, hash)) {
+      write(blob, Files.readAllBytes(blob(hash, false)), true);
+    }
+    filesystem.makeDirsForFile(dest);
+    filesystem.linkFile(blob.toFile(), dest);
+  }
+
+  private Path blob(String hash, boolean executable) {
+    // Fan out by the first byte, as git does, to keep directories small.
+    return directory
+        .get()
+        .resolve(hash.substring(0, 2))
+        .resolve(hash.substring(2) + (executable ? ".x" : ""));
+  }
+
+  /**
+   * Returns whether {@code blob} exists and holds the contents named by {@code hash}. Blobs are
+   * written read-only, so one which has since become writable may have been modified through a
+   * link: it is rehashed, and deleted if its contents have changed.
+   */
+  private static boolean isIntact(Path blob, String hash) throws IOException {
+    if (!Files.exists(blob)) {
+      return false;
+    }
+    if (!isWritable(blob)) {
+      return true;
+    }
+    if (hash(Files.readAllBytes(blob)).equals(hash)) {
+      blob.toFile().setWritable(false, false);
+      return true;
+    }
+    logger.warning("Discarding modified blob " + blob);
+    Files.deleteIfExists(blob);
+    return false;
+  }
+
+  /** Returns whether anyone has write permission on {@code blob}, whoever is running MOE. */
+  private static boolean isWritable(Path blob) throws IOException {
+    try {
+      return Files.getPosixFilePermissions(blob).stream().anyMatch(WRITE_PERMISSIONS::contains);
+    } catch (UnsupportedOperationException e) {
+      return Files.isWritable(blob);
+    }
+  }
+
+  private static void write(Path blob, byte[] content, boolean executable) throws IOException {
+    Files.createDirectories(blob.getParent());
+    // Write and rename, so that concurrent runs never see a partial blob.
+    Path temp = Files.createTempFile(blob.getParent(), ".", ".tmp");
+    Files.write(temp, content);
+    temp.toFile().setReadable(true, false);
+    temp.toFile().setExecutable(executable, false);
+    temp.toFile().setWritable(false, false);
+    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -25,6 +25,7 @@ import com.google.devtools.moe.client.codebase.expressions.Expression;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.Collection;
+import javax.annotation.Nullable;
 
 /**
  * A Codebase is a set of Files and their contents.
@@ -34,17 +35,38 @@ import java.util.Collection;
  */
 @AutoValue
 public abstract class Codebase implements Keepable<Codebase> {
-  public abstract File path();
+  /**
+   * The directory where this codebase lives, which for a {@link CodebaseLayer} may not yet hold
+   * all of its files, or exist at all. Use {@link #path} to read its files.
+   */
+  public abstract File directory();
+
+  /**
+   * Returns the directory where this codebase lives, first writing out its files, if it's a
+   * {@link CodebaseLayer} which hasn't been written out yet.
+   */
+  public File path() {
+    CodebaseLayer layer = layer();
+    if (layer != null) {
+      layer.flatten(directory());
+    }
+    return directory();
+  }
 
   @Override
   public Collection<Path> toKeep() {
-    return asList(path().toPath());
+    CodebaseLayer layer = layer();
+    return layer == null ? asList(directory().toPath()) : layer.toKeep(directory());
   }
 
   public abstract String projectSpace();
 
   public abstract Expression expression();
 
+  /** The layer of files this codebase was made from, if it was, and may not be written out. */
+  @Nullable
+  abstract CodebaseLayer layer();
+
   /**
    * Constructs the Codebase.
    *
@@ -58,7 +80,12 @@ public abstract class Codebase implements Keepable<Codebase> {
    *     Codebase.
    */
   public static Codebase create(File path, String projectSpace, Expression expression) {
-    return new AutoValue_Codebase(path, projectSpace, expression);
+    return create(path, projectSpace, expression, null);
+  }
+
+  static Codebase create(
+      File path, String projectSpace, Expression expression, @Nullable CodebaseLayer layer) {
+    return new AutoValue_Codebase(path, projectSpace, expression, layer);
   }
 
   @Override
@@ -73,12 +100,12 @@ public abstract class Codebase implements Keepable<Codebase> {
    */
   @Override
   public boolean equals(Object other) {
-    return other instanceof Codebase && path().equals(((Codebase) other).path());
+    return other instanceof Codebase && directory().equals(((Codebase) other).directory());
   }
 
   @Override
   public int hashCode() {
-    return path().hashCode();
+    return directory().hashCode();
   }
 
   /**
@@ -109,7 +136,7 @@ public abstract class Codebase implements Keepable<Codebase> {
    * or translating by "imprinting" them with the EditExpression or TranslateExpression.
    */
   public Codebase copyWithExpression(Expression newExpression) {
-    return Codebase.create(path(), projectSpace(), newExpression);
+    return create(directory(), projectSpace(), newExpression, layer());
   }
 
   /**
@@ -118,6 +145,6 @@ public abstract class Codebase implements Keepable<Codebase> {
    * space it was translated to.
    */
   public Codebase copyWithProjectSpace(String newProjectSpace) {
-    return Codebase.create(path(), newProjectSpace, expression());
+    return create(directory(), newProjectSpace, expression(), layer());
   }
 }
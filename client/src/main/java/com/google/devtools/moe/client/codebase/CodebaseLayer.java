@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The files of a {@link Codebase} which an editor made by changing some of another codebase's
+ * files, where its directory holds only the files the editor added or changed, and the rest are
+ * still those of its input. Chained editors thus each write only what they change, however large
+ * the codebase. The directory is filled in, by linking the input's files into it, only when
+ * something asks for the codebase's {@link Codebase#path}, e.g. to run an external editor or
+ * writer on it; editors which can work from {@link #files} alone avoid that.
+ */
+public final class CodebaseLayer {
+  private final FileSystem filesystem;
+  private final Codebase input;
+  private final ImmutableSortedMap<String, File> files;
+  private boolean flattened;
+
+  private CodebaseLayer(FileSystem filesystem, Codebase input, Map<String, File> files) {
+    this.filesystem = filesystem;
+    this.input = input;
+    this.files = ImmutableSortedMap.copyOf(files);
+  }
+
+  /**
+   * Creates a codebase which is a layer over the input codebase, in the input's project space and
+   * with its expression, as editors' results are.
+   *
+   * @param directory the codebase's directory, which may already hold some of its files
+   * @param files the codebase's files, by name relative to its directory: each a file in the
+   *     directory, or one of the input's {@link #files}
+   */
+  public static Codebase create(
+      FileSystem filesystem, Codebase input, File directory, Map<String, File> files) {
+    return Codebase.create(
+        directory,
+        input.projectSpace(),
+        input.expression(),
+        new CodebaseLayer(filesystem, input, files));
+  }
+
+  /**
+   * Returns the files of a codebase, by name relative to its directory, each mapped to a file with
+   * its contents and mode. The files of a layer aren't necessarily in its directory, and may not
+   * be modified, but may be linked or copied to somewhere that is.
+   */
+  public static ImmutableSortedMap<String, File> files(Codebase codebase, FileSystem filesystem) {
+    CodebaseLayer layer = codebase.layer();
+    if (layer != null) {
+      return layer.files;
+    }
+    File root = codebase.path();
+    ImmutableSortedMap.Builder<String, File> files = ImmutableSortedMap.naturalOrder();
+    for (String name : filesystem.findRelativeFiles(root)) {
+      files.put(name, new File(root, name));
+    }
+    return files.build();
+  }
+
+  /** Fills in the directory, if it hasn't been already, by linking each file into it. */
+  synchronized void flatten(File directory) {
+    if (flattened) {
+      return;
+    }
+    try {
+      filesystem.makeDirs(directory);
+      for (Map.Entry<String, File> file : files.entrySet()) {
+        File destination = new File(directory, file.getKey());
+        if (!destination.equals(file.getValue())) {
+          filesystem.makeDirsForFile(destination);
+          filesystem.linkFile(file.getValue(), destination);
+        }
+      }
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Could not write out %s", directory);
+    }
+    flattened = true;
+  }
+
+  /**
+   * Returns the directories to keep for the codebase to stay readable: its own, and those of the
+   * codebases it's layered over, which hold the rest of its files.
+   */
+  Collection<Path> toKeep(File directory) {
+    return ImmutableList.<Path>builder()
+        .add(directory.toPath())
+        .addAll(input.toKeep())
+        .build();
+  }
+}
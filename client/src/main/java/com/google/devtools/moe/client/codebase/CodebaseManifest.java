@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * A Merkle tree over a {@link CodebaseSnapshot} with content hashes: each directory has a hash of
+ * the names, modes and hashes of its files and subdirectories. Two codebases' manifests show which
+ * files differ between them by descending only into directories whose hashes differ, so comparing
+ * nearby revisions costs in proportion to their differences, not to their size.
+ */
+public final class CodebaseManifest {
+  /** How coarse modification times may be, so how long after a change it may go unnoticed. */
+  private static final long MTIME_GRANULARITY_MILLIS = 1000;
+
+  private final CodebaseSnapshot snapshot;
+  private final long takenMillis;
+  private final ImmutableMap<String, String> directoryHashes;
+  private final ImmutableSetMultimap<String, String> filesByDirectory;
+  private final ImmutableSetMultimap<String, String> subdirectories;
+
+  private CodebaseManifest(
+      CodebaseSnapshot snapshot,
+      long takenMillis,
+      ImmutableMap<String, String> directoryHashes,
+      ImmutableSetMultimap<String, String> filesByDirectory,
+      ImmutableSetMultimap<String, String> subdirectories) {
+    this.snapshot = snapshot;
+    this.takenMillis = takenMillis;
+    this.directoryHashes = directoryHashes;
+    this.filesByDirectory = filesByDirectory;
+    this.subdirectories = subdirectories;
+  }
+
+  /**
+   * Walks {@code root} once, hashing its files' contents, and returns their manifest. Files which
+   * {@code previous}, an earlier manifest of the same directory, shows to be unchanged keep their
+   * hashes, and aren't read again; if none has changed, {@code previous} itself is returned.
+   */
+  public static CodebaseManifest take(
+      FileSystem filesystem, File root, @Nullable CodebaseManifest previous) {
+    long takenMillis = System.currentTimeMillis();
+    Map<String, FileInfo> files = new ConcurrentHashMap<>();
+    AtomicBoolean rehashed = new AtomicBoolean();
+    filesystem.walkFiles(
+        root,
+        (name, file, size, lastModifiedMillis, mode) -> {
+          FileInfo info = new FileInfo(size, lastModifiedMillis, mode, null);
+          FileInfo cached = previous == null ? null : previous.snapshot.get(name);
+          String hash;
+          if (cached != null && previous.isUnchanged(cached, info)) {
+            hash = cached.hash();
+          } else {
+            rehashed.set(true);
+            try {
+              hash = BlobStore.hash(filesystem.readBytes(file));
+            } catch (IOException e) {
+              throw new MoeProblem(e, "Could not read %s", file);
+            }
+          }
+          files.put(name, new FileInfo(size, lastModifiedMillis, mode, hash));
+        });
+    if (previous != null
+        && !rehashed.get()
+        && files.keySet().equals(previous.snapshot.files())) {
+      return previous;
+    }
+    return create(CodebaseSnapshot.create(root, files), takenMillis);
+  }
+
+  /**
+   * Creates the manifest of a snapshot, which must carry the hash of every file's contents.
+   *
+   * @param takenMillis when the snapshot was begun
+   */
+  public static CodebaseManifest create(CodebaseSnapshot snapshot, long takenMillis) {
+    ImmutableSetMultimap.Builder<String, String> filesByDirectory = ImmutableSetMultimap.builder();
+    ImmutableSetMultimap.Builder<String, String> subdirectories = ImmutableSetMultimap.builder();
+    // Each directory's entries, sorted by name: a file's mode and hash, or null for a subdirectory,
+    // whose hash isn't known yet.
+    Map<String, TreeMap<String, String>> entries = new HashMap<>();
+    entries.put("", new TreeMap<>());
+
+    for (String name : snapshot.files()) {
+      FileInfo info = snapshot.get(name);
+      Preconditions.checkArgument(info.hash() != null, "No hash of %s in %s", name, snapshot);
+      String directory = parent(name);
+      filesByDirectory.put(directory, name);
+      entries
+          .computeIfAbsent(directory, d -> new TreeMap<>())
+          .put(name, (info.isExecutable() ? "100755 " : "100644 ") + info.hash());
+      // Register the directory with its ancestors, until reaching one already known.
+      for (String child = directory; !child.isEmpty(); child = parent(child)) {
+        String parent = parent(child);
+        boolean known = entries.containsKey(parent);
+        entries.computeIfAbsent(parent, d -> new TreeMap<>()).putIfAbsent(child, null);
+        subdirectories.put(parent, child);
+        if (known) {
+          break;
+        }
+      }
+    }
+
+    // Hash the deepest directories first, so that each subdirectory's hash is ready for its parent.
+    Map<String, String> directoryHashes = new HashMap<>();
+    entries
+        .keySet()
+        .stream()
+        .sorted(Comparator.comparingInt(CodebaseManifest::depth).reversed())
+        .forEachOrdered(
+            directory -> {
+              StringBuilder listing = new StringBuilder();
+              for (Map.Entry<String, String> entry : entries.get(directory).entrySet()) {
+                String value = entry.getValue();
+                listing
+                    .append(value == null ? "40000 " + directoryHashes.get(entry.getKey()) : value)
+                    .append(' ')
+                    .append(entry.getKey())
+                    .append('\n');
+              }
+              directoryHashes.put(directory, BlobStore.hash(listing.toString().getBytes(UTF_8)));
+            });
+
+    return new CodebaseManifest(
+        snapshot,
+        takenMillis,
+        ImmutableMap.copyOf(directoryHashes),
+        filesByDirectory.build(),
+        subdirectories.build());
+  }
+
+  /** The snapshot this is a manifest of. */
+  public CodebaseSnapshot snapshot() {
+    return snapshot;
+  }
+
+  /** The hash of the whole codebase. */
+  public String hash() {
+    return directoryHashes.get("");
+  }
+
+  /**
+   * Returns the hash of the named directory, relative to the root ("" being the root itself), or
+   * null if it contains no files.
+   */
+  @Nullable
+  public String directoryHash(String directory) {
+    return directoryHashes.get(directory);
+  }
+
+  /**
+   * Returns whether this manifest still describes a directory, given a fresh snapshot of its
+   * files' attributes (but not contents): whether it has the same files, with the same sizes,
+   * modes and modification times, none of them modified too soon before this manifest was taken
+   * for the change to show in its modification time.
+   */
+  public boolean isCurrent(CodebaseSnapshot attributes) {
+    if (!attributes.files().equals(snapshot.files())) {
+      return false;
+    }
+    for (String name : snapshot.files()) {
+      if (!isUnchanged(snapshot.get(name), attributes.get(name))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a file's attributes in this manifest and now show it to be unchanged, given
+   * that it wasn't modified too soon before this manifest was taken for its modification time to
+   * show a later change.
+   */
+  private boolean isUnchanged(FileInfo cached, FileInfo current) {
+    return cached.size() >= 0
+        && cached.lastModifiedMillis() >= 0
+        && cached.lastModifiedMillis() + MTIME_GRANULARITY_MILLIS <= takenMillis
+        && cached.size() == current.size()
+        && cached.lastModifiedMillis() == current.lastModifiedMillis()
+        && cached.mode() == current.mode();
+  }
+
+  /**
+   * Returns the names of the files which differ between two manifests' codebases, in existence,
+   * executability or contents, in sorted order.
+   */
+  public static ImmutableSortedSet<String> changedFiles(
+      CodebaseManifest manifest1, CodebaseManifest manifest2) {
+    ImmutableSortedSet.Builder<String> changed = ImmutableSortedSet.naturalOrder();
+    addChangedFiles("", manifest1, manifest2, changed);
+    return changed.build();
+  }
+
+  private static void addChangedFiles(
+      String directory,
+      CodebaseManifest manifest1,
+      CodebaseManifest manifest2,
+      ImmutableSortedSet.Builder<String> changed) {
+    String hash1 = manifest1.directoryHash(directory);
+    String hash2 = manifest2.directoryHash(directory);
+    if (Objects.equals(hash1, hash2)) {
+      return;
+    }
+    if (hash1 == null || hash2 == null) {
+      (hash1 == null ? manifest2 : manifest1).addFilesUnder(directory, changed);
+      return;
+    }
+    for (String name :
+        Sets.union(
+            manifest1.filesByDirectory.get(directory),
+            manifest2.filesByDirectory.get(directory))) {
+      FileInfo info1 = manifest1.snapshot.get(name);
+      FileInfo info2 = manifest2.snapshot.get(name);
+      if (info1 == null
+          || info2 == null
+          || info1.isExecutable() != info2.isExecutable()
+          || !info1.hash().equals(info2.hash())) {
+        changed.add(name);
+      }
+    }
+    for (String subdirectory :
+        Sets.union(
+            manifest1.subdirectories.get(directory), manifest2.subdirectories.get(directory))) {
+      addChangedFiles(subdirectory, manifest1, manifest2, changed);
+    }
+  }
+
+  private void addFilesUnder(String directory, ImmutableSortedSet.Builder<String> files) {
+    files.addAll(filesByDirectory.get(directory));
+    for (String subdirectory : subdirectories.get(directory)) {
+      addFilesUnder(subdirectory, files);
+    }
+  }
+
+  private static String parent(String name) {
+    int slash = name.lastIndexOf('/');
+    return slash < 0 ? "" : name.substring(0, slash);
+  }
+
+  private static int depth(String directory) {
+    if (directory.isEmpty()) {
+      return 0;
+    }
+    int depth = 1;
+    for (int i = 0; i < directory.length(); i++) {
+      if (directory.charAt(i) == '/') {
+        depth++;
+      }
+    }
+    return depth;
+  }
+
+  @Override
+  public String toString() {
+    return "CodebaseManifest(" + snapshot.root() + ", " + hash() + ")";
+  }
+}
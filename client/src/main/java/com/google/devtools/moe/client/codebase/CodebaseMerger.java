@@ -16,22 +16,28 @@
 
 package com.google.devtools.moe.client.codebase;
 
-import static com.google.devtools.moe.client.Utils.makeFilenamesRelative;
+import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
-import com.google.devtools.moe.client.CommandRunner;
-import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.WorkerPools;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
+import com.google.devtools.moe.client.qualifiers.Argument;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileMerger;
 import java.io.File;
 import java.io.IOException;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -79,26 +85,55 @@ import javax.inject.Singleton;
  * 75 which has the new public changes and still has the confidential code that a public revision
  * wouldn't have. Thus, internal revision 75 would be equivalent with public revision 143 assuming
  * there were no conflicts when merging.
+ *
+ * <p>Files are merged in parallel, on the shared {@link WorkerPools} pool of {@code
+ * --merge_threads} threads.
  */
 @Singleton
 public class CodebaseMerger {
   private final Ui ui;
   private final FileSystem filesystem;
-  private final CommandRunner cmd;
+  private final FileMerger fileMerger;
   private final FileDiffer differ;
+  private final ForkJoinPool pool;
+
+  CodebaseMerger(Ui ui, FileSystem filesystem, FileMerger fileMerger, FileDiffer differ) {
+    this(ui, filesystem, fileMerger, differ, WorkerPools.CPU_BOUND_PARALLELISM);
+  }
 
   @Inject
-  CodebaseMerger(Ui ui, FileSystem filesystem, CommandRunner cmd, FileDiffer differ) {
+  CodebaseMerger(
+      Ui ui,
+      FileSystem filesystem,
+      FileMerger fileMerger,
+      FileDiffer differ,
+      @Argument("merge_threads") int mergeThreads) {
     this.ui = ui;
     this.filesystem = filesystem;
-    this.cmd = cmd;
+    this.fileMerger = fileMerger;
     this.differ = differ;
+    this.pool = WorkerPools.withParallelism(mergeThreads);
+  }
+
+  /** What became of a file in a merge. */
+  private enum Outcome {
+    /** The file was copied from one codebase, or left out, without merging. */
+    UNMERGED,
+    /** The file was merged without conflicts. */
+    MERGED,
+    /** The file was merged, with conflicts for the user to resolve. */
+    FAILED
   }
 
   /**
    * For each file in the union of the modified and destination codebases, run
    * generateMergedFile(...) and then reports the results when complete.
    *
+   * <p>Where two of the three versions of a file have the same contents, the result of merging
+   * them is known, and the file is copied from the destination or modified codebase, rather than
+   * merged. Other files are merged in parallel, but are reported in order of file name
+   * regardless.
+   *
    * @return the merge result containing the merged {@link Codebase} plus sets of successfully and
    *     unsuccessfully merged files.
    */
@@ -107,22 +142,72 @@ public class CodebaseMerger {
     File mergedDir = filesystem.getTemporaryDirectory("merged_codebase_");
     RepositoryExpression mergedExpression = new RepositoryExpression("merged");
     resultBuilder.setMergedCodebase(Codebase.create(mergedDir, "merged", mergedExpression));
-    Set<String> filesToMerge = Sets.union(findFiles(destination), findFiles(modified));
+    // Snapshot each codebase once, rather than asking about each file in each of them. Files are
+    // hashed, so that identical ones needn't be diffed or merged.
+    CodebaseSnapshot originalFiles = CodebaseSnapshot.take(filesystem, original.path(), true);
+    CodebaseSnapshot modifiedFiles = CodebaseSnapshot.take(filesystem, modified.path(), true);
+    CodebaseSnapshot destinationFiles =
+        CodebaseSnapshot.take(filesystem, destination.path(), true);
+    List<String> filesToMerge =
+        ImmutableList.copyOf(Sets.union(destinationFiles.files(), modifiedFiles.files()));
 
-    for (String filename : filesToMerge) {
-      this.generateMergedFile(original, modified, destination, resultBuilder, filename);
+    Codebase merged = resultBuilder.mergedCodebase();
+    List<Outcome> outcomes;
+    try {
+      outcomes =
+          pool.submit(
+                  () ->
+                      filesToMerge
+                          .parallelStream()
+                          .map(
+                              filename ->
+                                  generateMergedFile(
+                                      original,
+                                      modified,
+                                      destination,
+                                      merged,
+                                      filename,
+                                      originalFiles.get(filename),
+                                      modifiedFiles.get(filename),
+                                      destinationFiles.get(filename)))
+                          .collect(toList()))
+              .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted merging into %s", destination);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new MoeProblem(e.getCause(), "Could not merge into %s", destination);
+    }
+    for (int i = 0; i < filesToMerge.size(); i++) {
+      record(resultBuilder, filesToMerge.get(i), outcomes.get(i));
     }
     MergeResult result = resultBuilder.build();
     result.report(ui);
     return result;
   }
 
-  private Set<String> findFiles(Codebase codebase) {
-    return makeFilenamesRelative(filesystem.findFiles(codebase.path()), codebase.path());
+  /** Notes the outcome of a file's merge in the result. */
+  private static void record(MergeResult.Builder resultBuilder, String filename, Outcome outcome) {
+    String mergedPath = resultBuilder.mergedCodebase().getFile(filename).getAbsolutePath();
+    if (outcome == Outcome.MERGED) {
+      resultBuilder.mergedFilesBuilder().add(mergedPath);
+    } else if (outcome == Outcome.FAILED) {
+      resultBuilder.failedFilesBuilder().add(mergedPath);
+    }
+  }
+
+  /** Returns whether the files are known to have the same contents, from their hashes. */
+  private static boolean sameContents(@Nullable FileInfo xInfo, @Nullable FileInfo yInfo) {
+    return xInfo != null
+        && yInfo != null
+        && xInfo.hash() != null
+        && xInfo.hash().equals(yInfo.hash());
   }
 
-  private boolean areDifferent(String filename, File x, File y) {
-    return differ.diffFiles(filename, x, y).isDifferent();
+  private boolean areDifferent(
+      String filename, File x, @Nullable FileInfo xInfo, File y, @Nullable FileInfo yInfo) {
+    return differ.diffFiles(filename, x, xInfo, y, yInfo).isDifferent();
   }
 
   /**
@@ -142,9 +227,9 @@ public class CodebaseMerger {
 
   /**
    * Given a filename, this method finds the file with that name in each of the three codebases.
-   * Using the UNIX merge(1) tool, those three files are merged and the result is placed in the
-   * merged codebase. Any conflicts that occurred during merging will appear in the merged codebase
-   * file for the user to resolve.
+   * Using the {@link FileMerger}, which merges as the UNIX merge(1) tool does, those three files
+   * are merged and the result is placed in the merged codebase. Any conflicts that occurred during
+   * merging will appear in the merged codebase file for the user to resolve.
    *
    * <p>In the case where the file specified by the given filename exists in the original codebase
    * and in either the modified codebase or the destination codebase (but not both) and if the file
@@ -164,14 +249,42 @@ public class CodebaseMerger {
       Codebase destination,
       MergeResult.Builder resultBuilder,
       String filename) {
+    Outcome outcome =
+        generateMergedFile(
+            original,
+            modified,
+            destination,
+            resultBuilder.mergedCodebase(),
+            filename,
+            FileInfo.read(filesystem, original.getFile(filename)),
+            FileInfo.read(filesystem, modified.getFile(filename)),
+            FileInfo.read(filesystem, destination.getFile(filename)));
+    record(resultBuilder, filename, outcome);
+  }
+
+  /**
+   * As {@link #generateMergedFile(Codebase, Codebase, Codebase, MergeResult.Builder, String)}, with
+   * the attributes of the file in each codebase, or null where it doesn't exist, already known.
+   * Rather than recording the outcome in a result, it returns it, so that files may be merged in
+   * parallel.
+   */
+  private Outcome generateMergedFile(
+      Codebase original,
+      Codebase modified,
+      Codebase destination,
+      Codebase merged,
+      String filename,
+      @Nullable FileInfo origInfo,
+      @Nullable FileInfo modInfo,
+      @Nullable FileInfo destInfo) {
     File origFile = original.getFile(filename);
-    boolean origExists = filesystem.exists(origFile);
+    boolean origExists = origInfo != null;
 
     File modFile = modified.getFile(filename);
-    boolean modExists = filesystem.exists(modFile);
+    boolean modExists = modInfo != null;
 
     File destFile = destination.getFile(filename);
-    boolean destExists = filesystem.exists(destFile);
+    boolean destExists = destInfo != null;
 
     if (!destExists && !modExists) {
       // This should never be thrown since generateMergedFile(...) is only called on filesToMerge
@@ -181,56 +294,56 @@ public class CodebaseMerger {
           filename, destination, modified);
 
     } else if (origExists && modExists && !destExists) {
-      if (areDifferent(filename, origFile, modFile)) {
+      if (areDifferent(filename, origFile, origInfo, modFile, modInfo)) {
         // Proceed and merge in /dev/null, which should produce a merge conflict (incoming edit on
         // delete).
         destFile = new File("/dev/null");
       } else {
         // Defer to deletion in destination codebase.
-        return;
+        return Outcome.UNMERGED;
       }
 
     } else if (origExists && !modExists && destExists) {
       // Blindly follow deletion of the original file by not copying it into the merged codebase.
-      return;
+      return Outcome.UNMERGED;
 
     } else if (!origExists && !(modExists && destExists)) {
       // File exists only in modified or destination codebase, so just copy it over.
       File existingFile = (modExists ? modFile : destFile);
-      copyToMergedCodebase(resultBuilder.mergedCodebase(), filename, existingFile);
-      return;
+      copyToMergedCodebase(merged, filename, existingFile);
+      return Outcome.UNMERGED;
 
     } else if (!origExists && modExists && destExists) {
       // Merge both new files (conflict expected).
       origFile = new File("/dev/null");
     }
 
-    File mergedFile = copyToMergedCodebase(resultBuilder.mergedCodebase(), filename, destFile);
-
-    try {
-      // Merges the changes that lead from origFile to modFile into mergedFile (which is a copy
-      // of destFile). After, mergedFile will have the combined changes of modFile and destFile.
-      cmd.runCommand(
-          resultBuilder.mergedCodebase().path().getAbsolutePath(),
-          "merge",
-          ImmutableList.of(
-              mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath()));
-      // Return status was 0 and the merge was successful. Note it.
-      resultBuilder.mergedFilesBuilder().add(mergedFile.getAbsolutePath());
-    } catch (CommandException e) {
-      // If merge fails with exit status 1, then a conflict occurred. Make a note of the filepath.
-      if (e.returnStatus == 1) {
-        resultBuilder.failedFilesBuilder().add(mergedFile.getAbsolutePath());
-      } else {
-        throw new MoeProblem(
-            e,
-            "Merge returned with unexpected status %d when trying to run \"merge -p %s %s %s\"",
-            e.returnStatus,
-            destFile.getAbsolutePath(),
-            origFile.getAbsolutePath(),
-            modFile.getAbsolutePath());
+    // Where two versions are the same, the merge's result is known: if modFile is unchanged, or
+    // destFile already has its contents, the result is destFile's contents.
+    if (destExists
+        && (sameContents(origInfo, modInfo) || sameContents(modInfo, destInfo))) {
+      copyToMergedCodebase(merged, filename, destFile);
+      return Outcome.MERGED;
+    }
+    // If destFile is unchanged, the result is modFile's contents, with destFile's mode.
+    if (sameContents(origInfo, destInfo)) {
+      File mergedFile = copyToMergedCodebase(merged, filename, modFile);
+      if (modInfo.isExecutable() != destInfo.isExecutable()) {
+        if (destInfo.isExecutable()) {
+          filesystem.setExecutable(mergedFile);
+        } else {
+          filesystem.setNonExecutable(mergedFile);
+        }
       }
+      return Outcome.MERGED;
     }
+
+    File mergedFile = copyToMergedCodebase(merged, filename, destFile);
+
+    // Merges the changes that lead from origFile to modFile into mergedFile (which is a copy
+    // of destFile). After, mergedFile will have the combined changes of modFile and destFile.
+    // If a conflict occurred, make a note of the filepath.
+    return fileMerger.merge(mergedFile, origFile, modFile) ? Outcome.MERGED : Outcome.FAILED;
   }
 
   /**
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * The files under a directory, with their attributes, as of one walk of it (see {@link
+ * FileSystem#walkFiles}). Code which would otherwise ask the filesystem whether each of many files
+ * exists, is executable, etc. should take a snapshot and ask it instead.
+ *
+ * <p>A snapshot is not updated when the directory changes, so it should only be taken of
+ * directories which won't, such as codebases, or to capture their state before making changes.
+ */
+public final class CodebaseSnapshot {
+  private final File root;
+  private final ImmutableSortedMap<String, FileInfo> files;
+
+  private CodebaseSnapshot(File root, ImmutableSortedMap<String, FileInfo> files) {
+    this.root = root;
+    this.files = files;
+  }
+
+  /**
+   * Takes a snapshot of the files under {@code root}.
+   *
+   * @param hashContents whether to compute the {@link BlobStore#hash} of each file's contents,
+   *     which are read as each file is found, so in parallel where the filesystem walks so
+   */
+  public static CodebaseSnapshot take(FileSystem filesystem, File root, boolean hashContents) {
+    Map<String, FileInfo> files = new ConcurrentHashMap<>();
+    filesystem.walkFiles(
+        root,
+        (name, file, size, lastModifiedMillis, mode) -> {
+          String hash = null;
+          if (hashContents) {
+            try {
+              hash = BlobStore.hash(filesystem.readBytes(file));
+            } catch (IOException e) {
+              throw new MoeProblem(e, "Could not read %s", file);
+            }
+          }
+          files.put(name, new FileInfo(size, lastModifiedMillis, mode, hash));
+        });
+    return create(root, files);
+  }
+
+  /** Creates a snapshot of the given files, keyed by their names relative to {@code root}. */
+  public static CodebaseSnapshot create(File root, Map<String, FileInfo> files) {
+    return new CodebaseSnapshot(root, ImmutableSortedMap.copyOf(files));
+  }
+
+  /** The directory this is a snapshot of. */
+  public File root() {
+    return root;
+  }
+
+  /** Returns the named file, which may or may not exist. */
+  public File file(String relativeName) {
+    return new File(root, relativeName);
+  }
+
+  /** The names, relative to the root, of the files in the snapshot, in sorted order. */
+  public ImmutableSortedSet<String> files() {
+    return files.keySet();
+  }
+
+  /** Returns the attributes of the named file, or null if there was no such file. */
+  @Nullable
+  public FileInfo get(String relativeName) {
+    return files.get(relativeName);
+  }
+
+  public boolean exists(String relativeName) {
+    return files.containsKey(relativeName);
+  }
+
+  public boolean isExecutable(String relativeName) {
+    FileInfo info = files.get(relativeName);
+    return info != null && info.isExecutable();
+  }
+
+  @Override
+  public String toString() {
+    return "CodebaseSnapshot(" + root + ", " + files.size() + " files)";
+  }
+
+  /** The attributes of a file in a snapshot. */
+  public static final class FileInfo {
+    private static final int EXECUTABLE_BITS = 0111;
+
+    private final long size;
+    private final long lastModifiedMillis;
+    private final int mode;
+    @Nullable private final String hash;
+
+    /**
+     * @param size the file's length in bytes, or -1 if unknown
+     * @param lastModifiedMillis the file's mtime, or -1 if unknown
+     * @param mode the file's POSIX permission bits, e.g. {@code 0644}
+     * @param hash the {@link BlobStore#hash} of the file's contents, or null if not computed
+     */
+    public FileInfo(long size, long lastModifiedMillis, int mode, @Nullable String hash) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.mode = mode;
+      this.hash = hash;
+    }
+
+    /**
+     * Asks the filesystem about a single file, returning its mode, or null if it doesn't exist.
+     */
+    @Nullable
+    public static FileInfo read(FileSystem filesystem, File file) {
+      return filesystem.exists(file)
+          ? withMode(filesystem.isExecutable(file) ? 0755 : 0644)
+          : null;
+    }
+
+    /** Returns attributes giving only the file's mode. */
+    public static FileInfo withMode(int mode) {
+      return new FileInfo(-1, -1, mode, null);
+    }
+
+    public long size() {
+      return size;
+    }
+
+    public long lastModifiedMillis() {
+      return lastModifiedMillis;
+    }
+
+    public int mode() {
+      return mode;
+    }
+
+    /** Whether anyone may execute the file, a la the svn:executable property. */
+    public boolean isExecutable() {
+      return (mode & EXECUTABLE_BITS) != 0;
+    }
+
+    @Nullable
+    public String hash() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileInfo)) {
+        return false;
+      }
+      FileInfo that = (FileInfo) o;
+      return size == that.size
+          && lastModifiedMillis == that.lastModifiedMillis
+          && mode == that.mode
+          && Objects.equals(hash, that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, lastModifiedMillis, mode, hash);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "FileInfo(size=%d, mtime=%d, mode=%o, hash=%s)", size, lastModifiedMillis, mode, hash);
+    }
+  }
+}
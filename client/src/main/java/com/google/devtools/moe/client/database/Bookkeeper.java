@@ -118,7 +118,7 @@ public class Bookkeeper {
     }
     boolean equivalent;
     try (Ui.Task task = ui.newTask("diff_codebases", "Diff codebases '%s' and '%s'", from, to)) {
-      equivalent = !differ.diffCodebases(from, to).areDifferent();
+      equivalent = differ.areEquivalent(from, to);
       task.result().append(equivalent ? "No Difference" : "Difference Found");
     }
     return equivalent ? RepositoryEquivalence.create(fromRevision, toRevision) : null;
@@ -16,6 +16,8 @@
 
 package com.google.devtools.moe.client.directives;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.Codebase;
@@ -30,6 +32,10 @@ import com.google.devtools.moe.client.tools.PatchCodebaseDifferenceRenderer;
 import dagger.Provides;
 import dagger.multibindings.IntoMap;
 import dagger.multibindings.StringKey;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import javax.inject.Inject;
 import org.kohsuke.args4j.Option;
 
@@ -46,6 +52,13 @@ public class DiffCodebasesDirective extends Directive {
   @Option(name = "--codebase2", required = true, usage = "Codebase2 expression")
   String codebase2Spec = "";
 
+  @Option(
+    name = "--output_file",
+    required = false,
+    usage = "File to write the diff to, instead of printing it"
+  )
+  String outputFile = "";
+
   private final ProjectContext context;
   private final CodebaseDiffer differ;
   private final Ui ui;
@@ -75,8 +88,30 @@ public class DiffCodebasesDirective extends Directive {
 
     CodebaseDifference diff = differ.diffCodebases(codebase1, codebase2);
     if (diff.areDifferent()) {
-      ui.message(
-          "Codebases \"%s\" and \"%s\" differ:\n%s", codebase1, codebase2, RENDERER.render(diff));
+      // The diff is written a file at a time, rather than built up into one string first. Each
+      // file's diff is computed as it's written, from the codebases made for this directive, which
+      // last until MOE exits.
+      if (outputFile.isEmpty()) {
+        ui.message("Codebases \"%s\" and \"%s\" differ:", codebase1, codebase2);
+        try {
+          Appendable out = ui.messageStream();
+          RENDERER.render(diff, out);
+          out.append('\n');
+        } catch (IOException e) {
+          throw new MoeProblem(e, "Error printing diff");
+        }
+      } else {
+        try (Writer out = Files.newBufferedWriter(Paths.get(outputFile), UTF_8)) {
+          RENDERER.render(diff, out);
+        } catch (IOException e) {
+          throw new MoeProblem(e, "Error writing diff to %s", outputFile);
+        }
+        ui.message(
+            "Codebases \"%s\" and \"%s\" differ; wrote diff to %s",
+            codebase1,
+            codebase2,
+            outputFile);
+      }
     } else {
       ui.message("Codebases \"%s\" and \"%s\" are identical", codebase1, codebase2);
     }
@@ -23,6 +23,7 @@ import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot;
 import com.google.devtools.moe.client.codebase.LocalWorkspace;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.writer.DraftRevision;
@@ -73,19 +74,23 @@ public abstract class AbstractDvcsWriter<T extends LocalWorkspace> implements Wr
   private DraftRevision putCodebase(Codebase incomingChangeCodebase) {
     incomingChangeCodebase.checkProjectSpace(revClone.getConfig().getProjectSpace());
 
-    Set<String> codebaseFiles =
-        Utils.makeFilenamesRelative(
-            filesystem.findFiles(incomingChangeCodebase.path()), incomingChangeCodebase.path());
-    Set<String> writerRepoFiles =
-        Utils.filterByRegEx(
-            Utils.makeFilenamesRelative(filesystem.findFiles(getRoot()), getRoot()),
-            getIgnoreFilePatterns());
+    // Snapshot both trees up front, rather than checking each file's existence in each.
+    CodebaseSnapshot codebaseFiles =
+        CodebaseSnapshot.take(filesystem, incomingChangeCodebase.path(), false);
+    CodebaseSnapshot writerRepoFiles = CodebaseSnapshot.take(filesystem, getRoot(), false);
 
-    Set<String> filesToUpdate = Sets.union(codebaseFiles, writerRepoFiles);
+    Set<String> filesToUpdate =
+        Sets.union(
+            codebaseFiles.files(),
+            Utils.filterByRegEx(writerRepoFiles.files(), getIgnoreFilePatterns()));
 
     for (String filename : filesToUpdate) {
       try {
-        putFile(filename, incomingChangeCodebase);
+        putFile(
+            filename,
+            incomingChangeCodebase,
+            codebaseFiles.exists(filename),
+            writerRepoFiles.exists(filename));
       } catch (CommandException e) {
         StringBuilder sb = new StringBuilder("Problem occurred while running '");
         sb.append(e.cmd);
@@ -109,12 +114,14 @@ public abstract class AbstractDvcsWriter<T extends LocalWorkspace> implements Wr
   /** Runs the DVCS command for registering a modified file, if any. */
   protected abstract void modifyFile(String relativeFilename) throws CommandException;
 
-  private void putFile(String relativeFilename, Codebase incomingChangeCodebase)
+  private void putFile(
+      String relativeFilename,
+      Codebase incomingChangeCodebase,
+      boolean srcExists,
+      boolean destExists)
       throws CommandException {
     File src = incomingChangeCodebase.getFile(relativeFilename);
     File dest = new File(getRoot().getAbsolutePath(), relativeFilename);
-    boolean srcExists = filesystem.exists(src);
-    boolean destExists = filesystem.exists(dest);
 
     if (!srcExists && !destExists) {
       throw new MoeProblem(
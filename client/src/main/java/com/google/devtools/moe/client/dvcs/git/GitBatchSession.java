@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A long-lived {@code git cat-file --batch} process which answers object queries against a local
+ * clone over its pipes. Walking history through a session costs a pipe round-trip per revision,
+ * rather than forking a {@code git log} for each one.
+ *
+ * <p>The process exits when its stdin is closed, either by {@link #close()} or when MOE itself
+ * exits. Its stderr is kept, up to a limit, to explain any failure. A query that fails part-way
+ * through a response kills the process, since whatever it hasn't read of the response would
+ * otherwise be taken as the answer to the next query; the session is then {@linkplain #isDead()
+ * dead}, and a new one must be started.
+ */
+class GitBatchSession implements Closeable {
+  private static final Logger logger = Logger.getLogger(GitBatchSession.class.getName());
+  private static final Splitter SPACE_SPLITTER = Splitter.on(' ');
+  private static final Pattern FULL_HASH = Pattern.compile("[0-9a-f]{40}|[0-9a-f]{64}");
+  /** How much of the process's stderr to keep. */
+  private static final int MAX_STDERR_BYTES = 8192;
+
+  private final Process process;
+  private final OutputStream requests;
+  private final InputStream responses;
+  /** The start of the process's stderr. Guarded by itself. */
+  private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+  private final Thread stderrPump;
+  /** Whether a query failed, leaving the responses unreadable. Guarded by this. */
+  private boolean dead;
+
+  private GitBatchSession(Process process) {
+    this.process = process;
+    this.requests = new BufferedOutputStream(process.getOutputStream());
+    this.responses = new BufferedInputStream(process.getInputStream());
+    this.stderrPump = new Thread(this::drainStderr, "git-cat-file-stderr");
+    stderrPump.setDaemon(true);
+    stderrPump.start();
+  }
+
+  /** Reads the process's stderr until it exits, keeping the start of it. */
+  private void drainStderr() {
+    byte[] chunk = new byte[1024];
+    try (InputStream in = process.getErrorStream()) {
+      for (int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+        synchronized (stderr) {
+          stderr.write(chunk, 0, Math.min(read, MAX_STDERR_BYTES - stderr.size()));
+        }
+      }
+    } catch (IOException e) {
+      logger.fine("Stopped reading git cat-file's stderr: " + e);
+    }
+  }
+
+  /** Returns what the process has written to stderr so far. */
+  private String stderr() {
+    synchronized (stderr) {
+      return new String(stderr.toByteArray(), UTF_8).trim();
+    }
+  }
+
+  /** Starts a session reading objects from the git repository at {@code repositoryDir}. */
+  static GitBatchSession start(File repositoryDir) {
+    logger.fine(repositoryDir + " $ git cat-file --batch");
+    ProcessBuilder pb =
+        new ProcessBuilder("git", "cat-file", "--batch").directory(repositoryDir);
+    try {
+      return new GitBatchSession(pb.start());
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Cannot start git cat-file in %s: %s", repositoryDir, e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the full hash of the commit named by {@code revision} (a hash, branch, tag or other
+   * revision expression), or null if it doesn't name a commit in this repository.
+   */
+  @Nullable
+  String resolveCommit(String revision) {
+    GitObject commit = readCommit(revision);
+    return commit == null ? null : commit.hash;
+  }
+
+  /**
+   * Returns the raw commit object named by {@code revision}, or null if it doesn't name a commit in
+   * this repository. Annotated tags are peeled to the commit they point to. The object is decoded
+   * in the encoding its {@code encoding} header names, if any, or else UTF-8, as {@code git log}
+   * decodes it.
+   */
+  @Nullable
+  synchronized GitObject readCommit(String revision) {
+    if (revision.isEmpty() || revision.indexOf('\n') >= 0) {
+      return null;
+    }
+    checkAlive(revision);
+    try {
+      List<String> header = request(revision + "^{commit}");
+      if (header == null) {
+        return null;
+      }
+      byte[] content = readContent(header);
+      return new GitObject(header.get(0), new String(content, commitEncoding(content)));
+    } catch (IOException | NumberFormatException e) {
+      throw failure(e, revision);
+    }
+  }
+
+  /** Returns the content of the blob with the given full hash, or null if there's no such blob. */
+  @Nullable
+  synchronized byte[] readBlob(String hash) {
+    if (!FULL_HASH.matcher(hash).matches()) {
+      return null;
+    }
+    checkAlive(hash);
+    try {
+      List<String> header = request(hash);
+      if (header == null) {
+        return null;
+      }
+      byte[] content = readContent(header);
+      return header.get(1).equals("blob") ? content : null;
+    } catch (IOException | NumberFormatException e) {
+      throw failure(e, hash);
+    }
+  }
+
+  /** Returns whether a failed query has killed this session, so it can answer no more. */
+  synchronized boolean isDead() {
+    return dead;
+  }
+
+  private void checkAlive(String query) {
+    if (dead) {
+      throw new MoeProblem("Cannot read %s: this git cat-file session failed earlier", query);
+    }
+  }
+
+  /** Kills the process, which may be part-way through a response, and describes the failure. */
+  private MoeProblem failure(Exception e, String query) {
+    dead = true;
+    try {
+      // If the process died, let it finish explaining why.
+      if (process.waitFor(1, TimeUnit.SECONDS)) {
+        stderrPump.join(TimeUnit.SECONDS.toMillis(1));
+      }
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+    } finally {
+      process.destroy();
+    }
+    String errors = stderr();
+    return errors.isEmpty()
+        ? new MoeProblem(e, "Failed reading %s from git cat-file: %s", query, e.getMessage())
+        : new MoeProblem(
+            e, "Failed reading %s from git cat-file: %s: %s", query, e.getMessage(), errors);
+  }
+
+  /**
+   * Returns the charset named by a raw commit's {@code encoding} header, or UTF-8 if it has none,
+   * or names one this JVM doesn't support.
+   */
+  private static Charset commitEncoding(byte[] commit) {
+    // Headers are ASCII, so can be found before knowing the encoding.
+    String content = new String(commit, ISO_8859_1);
+    int headersEnd = content.indexOf("\n\n");
+    for (String header :
+        Splitter.on('\n').split(headersEnd < 0 ? content : content.substring(0, headersEnd))) {
+      if (header.startsWith("encoding ")) {
+        String name = header.substring("encoding ".length()).trim();
+        try {
+          return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+          logger.warning("Unsupported commit encoding " + name + ", reading as UTF-8");
+        }
+      }
+    }
+    return UTF_8;
+  }
+
+  /**
+   * Sends a query, returning the header of the response ({@code <hash> <type> <size>}), or null if
+   * it names no object. The object's content must then be read with {@link #readContent}.
+   */
+  @Nullable
+  private List<String> request(String query) throws IOException {
+    requests.write((query + "\n").getBytes(UTF_8));
+    requests.flush();
+
+    // Either "<hash> <type> <size>" or "<query> missing" (or "ambiguous").
+    List<String> header = SPACE_SPLITTER.splitToList(readLine());
+    return header.size() == 3 ? header : null;
+  }
+
+  private byte[] readContent(List<String> header) throws IOException {
+    byte[] content = new byte[Integer.parseInt(header.get(2))];
+    ByteStreams.readFully(responses, content);
+    if (responses.read() != '\n') {
+      throw new IOException("Missing terminator after object " + header.get(0));
+    }
+    return content;
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    for (int b = responses.read(); b != '\n'; b = responses.read()) {
+      if (b == -1) {
+        throw new EOFException("git cat-file exited unexpectedly");
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), UTF_8);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (dead) {
+      return;
+    }
+    try {
+      requests.close();
+      process.waitFor();
+    } catch (IOException e) {
+      process.destroy();
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** An object as returned by {@code git cat-file}: its hash and raw (uncompressed) content. */
+  static final class GitObject {
+    final String hash;
+    final String content;
+
+    GitObject(String hash, String content) {
+      this.hash = hash;
+      this.content = content;
+    }
+  }
+}
@@ -16,8 +16,11 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner;
@@ -26,11 +29,19 @@ import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.codebase.BlobStore;
 import com.google.devtools.moe.client.codebase.LocalWorkspace;
 import com.google.devtools.moe.client.project.RepositoryConfig;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Git implementation of {@link LocalWorkspace}, i.e. a 'git clone' to local disk.
@@ -45,6 +56,8 @@ public class GitClonedRepository implements LocalWorkspace {
    */
   static final String MOE_MIGRATIONS_BRANCH_PREFIX = "moe_writing_branch_from_";
 
+  private static final Splitter SPACE_SPLITTER = Splitter.on(' ');
+
   private final CommandRunner cmd;
   private final FileSystem filesystem;
   private final String repositoryName;
@@ -56,11 +69,15 @@ public class GitClonedRepository implements LocalWorkspace {
   private final String repositoryUrl;
 
   private final Lifetimes lifetimes;
+  /** Where to keep the files of archived revisions, or null to archive with git archive. */
+  @Nullable private final BlobStore blobStore;
 
   private File localCloneTempDir;
   private boolean clonedLocally;
   /** The revision of this clone, a Git hash ID */
   private String revId;
+  /** A persistent object-reading session against this clone, started on first use. */
+  private GitBatchSession batchSession;
 
   GitClonedRepository(
       CommandRunner cmd,
@@ -78,6 +95,17 @@ public class GitClonedRepository implements LocalWorkspace {
       RepositoryConfig repositoryConfig,
       String repositoryUrl,
       Lifetimes lifetimes) {
+    this(cmd, filesystem, repositoryName, repositoryConfig, repositoryUrl, lifetimes, null);
+  }
+
+  GitClonedRepository(
+      CommandRunner cmd,
+      FileSystem filesystem,
+      String repositoryName,
+      RepositoryConfig repositoryConfig,
+      String repositoryUrl,
+      Lifetimes lifetimes,
+      @Nullable BlobStore blobStore) {
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.repositoryName = repositoryName;
@@ -85,6 +113,7 @@ public class GitClonedRepository implements LocalWorkspace {
     this.repositoryUrl = repositoryUrl;
     this.clonedLocally = false;
     this.lifetimes = lifetimes;
+    this.blobStore = blobStore;
   }
 
   @Override
@@ -185,6 +214,9 @@ public class GitClonedRepository implements LocalWorkspace {
     try {
       filesystem.makeDirs(archiveLocation);
       if (repositoryConfig.getCheckoutPaths().isEmpty()) {
+        if (blobStore != null && exportFromBlobStore(revId, archiveLocation)) {
+          return archiveLocation;
+        }
         // Using this just to get a filename.
         String tarballPath =
             filesystem
@@ -231,6 +263,84 @@ public class GitClonedRepository implements LocalWorkspace {
     return archiveLocation;
   }
 
+  /**
+   * Exports the tree at {@code revId} into {@code archiveLocation} like {@code git archive}, but by
+   * linking files from the blob store, so that only blobs not already there (e.g. from an earlier
+   * revision) are read from the repository and written to disk.
+   *
+   * @return false, having exported nothing, if the tree has anything {@code git archive} might
+   *     export differently: symbolic links, submodules, {@code .gitattributes} files (which may
+   *     exclude or rewrite files), or names which aren't UTF-8
+   */
+  private boolean exportFromBlobStore(String revId, File archiveLocation)
+      throws CommandException, IOException {
+    // Each entry is "<mode> SP <type> SP <object> TAB <path>". A large tree's listing is parsed
+    // as git writes it, rather than held whole, and closing it early kills git.
+    Map<String, List<String>> tree = new LinkedHashMap<>();
+    try (Reader listing =
+        new BufferedReader(
+            new InputStreamReader(
+                cmd.runCommandAsStream(
+                    getLocalTempDir().getAbsolutePath(),
+                    "git",
+                    ImmutableList.of("ls-tree", "-r", "-z", revId)),
+                UTF_8))) {
+      for (String entry = readEntry(listing); entry != null; entry = readEntry(listing)) {
+        int tab = entry.indexOf('\t');
+        List<String> fields = SPACE_SPLITTER.splitToList(entry.substring(0, tab));
+        String path = entry.substring(tab + 1);
+        if (!(fields.get(0).equals("100644") || fields.get(0).equals("100755"))
+            || fields.get(2).length() != 40 // Not SHA-1, so not the blob store's hash.
+            || new File(path).getName().equals(".gitattributes")
+            || path.indexOf('\uFFFD') >= 0) {
+          return false;
+        }
+        tree.put(path, fields);
+      }
+    }
+    for (Map.Entry<String, List<String>> entry : tree.entrySet()) {
+      String hash = entry.getValue().get(2);
+      if (!blobStore.contains(hash)) {
+        byte[] content = batchSession().readBlob(hash);
+        if (content == null) {
+          throw new MoeProblem("Missing blob %s for %s in %s", hash, entry.getKey(), revId);
+        }
+        blobStore.put(content);
+      }
+      boolean executable = entry.getValue().get(0).equals("100755");
+      blobStore.materialize(hash, executable, new File(archiveLocation, entry.getKey()));
+    }
+    return true;
+  }
+
+  /** Returns the next NUL-terminated entry of a listing, or null at its end. */
+  @Nullable
+  private static String readEntry(Reader listing) throws IOException {
+    StringBuilder entry = new StringBuilder();
+    for (int c = listing.read(); c != '\0'; c = listing.read()) {
+      if (c == -1) {
+        return entry.length() == 0 ? null : entry.toString();
+      }
+      entry.append((char) c);
+    }
+    return entry.toString();
+  }
+
+  /**
+   * Returns a {@link GitBatchSession} reading objects from this clone, starting it if necessary.
+   * The session lives as long as this clone, and is closed when the clone is cleaned up, so
+   * repeated metadata and ref queries against it cost a pipe round-trip rather than a fork of git.
+   * A session killed by a failed query is replaced by a new one.
+   */
+  synchronized GitBatchSession batchSession() {
+    Preconditions.checkState(clonedLocally);
+    if (batchSession == null || batchSession.isDead()) {
+      batchSession = GitBatchSession.start(getLocalTempDir());
+      filesystem.closeWithTempDir(getLocalTempDir(), batchSession);
+    }
+    return batchSession;
+  }
+
   /**
    * Runs a git command with the given arguments, in this cloned repository's directory.
    *
@@ -24,9 +24,11 @@ import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.codebase.BlobStore;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.RevisionCache;
 import javax.inject.Inject;
 
 /** Creates a Git implementation of {@link RepositoryType}. */
@@ -35,14 +37,23 @@ public class GitRepositoryFactory implements RepositoryType.Factory {
   private final FileSystem filesystem;
   private final Ui ui;
   private final Lifetimes lifetimes;
+  private final RevisionCache revisionCache;
+  private final BlobStore blobStore;
 
   @Inject
   public GitRepositoryFactory(
-      CommandRunner cmd, FileSystem filesystem, Ui ui, Lifetimes lifetimes) {
+      CommandRunner cmd,
+      FileSystem filesystem,
+      Ui ui,
+      Lifetimes lifetimes,
+      RevisionCache revisionCache,
+      BlobStore blobStore) {
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.ui = ui;
     this.lifetimes = lifetimes;
+    this.revisionCache = revisionCache;
+    this.blobStore = blobStore;
   }
 
   @Override
@@ -74,17 +85,18 @@ public class GitRepositoryFactory implements RepositoryType.Factory {
         };
 
     // RevisionHistory and CodebaseCreator don't modify their clones, so they can use a shared,
-    // memoized supplier.
+    // memoized supplier. The CodebaseCreator archives revisions from it through the blob store.
     Supplier<GitClonedRepository> memoizedSupplier =
         Suppliers.memoize(
             () -> {
               GitClonedRepository tipClone =
-                  new GitClonedRepository(cmd, filesystem, name, config, lifetimes);
+                  new GitClonedRepository(
+                      cmd, filesystem, name, config, url, lifetimes, blobStore);
               tipClone.cloneLocallyAtHead(lifetimes.moeExecution());
               return tipClone;
             });
 
-    GitRevisionHistory rh = new GitRevisionHistory(memoizedSupplier);
+    GitRevisionHistory rh = new GitRevisionHistory(memoizedSupplier, true, revisionCache);
 
     String projectSpace = config.getProjectSpace();
     if (projectSpace == null) {
@@ -24,12 +24,16 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.dvcs.git.GitBatchSession.GitObject;
 import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
 import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionCache;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.repositories.RevisionMetadata.FieldParsingResult;
 import java.util.List;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
@@ -46,13 +50,40 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
 
   private final Supplier<GitClonedRepository> headCloneSupplier;
 
+  /**
+   * Whether to answer queries via the head clone's {@link GitBatchSession}, rather than forking a
+   * {@code git log} for each one.
+   */
+  private final boolean useBatchSession;
+
+  /** Where to look up the metadata of revisions named by full hash, if anywhere. */
+  @Nullable private final RevisionCache revisionCache;
+
   GitRevisionHistory(Supplier<GitClonedRepository> headCloneSupplier) {
+    this(headCloneSupplier, false);
+  }
+
+  GitRevisionHistory(Supplier<GitClonedRepository> headCloneSupplier, boolean useBatchSession) {
+    this(headCloneSupplier, useBatchSession, null);
+  }
+
+  GitRevisionHistory(
+      Supplier<GitClonedRepository> headCloneSupplier,
+      boolean useBatchSession,
+      @Nullable RevisionCache revisionCache) {
     this.headCloneSupplier = headCloneSupplier;
+    this.useBatchSession = useBatchSession;
+    this.revisionCache = revisionCache;
+  }
+
+  private String cached(String kind, String revId, RevisionCache.Loader loader)
+      throws CommandException {
+    return revisionCache == null ? loader.load() : revisionCache.get(kind, revId, loader);
   }
 
   /**
-   * Confirm the existence of the given hash ID via 'git log', or pull the most recent
-   * hash ID if none is given.
+   * Confirm the existence of the given hash ID via 'git log' (or the clone's batch session), or
+   * pull the most recent hash ID if none is given.
    *
    * @param revId a revision ID (or the name of a branch)
    * @return a Revision corresponding to the given revId hash
@@ -65,10 +96,19 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
 
     String hashID;
     GitClonedRepository headClone = headCloneSupplier.get();
-    try {
-      hashID = headClone.runGitCommand("log", "--max-count=1", "--format=%H", revId, "--").trim();
-    } catch (CommandException e) {
-      throw new MoeProblem(e, "Failed git log run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
+    if (useBatchSession) {
+      hashID = headClone.batchSession().resolveCommit(revId);
+      if (hashID == null) {
+        throw new MoeProblem("Failed git cat-file run: unknown revision %s", revId);
+      }
+    } else {
+      try {
+        hashID =
+            headClone.runGitCommand("log", "--max-count=1", "--format=%H", revId, "--").trim();
+      } catch (CommandException e) {
+        throw new MoeProblem(
+            e, "Failed git log run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
+      }
     }
     return Revision.create(hashID, headClone.getRepositoryName());
   }
@@ -89,19 +129,47 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
           headClone.getRepositoryName());
     }
 
+    if (useBatchSession) {
+      String commit;
+      try {
+        // The object's hash, a newline, then the object (the hash may differ from the revision
+        // ID, if that names an annotated tag).
+        commit =
+            cached(
+                "git-commit",
+                revision.revId(),
+                () -> {
+                  GitObject object = headClone.batchSession().readCommit(revision.revId());
+                  return object == null ? null : object.hash + "\n" + object.content;
+                });
+      } catch (CommandException e) {
+        throw new MoeProblem(
+            e, "Failed git cat-file run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
+      }
+      if (commit == null) {
+        return null;
+      }
+      int hashEnd = commit.indexOf('\n');
+      return parseCommitObject(commit.substring(0, hashEnd), commit.substring(hashEnd + 1));
+    }
+
     // Format: hash, author, ISO date, parents, full commit message (subject and body)
     String format = Joiner.on(LOG_DELIMITER).join("%H", "%an", "%ai", "%P", "%B");
 
     String log;
     try {
       log =
-          headClone.runGitCommand(
-              "log",
-              // Ensure one revision only, to be safe.
-              "--max-count=1",
-              "--format=" + format,
-              "--ignore-missing",
-              revision.revId());
+          cached(
+              "git-log",
+              revision.revId(),
+              () ->
+                  headClone.runGitCommand(
+                      "log",
+                      // Ensure one revision only, to be safe.
+                      "--max-count=1",
+                      "--format=" + format,
+                      "--ignore-missing",
+                      revision.revId()));
     } catch (CommandException e) {
       throw new MoeProblem("Failed git run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
     }
@@ -141,6 +209,61 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
         .build();
   }
 
+  /**
+   * Parse a raw git commit object, as read by {@code git cat-file}, into RevisionMetadata
+   * equivalent to that which {@link #parseMetadata(String)} produces from {@code git log}.
+   *
+   * @param hash the commit's hash
+   * @param content the raw commit object: headers, a blank line, then the commit message
+   */
+  @VisibleForTesting
+  RevisionMetadata parseCommitObject(String hash, String content) {
+    int headersEnd = content.indexOf("\n\n");
+    String headers = headersEnd < 0 ? content : content.substring(0, headersEnd);
+    // 'git log --format=%B' terminates the message with an extra newline, so do the same here.
+    String message = headersEnd < 0 ? "\n" : content.substring(headersEnd + 2) + "\n";
+
+    String repositoryName = headCloneSupplier.get().getRepositoryName();
+    ImmutableList.Builder<Revision> parentBuilder = ImmutableList.<Revision>builder();
+    String author = null;
+    DateTime date = null;
+    for (String header : Splitter.on('\n').split(headers)) {
+      // Continuation lines of multi-line headers (e.g. gpgsig) begin with a space.
+      if (header.startsWith("parent ")) {
+        parentBuilder.add(Revision.create(header.substring("parent ".length()), repositoryName));
+      } else if (header.startsWith("author ")) {
+        // "author Some Name <email@example.com> 1341838800 -0700"
+        int emailEnd = header.lastIndexOf('>');
+        int emailStart = header.lastIndexOf(" <", emailEnd);
+        author = header.substring("author ".length(), Math.max(emailStart, "author ".length()));
+        List<String> timestamp =
+            Splitter.on(' ').omitEmptyStrings().splitToList(header.substring(emailEnd + 1));
+        date = parseRawDate(timestamp.get(0), timestamp.get(1));
+      }
+    }
+    if (author == null) {
+      throw new MoeProblem("Could not find the author of git commit %s", hash);
+    }
+
+    return RevisionMetadata.builder()
+        .id(hash)
+        .author(author)
+        .date(date)
+        .description(message)
+        .withParents(parentBuilder.build())
+        .build();
+  }
+
+  /** Parses git's raw date format, seconds since the epoch and a "+hhmm" zone offset. */
+  private static DateTime parseRawDate(String epochSeconds, String offset) {
+    int sign = offset.startsWith("-") ? -1 : 1;
+    int hours = Integer.parseInt(offset.substring(1, 3));
+    int minutes = Integer.parseInt(offset.substring(3, 5));
+    return new DateTime(
+        Long.parseLong(epochSeconds) * 1000,
+        DateTimeZone.forOffsetMillis(sign * (hours * 60 + minutes) * 60 * 1000));
+  }
+
   /** The tag parsing logic for git commits. */
   @Override
   protected FieldParsingResult parseFields(RevisionMetadata metadata) {
@@ -31,6 +31,7 @@ import com.google.devtools.moe.client.project.RepositoryConfig;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Hg implementation of LocalClone, i.e. an 'hg clone' to local disk.
@@ -55,6 +56,12 @@ public class HgClonedRepository implements LocalWorkspace {
   private boolean updatedToRev = false;
   private String branch = null;
 
+  /** Whether to run hg commands in this clone through a command server rather than by forking. */
+  private boolean useCommandServer = false;
+  /** The command server for this clone, once started, or null if it couldn't be started. */
+  private HgCommandServer commandServer;
+  private boolean commandServerStarted = false;
+
   public HgClonedRepository(
       CommandRunner cmd,
       FileSystem filesystem,
@@ -175,6 +182,35 @@ public class HgClonedRepository implements LocalWorkspace {
     return archiveLocation;
   }
 
+  /**
+   * Directs history queries against this clone to a single, long-lived {@code hg serve
+   * --cmdserver} process, rather than forking hg (and paying interpreter start-up) for each one.
+   * If the server can't be started, queries fall back to being forked. Commands which change the
+   * clone, like a writer's, are always forked.
+   */
+  void useCommandServer() {
+    this.useCommandServer = true;
+  }
+
+  /**
+   * Returns the command server for this clone, starting it on first use, or null if this clone
+   * doesn't use one or it couldn't be started. The server is closed when the clone is cleaned up.
+   */
+  @Nullable
+  synchronized HgCommandServer commandServer() {
+    if (!useCommandServer || !clonedLocally) {
+      return null;
+    }
+    if (!commandServerStarted) {
+      commandServerStarted = true;
+      commandServer = HgCommandServer.start(hgBinary, getLocalTempDir());
+      if (commandServer != null) {
+        filesystem.closeWithTempDir(getLocalTempDir(), commandServer);
+      }
+    }
+    return commandServer;
+  }
+
   /**
    * Runs an hg command with the given arguments, in this cloned repository's directory.
    *
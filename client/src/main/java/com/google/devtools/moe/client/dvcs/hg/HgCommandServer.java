@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.hg;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A client for a single {@code hg serve --cmdserver pipe} process, which runs hg commands against
+ * one clone without paying interpreter start-up for each of them.
+ *
+ * <p>Commands are sent and their output received using Mercurial's command server protocol: every
+ * message from the server is a one-byte channel identifier, a four-byte big-endian length, and
+ * (except for input requests) that many bytes of data. Output arrives on the {@code o} and {@code
+ * e} channels, and the command's exit status on the {@code r} channel.
+ *
+ * @see <a href="https://www.mercurial-scm.org/wiki/CommandServer">CommandServer</a>
+ */
+class HgCommandServer implements Closeable {
+  private static final Logger logger = Logger.getLogger(HgCommandServer.class.getName());
+
+  private final Process process;
+  private final File hgBinary;
+  private final DataOutputStream requests;
+  private final DataInputStream responses;
+
+  private HgCommandServer(Process process, File hgBinary) {
+    this.process = process;
+    this.hgBinary = hgBinary;
+    this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+  }
+
+  /**
+   * Starts a command server for the hg repository at {@code repositoryDir}, returning null if one
+   * could not be started (e.g. an hg too old to support it), in which case callers should fall
+   * back to forking hg for each command.
+   */
+  @Nullable
+  static HgCommandServer start(File hgBinary, File repositoryDir) {
+    ImmutableList<String> cmdArgs =
+        ImmutableList.of(
+            hgBinary.getPath(), "serve", "--cmdserver", "pipe", "--config", "ui.interactive=False");
+    logger.fine(repositoryDir + " $ " + Joiner.on(" ").join(cmdArgs));
+    ProcessBuilder pb =
+        new ProcessBuilder(cmdArgs)
+            .directory(repositoryDir)
+            .redirectError(ProcessBuilder.Redirect.appendTo(new File("/dev/null")));
+    pb.environment().put("HGENCODING", "UTF-8");
+    HgCommandServer server = null;
+    try {
+      server = new HgCommandServer(pb.start(), hgBinary);
+      String hello = server.readHello();
+      if (!hello.contains("runcommand")) {
+        throw new IOException("Command server does not support runcommand: " + hello);
+      }
+      return server;
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Could not start hg command server in " + repositoryDir, e);
+      if (server != null) {
+        server.process.destroy();
+      }
+      return null;
+    }
+  }
+
+  private String readHello() throws IOException {
+    byte channel = responses.readByte();
+    byte[] data = new byte[responses.readInt()];
+    responses.readFully(data);
+    if (channel != 'o') {
+      throw new IOException("Unexpected hello channel: " + (char) channel);
+    }
+    return new String(data, UTF_8);
+  }
+
+  /**
+   * Runs an hg command in the server's repository, with the same contract as {@link
+   * com.google.devtools.moe.client.CommandRunner#runCommand}.
+   *
+   * @param args a list of arguments to the 'hg' command
+   * @return the stdout output of the command
+   * @throws CommandException if the command returns a non-zero status
+   */
+  synchronized String runCommand(List<String> args) throws CommandException {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    int returnStatus;
+    try {
+      byte[] encodedArgs = Joiner.on('\0').join(args).getBytes(UTF_8);
+      requests.write("runcommand\n".getBytes(UTF_8));
+      requests.writeInt(encodedArgs.length);
+      requests.write(encodedArgs);
+      requests.flush();
+      returnStatus = readUntilResult(stdout, stderr);
+    } catch (IOException e) {
+      throw new MoeProblem(e, "hg command server failed running %s: %s", args, e.getMessage());
+    }
+    String stdoutData = new String(stdout.toByteArray(), UTF_8);
+    if (returnStatus == 0) {
+      return stdoutData;
+    }
+    throw new CommandException(
+        hgBinary.getPath(),
+        args,
+        stdoutData,
+        new String(stderr.toByteArray(), UTF_8),
+        returnStatus);
+  }
+
+  private int readUntilResult(ByteArrayOutputStream stdout, ByteArrayOutputStream stderr)
+      throws IOException {
+    while (true) {
+      byte channel = responses.readByte();
+      int length = responses.readInt();
+      switch (channel) {
+        case 'o':
+          ByteStreams.copy(ByteStreams.limit(responses, length), stdout);
+          break;
+        case 'e':
+          ByteStreams.copy(ByteStreams.limit(responses, length), stderr);
+          break;
+        case 'r':
+          return responses.readInt();
+        case 'I':
+        case 'L':
+          // MOE never supplies input, so answer any request for it with end-of-input.
+          requests.writeInt(0);
+          requests.flush();
+          break;
+        default:
+          if (Character.isUpperCase(channel)) {
+            throw new IOException("Unsupported required channel: " + (char) channel);
+          }
+          // Optional channels (e.g. 'd'ebug) may be ignored.
+          ByteStreams.skipFully(responses, length);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      requests.close();
+      process.waitFor();
+    } catch (IOException e) {
+      process.destroy();
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -27,6 +27,7 @@ import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.RevisionCache;
 import java.io.File;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -38,6 +39,7 @@ public class HgRepositoryFactory implements RepositoryType.Factory {
   private final File hgBinary;
   private final Ui ui;
   private final Lifetimes lifetimes;
+  private final RevisionCache revisionCache;
 
   @Inject
   HgRepositoryFactory(
@@ -45,12 +47,14 @@ public class HgRepositoryFactory implements RepositoryType.Factory {
       FileSystem filesystem,
       @Named("hg_binary") File hgBinary,
       Ui ui,
-      Lifetimes lifetimes) {
+      Lifetimes lifetimes,
+      RevisionCache revisionCache) {
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.hgBinary = hgBinary;
     this.ui = ui;
     this.lifetimes = lifetimes;
+    this.revisionCache = revisionCache;
   }
 
   @Override
@@ -78,6 +82,9 @@ public class HgRepositoryFactory implements RepositoryType.Factory {
           HgClonedRepository tipClone =
               new HgClonedRepository(cmd, filesystem, hgBinary, name, config, lifetimes);
           tipClone.cloneLocallyAtHead(lifetimes.currentTask());
+          if (config.useCommandServer()) {
+            tipClone.useCommandServer();
+          }
           return tipClone;
         };
 
@@ -89,10 +96,14 @@ public class HgRepositoryFactory implements RepositoryType.Factory {
               HgClonedRepository tipClone =
                   new HgClonedRepository(cmd, filesystem, hgBinary, name, config, lifetimes);
               tipClone.cloneLocallyAtHead(lifetimes.moeExecution());
+              if (config.useCommandServer()) {
+                tipClone.useCommandServer();
+              }
               return tipClone;
             });
 
-    HgRevisionHistory rh = new HgRevisionHistory(cmd, hgBinary, memoizedSupplier);
+    HgRevisionHistory rh =
+        new HgRevisionHistory(cmd, hgBinary, memoizedSupplier, revisionCache);
 
     String projectSpace = config.getProjectSpace();
     if (projectSpace == null) {
@@ -26,6 +26,7 @@ import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
 import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionCache;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.repositories.RevisionMetadata.FieldParsingResult;
 import java.io.File;
@@ -47,11 +48,39 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
   private final CommandRunner runner;
   private final File hgBinary;
 
+  /** Where to look up the metadata of changesets named by full ID, if anywhere. */
+  @Nullable private final RevisionCache revisionCache;
+
   HgRevisionHistory(
       CommandRunner runner, File hgBinary, Supplier<HgClonedRepository> tipCloneSupplier) {
+    this(runner, hgBinary, tipCloneSupplier, null);
+  }
+
+  HgRevisionHistory(
+      CommandRunner runner,
+      File hgBinary,
+      Supplier<HgClonedRepository> tipCloneSupplier,
+      @Nullable RevisionCache revisionCache) {
     this.runner = runner;
     this.hgBinary = hgBinary;
     this.tipCloneSupplier = tipCloneSupplier;
+    this.revisionCache = revisionCache;
+  }
+
+  /**
+   * Runs a read-only hg query in the tip clone, via its command server if it has one, or else by
+   * forking.
+   */
+  private String runHgCommand(HgClonedRepository tipClone, List<String> args)
+      throws CommandException {
+    HgCommandServer server = tipClone.commandServer();
+    if (server != null) {
+      return server.runCommand(args);
+    }
+    return runner.runCommand(
+        tipClone.getLocalTempDir().getAbsolutePath(),
+        hgBinary.getPath(),
+        ImmutableList.copyOf(args));
   }
 
   /**
@@ -79,11 +108,7 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
     String changesetID;
     HgClonedRepository tipClone = tipCloneSupplier.get();
     try {
-      changesetID =
-          runner.runCommand(
-              tipClone.getLocalTempDir().getAbsolutePath(),
-              hgBinary.getPath(),
-              ImmutableList.copyOf(args));
+      changesetID = runHgCommand(tipClone, args);
     } catch (CommandException e) {
       throw new MoeProblem(
           e, "Failed hg run: %s %d %s %s", args, e.returnStatus, e.stdout, e.stderr);
@@ -122,10 +147,9 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
     String log;
     try {
       log =
-          runner.runCommand(
-              tipClone.getLocalTempDir().getAbsolutePath(),
-              hgBinary.getPath(),
-              ImmutableList.copyOf(args));
+          revisionCache == null
+              ? runHgCommand(tipClone, args)
+              : revisionCache.get("hg-log", revision.revId(), () -> runHgCommand(tipClone, args));
 
     } catch (CommandException e) {
       throw new MoeProblem(
@@ -189,9 +213,8 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
     String heads;
     try {
       heads =
-          runner.runCommand(
-              tipClone.getLocalTempDir().getAbsolutePath(),
-              hgBinary.getPath(),
+          runHgCommand(
+              tipClone,
               // Format output as "changesetID branch".
               ImmutableList.of("heads", tipClone.getBranch(), "--template={node} {branch}\n"));
     } catch (CommandException e) {
@@ -47,4 +47,62 @@ public class MoeOptions extends DebugOptions {
     return help;
   }
 
+  // These are read by OptionsModule, and only declared here for usage and parsing.
+  @Option(
+    name = "--max_concurrent_commands",
+    usage = "Maximum number of external commands run in parallel (default: one per processor)"
+  )
+  private int maxConcurrentCommands = 0;
+
+  @Option(
+    name = "--max_concurrent_commands_per_binary",
+    usage =
+        "Maximum number of parallel external commands running any one binary"
+            + " (default: 0, no limit beyond --max_concurrent_commands)"
+  )
+  private int maxConcurrentCommandsPerBinary = 0;
+
+  @Option(
+    name = "--command_timeout_seconds",
+    usage =
+        "Seconds after which an external command is killed, or 0 to never kill it"
+            + " (default: three hours)"
+  )
+  private int commandTimeoutSeconds = 0;
+
+  @Option(
+    name = "--diff_threads",
+    usage = "Number of threads diffing files in parallel (default: two per processor)"
+  )
+  private int diffThreads = 0;
+
+  @Option(
+    name = "--merge_threads",
+    usage = "Number of threads merging files in parallel (default: one per processor)"
+  )
+  private int mergeThreads = 0;
+
+  @Option(
+    name = "--scrubber_shards",
+    usage = "Number of external scrubbers to run at once, each on a share of a codebase's files"
+  )
+  private int scrubberShards = 1;
+
+  @Option(
+    name = "--revision_cache",
+    usage = "Directory in which to cache immutable revision metadata between runs"
+  )
+  private String revisionCache = "";
+
+  @Option(
+    name = "--command_stats_file",
+    usage = "File to which to write statistics about the external commands run, as JSON"
+  )
+  private String commandStatsFile = "";
+
+  @Option(
+    name = "--blob_store",
+    usage = "Directory in which to store file contents for reuse between runs"
+  )
+  private String blobStore = "";
 }
@@ -17,6 +17,7 @@ package com.google.devtools.moe.client.options;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.WorkerPools;
 import com.google.devtools.moe.client.directives.Directives.SelectedDirective;
 import com.google.devtools.moe.client.qualifiers.Argument;
 import com.google.devtools.moe.client.qualifiers.Flag;
@@ -35,6 +36,9 @@ import javax.inject.Singleton;
 /** Dagger module to seed command-line arguments into the graph */
 @dagger.Module
 public class OptionsModule {
+  /** How long an external command may run before it is killed, unless otherwise configured. */
+  private static final int DEFAULT_COMMAND_TIMEOUT_SECONDS = 3 * 60 * 60;
+
   private final String[] rawArgs;
 
   public OptionsModule(String[] args) {
@@ -68,6 +72,102 @@ public class OptionsModule {
     return findArgValue(args, "-c", "--config", "--config_file");
   }
 
+  @Provides
+  @Nullable
+  @Argument("command_stats_file")
+  static String commandStatsFileFlag(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    return findArgValue(args, "--command_stats_file");
+  }
+
+  @Provides
+  @Nullable
+  @Argument("blob_store")
+  static String blobStoreFlag(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    return findArgValue(args, "--blob_store");
+  }
+
+  @Provides
+  @Nullable
+  @Argument("revision_cache")
+  static String revisionCacheFlag(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    return findArgValue(args, "--revision_cache");
+  }
+
+  @Provides
+  @Argument("max_concurrent_commands")
+  static int maxConcurrentCommands(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--max_concurrent_commands");
+    return value == null ? Runtime.getRuntime().availableProcessors() : parsePositiveInt(value);
+  }
+
+  @Provides
+  @Argument("max_concurrent_commands_per_binary")
+  static int maxConcurrentCommandsPerBinary(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--max_concurrent_commands_per_binary");
+    return value == null ? 0 : parseNonNegativeInt(value);
+  }
+
+  @Provides
+  @Argument("command_timeout_seconds")
+  static int commandTimeoutSeconds(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--command_timeout_seconds");
+    return value == null ? DEFAULT_COMMAND_TIMEOUT_SECONDS : parseNonNegativeInt(value);
+  }
+
+  @Provides
+  @Argument("diff_threads")
+  static int diffThreads(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--diff_threads");
+    return value == null ? WorkerPools.IO_BOUND_PARALLELISM : parsePositiveInt(value);
+  }
+
+  @Provides
+  @Argument("merge_threads")
+  static int mergeThreads(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--merge_threads");
+    return value == null ? WorkerPools.CPU_BOUND_PARALLELISM : parsePositiveInt(value);
+  }
+
+  @Provides
+  @Argument("scrubber_shards")
+  static int scrubberShards(String... args) {
+    // TODO(cgruber) Migrate to JCommander, so we don't have to manually parse some of these.
+    String value = findArgValue(args, "--scrubber_shards");
+    return value == null ? 1 : parsePositiveInt(value);
+  }
+
+  private static int parsePositiveInt(String value) {
+    try {
+      int parsed = Integer.parseInt(value);
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw new IllegalArgumentException("'" + value + "' is not a positive integer");
+  }
+
+  private static int parseNonNegativeInt(String value) {
+    try {
+      int parsed = Integer.parseInt(value);
+      if (parsed >= 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw new IllegalArgumentException("'" + value + "' is not a non-negative integer");
+  }
+
   private static boolean isArgPresent(String[] args, String... matchingArgs) {
     HashSet<String> argSet = new HashSet<>(Arrays.asList(args));
     ImmutableSet<String> matches = ImmutableSet.copyOf(matchingArgs);
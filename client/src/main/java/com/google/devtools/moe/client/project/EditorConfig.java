@@ -46,6 +46,13 @@ public abstract class EditorConfig {
   @SerializedName("use_regex") // TODO(cushon): remove pending rharter/auto-value-gson#18
   public abstract boolean useRegex();
 
+  /**
+   * Whether a scrubber editor scrubs within MOE, rather than by running the external scrubber,
+   * which supports more options but must be started, and tar up its output, for every scrub.
+   */
+  @SerializedName("scrub_in_process") // TODO(cushon): remove pending rharter/auto-value-gson#18
+  public abstract boolean scrubInProcess();
+
   // TODO(cgruber): Push validation around the whole structure.
   void validate() throws InvalidProject {
     InvalidProject.assertNotNull(type(), "Missing type in editor");
@@ -57,7 +64,18 @@ public abstract class EditorConfig {
       String commandString,
       JsonObject mappings,
       boolean useRegex) {
-    return new AutoValue_EditorConfig(type, scrubberConfig, commandString, mappings, useRegex);
+    return create(type, scrubberConfig, commandString, mappings, useRegex, false);
+  }
+
+  public static EditorConfig create(
+      Editor.Type type,
+      ScrubberConfig scrubberConfig,
+      String commandString,
+      JsonObject mappings,
+      boolean useRegex,
+      boolean scrubInProcess) {
+    return new AutoValue_EditorConfig(
+        type, scrubberConfig, commandString, mappings, useRegex, scrubInProcess);
   }
 
   public static TypeAdapter<EditorConfig> typeAdapter(Gson gson) {
@@ -38,7 +38,7 @@ public class FileReadingProjectContextFactory extends ProjectContextFactory {
   public FileReadingProjectContextFactory(
       ExpressionEngine expressionEngine, Ui ui, Repositories repositories, Editors editors,
       FileSystem fileSystem, Gson gson) {
-    super(expressionEngine, ui, repositories, editors);
+    super(expressionEngine, ui, repositories, editors, fileSystem);
     this.fileSystem = fileSystem;
     this.gson = gson;
   }
@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.ExpressionEngine;
 import com.google.devtools.moe.client.migrations.MigrationConfig;
@@ -35,6 +36,7 @@ import com.google.devtools.moe.client.translation.pipeline.TranslationPipeline;
 import com.google.devtools.moe.client.translation.pipeline.TranslationStep;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Creates a {@link ProjectContext} given a context file name.
@@ -45,16 +47,31 @@ public abstract class ProjectContextFactory {
   private final ExpressionEngine expressionEngine;
   private final Repositories repositories;
   private final Editors editors;
+  @Nullable private final FileSystem fileSystem;
 
   protected final Ui ui;
 
   public ProjectContextFactory(
       ExpressionEngine expressionEngine, Ui ui, Repositories repositories, Editors editors) {
+    this(expressionEngine, ui, repositories, editors, null);
+  }
+
+  /**
+   * @param fileSystem the file system for forward translators to write fused steps' results to, or
+   *     null if they should run each step on its own
+   */
+  public ProjectContextFactory(
+      ExpressionEngine expressionEngine,
+      Ui ui,
+      Repositories repositories,
+      Editors editors,
+      @Nullable FileSystem fileSystem) {
     // TODO(cgruber):push nullability back from this point.
     this.expressionEngine = expressionEngine;
     this.repositories = Preconditions.checkNotNull(repositories);
     this.ui = ui;
     this.editors = editors;
+    this.fileSystem = fileSystem;
   }
 
   /**
@@ -138,7 +155,10 @@ public abstract class ProjectContextFactory {
           makeStepsFromConfigs(otherTrans.getSteps()),
           makeInverseStepsFromConfigs(otherTrans.getSteps()));
     } else {
-      return new ForwardTranslationPipeline(ui, makeStepsFromConfigs(transConfig.getSteps()));
+      List<TranslationStep> steps = makeStepsFromConfigs(transConfig.getSteps());
+      return fileSystem == null
+          ? new ForwardTranslationPipeline(ui, steps)
+          : new ForwardTranslationPipeline(ui, fileSystem, steps);
     }
   }
 
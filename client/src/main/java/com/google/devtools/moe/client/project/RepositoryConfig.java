@@ -83,6 +83,9 @@ public class RepositoryConfig {
   @SerializedName("shallow_checkout")
   private boolean shallowCheckout = false;
 
+  @SerializedName("use_command_server")
+  private boolean useCommandServer = false;
+
   private RepositoryConfig() {} // Constructed by gson
 
   public String getUrl() {
@@ -156,6 +159,16 @@ public class RepositoryConfig {
     return shallowCheckout;
   }
 
+  /**
+   * Returns true if the repository is configured to run commands through a single long-lived
+   * command server per clone, rather than forking the VCS binary for each command. This is
+   * currently supported only by hg repositories, which fall back to forking if a command server
+   * can't be started.
+   */
+  public boolean useCommandServer() {
+    return useCommandServer;
+  }
+
   /**
    * Returns a list of pattern strings for file paths that should be marked executable. For version
    * control or build systems that don't support the executable bit, use these patterns to indicate
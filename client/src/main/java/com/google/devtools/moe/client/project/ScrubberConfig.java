@@ -1,17 +1,51 @@
 package com.google.devtools.moe.client.project;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Configuration for a scrubber.
  */
 @SuppressWarnings("unused") // JSON will read/write private fields.
 public class ScrubberConfig {
+  /**
+   * Options which relate files to each other, e.g. renames, so that the scrubber must see the whole
+   * codebase at once for them.
+   */
+  private static final ImmutableSet<String> CROSS_FILE_OPTIONS =
+      ImmutableSet.of(
+          "rearranging_config",
+          "c_includes_config_file",
+          "c_includes_config",
+          "java_renames",
+          "js_directory_rename",
+          "js_directory_renames",
+          "python_module_renames",
+          "python_module_removes",
+          "scrub_gwt_inherits");
+
+  /** Options which only the external scrubber implements. */
+  private static final ImmutableSet<String> EXTERNAL_ONLY_OPTIONS =
+      ImmutableSet.<String>builder()
+          .addAll(CROSS_FILE_OPTIONS)
+          .add(
+              "extension_map",
+              "sensitive_string_file",
+              "usernames_file",
+              "empty_java_file_action",
+              "scrub_java_testsize_annotations",
+              "python_shebang_replace")
+          .build();
 
   // General options
   private String ignoreFilesRe;
@@ -112,4 +146,51 @@ public class ScrubberConfig {
     }
     return false;
   }
+
+  /**
+   * Returns the options set in the JSON form of a config which only the external scrubber
+   * implements, so which the in-process scrubber can't be used with.
+   */
+  public static ImmutableList<String> externalOnlyOptions(JsonObject config) {
+    return optionsSet(config, EXTERNAL_ONLY_OPTIONS);
+  }
+
+  /**
+   * Returns whether the JSON form of a config sets options which relate files to each other, so
+   * that the codebase can't be scrubbed in separate shards.
+   */
+  public static boolean relatesFiles(JsonObject config) {
+    return !optionsSet(config, CROSS_FILE_OPTIONS).isEmpty();
+  }
+
+  private static ImmutableList<String> optionsSet(JsonObject config, Set<String> options) {
+    ImmutableList.Builder<String> set = ImmutableList.builder();
+    for (Map.Entry<String, JsonElement> option : config.entrySet()) {
+      if (options.contains(option.getKey()) && isSet(option.getValue())) {
+        set.add(option.getKey());
+      }
+    }
+    return set.build();
+  }
+
+  /** Returns whether an option has other than its default value, i.e. false, 0 or nothing. */
+  public static boolean isSet(@Nullable JsonElement value) {
+    if (value == null || value.isJsonNull()) {
+      return false;
+    }
+    if (value.isJsonArray()) {
+      return value.getAsJsonArray().size() > 0;
+    }
+    if (value.isJsonObject()) {
+      return value.getAsJsonObject().size() > 0;
+    }
+    JsonPrimitive primitive = value.getAsJsonPrimitive();
+    if (primitive.isBoolean()) {
+      return primitive.getAsBoolean();
+    }
+    if (primitive.isNumber()) {
+      return primitive.getAsInt() != 0;
+    }
+    return !primitive.getAsString().isEmpty();
+  }
 }
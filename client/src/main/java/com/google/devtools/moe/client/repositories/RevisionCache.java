@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.qualifiers.Argument;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A cache of VCS query results which are pure functions of an immutable revision, such as the log
+ * entry of a commit named by its full hash.
+ *
+ * <p>Results are memoized in memory for the length of a run and, if a cache directory is given
+ * with {@code --revision_cache}, persisted there so that later runs can reuse them. The directory
+ * is bounded in size, evicting the least recently used results first.
+ *
+ * <p>Only queries for full hexadecimal hashes (as used by git and hg) are cached, since anything
+ * else, like {@code HEAD} or a branch name, may name a different revision tomorrow. Empty results
+ * aren't cached either, as a revision missing from a clone may be fetched later.
+ */
+@Singleton
+public class RevisionCache {
+  private static final Logger logger = Logger.getLogger(RevisionCache.class.getName());
+  private static final Pattern IMMUTABLE_REVISION_ID =
+      Pattern.compile("[0-9a-f]{40}|[0-9a-f]{64}");
+  private static final Pattern KIND = Pattern.compile("[a-z0-9-]+");
+
+  /** The default bound on the size of the cache directory. */
+  static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+  /** Computes a result to be cached. */
+  public interface Loader {
+    @Nullable
+    String load() throws CommandException;
+  }
+
+  @Nullable private final Path directory;
+  private final long maxBytes;
+  private final Cache<String, String> memory;
+
+  /** The size of the cache directory, or -1 until it is first needed. Guarded by this. */
+  private long directoryBytes = -1;
+
+  @Inject
+  RevisionCache(@Nullable @Argument("revision_cache") String directory) {
+    this(Strings.isNullOrEmpty(directory) ? null : Paths.get(directory), DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param directory where to persist results, or null to only cache them in memory
+   * @param maxBytes how large the directory may grow before results are evicted from it
+   */
+  public RevisionCache(@Nullable Path directory, long maxBytes) {
+    checkArgument(maxBytes > 0, "Cache size must be positive");
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.memory =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes / 4)
+            .<String, String>weigher((key, value) -> key.length() + value.length())
+            .build();
+  }
+
+  /** Returns whether {@code revisionId} names a revision by its full hash. */
+  public static boolean isImmutableRevisionId(String revisionId) {
+    return IMMUTABLE_REVISION_ID.matcher(revisionId).matches();
+  }
+
+  /**
+   * Returns the result of a query of the given kind about {@code revisionId}, from the cache if
+   * possible, or else by calling {@code loader}.
+   *
+   * @param kind a short name (lowercase letters, digits and dashes) for the query, which must
+   *     change whenever the format of its result does
+   * @param revisionId the revision queried
+   * @param loader performs the query
+   */
+  @Nullable
+  public String get(String kind, String revisionId, Loader loader) throws CommandException {
+    checkArgument(KIND.matcher(kind).matches(), "Invalid cache kind: %s", kind);
+    if (!isImmutableRevisionId(revisionId)) {
+      return loader.load();
+    }
+    String key = kind + "/" + revisionId;
+    String result = memory.getIfPresent(key);
+    if (result == null && directory != null) {
+      result = read(directory.resolve(key));
+    }
+    if (result == null) {
+      result = loader.load();
+      if (Strings.isNullOrEmpty(result)) {
+        return result;
+      }
+      if (directory != null) {
+        write(directory.resolve(key), result);
+      }
+    }
+    memory.put(key, result);
+    return result;
+  }
+
+  @Nullable
+  private String read(Path entry) {
+    try {
+      String result = new String(Files.readAllBytes(entry), UTF_8);
+      // Recency of use is recorded in the modification time, for eviction.
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      return result;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not read cached revision data from " + entry, e);
+      return null;
+    }
+  }
+
+  private void write(Path entry, String result) {
+    byte[] bytes = result.getBytes(UTF_8);
+    try {
+      Files.createDirectories(entry.getParent());
+      // Write and rename, so that concurrent runs never see a partial entry.
+      Path temp = Files.createTempFile(entry.getParent(), ".", ".tmp");
+      Files.write(temp, bytes);
+      Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+      added(bytes.length);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not cache revision data in " + entry, e);
+    }
+  }
+
+  private synchronized void added(long bytes) throws IOException {
+    if (directoryBytes < 0) {
+      directoryBytes = 0;
+      for (Entry entry : entries()) {
+        directoryBytes += entry.size;
+      }
+    } else {
+      directoryBytes += bytes;
+    }
+    if (directoryBytes > maxBytes) {
+      evict();
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the directory is down to three quarters of its
+   * bound, so that eviction (which must list the whole directory) isn't needed on every write.
+   */
+  private void evict() throws IOException {
+    List<Entry> entries = entries();
+    entries.sort(Comparator.comparing((Entry entry) -> entry.lastUsed));
+    directoryBytes = entries.stream().mapToLong(entry -> entry.size).sum();
+    for (Entry entry : entries) {
+      if (directoryBytes <= maxBytes / 4 * 3) {
+        break;
+      }
+      Files.deleteIfExists(entry.path);
+      directoryBytes -= entry.size;
+    }
+  }
+
+  private List<Entry> entries() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          continue; // Evicted by a concurrent run.
+        }
+        if (attributes.isRegularFile()) {
+          entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+        }
+      }
+    }
+    return entries;
+  }
+
+  @VisibleForTesting
+  synchronized long directoryBytes() throws IOException {
+    return entries().stream().mapToLong(entry -> entry.size).sum();
+  }
+
+  private static final class Entry {
+    final Path path;
+    final long size;
+    final FileTime lastUsed;
+
+    Entry(Path path, long size, FileTime lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
@@ -24,6 +24,8 @@ import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.Revision;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
@@ -87,16 +89,15 @@ public class SvnWriter implements Writer {
             .add("(^|.*/)\\.svn(/.*|$)")
             .build();
 
-    Set<String> codebaseFiles =
-        Utils.makeFilenamesRelative(filesystem.findFiles(c.path()), c.path());
-    Set<String> writerFiles =
-        Utils.filterByRegEx(
-            Utils.makeFilenamesRelative(filesystem.findFiles(rootDirectory), rootDirectory),
-            ignoreFilePatterns);
-    Set<String> union = Sets.union(codebaseFiles, writerFiles);
+    // Snapshot both trees up front, rather than checking each file's attributes in each.
+    CodebaseSnapshot codebaseFiles = CodebaseSnapshot.take(filesystem, c.path(), false);
+    CodebaseSnapshot writerFiles = CodebaseSnapshot.take(filesystem, rootDirectory, false);
+    Set<String> union =
+        Sets.union(
+            codebaseFiles.files(), Utils.filterByRegEx(writerFiles.files(), ignoreFilePatterns));
 
     for (String filename : union) {
-      putFile(filename, c);
+      putFile(filename, c, codebaseFiles.get(filename), writerFiles.get(filename));
     }
 
     return new SvnDraftRevision(rootDirectory);
@@ -128,14 +129,30 @@ public class SvnWriter implements Writer {
    * @param codebase the Codebase to take the file from
    */
   void putFile(String relativePath, Codebase codebase) {
+    putFile(
+        relativePath,
+        codebase,
+        FileInfo.read(filesystem, codebase.getFile(relativePath)),
+        FileInfo.read(filesystem, new File(rootDirectory.getAbsolutePath(), relativePath)));
+  }
+
+  /**
+   * Put file from c into this writer, given the attributes of the file in the codebase and in the
+   * writer, or null where it doesn't exist.
+   */
+  private void putFile(
+      String relativePath,
+      Codebase codebase,
+      @Nullable FileInfo srcInfo,
+      @Nullable FileInfo destInfo) {
     try {
       File dest = new File(rootDirectory.getAbsolutePath(), relativePath);
       File src = codebase.getFile(relativePath);
-      boolean srcExists = filesystem.exists(src);
-      boolean destExists = filesystem.exists(dest);
+      boolean srcExists = srcInfo != null;
+      boolean destExists = destInfo != null;
 
-      boolean srcExecutable = filesystem.isExecutable(src);
-      boolean destExecutable = filesystem.isExecutable(dest);
+      boolean srcExecutable = srcExists && srcInfo.isExecutable();
+      boolean destExecutable = destExists && destInfo.isExecutable();
 
       if (!srcExists && !destExists) {
         throw new MoeProblem(
@@ -90,9 +90,10 @@ public class FileCodebaseCreator extends CodebaseCreator {
     try {
       // Get the target path based upon whether we are dealing with a directory or a file.
       if (filesystem.isDirectory(sourceFile)) {
-        // If it is a directory, make a copy and return the path of the copy.
+        // If it is a directory, make a copy and return the path of the copy. The originals are
+        // the user's, so the copy may share their storage only copy-on-write, never by links.
         File destFile = filesystem.getTemporaryDirectory("file_codebase_copy_");
-        filesystem.copyDirectory(sourceFile, destFile);
+        filesystem.cloneDirectory(sourceFile, destFile, null);
         return destFile;
       } else if (filesystem.isFile(sourceFile)) {
         // If it is a file, assume that it is an archive and try to extract it.
@@ -16,6 +16,8 @@
 
 package com.google.devtools.moe.client.testing;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
@@ -266,6 +268,11 @@ public class InMemoryFileSystem extends AbstractFileSystem {
     return files.get(f.getAbsolutePath());
   }
 
+  @Override
+  public byte[] readBytes(File f) {
+    return fileToString(f).getBytes(UTF_8);
+  }
+
   private static void checkAbsolute(File file) {
     Preconditions.checkArgument(
         file.isAbsolute(), "An absolute path was expected: %s", file.getAbsolutePath());
@@ -15,45 +15,169 @@
  */
 package com.google.devtools.moe.client.tools;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.devtools.moe.client.FileSystem;
-import com.google.devtools.moe.client.Utils;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.WorkerPools;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseManifest;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
+import com.google.devtools.moe.client.qualifiers.Argument;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
-import java.util.Set;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
-/** Performs a difference analysis using an underlying {@code FileDiffer}. */
+/**
+ * Performs a difference analysis using an underlying {@code FileDiffer}. Files are diffed in
+ * parallel, on the shared {@link WorkerPools} pool of {@code --diff_threads} threads.
+ */
+@Singleton
 public class CodebaseDiffer {
+  /**
+   * How many files' entries, across all codebases, the cached manifests may hold. Manifests are
+   * kept for repeated diffs and equivalence checks against a head, but each holds a snapshot of
+   * its whole codebase, so they're bounded by size rather than number.
+   */
+  private static final long MAX_CACHED_MANIFEST_FILES = 1_000_000;
+
   private final FileDiffer differ;
   private final FileSystem filesystem;
+  private final ForkJoinPool pool;
+  private final Cache<File, CodebaseManifest> manifests =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_MANIFEST_FILES)
+          .weigher((File root, CodebaseManifest manifest) -> manifest.snapshot().files().size())
+          .build();
 
-  @Inject
   public CodebaseDiffer(FileDiffer differ, FileSystem filesystem) {
+    this(differ, filesystem, WorkerPools.IO_BOUND_PARALLELISM);
+  }
+
+  @Inject
+  public CodebaseDiffer(
+      FileDiffer differ, FileSystem filesystem, @Argument("diff_threads") int diffThreads) {
     this.differ = differ;
     this.filesystem = filesystem;
+    this.pool = WorkerPools.withParallelism(diffThreads);
   }
 
   /**
    * Diff two {@link Codebase} instances with a {@link FileDiffer}.
+   *
+   * <p>Each codebase's {@link CodebaseManifest} is compared, to find the files which differ
+   * without looking at identical directories, and then only those files are diffed. The files are
+   * diffed in parallel, but the differences are in order of file name regardless.
    */
   public CodebaseDifference diffCodebases(Codebase codebase1, Codebase codebase2) {
-    Set<String> filenames =
-        Sets.union(
-            Utils.makeFilenamesRelative(filesystem.findFiles(codebase1.path()), codebase1.path()),
-            Utils.makeFilenamesRelative(filesystem.findFiles(codebase2.path()), codebase2.path()));
-
-    ImmutableSet.Builder<FileDifference> fileDiffs = ImmutableSet.builder();
-
-    for (String filename : filenames) {
-      FileDifference fileDiff =
-          differ.diffFiles(filename, codebase1.getFile(filename), codebase2.getFile(filename));
-      if (fileDiff.isDifferent()) {
-        fileDiffs.add(fileDiff);
+    CodebaseManifest manifest1 = manifest(codebase1);
+    CodebaseManifest manifest2 = manifest(codebase2);
+    CodebaseSnapshot snapshot1 = manifest1.snapshot();
+    CodebaseSnapshot snapshot2 = manifest2.snapshot();
+    ImmutableSortedSet<String> filenames = CodebaseManifest.changedFiles(manifest1, manifest2);
+
+    List<FileDifference> fileDiffs =
+        inPool(
+            () ->
+                filenames
+                    .parallelStream()
+                    .map(filename -> diffFile(filename, snapshot1, snapshot2))
+                    .filter(FileDifference::isDifferent)
+                    .collect(toList()),
+            codebase1,
+            codebase2);
+
+    return new CodebaseDifference(codebase1, codebase2, ImmutableSet.copyOf(fileDiffs));
+  }
+
+  /**
+   * Returns whether the codebases are equivalent, i.e. whether {@link #diffCodebases} would find
+   * no differences between them, without computing those differences. The codebases' file names
+   * are compared first, then their files' executability and sizes, and only then their contents,
+   * stopping at the first difference found. If both codebases' manifests are known from earlier
+   * diffs, and still current, their hashes settle it; otherwise contents are compared in parallel,
+   * and once one pair of files differs, no more comparisons are started.
+   */
+  public boolean areEquivalent(Codebase codebase1, Codebase codebase2) {
+    CodebaseSnapshot snapshot1 = CodebaseSnapshot.take(filesystem, codebase1.path(), false);
+    CodebaseSnapshot snapshot2 = CodebaseSnapshot.take(filesystem, codebase2.path(), false);
+    if (!snapshot1.files().equals(snapshot2.files())) {
+      return false;
+    }
+    for (String filename : snapshot1.files()) {
+      if (snapshot1.isExecutable(filename) != snapshot2.isExecutable(filename)) {
+        return false;
+      }
+    }
+    for (String filename : snapshot1.files()) {
+      long size1 = snapshot1.get(filename).size();
+      long size2 = snapshot2.get(filename).size();
+      if (size1 >= 0 && size2 >= 0 && size1 != size2) {
+        return false;
       }
     }
 
-    return new CodebaseDifference(codebase1, codebase2, fileDiffs.build());
+    // If both codebases' manifests are known, they settle it without reading any files.
+    CodebaseManifest manifest1 = manifests.getIfPresent(codebase1.path());
+    CodebaseManifest manifest2 = manifests.getIfPresent(codebase2.path());
+    if (manifest1 != null
+        && manifest2 != null
+        && manifest1.isCurrent(snapshot1)
+        && manifest2.isCurrent(snapshot2)) {
+      return manifest1.hash().equals(manifest2.hash());
+    }
+
+    return inPool(
+        () ->
+            snapshot1
+                .files()
+                .parallelStream()
+                .noneMatch(filename -> diffFile(filename, snapshot1, snapshot2).isDifferent()),
+        codebase1,
+        codebase2);
+  }
+
+  /**
+   * Returns the manifest of the codebase, rehashing only the files which appear to have changed
+   * since the one computed last time, if any.
+   */
+  private CodebaseManifest manifest(Codebase codebase) {
+    File root = codebase.path();
+    CodebaseManifest manifest =
+        CodebaseManifest.take(filesystem, root, manifests.getIfPresent(root));
+    manifests.put(root, manifest);
+    return manifest;
+  }
+
+  private FileDifference diffFile(
+      String filename, CodebaseSnapshot snapshot1, CodebaseSnapshot snapshot2) {
+    FileInfo info1 = snapshot1.get(filename);
+    FileInfo info2 = snapshot2.get(filename);
+    return differ.diffFiles(
+        filename, snapshot1.file(filename), info1, snapshot2.file(filename), info2);
+  }
+
+  /** Runs a comparison of the codebases on the pool, so that its parallel streams use the pool. */
+  private <T> T inPool(Callable<T> comparison, Codebase codebase1, Codebase codebase2) {
+    try {
+      return pool.submit(comparison).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted comparing %s and %s", codebase1, codebase2);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new MoeProblem(e.getCause(), "Could not compare %s and %s", codebase1, codebase2);
+    }
   }
 }
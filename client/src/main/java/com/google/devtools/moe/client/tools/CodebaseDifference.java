@@ -21,7 +21,9 @@ import java.util.Collections;
 import java.util.Set;
 
 /**
- * Describes the difference between two Codebases.
+ * Describes the difference between two Codebases. Its files' content diffs may be read from the
+ * codebases' files when they're asked for, so the codebases must be kept, unchanged, until it has
+ * been rendered.
  */
 public class CodebaseDifference {
 
@@ -16,6 +16,8 @@
 
 package com.google.devtools.moe.client.tools;
 
+import java.io.IOException;
+
 /**
  * Interface for rendering differences between Codebases.
  *
@@ -28,4 +30,12 @@ public interface CodebaseDifferenceRenderer {
    * Render the difference.
    */
   public String render(CodebaseDifference diff);
+
+  /**
+   * Renders the difference to {@code out}. Renderers which can write it as it's produced, rather
+   * than building it all up first, should override this.
+   */
+  default void render(CodebaseDifference diff, Appendable out) throws IOException {
+    out.append(render(diff));
+  }
 }
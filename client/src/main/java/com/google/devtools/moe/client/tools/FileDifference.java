@@ -22,7 +22,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import java.io.File;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
@@ -42,8 +45,26 @@ public abstract class FileDifference {
 
   public abstract Comparison executability();
 
+  /** Whether the files' contents differ, in which case {@link #contentDiff} describes how. */
+  public abstract boolean contentsDiffer();
+
+  /**
+   * Supplies the diff of the files' contents, or is null if they're the same. It isn't a property,
+   * so it plays no part in equality: the diff is determined by the files, and may be computed from
+   * them each time it's supplied.
+   */
+  @Nullable private Supplier<String> contentDiffSupplier;
+
+  /**
+   * Returns the diff of the files' contents, as {@code diff -N -u} prints it, or null if their
+   * contents are the same. The diff may be computed from the files now, rather than when they were
+   * compared, so callers should ask for it only when they're about to use it, and not hold on to
+   * it, and the files must still be there.
+   */
   @Nullable
-  public abstract String contentDiff();
+  public String contentDiff() {
+    return contentDiffSupplier == null ? null : contentDiffSupplier.get();
+  }
 
   public static FileDifference create(
       String relativeFilename,
@@ -52,15 +73,39 @@ public abstract class FileDifference {
       Comparison existence,
       Comparison executability,
       @Nullable String contentDiff) {
-    return new AutoValue_FileDifference(
-        relativeFilename, file1, file2, existence, executability, contentDiff);
+    return createLazily(
+        relativeFilename,
+        file1,
+        file2,
+        existence,
+        executability,
+        contentDiff == null ? null : () -> contentDiff);
+  }
+
+  /**
+   * Creates a FileDifference whose content diff is computed on demand.
+   *
+   * @param contentDiff supplies the diff of the files' contents, or null if they're the same
+   */
+  public static FileDifference createLazily(
+      String relativeFilename,
+      File file1,
+      File file2,
+      Comparison existence,
+      Comparison executability,
+      @Nullable Supplier<String> contentDiff) {
+    FileDifference difference =
+        new AutoValue_FileDifference(
+            relativeFilename, file1, file2, existence, executability, contentDiff != null);
+    difference.contentDiffSupplier = contentDiff;
+    return difference;
   }
 
   /** @return whether this FileDifference in fact indicates a difference between files */
   public boolean isDifferent() {
     return executability() != Comparison.SAME
         || existence() != Comparison.SAME
-        || contentDiff() != null;
+        || contentsDiffer();
   }
 
   /**
@@ -78,6 +123,22 @@ public abstract class FileDifference {
      * @result the FileDifference if the files differ, or null if they don't
      */
     public FileDifference diffFiles(String relativeFilename, File file1, File file2);
+
+    /**
+     * Diffs a file in two codebases whose attributes are already known, e.g. from a {@link
+     * CodebaseSnapshot}, so that the differ needn't ask the filesystem for them again.
+     *
+     * @param info1  the attributes of file1, or null if it doesn't exist
+     * @param info2  the attributes of file2, or null if it doesn't exist
+     */
+    default FileDifference diffFiles(
+        String relativeFilename,
+        File file1,
+        @Nullable FileInfo info1,
+        File file2,
+        @Nullable FileInfo info2) {
+      return diffFiles(relativeFilename, file1, file2);
+    }
   }
 
   /**
@@ -109,16 +170,13 @@ public abstract class FileDifference {
   }
 
   /**
-   * A {@link FileDiffer} implementation backed by a {@link FileSystem} using the {@code diff}
-   * command from a forked command-line.
+   * A {@link FileDiffer} which works out the files' existence and executability, from the {@link
+   * FileSystem} or their known attributes, leaving subclasses to diff their contents.
    */
-  public static class ConcreteFileDiffer implements FileDiffer {
-    private final CommandRunner cmd;
+  public abstract static class AbstractFileDiffer implements FileDiffer {
     private final FileSystem filesystem;
 
-    @Inject
-    public ConcreteFileDiffer(CommandRunner cmd, @Nullable FileSystem filesystem) {
-      this.cmd = cmd;
+    protected AbstractFileDiffer(@Nullable FileSystem filesystem) {
       this.filesystem = filesystem;
     }
 
@@ -129,22 +187,96 @@ public abstract class FileDifference {
         return null;
       }
 
-      // Diff their existence.
-      boolean file1Exists = filesystem.exists(file1);
-      boolean file2Exists = filesystem.exists(file2);
+      return diffFiles(
+          relativeFilename,
+          file1,
+          filesystem.exists(file1),
+          filesystem.isExecutable(file1),
+          null,
+          file2,
+          filesystem.exists(file2),
+          filesystem.isExecutable(file2),
+          null);
+    }
 
+    /**
+     * Diffs the files as {@link #diffFiles(String, File, File)} does, but with their existence and
+     * executability taken from the given attributes. If both carry a hash of their contents, and
+     * the hashes match, the contents aren't diffed.
+     */
+    @Override
+    public FileDifference diffFiles(
+        String relativeFilename,
+        File file1,
+        @Nullable FileInfo info1,
+        File file2,
+        @Nullable FileInfo info2) {
+      return diffFiles(
+          relativeFilename,
+          file1,
+          info1 != null,
+          info1 != null && info1.isExecutable(),
+          info1 == null ? null : info1.hash(),
+          file2,
+          info2 != null,
+          info2 != null && info2.isExecutable(),
+          info2 == null ? null : info2.hash());
+    }
+
+    private FileDifference diffFiles(
+        String relativeFilename,
+        File file1,
+        boolean file1Exists,
+        boolean file1Executable,
+        @Nullable String file1Hash,
+        File file2,
+        boolean file2Exists,
+        boolean file2Executable,
+        @Nullable String file2Hash) {
       Preconditions.checkArgument(
           file1Exists || file2Exists, "Neither file exists: %s, %s", file1, file2);
 
+      // Diff their existence.
       Comparison existence = Comparison.diffBools(file1Exists, file2Exists);
 
-      boolean file1Executable = filesystem.isExecutable(file1);
-      boolean file2Executable = filesystem.isExecutable(file2);
-
       Comparison executability = Comparison.diffBools(file1Executable, file2Executable);
 
-      String contentDiff = null;
+      Supplier<String> contentDiff = null;
+
+      if (file1Hash == null || !file1Hash.equals(file2Hash)) {
+        contentDiff = diffContents(file1, file1Exists, file2, file2Exists);
+      }
+
+      return FileDifference.createLazily(
+          relativeFilename, file1, file2, existence, executability, contentDiff);
+    }
+
+    /**
+     * Compares the files' contents, returning null if they're the same, or else a supplier of
+     * their unified diff, as {@code diff -N -u} prints it. A file which doesn't exist is treated
+     * as empty. The diff itself may be computed when it's supplied, rather than now.
+     */
+    @Nullable
+    protected abstract Supplier<String> diffContents(
+        File file1, boolean file1Exists, File file2, boolean file2Exists);
+  }
 
+  /**
+   * A {@link FileDiffer} implementation backed by a {@link FileSystem} using the {@code diff}
+   * command from a forked command-line.
+   */
+  public static class ConcreteFileDiffer extends AbstractFileDiffer {
+    private final CommandRunner cmd;
+
+    @Inject
+    public ConcreteFileDiffer(CommandRunner cmd, @Nullable FileSystem filesystem) {
+      super(filesystem);
+      this.cmd = cmd;
+    }
+
+    @Override
+    protected Supplier<String> diffContents(
+        File file1, boolean file1Exists, File file2, boolean file2Exists) {
       try {
         cmd.runCommand(
             "",
@@ -156,11 +288,10 @@ public abstract class FileDifference {
             && e.returnStatus != DIFF_ERROR_CODE_FILES_BINARY) {
           throw new MoeProblem(e, "diff returned unknown status: %d", e.returnStatus);
         }
-        contentDiff = e.stdout;
+        String stdout = e.stdout;
+        return () -> stdout;
       }
-
-      return FileDifference.create(
-          relativeFilename, file1, file2, existence, executability, contentDiff);
+      return null;
     }
   }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.File;
+import javax.inject.Inject;
+
+/**
+ * A FileMerger merges changes to a file into another version of it, as {@code merge(1)} does. This
+ * exists as an interface so that we can mock it out.
+ */
+public interface FileMerger {
+  /**
+   * Merges the changes that lead from {@code originalFile} to {@code modifiedFile} into {@code
+   * mergedFile}, in place. Where both made different changes to the same lines, both versions are
+   * left in mergedFile, between conflict markers, for the user to resolve.
+   *
+   * @return whether the merge was clean, i.e. false if there were conflicts
+   */
+  boolean merge(File mergedFile, File originalFile, File modifiedFile);
+
+  /** A {@link FileMerger} which forks the {@code merge} command from RCS. */
+  public static class ConcreteFileMerger implements FileMerger {
+    private final CommandRunner cmd;
+
+    @Inject
+    public ConcreteFileMerger(CommandRunner cmd) {
+      this.cmd = cmd;
+    }
+
+    @Override
+    public boolean merge(File mergedFile, File originalFile, File modifiedFile) {
+      try {
+        cmd.runCommand(
+            mergedFile.getAbsoluteFile().getParent(),
+            "merge",
+            ImmutableList.of(
+                mergedFile.getAbsolutePath(),
+                originalFile.getAbsolutePath(),
+                modifiedFile.getAbsolutePath()));
+        return true;
+      } catch (CommandRunner.CommandException e) {
+        // If merge fails with exit status 1, then a conflict occurred.
+        if (e.returnStatus == 1) {
+          return false;
+        }
+        throw new MoeProblem(
+            e,
+            "Merge returned with unexpected status %d when trying to run \"merge %s %s %s\"",
+            e.returnStatus,
+            mergedFile.getAbsolutePath(),
+            originalFile.getAbsolutePath(),
+            modifiedFile.getAbsolutePath());
+      }
+    }
+  }
+}
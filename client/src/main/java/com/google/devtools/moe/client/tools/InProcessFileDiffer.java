@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.tools.FileDifference.AbstractFileDiffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * A {@link FileDifference.FileDiffer} which compares files within the JVM, rather than forking
+ * {@code diff} for each pair. Files of different sizes differ; files of the same size are compared
+ * byte for byte, and only files which differ are read in full and diffed, by {@link UnifiedDiff},
+ * when their diff is asked for. That must be while the files are still as they were compared, or
+ * asking fails. The resulting content diffs are identical to those of {@link
+ * FileDifference.ConcreteFileDiffer}.
+ */
+public class InProcessFileDiffer extends AbstractFileDiffer {
+  /** Files at least this large are compared by mapping them into memory, not reading them. */
+  private static final long MAP_THRESHOLD = 64 * 1024;
+
+  @Inject
+  public InProcessFileDiffer(@Nullable FileSystem filesystem) {
+    super(filesystem);
+  }
+
+  @Override
+  protected Supplier<String> diffContents(
+      File file1, boolean file1Exists, File file2, boolean file2Exists) {
+    Path path1 = file1.getAbsoluteFile().toPath();
+    Path path2 = file2.getAbsoluteFile().toPath();
+    try {
+      long size1 = file1Exists ? Files.size(path1) : 0;
+      long size2 = file2Exists ? Files.size(path2) : 0;
+      if (size1 == size2 && (size1 == 0 || sameContents(path1, path2, size1))) {
+        return null;
+      }
+      Instant modified1 = lastModified(path1, file1Exists);
+      Instant modified2 = lastModified(path2, file2Exists);
+      // Only diff the files if and when the diff is wanted, and only if they're as compared.
+      return () -> {
+        try {
+          checkUnchanged(path1, file1Exists, size1, modified1);
+          checkUnchanged(path2, file2Exists, size2, modified2);
+          return unifiedDiff(path1, file1Exists, path2, file2Exists);
+        } catch (IOException e) {
+          throw new MoeProblem(e, "Could not diff %s and %s", file1, file2);
+        }
+      };
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Could not compare %s and %s", file1, file2);
+    }
+  }
+
+  /**
+   * Fails if a file is no longer as it was when compared (e.g. its codebase was cleaned up before
+   * its difference was rendered), rather than diffing whatever is there now.
+   */
+  private static void checkUnchanged(Path path, boolean existed, long size, Instant modified)
+      throws IOException {
+    if (Files.exists(path) != existed
+        || (existed && (Files.size(path) != size || !lastModified(path, true).equals(modified)))) {
+      throw new MoeProblem("%s changed after it was compared, so can't be diffed", path);
+    }
+  }
+
+  private static String unifiedDiff(
+      Path path1, boolean file1Exists, Path path2, boolean file2Exists) throws IOException {
+    byte[] content1 = file1Exists ? Files.readAllBytes(path1) : new byte[0];
+    byte[] content2 = file2Exists ? Files.readAllBytes(path2) : new byte[0];
+    if (UnifiedDiff.isBinary(content1) || UnifiedDiff.isBinary(content2)) {
+      return String.format("Binary files %s and %s differ\n", path1, path2);
+    }
+    byte[] diff =
+        UnifiedDiff.diff(
+            content1,
+            UnifiedDiff.label(path1.toString(), lastModified(path1, file1Exists)),
+            content2,
+            UnifiedDiff.label(path2.toString(), lastModified(path2, file2Exists)));
+    return diff == null ? null : new String(diff, UTF_8);
+  }
+
+  private static boolean sameContents(Path path1, Path path2, long size) throws IOException {
+    if (size < MAP_THRESHOLD) {
+      return Arrays.equals(Files.readAllBytes(path1), Files.readAllBytes(path2));
+    }
+    try (FileChannel channel1 = FileChannel.open(path1, StandardOpenOption.READ);
+        FileChannel channel2 = FileChannel.open(path2, StandardOpenOption.READ)) {
+      // Buffers can't exceed 2GB, so compare larger files a piece at a time.
+      for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+        long length = Math.min(size - position, Integer.MAX_VALUE);
+        if (!channel1
+            .map(MapMode.READ_ONLY, position, length)
+            .equals(channel2.map(MapMode.READ_ONLY, position, length))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** Returns the file's modification time, or the epoch for a missing file, as diff -N does. */
+  private static Instant lastModified(Path path, boolean exists) throws IOException {
+    return exists ? Files.getLastModifiedTime(path).toInstant() : Instant.EPOCH;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.inject.Inject;
+
+/**
+ * A {@link FileMerger} which merges files within the JVM, with {@link ThreeWayMerge}, rather than
+ * forking {@code merge} for each file. The merged files, conflict markers included, are identical
+ * to those of {@link FileMerger.ConcreteFileMerger}, and it works where RCS isn't installed.
+ */
+public class InProcessFileMerger implements FileMerger {
+  @Inject
+  public InProcessFileMerger() {}
+
+  @Override
+  public boolean merge(File mergedFile, File originalFile, File modifiedFile) {
+    // Conflicts are labelled with the files' names, as merge labels them by default.
+    Path merged = mergedFile.getAbsoluteFile().toPath();
+    Path original = originalFile.getAbsoluteFile().toPath();
+    Path modified = modifiedFile.getAbsoluteFile().toPath();
+    try {
+      ThreeWayMerge.Result result =
+          ThreeWayMerge.merge(
+              Files.readAllBytes(merged),
+              merged.toString(),
+              Files.readAllBytes(original),
+              Files.readAllBytes(modified),
+              modified.toString());
+      Files.write(merged, result.merged);
+      return !result.conflicts;
+    } catch (IOException e) {
+      throw new MoeProblem(
+          e, "Could not merge %s and %s into %s", originalFile, modifiedFile, mergedFile);
+    }
+  }
+}
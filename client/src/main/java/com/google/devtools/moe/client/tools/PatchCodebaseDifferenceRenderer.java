@@ -16,9 +16,14 @@
 
 package com.google.devtools.moe.client.tools;
 
-import com.google.common.base.Joiner;
+import static java.util.Comparator.comparing;
 
+import com.google.common.base.Joiner;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Renders a CodebaseDifference into a patch file.
@@ -28,16 +33,35 @@ public class PatchCodebaseDifferenceRenderer implements CodebaseDifferenceRender
   @Override
   public String render(CodebaseDifference d) {
     StringBuilder r = new StringBuilder();
-    Joiner.on(' ').appendTo(r, "diff", d.codebase1.toString(), d.codebase2.toString());
-    r.append('\n');
-    for (FileDifference fd : d.fileDiffs) {
-      renderFileDifferenceToStringBuilder(d, fd, r);
+    try {
+      render(d, r);
+    } catch (IOException e) {
+      throw new UncheckedIOException("StringBuilder threw", e);
     }
     return r.toString();
   }
 
-  /* package */ void renderFileDifferenceToStringBuilder(
-      CodebaseDifference d, FileDifference fd, StringBuilder r) {
+  /**
+   * Writes the patch to {@code out} file by file, in order of file name. Each file's content diff
+   * is only computed when it's written, and isn't kept afterwards, so the difference's codebases
+   * must still be there.
+   */
+  @Override
+  public void render(CodebaseDifference d, Appendable out) throws IOException {
+    Joiner.on(' ').appendTo(out, "diff", d.codebase1.toString(), d.codebase2.toString());
+    out.append('\n');
+    List<FileDifference> sorted =
+        d.fileDiffs
+            .stream()
+            .sorted(comparing(FileDifference::relativeFilename))
+            .collect(Collectors.toList());
+    for (FileDifference fd : sorted) {
+      renderFileDifference(d, fd, out);
+    }
+  }
+
+  /* package */ void renderFileDifference(CodebaseDifference d, FileDifference fd, Appendable r)
+      throws IOException {
 
     r.append(
         String.format(
@@ -61,8 +85,9 @@ public class PatchCodebaseDifferenceRenderer implements CodebaseDifferenceRender
     // TODO(dbentley): what about if we add an empty, unexecutable file? Uhh, hmm....
     // Mercurial seems to not show this diff, so maybe we're all right.
 
-    if (fd.contentDiff() != null) {
-      r.append(fd.contentDiff());
+    String contentDiff = fd.contentDiff();
+    if (contentDiff != null) {
+      r.append(contentDiff);
       r.append("\n");
     }
   }
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.moe.client.tools.UnifiedDiff.Change;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Merges files exactly as {@code merge(1)} from RCS does, i.e. as GNU {@code diff3 -E -a -m}
+ * (diffutils 3.x) does: the changes from the older file to "your" file are merged into "my" file,
+ * and where both files changed the same lines differently, both versions are kept, between
+ * conflict markers.
+ *
+ * <p>Each file is diffed against the older file, as diff3 does with {@code diff
+ * --horizon-lines=100}, and overlapping or adjacent changes are then gathered into blocks, as in
+ * diff3's make_3way_diff(). Methods are named after their counterparts in diff3.c.
+ */
+final class ThreeWayMerge {
+  /** The horizon diff3 asks diff for, to better align the two diffs' changes. */
+  private static final int HORIZON_LINES = 100;
+
+  // Indexes of the files in a Diff3Block, as in diff3.c.
+  private static final int FILE0 = 0; // Mine.
+  private static final int FILE1 = 1; // Yours.
+  private static final int FILEC = 2; // The older, common file.
+
+  /** The result of a merge: the merged contents, and whether any conflicts were marked. */
+  static final class Result {
+    final byte[] merged;
+    final boolean conflicts;
+
+    Result(byte[] merged, boolean conflicts) {
+      this.merged = merged;
+      this.conflicts = conflicts;
+    }
+  }
+
+  private final Lines mine;
+  private final Lines yours;
+
+  private ThreeWayMerge(byte[] mine, byte[] yours) {
+    this.mine = new Lines(mine);
+    this.yours = new Lines(yours);
+  }
+
+  /**
+   * Merges the changes from {@code older} to {@code yours} into {@code mine}.
+   *
+   * @param mineLabel the label of mine in conflict markers, e.g. its file name
+   * @param yoursLabel the label of yours in conflict markers
+   */
+  static Result merge(
+      byte[] mine, String mineLabel, byte[] older, byte[] yours, String yoursLabel) {
+    ThreeWayMerge merge = new ThreeWayMerge(mine, yours);
+    List<Diff3Block> blocks =
+        merge.makeThreeWayDiff(
+            diffBlocks(UnifiedDiff.changes(mine, older, HORIZON_LINES)),
+            diffBlocks(UnifiedDiff.changes(yours, older, HORIZON_LINES)));
+    return merge.outputDiff3Merge(blocks, mineLabel, yoursLabel);
+  }
+
+  /**
+   * A change between a file and the common file, with one-based, inclusive ranges of lines in
+   * each. An empty range's high line is one less than its low line.
+   */
+  private static final class DiffBlock {
+    final int lowO;
+    final int highO;
+    final int lowC;
+    final int highC;
+
+    DiffBlock(int lowO, int highO, int lowC, int highC) {
+      this.lowO = lowO;
+      this.highO = highO;
+      this.lowC = lowC;
+      this.highC = highC;
+    }
+  }
+
+  /** A region where mine, yours or both differ from the common file, with ranges as above. */
+  private static final class Diff3Block {
+    final int[] low = new int[3];
+    final int[] high = new int[3];
+    /** Which file differs from the others, or ALL. */
+    Correspond correspond;
+
+    int numLines(int file) {
+      return high[file] - low[file] + 1;
+    }
+  }
+
+  private enum Correspond {
+    /** Only mine differs from the common file. */
+    FIRST,
+    /** Only yours differs from the common file. */
+    SECOND,
+    /** Mine and yours differ from the common file in the same way. */
+    THIRD,
+    /** Mine and yours differ from the common file, and from each other. */
+    ALL
+  }
+
+  /** Converts diff's changes from a file to the common file into blocks, as process_diff(). */
+  private static List<DiffBlock> diffBlocks(List<Change> changes) {
+    List<DiffBlock> blocks = new ArrayList<>(changes.size());
+    for (Change change : changes) {
+      blocks.add(
+          new DiffBlock(
+              change.line0 + 1,
+              change.line0 + change.deleted,
+              change.line1 + 1,
+              change.line1 + change.inserted));
+    }
+    return blocks;
+  }
+
+  /**
+   * Gathers the changes of mine and of yours into blocks, each of changes to the same or adjacent
+   * lines of the common file.
+   */
+  private List<Diff3Block> makeThreeWayDiff(
+      List<DiffBlock> thread0, List<DiffBlock> thread1) {
+    List<Diff3Block> result = new ArrayList<>();
+    List<Iterator<DiffBlock>> threads = Arrays.asList(thread0.iterator(), thread1.iterator());
+    DiffBlock[] current = {next(threads.get(0)), next(threads.get(1))};
+    Diff3Block lastDiff3 = new Diff3Block();
+
+    while (current[0] != null || current[1] != null) {
+      List<List<DiffBlock>> using = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+
+      // Start with the thread whose next change comes first in the common file.
+      int baseWaterThread;
+      if (current[0] == null) {
+        baseWaterThread = 1;
+      } else if (current[1] == null) {
+        baseWaterThread = 0;
+      } else {
+        baseWaterThread = current[0].lowC > current[1].lowC ? 1 : 0;
+      }
+
+      int highWaterThread = baseWaterThread;
+      DiffBlock highWaterDiff = current[highWaterThread];
+      int highWaterMark = highWaterDiff.highC;
+      using.get(highWaterThread).add(highWaterDiff);
+      current[highWaterThread] = next(threads.get(highWaterThread));
+
+      // Take in changes of either thread which overlap or adjoin those taken so far.
+      int otherThread = highWaterThread ^ 1;
+      DiffBlock otherDiff = current[otherThread];
+      while (otherDiff != null && otherDiff.lowC <= highWaterMark + 1) {
+        using.get(otherThread).add(otherDiff);
+        current[otherThread] = next(threads.get(otherThread));
+        if (highWaterMark < otherDiff.highC) {
+          highWaterThread ^= 1;
+          highWaterMark = otherDiff.highC;
+        }
+        otherThread = highWaterThread ^ 1;
+        otherDiff = current[otherThread];
+      }
+
+      lastDiff3 = usingToDiff3Block(using, baseWaterThread, highWaterThread, lastDiff3);
+      result.add(lastDiff3);
+    }
+    return result;
+  }
+
+  private static DiffBlock next(Iterator<DiffBlock> thread) {
+    return thread.hasNext() ? thread.next() : null;
+  }
+
+  /** Makes a block of the given changes to mine and yours. */
+  private Diff3Block usingToDiff3Block(
+      List<List<DiffBlock>> using, int lowThread, int highThread, Diff3Block lastDiff3) {
+    Diff3Block result = new Diff3Block();
+    // The range in the common file.
+    int lowC = using.get(lowThread).get(0).lowC;
+    int highC = last(using.get(highThread)).highC;
+    result.low[FILEC] = lowC;
+    result.high[FILEC] = highC;
+
+    // The ranges in the other files. A file without changes here is as the common file is.
+    for (int d = 0; d < 2; d++) {
+      List<DiffBlock> blocks = using.get(d);
+      if (blocks.isEmpty()) {
+        result.low[FILE0 + d] = lowC + lastDiff3.high[FILE0 + d] - lastDiff3.high[FILEC];
+        result.high[FILE0 + d] = highC + lastDiff3.high[FILE0 + d] - lastDiff3.high[FILEC];
+      } else {
+        result.low[FILE0 + d] = lowC + blocks.get(0).lowO - blocks.get(0).lowC;
+        result.high[FILE0 + d] = highC + last(blocks).highO - last(blocks).highC;
+      }
+    }
+
+    if (using.get(0).isEmpty()) {
+      result.correspond = Correspond.SECOND;
+    } else if (using.get(1).isEmpty()) {
+      result.correspond = Correspond.FIRST;
+    } else {
+      result.correspond = sameLines(result) ? Correspond.THIRD : Correspond.ALL;
+    }
+    return result;
+  }
+
+  private static <T> T last(List<T> list) {
+    return list.get(list.size() - 1);
+  }
+
+  /** Returns whether mine and yours have the same lines in the block. */
+  private boolean sameLines(Diff3Block block) {
+    int n = block.numLines(FILE0);
+    if (n != block.numLines(FILE1)) {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (!mine.lineEquals(block.low[FILE0] - 1 + i, yours, block.low[FILE1] - 1 + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes mine with yours' changes merged in. Blocks which only mine changes, or which mine and
+   * yours change in the same way, are left as mine has them; blocks which only yours changes are
+   * replaced with yours; and blocks which both change differently are marked as conflicts.
+   */
+  private Result outputDiff3Merge(List<Diff3Block> blocks, String mineLabel, String yoursLabel) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(mine.content.length);
+    boolean conflictsFound = false;
+    int linesRead = 0;
+
+    for (Diff3Block block : blocks) {
+      boolean conflict;
+      if (block.correspond == Correspond.SECOND) {
+        conflict = false;
+      } else if (block.correspond == Correspond.ALL) {
+        conflict = true;
+      } else {
+        continue;
+      }
+
+      // Copy the lines of mine before the block.
+      mine.write(linesRead, block.low[FILE0] - 1, out);
+      linesRead = block.low[FILE0] - 1;
+
+      if (conflict) {
+        conflictsFound = true;
+        writeMarker("<<<<<<< " + mineLabel + "\n", out);
+        mine.write(linesRead, linesRead + block.numLines(FILE0), out);
+        writeMarker("=======\n", out);
+      }
+      yours.write(block.low[FILE1] - 1, block.high[FILE1], out);
+      if (conflict) {
+        writeMarker(">>>>>>> " + yoursLabel + "\n", out);
+      }
+
+      // Skip the lines of mine in the block.
+      linesRead += block.numLines(FILE0);
+    }
+
+    mine.write(linesRead, mine.count(), out);
+    return new Result(out.toByteArray(), conflictsFound);
+  }
+
+  private static void writeMarker(String marker, ByteArrayOutputStream out) {
+    byte[] bytes = marker.getBytes(UTF_8);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  /** A file's contents, split into lines, the last of which may lack a newline. */
+  private static final class Lines {
+    final byte[] content;
+    /** The offset of each line in content, and then of the end. */
+    final int[] starts;
+
+    Lines(byte[] content) {
+      this.content = content;
+      int count = 0;
+      for (byte b : content) {
+        if (b == '\n') {
+          count++;
+        }
+      }
+      boolean incomplete = content.length > 0 && content[content.length - 1] != '\n';
+      starts = new int[count + (incomplete ? 2 : 1)];
+      int line = 0;
+      for (int i = 0; i < content.length; i++) {
+        if (content[i] == '\n') {
+          starts[++line] = i + 1;
+        }
+      }
+      starts[starts.length - 1] = content.length;
+    }
+
+    int count() {
+      return starts.length - 1;
+    }
+
+    /** Writes lines [from, to), zero-based. */
+    void write(int from, int to, ByteArrayOutputStream out) {
+      out.write(content, starts[from], starts[to] - starts[from]);
+    }
+
+    boolean lineEquals(int line, Lines other, int otherLine) {
+      int length = starts[line + 1] - starts[line];
+      if (length != other.starts[otherLine + 1] - other.starts[otherLine]) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (content[starts[line] + i] != other.content[other.starts[otherLine] + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
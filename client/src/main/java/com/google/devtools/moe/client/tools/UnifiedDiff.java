@@ -0,0 +1,935 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Computes unified diffs exactly as GNU {@code diff -u} (diffutils 3.x) prints them.
+ *
+ * <p>Many edit scripts are equally short, so matching diff byte for byte means following its
+ * algorithm, not just any diff algorithm: the identical leading and trailing lines are set aside,
+ * bar a few lines of "horizon"; lines which match nothing in the other file are discarded up
+ * front; the rest are compared with Myers' O(ND) algorithm (as without {@code
+ * --speed-large-files}); and runs of changes are slid to merge with their neighbours. Hunks are
+ * then printed with three lines of context. Methods are named after their counterparts in diff's
+ * io.c, analyze.c and context.c, to ease comparison with them.
+ */
+final class UnifiedDiff {
+  private static final int CONTEXT = 3;
+
+  /** How many lines of the identical prefix and suffix are still compared, by default. */
+  private static final int HORIZON_LINES = CONTEXT;
+
+  /** How much of each file diff reads to decide whether it's binary: one block, usually. */
+  private static final int BINARY_CHECK_BYTES = 4096;
+
+  private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(UTF_8);
+
+  private static final DateTimeFormatter TIME_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS xx");
+
+  private final FileData[] files;
+  private final int horizonLines;
+
+  // The state of compareseq(), i.e. the undiscarded lines and the diagonal vectors.
+  private int[] xvec;
+  private int[] yvec;
+  private int[] fdiag;
+  private int[] bdiag;
+  private int diagOffset;
+  private int tooExpensive;
+
+  private UnifiedDiff(byte[] content0, byte[] content1, int horizonLines) {
+    this.files = new FileData[] {new FileData(content0), new FileData(content1)};
+    this.horizonLines = horizonLines;
+  }
+
+  /** Returns whether diff would treat the given contents as binary, i.e. not diff their lines. */
+  static boolean isBinary(byte[] content) {
+    for (int i = 0; i < Math.min(content.length, BINARY_CHECK_BYTES); i++) {
+      if (content[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns what {@code diff -u} prints for the given contents, or null if they're identical.
+   *
+   * @param label0 the label for the first file's header, e.g. from {@link #label}
+   * @param label1 the label for the second file's header
+   */
+  @Nullable
+  static byte[] diff(byte[] content0, String label0, byte[] content1, String label1) {
+    if (Arrays.equals(content0, content1)) {
+      return null;
+    }
+    UnifiedDiff diff = new UnifiedDiff(content0, content1, HORIZON_LINES);
+    diff.analyze();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeAscii(out, "--- " + label0 + "\n");
+    writeAscii(out, "+++ " + label1 + "\n");
+    diff.printUnidiffScript(diff.buildScript(), out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the changes which turn the first contents into the second, in order, as {@code diff
+   * --horizon-lines=<horizonLines>} finds them. Line numbers are zero-based, counting from the
+   * start of each file.
+   */
+  static List<Change> changes(byte[] content0, byte[] content1, int horizonLines) {
+    if (Arrays.equals(content0, content1)) {
+      return Collections.emptyList();
+    }
+    UnifiedDiff diff = new UnifiedDiff(content0, content1, Math.max(horizonLines, 0));
+    diff.analyze();
+    int prefix = diff.files[0].prefixLines; // The same in both files.
+    List<Change> changes = new ArrayList<>();
+    for (Change change : diff.buildScript()) {
+      changes.add(
+          new Change(
+              change.line0 + prefix, change.line1 + prefix, change.deleted, change.inserted));
+    }
+    return changes;
+  }
+
+  /** Finds the changed lines of each file. */
+  private void analyze() {
+    findIdenticalEnds();
+    for (FileData file : files) {
+      file.findLines();
+    }
+    findAndHashEachLine();
+    discardConfusingLines();
+    compareFiles();
+    shiftBoundaries();
+  }
+
+  /**
+   * Returns the label diff gives a file in a header line: its name, quoted if need be, and its
+   * modification time, or the epoch if it doesn't exist.
+   */
+  static String label(String name, Instant modified) {
+    return quoteName(name) + "\t" + TIME_FORMAT.format(modified.atZone(ZoneId.systemDefault()));
+  }
+
+  /** Quotes a name as diff (since 3.8, in the C locale) does, if it contains unusual bytes. */
+  private static String quoteName(String name) {
+    byte[] bytes = name.getBytes(UTF_8);
+    boolean needsQuoting = false;
+    for (byte b : bytes) {
+      needsQuoting |= (b & 0xff) <= ' ' || b == '"' || b == '\\' || b < 0;
+    }
+    if (!needsQuoting) {
+      return name;
+    }
+    StringBuilder quoted = new StringBuilder("\"");
+    for (byte b : bytes) {
+      int c = b & 0xff;
+      int escape = "\u0007\b\t\n\u000b\f\r\"\\".indexOf(c);
+      if (escape >= 0) {
+        quoted.append('\\').append("abtnvfr\"\\".charAt(escape));
+      } else if (c < ' ' || c >= 0x80) {
+        quoted.append(String.format("\\%03o", c));
+      } else {
+        quoted.append((char) c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * Finds the identical prefix and suffix of the files. Only the lines between them, and
+   * {@link #horizonLines} lines of each, are compared.
+   */
+  private void findIdenticalEnds() {
+    byte[] buffer0 = files[0].buffer;
+    byte[] buffer1 = files[1].buffer;
+    int n0 = buffer0.length;
+    int n1 = buffer1.length;
+
+    // Find the identical prefix.
+    int p = 0;
+    while (p < n0 && p < n1 && buffer0[p] == buffer1[p]) {
+      p++;
+    }
+    // Don't mistakenly count a missing newline as part of the prefix.
+    if ((n0 - (files[0].missingNewline ? 1 : 0) < p)
+        != (n1 - (files[1].missingNewline ? 1 : 0) < p)) {
+      p--;
+    }
+    // Skip back to the last line-beginning in the prefix, and then up to horizonLines more.
+    int i = horizonLines;
+    while (p != 0 && (buffer0[p - 1] != '\n' || i-- != 0)) {
+      p--;
+    }
+    files[0].prefixEnd = p;
+    files[1].prefixEnd = p;
+
+    // Find the identical suffix.
+    int p0 = n0;
+    int p1 = n1;
+    if (files[0].missingNewline == files[1].missingNewline) {
+      int end0 = p0;
+      // Stop when either p0 or p1 reaches the end of the prefix.
+      int beg0 = p + (n0 < n1 ? 0 : n0 - n1);
+      while (p0 != beg0) {
+        if (buffer0[--p0] != buffer1[--p1]) {
+          ++p0;
+          ++p1;
+          beg0 = p0;
+          break;
+        }
+      }
+      // If not at a line-beginning in both files, keep the rest of this line. Then keep up to
+      // horizonLines lines of the suffix.
+      i =
+          horizonLines
+              + ((p0 == 0 || buffer0[p0 - 1] == '\n') && (p1 == 0 || buffer1[p1 - 1] == '\n')
+                  ? 0
+                  : 1);
+      while (i-- != 0 && p0 != end0) {
+        while (buffer0[p0++] != '\n') {}
+      }
+      p1 += p0 - beg0;
+    }
+    files[0].suffixBegin = p0;
+    files[1].suffixBegin = p1;
+  }
+
+  /**
+   * Assigns each line between the prefix and suffix of either file a number, its equivalence
+   * class, such that lines are equal if and only if their classes are. Classes start at 1.
+   */
+  private void findAndHashEachLine() {
+    Map<Line, Integer> classes = new HashMap<>();
+    for (FileData file : files) {
+      file.equivs = new int[file.bufferedLines];
+      for (int i = 0; i < file.bufferedLines; i++) {
+        Line line = file.line(file.prefixLines + i);
+        Integer equiv = classes.get(line);
+        if (equiv == null) {
+          equiv = classes.size() + 1;
+          classes.put(line, equiv);
+        }
+        file.equivs[i] = equiv;
+      }
+    }
+    for (FileData file : files) {
+      file.equivMax = classes.size() + 1;
+    }
+  }
+
+  /**
+   * Discards lines which match no line of the other file, and so must be insertions or deletions,
+   * so that the main comparison needn't consider them. Lines matching very many lines are
+   * discarded too, if they're surrounded by discarded lines.
+   */
+  private void discardConfusingLines() {
+    int[][] equivCount = new int[2][files[0].equivMax];
+    for (int f = 0; f < 2; f++) {
+      for (int i = 0; i < files[f].bufferedLines; i++) {
+        equivCount[f][files[f].equivs[i]]++;
+      }
+    }
+
+    // Mark each line that matches no line of the other file to be discarded (1). If a line
+    // matches many lines, mark it as provisionally discardable (2).
+    byte[][] discarded = new byte[2][];
+    for (int f = 0; f < 2; f++) {
+      int end = files[f].bufferedLines;
+      byte[] discards = discarded[f] = new byte[end];
+      int[] counts = equivCount[1 - f];
+      int[] equivs = files[f].equivs;
+      int many = 5;
+      // Multiply many by the approximate square root of the number of lines.
+      for (int tem = (end / 64) >> 2; tem > 0; tem >>= 2) {
+        many *= 2;
+      }
+      for (int i = 0; i < end; i++) {
+        int nmatch = counts[equivs[i]];
+        if (nmatch == 0) {
+          discards[i] = 1;
+        } else if (nmatch > many) {
+          discards[i] = 2;
+        }
+      }
+    }
+
+    // Only really discard provisional lines when they're in a run of discardables, with
+    // non-provisionals at the beginning and end.
+    for (int f = 0; f < 2; f++) {
+      int end = files[f].bufferedLines;
+      byte[] discards = discarded[f];
+      for (int i = 0; i < end; i++) {
+        if (discards[i] == 2) {
+          // Cancel provisional discards not in the middle of a run of discards.
+          discards[i] = 0;
+        } else if (discards[i] != 0) {
+          // Find the end of this run of discardable lines, counting the provisional ones.
+          int j;
+          int provisional = 0;
+          for (j = i; j < end; j++) {
+            if (discards[j] == 0) {
+              break;
+            }
+            if (discards[j] == 2) {
+              ++provisional;
+            }
+          }
+          // Cancel provisional discards at the end, and shrink the run.
+          while (j > i && discards[j - 1] == 2) {
+            discards[--j] = 0;
+            --provisional;
+          }
+          int length = j - i;
+
+          if (provisional * 4 > length) {
+            // If 1/4 of the lines in the run are provisional, cancel all of them.
+            while (j > i) {
+              if (discards[--j] == 2) {
+                discards[j] = 0;
+              }
+            }
+          } else {
+            // Cancel any subrun of minimum (about the square root of length / 4) or more
+            // provisionals within the larger run.
+            int minimum = 1;
+            for (int tem = length >> 2; (tem >>= 2) > 0; ) {
+              minimum <<= 1;
+            }
+            minimum++;
+            int consec = 0;
+            for (j = 0; j < length; j++) {
+              if (discards[i + j] != 2) {
+                consec = 0;
+              } else if (minimum == ++consec) {
+                // Back up to the start of the subrun, to cancel it all.
+                j -= consec;
+              } else if (minimum < consec) {
+                discards[i + j] = 0;
+              }
+            }
+
+            // Scan from the beginning of the run until finding 3 or more non-provisionals in a
+            // row, or the first non-provisional at least 8 lines in, cancelling provisionals.
+            consec = 0;
+            for (j = 0; j < length; j++) {
+              if (j >= 8 && discards[i + j] == 1) {
+                break;
+              }
+              if (discards[i + j] == 2) {
+                consec = 0;
+                discards[i + j] = 0;
+              } else if (discards[i + j] == 0) {
+                consec = 0;
+              } else {
+                consec++;
+              }
+              if (consec == 3) {
+                break;
+              }
+            }
+
+            // Advance to the last line of the run, and do the same from the end.
+            i += length - 1;
+            consec = 0;
+            for (j = 0; j < length; j++) {
+              if (j >= 8 && discards[i - j] == 1) {
+                break;
+              }
+              if (discards[i - j] == 2) {
+                consec = 0;
+                discards[i - j] = 0;
+              } else if (discards[i - j] == 0) {
+                consec = 0;
+              } else {
+                consec++;
+              }
+              if (consec == 3) {
+                break;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    // Actually discard the lines, marking them changed.
+    for (int f = 0; f < 2; f++) {
+      FileData file = files[f];
+      file.undiscarded = new int[file.bufferedLines];
+      file.realIndexes = new int[file.bufferedLines];
+      int j = 0;
+      for (int i = 0; i < file.bufferedLines; i++) {
+        if (discarded[f][i] == 0) {
+          file.undiscarded[j] = file.equivs[i];
+          file.realIndexes[j++] = i;
+        } else {
+          file.setChanged(i, true);
+        }
+      }
+      file.nondiscardedLines = j;
+    }
+  }
+
+  /** Compares the undiscarded lines of the files, marking the changed ones. */
+  private void compareFiles() {
+    xvec = files[0].undiscarded;
+    yvec = files[1].undiscarded;
+    int diags = files[0].nondiscardedLines + files[1].nondiscardedLines + 3;
+    fdiag = new int[diags];
+    bdiag = new int[diags];
+    diagOffset = files[1].nondiscardedLines + 1;
+    // Give up on a minimal diff at about the square root of the input size, but at least 4096.
+    int tooExpensive = 1;
+    for (; diags != 0; diags >>= 2) {
+      tooExpensive <<= 1;
+    }
+    this.tooExpensive = Math.max(4096, tooExpensive);
+    compareseq(0, files[0].nondiscardedLines, 0, files[1].nondiscardedLines, false);
+  }
+
+  /**
+   * Compares lines [xoff, xlim) of the first file's undiscarded lines with [yoff, ylim) of the
+   * second's, marking deleted and inserted lines as changed.
+   */
+  private void compareseq(int xoff, int xlim, int yoff, int ylim, boolean findMinimal) {
+    while (true) {
+      // Slide down the bottom initial diagonal.
+      while (xoff < xlim && yoff < ylim && xvec[xoff] == yvec[yoff]) {
+        xoff++;
+        yoff++;
+      }
+      // Slide up the top initial diagonal.
+      while (xoff < xlim && yoff < ylim && xvec[xlim - 1] == yvec[ylim - 1]) {
+        xlim--;
+        ylim--;
+      }
+
+      // Handle simple cases.
+      if (xoff == xlim) {
+        while (yoff < ylim) {
+          files[1].setChanged(files[1].realIndexes[yoff++], true);
+        }
+        return;
+      }
+      if (yoff == ylim) {
+        while (xoff < xlim) {
+          files[0].setChanged(files[0].realIndexes[xoff++], true);
+        }
+        return;
+      }
+
+      // Find a point of correspondence in the middle, and split the problem there.
+      Partition part = diag(xoff, xlim, yoff, ylim, findMinimal);
+      compareseq(xoff, part.xmid, yoff, part.ymid, part.loMinimal);
+      xoff = part.xmid;
+      yoff = part.ymid;
+      findMinimal = part.hiMinimal;
+    }
+  }
+
+  /** Where {@link #diag} splits a comparison, and how to compare each half. */
+  private static final class Partition {
+    final int xmid;
+    final int ymid;
+    final boolean loMinimal;
+    final boolean hiMinimal;
+
+    Partition(int xmid, int ymid, boolean loMinimal, boolean hiMinimal) {
+      this.xmid = xmid;
+      this.ymid = ymid;
+      this.loMinimal = loMinimal;
+      this.hiMinimal = hiMinimal;
+    }
+  }
+
+  /**
+   * Finds the midpoint of the shortest edit script for the given ranges, by searching forward
+   * from their starts and backward from their ends until the searches meet. If that proves too
+   * expensive, and findMinimal is false, settles for the furthest point either search reached.
+   */
+  private Partition diag(int xoff, int xlim, int yoff, int ylim, boolean findMinimal) {
+    int[] fd = fdiag;
+    int[] bd = bdiag;
+    int[] xv = xvec;
+    int[] yv = yvec;
+    int o = diagOffset;
+    int dmin = xoff - ylim; // Minimum valid diagonal.
+    int dmax = xlim - yoff; // Maximum valid diagonal.
+    int fmid = xoff - yoff; // Center diagonal of the forward search.
+    int bmid = xlim - ylim; // Center diagonal of the backward search.
+    int fmin = fmid;
+    int fmax = fmid;
+    int bmin = bmid;
+    int bmax = bmid;
+    // Whether the southeast corner is on an odd diagonal with respect to the northwest.
+    boolean odd = ((fmid - bmid) & 1) != 0;
+
+    fd[o + fmid] = xoff;
+    bd[o + bmid] = xlim;
+
+    for (int c = 1; ; ++c) {
+      // Extend the forward search by an edit step in each diagonal.
+      if (fmin > dmin) {
+        fd[o + --fmin - 1] = -1;
+      } else {
+        ++fmin;
+      }
+      if (fmax < dmax) {
+        fd[o + ++fmax + 1] = -1;
+      } else {
+        --fmax;
+      }
+      for (int d = fmax; d >= fmin; d -= 2) {
+        int tlo = fd[o + d - 1];
+        int thi = fd[o + d + 1];
+        int x = tlo < thi ? thi : tlo + 1;
+        int y = x - d;
+        while (x < xlim && y < ylim && xv[x] == yv[y]) {
+          x++;
+          y++;
+        }
+        fd[o + d] = x;
+        if (odd && bmin <= d && d <= bmax && bd[o + d] <= x) {
+          return new Partition(x, y, true, true);
+        }
+      }
+
+      // Similarly extend the backward search.
+      if (bmin > dmin) {
+        bd[o + --bmin - 1] = Integer.MAX_VALUE;
+      } else {
+        ++bmin;
+      }
+      if (bmax < dmax) {
+        bd[o + ++bmax + 1] = Integer.MAX_VALUE;
+      } else {
+        --bmax;
+      }
+      for (int d = bmax; d >= bmin; d -= 2) {
+        int tlo = bd[o + d - 1];
+        int thi = bd[o + d + 1];
+        int x = tlo < thi ? tlo : thi - 1;
+        int y = x - d;
+        while (xoff < x && yoff < y && xv[x - 1] == yv[y - 1]) {
+          x--;
+          y--;
+        }
+        bd[o + d] = x;
+        if (!odd && fmin <= d && d <= fmax && x <= fd[o + d]) {
+          return new Partition(x, y, true, true);
+        }
+      }
+
+      if (findMinimal || c < tooExpensive) {
+        continue;
+      }
+
+      // We've gone well beyond the call of duty: give up, and report the better of the furthest
+      // points reached. First, the forward diagonal that maximizes x + y.
+      int fxybest = -1;
+      int fxbest = 0;
+      for (int d = fmax; d >= fmin; d -= 2) {
+        int x = Math.min(fd[o + d], xlim);
+        int y = x - d;
+        if (ylim < y) {
+          x = ylim + d;
+          y = ylim;
+        }
+        if (fxybest < x + y) {
+          fxybest = x + y;
+          fxbest = x;
+        }
+      }
+      // Then the backward diagonal that minimizes x + y.
+      int bxybest = Integer.MAX_VALUE;
+      int bxbest = 0;
+      for (int d = bmax; d >= bmin; d -= 2) {
+        int x = Math.max(xoff, bd[o + d]);
+        int y = x - d;
+        if (y < yoff) {
+          x = yoff + d;
+          y = yoff;
+        }
+        if (x + y < bxybest) {
+          bxybest = x + y;
+          bxbest = x;
+        }
+      }
+      return (xlim + ylim) - bxybest < fxybest - (xoff + yoff)
+          ? new Partition(fxbest, fxybest - fxbest, true, false)
+          : new Partition(bxbest, bxybest - bxbest, false, true);
+    }
+  }
+
+  /**
+   * Adjusts the changed lines to make the diff prettier where that can validly be done: each run
+   * of changes is merged with its neighbours if it can be, slid as far forward as it can go, and
+   * then back to line up with a run of changes in the other file, if there is one.
+   */
+  private void shiftBoundaries() {
+    for (int f = 0; f < 2; f++) {
+      FileData file = files[f];
+      FileData other = files[1 - f];
+      int[] equivs = file.equivs;
+      int i = 0;
+      int j = 0;
+      int iEnd = file.bufferedLines;
+
+      while (true) {
+        // Scan forwards to find the beginning of another run of changes, tracking the
+        // corresponding point in the other file.
+        while (i < iEnd && !file.changed(i)) {
+          while (other.changed(j++)) {}
+          i++;
+        }
+        if (i == iEnd) {
+          break;
+        }
+        int start = i;
+
+        // Find the end of this run of changes.
+        while (file.changed(++i)) {}
+        while (other.changed(j)) {
+          j++;
+        }
+
+        int runLength;
+        int corresponding;
+        do {
+          // Record the length of this run, to tell whether it has grown.
+          runLength = i - start;
+
+          // Move the run back, so long as the previous unchanged line matches the last changed
+          // one. This merges it with previous runs.
+          while (start != 0 && equivs[start - 1] == equivs[i - 1]) {
+            file.setChanged(--start, true);
+            file.setChanged(--i, false);
+            while (file.changed(start - 1)) {
+              start--;
+            }
+            while (other.changed(--j)) {}
+          }
+
+          // Note the end of the run, at the last point where it corresponds to a run in the
+          // other file; iEnd means there is none.
+          corresponding = other.changed(j - 1) ? i : iEnd;
+
+          // Move the run forward, so long as the first changed line matches the following
+          // unchanged one. This merges it with following runs. Do this second, so that if there
+          // are no merges, the run is moved forward as far as possible.
+          while (i != iEnd && equivs[start] == equivs[i]) {
+            file.setChanged(start++, false);
+            file.setChanged(i++, true);
+            while (file.changed(i)) {
+              i++;
+            }
+            while (other.changed(++j)) {
+              corresponding = i;
+            }
+          }
+        } while (runLength != i - start);
+
+        // If possible, move the fully-merged run back to a corresponding run in the other file.
+        while (corresponding < i) {
+          file.setChanged(--start, true);
+          file.setChanged(--i, false);
+          while (other.changed(--j)) {}
+        }
+      }
+    }
+  }
+
+  /** A change: lines deleted from the first file and inserted in the second, at one point. */
+  static final class Change {
+    final int line0;
+    final int line1;
+    final int deleted;
+    final int inserted;
+
+    Change(int line0, int line1, int deleted, int inserted) {
+      this.line0 = line0;
+      this.line1 = line1;
+      this.deleted = deleted;
+      this.inserted = inserted;
+    }
+  }
+
+  /** Returns the changes, in order, with line numbers relative to the compared lines. */
+  private List<Change> buildScript() {
+    List<Change> script = new ArrayList<>();
+    int i0 = files[0].bufferedLines;
+    int i1 = files[1].bufferedLines;
+    while (i0 >= 0 || i1 >= 0) {
+      if (files[0].changed(i0 - 1) || files[1].changed(i1 - 1)) {
+        int line0 = i0;
+        int line1 = i1;
+        // Find the number of lines changed here in each file.
+        while (files[0].changed(i0 - 1)) {
+          --i0;
+        }
+        while (files[1].changed(i1 - 1)) {
+          --i1;
+        }
+        script.add(new Change(i0, i1, line0 - i0, line1 - i1));
+      }
+      // We have reached lines in the two files that match each other.
+      i0--;
+      i1--;
+    }
+    Collections.reverse(script);
+    return script;
+  }
+
+  /** Prints the changes as hunks, merging changes separated by too little context. */
+  private void printUnidiffScript(List<Change> script, ByteArrayOutputStream out) {
+    int start = 0;
+    while (start < script.size()) {
+      int end = findHunk(script, start);
+      printUnidiffHunk(script, start, end, out);
+      start = end + 1;
+    }
+  }
+
+  /**
+   * Returns the index of the last change of the hunk starting at {@code start}, i.e. the last
+   * before more than 2 * {@link #CONTEXT} unchanged lines.
+   */
+  private static int findHunk(List<Change> script, int start) {
+    int k = start;
+    while (k + 1 < script.size()) {
+      Change change = script.get(k);
+      int top0 = change.line0 + change.deleted;
+      if (script.get(k + 1).line0 - top0 >= 2 * CONTEXT + 1) {
+        break;
+      }
+      k++;
+    }
+    return k;
+  }
+
+  /** Prints the hunk of changes [start, end] of the script. */
+  private void printUnidiffHunk(
+      List<Change> script, int start, int end, ByteArrayOutputStream out) {
+    FileData file0 = files[0];
+    FileData file1 = files[1];
+    int prefix = file0.prefixLines; // The same in both files.
+    Change first = script.get(start);
+    Change last = script.get(end);
+
+    // The range of lines involved in each file, as line numbers in the whole file, including
+    // a context's width before and after.
+    int first0 = Math.max(first.line0 + prefix - CONTEXT, 0);
+    int first1 = Math.max(first.line1 + prefix - CONTEXT, 0);
+    int last0 = last.line0 + last.deleted - 1 + prefix;
+    int last1 = last.line1 + last.inserted - 1 + prefix;
+    last0 = last0 < file0.lines() - CONTEXT ? last0 + CONTEXT : file0.lines() - 1;
+    last1 = last1 < file1.lines() - CONTEXT ? last1 + CONTEXT : file1.lines() - 1;
+
+    writeAscii(
+        out,
+        "@@ -" + numberRange(first0, last0) + " +" + numberRange(first1, last1) + " @@\n");
+
+    int next = start;
+    int i = first0;
+    int j = first1;
+    while (i <= last0 || j <= last1) {
+      // If the line isn't a difference, output the context from the first file.
+      if (next > end || i < script.get(next).line0 + prefix) {
+        file0.printLine(' ', i++, out);
+        j++;
+      } else {
+        // For each difference, first output the deleted part, then the inserted part.
+        Change change = script.get(next++);
+        for (int k = 0; k < change.deleted; k++) {
+          file0.printLine('-', i++, out);
+        }
+        for (int k = 0; k < change.inserted; k++) {
+          file1.printLine('+', j++, out);
+        }
+      }
+    }
+  }
+
+  /** Formats a range of (zero-based) line numbers, as for a hunk header. */
+  private static String numberRange(int a, int b) {
+    // For an empty range, diff prints the number of the line before it, as patch expects.
+    int transA = a + 1;
+    int transB = b + 1;
+    if (transB <= transA) {
+      return transB < transA ? transB + ",0" : Integer.toString(transB);
+    }
+    return transA + "," + (transB - transA + 1);
+  }
+
+  private static void writeAscii(ByteArrayOutputStream out, String s) {
+    byte[] bytes = s.getBytes(UTF_8);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  /** A file being diffed, and the state of its analysis. */
+  private static final class FileData {
+    /** The file's contents, with a newline appended if its last line lacked one. */
+    final byte[] buffer;
+    final boolean missingNewline;
+    /** The offset in buffer of each line, and then of the end. */
+    int[] lineStarts;
+
+    /** The end of the identical prefix, and beginning of the identical suffix, in buffer. */
+    int prefixEnd;
+    int suffixBegin;
+
+    /** The number of lines in the prefix, and the number between the prefix and suffix. */
+    int prefixLines;
+    int bufferedLines;
+
+    /** The equivalence class of each line between the prefix and suffix. */
+    int[] equivs;
+    int equivMax;
+
+    /**
+     * Whether each line between the prefix and suffix is changed. Entry k is for line k - 1,
+     * so that lines -1 and bufferedLines (and one beyond) are always unchanged.
+     */
+    boolean[] changed;
+
+    /** The equivalence classes of the undiscarded lines, and their indexes among all lines. */
+    int[] undiscarded;
+    int[] realIndexes;
+    int nondiscardedLines;
+
+    FileData(byte[] content) {
+      missingNewline = content.length > 0 && content[content.length - 1] != '\n';
+      if (missingNewline) {
+        buffer = Arrays.copyOf(content, content.length + 1);
+        buffer[content.length] = '\n';
+      } else {
+        buffer = content;
+      }
+    }
+
+    /** Finds the starts of lines, and which are in the prefix and which are compared. */
+    void findLines() {
+      int count = 0;
+      for (byte b : buffer) {
+        if (b == '\n') {
+          count++;
+        }
+      }
+      lineStarts = new int[count + 1];
+      int line = 0;
+      for (int i = 0; i < buffer.length; i++) {
+        if (buffer[i] == '\n') {
+          lineStarts[++line] = i + 1;
+        }
+        if (i + 1 == prefixEnd) {
+          prefixLines = line;
+        }
+        if (i + 1 == suffixBegin) {
+          bufferedLines = line - prefixLines;
+        }
+      }
+      changed = new boolean[bufferedLines + 3];
+    }
+
+    int lines() {
+      return lineStarts.length - 1;
+    }
+
+    /** Returns the given line, which lacks a newline if it's an incomplete last line. */
+    Line line(int index) {
+      boolean incomplete = missingNewline && index == lines() - 1;
+      return new Line(buffer, lineStarts[index], lineStarts[index + 1] - (incomplete ? 1 : 0));
+    }
+
+    boolean changed(int line) {
+      return changed[line + 1];
+    }
+
+    void setChanged(int line, boolean value) {
+      changed[line + 1] = value;
+    }
+
+    void printLine(char prefix, int index, ByteArrayOutputStream out) {
+      Line line = line(index);
+      out.write(prefix);
+      out.write(buffer, line.start, line.end - line.start);
+      if (line.end == buffer.length - 1 && missingNewline) {
+        out.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+      }
+    }
+  }
+
+  /** A line of a file, compared by its bytes. */
+  private static final class Line {
+    final byte[] buffer;
+    final int start;
+    final int end;
+    final int hash;
+
+    Line(byte[] buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+      int hash = 1;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + buffer[i];
+      }
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Line)) {
+        return false;
+      }
+      Line that = (Line) o;
+      if (hash != that.hash || end - start != that.end - that.start) {
+        return false;
+      }
+      for (int i = start, j = that.start; i < end; i++, j++) {
+        if (buffer[i] != that.buffer[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.devtools.moe.client.MoeProblem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.annotation.Nullable;
+
+/**
+ * A file passing through a chain of {@link FileLocalEditor}s: its name so far, and its contents,
+ * which are read from the file it started as only if an editor asks for them, and at most once.
+ */
+public final class EditedFile {
+  private final String name;
+  private final File source;
+  private final Contents contents;
+
+  private EditedFile(String name, File source, Contents contents) {
+    this.name = name;
+    this.source = source;
+    this.contents = contents;
+  }
+
+  /**
+   * Returns a file yet to be edited.
+   *
+   * @param name the file's name, relative to the root of its codebase
+   * @param source the file with its contents and mode
+   */
+  public static EditedFile of(String name, File source) {
+    return new EditedFile(name, source, new Contents(source, null));
+  }
+
+  /** The file's name, relative to the root of its codebase. */
+  public String name() {
+    return name;
+  }
+
+  /** The file this one started as, which has its mode, and its contents unless modified. */
+  public File source() {
+    return source;
+  }
+
+  /** Returns the file's contents, which callers mustn't modify. */
+  public byte[] contents() {
+    return contents.get();
+  }
+
+  /** Returns whether the file's contents are no longer those of its source. */
+  public boolean isModified() {
+    return contents.modified;
+  }
+
+  public EditedFile withName(String newName) {
+    return new EditedFile(newName, source, contents);
+  }
+
+  public EditedFile withContents(byte[] newContents) {
+    return new EditedFile(name, source, new Contents(source, newContents));
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /** The contents of a file, shared by the files renamed from it, so that it's only read once. */
+  private static final class Contents {
+    private final File source;
+    private final boolean modified;
+    @Nullable private byte[] bytes;
+
+    Contents(File source, @Nullable byte[] bytes) {
+      this.source = source;
+      this.modified = bytes != null;
+      this.bytes = bytes;
+    }
+
+    synchronized byte[] get() {
+      if (bytes == null) {
+        try {
+          bytes = Files.readAllBytes(source.toPath());
+        } catch (IOException e) {
+          throw new MoeProblem(e, "Could not read %s", source);
+        }
+      }
+      return bytes;
+    }
+  }
+}
@@ -80,7 +80,7 @@ public class Editors {
     @Binds
     @IntoMap
     @EditorKey(scrubber)
-    Editor.Factory scrubber(ScrubbingEditorFactory factory);
+    Editor.Factory scrubber(ScrubbingEditorSelector factory);
 
     @Binds
     @IntoMap
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link Editor} which edits each file on its own, from its name and contents alone, so that a
+ * chain of such editors can be applied to each file in turn, in one pass over the codebase (see
+ * {@link FusedEditor}). Editors which need a directory of files, like {@link ShellEditor}, aren't
+ * file-local.
+ */
+public interface FileLocalEditor extends Editor {
+
+  /**
+   * Edits one file of a codebase, as {@link #edit} would.
+   *
+   * @param file the file to edit
+   * @param options command-line parameters
+   * @return the edited file, or null if the edited codebase doesn't have it
+   */
+  @Nullable
+  EditedFile editFile(EditedFile file, Map<String, String> options);
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.WorkerPools;
+import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Applies a chain of {@link FileLocalEditor}s to a codebase in one pass, rather than one pass per
+ * editor: each file goes through every editor in turn, is read at most once, and is written at most
+ * once, if its contents change, into a {@link CodebaseLayer} over the input. Files are edited in
+ * parallel, on the shared {@link WorkerPools} pool for I/O-bound work.
+ */
+public final class FusedEditor implements FileLocalEditor {
+  private static final ForkJoinPool pool =
+      WorkerPools.withParallelism(WorkerPools.IO_BOUND_PARALLELISM);
+
+  private final FileSystem filesystem;
+  private final ImmutableList<FileLocalEditor> editors;
+
+  public FusedEditor(FileSystem filesystem, List<FileLocalEditor> editors) {
+    this.filesystem = filesystem;
+    this.editors = ImmutableList.copyOf(editors);
+  }
+
+  @Override
+  public String getDescription() {
+    return editors.stream().map(Editor::getDescription).collect(joining(", "));
+  }
+
+  @Override
+  public EditedFile editFile(EditedFile file, Map<String, String> options) {
+    for (FileLocalEditor editor : editors) {
+      file = editor.editFile(file, options);
+      if (file == null) {
+        return null;
+      }
+    }
+    return file;
+  }
+
+  @Override
+  public Codebase edit(Codebase input, Map<String, String> options) {
+    File tempDir = filesystem.getTemporaryDirectory("fused_edit_run_");
+    Map<String, EditedFile> filesByName;
+    try {
+      filesByName = pool.submit(() -> editFiles(input, tempDir, options)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted editing %s", input);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new MoeProblem(e.getCause(), "Could not edit %s", input);
+    }
+
+    Map<String, File> files = new TreeMap<>();
+    for (EditedFile file : filesByName.values()) {
+      files.put(file.name(), file.isModified() ? new File(tempDir, file.name()) : file.source());
+    }
+    return CodebaseLayer.create(filesystem, input, tempDir, files);
+  }
+
+  /**
+   * Edits the input's files in parallel, writing those whose contents changed into {@code
+   * tempDir}, and returns the edited files by name. Run on the pool, so that its parallel streams
+   * use the pool.
+   */
+  private Map<String, EditedFile> editFiles(
+      Codebase input, File tempDir, Map<String, String> options) {
+    List<EditedFile> editedFiles =
+        CodebaseLayer.files(input, filesystem)
+            .entrySet()
+            .parallelStream()
+            .map(file -> editFile(EditedFile.of(file.getKey(), file.getValue()), options))
+            .filter(Objects::nonNull)
+            .collect(toList());
+
+    // Where editors give several files the same name, the last one wins, as when renaming.
+    Map<String, EditedFile> filesByName = new TreeMap<>();
+    for (EditedFile file : editedFiles) {
+      filesByName.put(file.name(), file);
+    }
+    filesByName
+        .values()
+        .parallelStream()
+        .filter(EditedFile::isModified)
+        .forEach(file -> write(file, new File(tempDir, file.name())));
+    return filesByName;
+  }
+
+  /** Writes the file's contents, with its source's mode. */
+  private void write(EditedFile file, File destination) {
+    try {
+      filesystem.makeDirsForFile(destination);
+      Files.write(destination.toPath(), file.contents());
+      if (filesystem.isExecutable(file.source())) {
+        filesystem.setExecutable(destination);
+      }
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Could not write %s", destination);
+    }
+  }
+}
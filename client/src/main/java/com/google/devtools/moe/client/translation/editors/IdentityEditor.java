@@ -24,7 +24,7 @@ import java.util.Map;
 
 /** An IdentityEditor returns the same Codebase. */
 @AutoFactory(implementing = Editor.Factory.class)
-public class IdentityEditor implements Editor, InverseEditor {
+public class IdentityEditor implements FileLocalEditor, InverseEditor {
 
   @SuppressWarnings("unused")
   public IdentityEditor(String ignored, EditorConfig alsoIgnored) {}
@@ -48,6 +48,11 @@ public class IdentityEditor implements Editor, InverseEditor {
     return input;
   }
 
+  @Override
+  public EditedFile editFile(EditedFile file, Map<String, String> options) {
+    return file;
+  }
+
   @Override
   public Codebase inverseEdit(
       Codebase input,
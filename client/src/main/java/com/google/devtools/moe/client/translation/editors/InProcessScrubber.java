@@ -0,0 +1,612 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.project.InvalidProject;
+import com.google.devtools.moe.client.project.ScrubberConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Scrubs files within the JVM, for the commonly used options of a {@link
+ * com.google.devtools.moe.client.project.ScrubberConfig}, rather than running the external
+ * scrubber over a whole codebase. It reads the same JSON config the external scrubber is given,
+ * and supports:
+ *
+ * <ul>
+ * <li>{@code ignore_files_re}, whose files are dropped, and {@code do_not_scrub_files_re}, whose
+ *     files are left alone;
+ * <li>the {@code MOE:begin_strip}, {@code MOE:end_strip}, {@code MOE:end_strip_and_replace},
+ *     {@code MOE:begin_intracomment_strip}, {@code MOE:end_intracomment_strip}, {@code
+ *     MOE:strip_line} and {@code MOE:insert} markers;
+ * <li>{@code string_replacements} and {@code regex_replacements};
+ * <li>removing comments ({@code scrub_all_comments}, {@code scrub_non_documentation_comments},
+ *     {@code scrub_proto_comments}), in C-like languages and those with {@code #} comments;
+ * <li>the usernames in {@code TODO(username)} comments and, with {@code scrub_authors}, {@code
+ *     @author} tags, per {@code usernames_to_scrub}, {@code usernames_to_publish} and {@code
+ *     scrub_unknown_users};
+ * <li>{@code sensitive_words} and {@code sensitive_res}: comments containing them are removed
+ *     with {@code scrub_sensitive_comments}, and otherwise they fail the scrub, unless {@code
+ *     whitelist}ed by trigger and filename;
+ * <li>{@code maximum_blank_lines} in Java files.
+ * </ul>
+ *
+ * <p>Options outside these, e.g. language-specific renames, are rejected by {@link #create}.
+ */
+final class InProcessScrubber {
+  /** How much of a file to look for a NUL byte in, to tell whether it's binary, as diff does. */
+  private static final int BINARY_CHECK_BYTES = 8000;
+
+  private static final Pattern TODO = Pattern.compile("\\bTODO\\(([A-Za-z][\\w.-]*)\\)");
+  private static final Pattern AUTHOR =
+      Pattern.compile("@author[ \\t]+([^\\n]*?)(?=[ \\t]*(?:\\*/|\\r?\\n|$))");
+  private static final Pattern EMAIL_USERNAME = Pattern.compile("([\\w.+-]+)@");
+  private static final Pattern COMMENT_LINE_PREFIX = Pattern.compile("[ \\t]*(?:\\*|//|#)?[ \\t]*");
+  private static final Pattern EMPTY_COMMENT = Pattern.compile("(?:/\\*+|\\*+/|//+|#+|\\*|\\s)*");
+
+  @Nullable private final Pattern ignoreFiles;
+  @Nullable private final Pattern doNotScrubFiles;
+  private final ImmutableMap<String, String> stringReplacements;
+  private final ImmutableMap<Pattern, String> regexReplacements;
+  private final boolean scrubAllComments;
+  private final boolean scrubNonDocumentationComments;
+  private final boolean scrubProtoComments;
+  private final boolean scrubSensitiveComments;
+  /** The patterns of sensitive content, each with the word or regex it was configured as. */
+  private final ImmutableMap<Pattern, String> sensitive;
+  private final ImmutableList<JsonObject> whitelist;
+  private final ImmutableSet<String> usernamesToScrub;
+  private final ImmutableSet<String> usernamesToPublish;
+  private final boolean scrubUnknownUsers;
+  private final boolean scrubAuthors;
+  private final int maximumBlankLines;
+
+  private InProcessScrubber(JsonObject config) {
+    ignoreFiles = pattern(config, "ignore_files_re");
+    doNotScrubFiles = pattern(config, "do_not_scrub_files_re");
+    ImmutableMap.Builder<String, String> strings = ImmutableMap.builder();
+    for (JsonObject replacement : objects(config, "string_replacements")) {
+      strings.put(
+          replacement.get("original").getAsString(), replacement.get("replacement").getAsString());
+    }
+    stringReplacements = strings.build();
+    ImmutableMap.Builder<Pattern, String> regexes = ImmutableMap.builder();
+    for (JsonObject replacement : objects(config, "regex_replacements")) {
+      regexes.put(
+          Pattern.compile(replacement.get("original").getAsString()),
+          replacement.get("replacement").getAsString());
+    }
+    regexReplacements = regexes.build();
+    scrubAllComments = bool(config, "scrub_all_comments", false);
+    scrubNonDocumentationComments = bool(config, "scrub_non_documentation_comments", false);
+    scrubProtoComments = bool(config, "scrub_proto_comments", false);
+    scrubSensitiveComments = bool(config, "scrub_sensitive_comments", true);
+    ImmutableMap.Builder<Pattern, String> sensitivePatterns = ImmutableMap.builder();
+    for (String word : strings(config, "sensitive_words")) {
+      sensitivePatterns.put(
+          Pattern.compile("\\b" + Pattern.quote(word) + "\\b", Pattern.CASE_INSENSITIVE), word);
+    }
+    for (String regex : strings(config, "sensitive_res")) {
+      sensitivePatterns.put(Pattern.compile(regex), regex);
+    }
+    sensitive = sensitivePatterns.build();
+    whitelist = objects(config, "whitelist");
+    usernamesToScrub = ImmutableSet.copyOf(strings(config, "usernames_to_scrub"));
+    usernamesToPublish = ImmutableSet.copyOf(strings(config, "usernames_to_publish"));
+    scrubUnknownUsers = bool(config, "scrub_unknown_users", false);
+    scrubAuthors = bool(config, "scrub_authors", true);
+    JsonElement blankLines = config.get("maximum_blank_lines");
+    maximumBlankLines = blankLines == null ? 0 : blankLines.getAsInt();
+  }
+
+  /**
+   * Creates a scrubber from the JSON form of a scrubber config.
+   *
+   * @throws InvalidProject if the config uses options which aren't supported here
+   */
+  static InProcessScrubber create(JsonObject config) {
+    List<String> unsupported = ScrubberConfig.externalOnlyOptions(config);
+    if (!unsupported.isEmpty()) {
+      throw new InvalidProject(
+          "Scrubber options %s aren't supported in process; use the external scrubber",
+          unsupported);
+    }
+    return new InProcessScrubber(config);
+  }
+
+  /** Returns whether a file with the given name is dropped from the scrubbed codebase. */
+  boolean ignores(String filename) {
+    return ignoreFiles != null && ignoreFiles.matcher(filename).find();
+  }
+
+  /** Returns whether a file with the given name, if it's kept, is scrubbed. */
+  boolean scrubs(String filename) {
+    return doNotScrubFiles == null || !doNotScrubFiles.matcher(filename).find();
+  }
+
+  /**
+   * Scrubs a file's contents, returning the very same array if they're unchanged. Binary files
+   * are left alone. Text is scrubbed as UTF-8 if it's valid, and otherwise as ISO-8859-1, so
+   * that bytes the scrubber doesn't touch stay as they were.
+   *
+   * @throws MoeProblem if the file has unbalanced strip markers, or sensitive content which
+   *     can't be scrubbed
+   */
+  byte[] scrub(String filename, byte[] contents) {
+    if (isBinary(contents)) {
+      return contents;
+    }
+    Charset charset = isUtf8(contents) ? UTF_8 : ISO_8859_1;
+    String text = new String(contents, charset);
+    String scrubbed = scrubText(filename, text);
+    return scrubbed.equals(text) ? contents : scrubbed.getBytes(charset);
+  }
+
+  private String scrubText(String filename, String text) {
+    text = stripMarkedLines(filename, text);
+    for (Map.Entry<String, String> replacement : stringReplacements.entrySet()) {
+      text = text.replace(replacement.getKey(), replacement.getValue());
+    }
+    for (Map.Entry<Pattern, String> replacement : regexReplacements.entrySet()) {
+      text = replacement.getKey().matcher(text).replaceAll(replacement.getValue());
+    }
+    Language language = Language.of(filename);
+    text =
+        language == null
+            ? scrubUsernames(checkSensitive(filename, text, text, 0))
+            : scrubComments(filename, text, language);
+    if (maximumBlankLines > 0 && filename.endsWith(".java")) {
+      text = limitBlankLines(text);
+    }
+    return text;
+  }
+
+  /** Applies the MOE strip markers, which work line by line whatever the language. */
+  private static String stripMarkedLines(String filename, String text) {
+    if (!text.contains("MOE:")) {
+      return text;
+    }
+    StringBuilder out = new StringBuilder(text.length());
+    int stripStartLine = 0;
+    int lineNumber = 0;
+    for (int start = 0; start < text.length(); ) {
+      int newline = text.indexOf('\n', start);
+      int end = newline < 0 ? text.length() : newline + 1;
+      String line = text.substring(start, end);
+      start = end;
+      lineNumber++;
+
+      if (line.contains("MOE:begin_strip") || line.contains("MOE:begin_intracomment_strip")) {
+        if (stripStartLine > 0) {
+          throw new MoeProblem(
+              "%s:%d: strip block begins inside the one begun at line %d",
+              filename, lineNumber, stripStartLine);
+        }
+        stripStartLine = lineNumber;
+        continue;
+      }
+      int replace = line.indexOf("MOE:end_strip_and_replace");
+      if (replace >= 0 || line.contains("MOE:end_strip")
+          || line.contains("MOE:end_intracomment_strip")) {
+        if (stripStartLine == 0) {
+          throw new MoeProblem("%s:%d: strip block ends without beginning", filename, lineNumber);
+        }
+        stripStartLine = 0;
+        if (replace >= 0) {
+          out.append(markerText(line, replace + "MOE:end_strip_and_replace".length()));
+        }
+        continue;
+      }
+      if (stripStartLine > 0 || line.contains("MOE:strip_line")) {
+        continue;
+      }
+      int insert = line.indexOf("MOE:insert");
+      out.append(insert < 0 ? line : markerText(line, insert + "MOE:insert".length()));
+    }
+    if (stripStartLine > 0) {
+      throw new MoeProblem("%s:%d: strip block never ends", filename, stripStartLine);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Returns the line which a marker's text replaces its line with: the text after the marker, less
+   * any comment terminator, at the line's indentation and with its line ending.
+   */
+  private static String markerText(String line, int textStart) {
+    String ending = line.endsWith("\r\n") ? "\r\n" : line.endsWith("\n") ? "\n" : "";
+    String text = line.substring(textStart, line.length() - ending.length()).trim();
+    if (text.endsWith("*/")) {
+      text = text.substring(0, text.length() - 2).trim();
+    }
+    int indentation = 0;
+    while (indentation < line.length()
+        && (line.charAt(indentation) == ' ' || line.charAt(indentation) == '\t')) {
+      indentation++;
+    }
+    return line.substring(0, indentation) + text + ending;
+  }
+
+  /**
+   * Scrubs each comment, removing it, or its usernames, as configured, and checks the code
+   * between comments for sensitive content.
+   */
+  private String scrubComments(String filename, String text, Language language) {
+    StringBuilder out = new StringBuilder(text.length());
+    int done = 0;
+    for (int[] comment : language.comments(text)) {
+      int start = comment[0];
+      int end = comment[1];
+      boolean documentation = comment[2] != 0;
+      String original = text.substring(start, end);
+      checkSensitive(filename, text, text.substring(done, start), done);
+
+      String scrubbed;
+      if (scrubAllComments
+          || (scrubNonDocumentationComments && !documentation)
+          || (scrubProtoComments && language == Language.PROTO)
+          || (scrubSensitiveComments && containsSensitive(original))) {
+        scrubbed = "";
+      } else {
+        scrubbed = scrubUsernames(checkSensitive(filename, text, original, start));
+        if (!EMPTY_COMMENT.matcher(original).matches()
+            && EMPTY_COMMENT.matcher(scrubbed).matches()) {
+          scrubbed = "";
+        }
+      }
+      if (scrubbed.isEmpty()) {
+        // Remove the comment's lines if nothing else is on them, or else any space before it.
+        int lineStart = text.lastIndexOf('\n', start - 1) + 1;
+        int lineEnd = text.indexOf('\n', end);
+        lineEnd = lineEnd < 0 ? text.length() : lineEnd;
+        if (text.substring(end, lineEnd).trim().isEmpty()) {
+          if (text.substring(lineStart, start).trim().isEmpty()) {
+            start = lineStart;
+            end = Math.min(lineEnd + 1, text.length());
+          } else {
+            while (start > done
+                && (text.charAt(start - 1) == ' ' || text.charAt(start - 1) == '\t')) {
+              start--;
+            }
+          }
+        }
+        start = Math.max(start, done);
+      }
+      out.append(text, done, start).append(scrubbed);
+      done = end;
+    }
+    checkSensitive(filename, text, text.substring(done), done);
+    return out.append(text, done, text.length()).toString();
+  }
+
+  /** Scrubs the usernames in TODOs, and authors, which should be scrubbed. */
+  private String scrubUsernames(String text) {
+    Matcher todo = TODO.matcher(text);
+    StringBuffer out = new StringBuffer(text.length());
+    while (todo.find()) {
+      todo.appendReplacement(out, shouldScrubUser(todo.group(1)) ? "TODO(user)" : "$0");
+    }
+    text = todo.appendTail(out).toString();
+    if (!scrubAuthors || !text.contains("@author")) {
+      return text;
+    }
+
+    StringBuilder scrubbed = new StringBuilder(text.length());
+    int done = 0;
+    Matcher author = AUTHOR.matcher(text);
+    while (author.find()) {
+      Matcher email = EMAIL_USERNAME.matcher(author.group(1));
+      String username =
+          email.find() ? email.group(1) : author.group(1).trim().split("\\s+", 2)[0];
+      if (!shouldScrubUser(username)) {
+        continue;
+      }
+      // Remove the tag's whole line if that's all it has.
+      int start = author.start();
+      int end = author.end();
+      int lineStart = text.lastIndexOf('\n', start - 1) + 1;
+      int lineEnd = text.indexOf('\n', end);
+      if (lineEnd >= 0
+          && COMMENT_LINE_PREFIX.matcher(text.substring(lineStart, start)).matches()
+          && text.substring(end, lineEnd).trim().isEmpty()) {
+        start = lineStart;
+        end = lineEnd + 1;
+      }
+      scrubbed.append(text, done, Math.max(start, done));
+      done = end;
+    }
+    return scrubbed.append(text, done, text.length()).toString();
+  }
+
+  private boolean shouldScrubUser(String username) {
+    if (username.equals("user")) {
+      return false;
+    }
+    return scrubUnknownUsers
+        ? !usernamesToPublish.contains(username)
+        : usernamesToScrub.contains(username);
+  }
+
+  private boolean containsSensitive(String text) {
+    for (Pattern pattern : sensitive.keySet()) {
+      if (pattern.matcher(text).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks a part of a file, beginning at the given offset, for sensitive content which isn't
+   * whitelisted, and returns it if there is none.
+   *
+   * @throws MoeProblem naming the sensitive content found
+   */
+  private String checkSensitive(String filename, String file, String part, int offset) {
+    for (Map.Entry<Pattern, String> sensitivePattern : sensitive.entrySet()) {
+      Matcher matcher = sensitivePattern.getKey().matcher(part);
+      while (matcher.find()) {
+        if (!isWhitelisted(filename, sensitivePattern.getValue(), matcher.group())) {
+          int line = 1;
+          for (int i = 0; i < offset + matcher.start(); i++) {
+            if (file.charAt(i) == '\n') {
+              line++;
+            }
+          }
+          throw new MoeProblem(
+              "%s:%d: sensitive content \"%s\" can't be scrubbed", filename, line, matcher.group());
+        }
+      }
+    }
+    return part;
+  }
+
+  /**
+   * Returns whether sensitive content found in a file is whitelisted for it: whether a whitelist
+   * entry for the file, or for all files, has as its trigger either the content found (in any case)
+   * or the sensitive word or regex which found it, exactly.
+   */
+  private boolean isWhitelisted(String filename, String sensitivePattern, String found) {
+    for (JsonObject entry : whitelist) {
+      JsonElement trigger = entry.get("trigger");
+      JsonElement entryFilename = entry.get("filename");
+      if (trigger != null
+          && (trigger.getAsString().equalsIgnoreCase(found)
+              || trigger.getAsString().equals(sensitivePattern))
+          && (entryFilename == null || entryFilename.getAsString().equals(filename))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Collapses each run of blank lines longer than the maximum to the maximum. */
+  private String limitBlankLines(String text) {
+    StringBuilder out = new StringBuilder(text.length());
+    int blankLines = 0;
+    for (int start = 0; start < text.length(); ) {
+      int newline = text.indexOf('\n', start);
+      int end = newline < 0 ? text.length() : newline + 1;
+      boolean blank = newline >= 0 && text.substring(start, newline).trim().isEmpty();
+      blankLines = blank ? blankLines + 1 : 0;
+      if (blankLines <= maximumBlankLines) {
+        out.append(text, start, end);
+      }
+      start = end;
+    }
+    return out.toString();
+  }
+
+  private static boolean isBinary(byte[] contents) {
+    for (int i = 0; i < Math.min(contents.length, BINARY_CHECK_BYTES); i++) {
+      if (contents[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isUtf8(byte[] contents) {
+    try {
+      UTF_8.newDecoder().decode(ByteBuffer.wrap(contents));
+      return true;
+    } catch (CharacterCodingException e) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private static Pattern pattern(JsonObject config, String option) {
+    JsonElement value = config.get(option);
+    return ScrubberConfig.isSet(value) ? Pattern.compile(value.getAsString()) : null;
+  }
+
+  private static boolean bool(JsonObject config, String option, boolean defaultValue) {
+    JsonElement value = config.get(option);
+    return value == null || value.isJsonNull() ? defaultValue : value.getAsBoolean();
+  }
+
+  private static ImmutableList<String> strings(JsonObject config, String option) {
+    ImmutableList.Builder<String> strings = ImmutableList.builder();
+    JsonElement value = config.get(option);
+    if (value != null && value.isJsonArray()) {
+      for (JsonElement element : (JsonArray) value) {
+        strings.add(element.getAsString());
+      }
+    }
+    return strings.build();
+  }
+
+  private static ImmutableList<JsonObject> objects(JsonObject config, String option) {
+    ImmutableList.Builder<JsonObject> objects = ImmutableList.builder();
+    JsonElement value = config.get(option);
+    if (value != null && value.isJsonArray()) {
+      for (JsonElement element : (JsonArray) value) {
+        objects.add(element.getAsJsonObject());
+      }
+    }
+    return objects.build();
+  }
+
+  /** The comment syntax of the languages whose comments can be scrubbed. */
+  enum Language {
+    C_LIKE(false, false, false),
+    C_LIKE_WITH_BACKTICKS(false, true, false),
+    C_LIKE_WITH_TRIPLE_QUOTES(false, false, true),
+    PROTO(false, false, false),
+    PYTHON(true, false, true),
+    SHELL(true, false, false);
+
+    private static final ImmutableMap<String, Language> BY_EXTENSION =
+        ImmutableMap.<String, Language>builder()
+            .put("java", C_LIKE)
+            .put("c", C_LIKE)
+            .put("cc", C_LIKE)
+            .put("cpp", C_LIKE)
+            .put("cxx", C_LIKE)
+            .put("h", C_LIKE)
+            .put("hh", C_LIKE)
+            .put("hpp", C_LIKE)
+            .put("hxx", C_LIKE)
+            .put("m", C_LIKE)
+            .put("mm", C_LIKE)
+            .put("cs", C_LIKE)
+            .put("js", C_LIKE_WITH_BACKTICKS)
+            .put("jsx", C_LIKE_WITH_BACKTICKS)
+            .put("ts", C_LIKE_WITH_BACKTICKS)
+            .put("tsx", C_LIKE_WITH_BACKTICKS)
+            .put("go", C_LIKE_WITH_BACKTICKS)
+            .put("kt", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("kts", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("swift", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("groovy", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("gradle", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("dart", C_LIKE_WITH_TRIPLE_QUOTES)
+            .put("proto", PROTO)
+            .put("py", PYTHON)
+            .put("bzl", PYTHON)
+            .put("sh", SHELL)
+            .put("bash", SHELL)
+            .put("yaml", SHELL)
+            .put("yml", SHELL)
+            .build();
+    private static final ImmutableMap<String, Language> BY_NAME =
+        ImmutableMap.of("BUILD", PYTHON, "BUILD.bazel", PYTHON, "WORKSPACE", PYTHON);
+
+    /** Whether comments begin with {@code #}, rather than {@code //} or {@code /*}. */
+    private final boolean hashComments;
+    private final boolean backtickStrings;
+    private final boolean tripleQuotedStrings;
+
+    Language(boolean hashComments, boolean backtickStrings, boolean tripleQuotedStrings) {
+      this.hashComments = hashComments;
+      this.backtickStrings = backtickStrings;
+      this.tripleQuotedStrings = tripleQuotedStrings;
+    }
+
+    /** Returns the language of the named file, or null if its comments can't be scrubbed. */
+    @Nullable
+    static Language of(String filename) {
+      String basename = filename.substring(filename.lastIndexOf('/') + 1);
+      int dot = basename.lastIndexOf('.');
+      Language language = BY_NAME.get(basename);
+      return language != null || dot < 0 ? language : BY_EXTENSION.get(basename.substring(dot + 1));
+    }
+
+    /**
+     * Returns the comments in some text, in order, each as its start and end offsets and whether
+     * it's a documentation comment (1) or not (0). Comment markers in string literals are ignored.
+     */
+    List<int[]> comments(String text) {
+      List<int[]> comments = new ArrayList<>();
+      int length = text.length();
+      int i = 0;
+      while (i < length) {
+        char c = text.charAt(i);
+        if (tripleQuotedStrings && (text.startsWith("\"\"\"", i) || text.startsWith("'''", i))) {
+          int end = text.indexOf(text.substring(i, i + 3), i + 3);
+          i = end < 0 ? length : end + 3;
+        } else if (c == '"' || c == '\'' || (c == '`' && backtickStrings)) {
+          i = skipQuoted(text, i, c == '`');
+        } else if (hashComments && c == '#') {
+          boolean shebang = i == 0 && text.startsWith("#!");
+          boolean commentStart =
+              this == PYTHON || i == 0 || Character.isWhitespace(text.charAt(i - 1));
+          int end = text.indexOf('\n', i);
+          end = end < 0 ? length : end;
+          if (commentStart && !shebang) {
+            comments.add(new int[] {i, end, 0});
+          }
+          i = commentStart ? end : i + 1;
+        } else if (!hashComments && text.startsWith("//", i)) {
+          int end = text.indexOf('\n', i);
+          end = end < 0 ? length : end;
+          comments.add(new int[] {i, end, 0});
+          i = end;
+        } else if (!hashComments && text.startsWith("/*", i)) {
+          int end = text.indexOf("*/", i + 2);
+          end = end < 0 ? length : end + 2;
+          boolean documentation = text.startsWith("/**", i) && !text.startsWith("/**/", i);
+          comments.add(new int[] {i, end, documentation ? 1 : 0});
+          i = end;
+        } else {
+          i++;
+        }
+      }
+      return comments;
+    }
+
+    /**
+     * Returns the offset just past the string literal beginning at the given quote. An unclosed
+     * literal ends at the end of its line, unless it may span lines.
+     */
+    private static int skipQuoted(String text, int start, boolean multiline) {
+      char quote = text.charAt(start);
+      int i = start + 1;
+      while (i < text.length()) {
+        char c = text.charAt(i);
+        if (c == '\\') {
+          i += 2;
+        } else if (c == quote) {
+          return i + 1;
+        } else if (c == '\n' && !multiline) {
+          return i;
+        } else {
+          i++;
+        }
+      }
+      return text.length();
+    }
+  }
+}
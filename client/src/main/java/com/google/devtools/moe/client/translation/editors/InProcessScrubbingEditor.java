@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.auto.factory.AutoFactory;
+import com.google.auto.factory.Provided;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseMerger;
+import com.google.devtools.moe.client.project.EditorConfig;
+import com.google.devtools.moe.client.project.InvalidProject;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.util.Map;
+
+/**
+ * A scrubber editor which scrubs within MOE, with an {@link InProcessScrubber}, rather than by
+ * running the external scrubber as {@link ScrubbingEditor} does. It scrubs each file on its own, in
+ * parallel, and writes only the files it changes, so it saves starting the scrubber, copying the
+ * codebase in and out of a tarball, and can join a run of other file-local editors. It's chosen by
+ * {@code "scrub_in_process": true} in the editor's config, and is inverted by merging, as {@link
+ * ScrubbingEditor} is.
+ */
+@AutoFactory
+public class InProcessScrubbingEditor implements FileLocalEditor, InverseEditor {
+  private final FileSystem filesystem;
+  private final CodebaseMerger merger;
+  private final String name;
+  private final InProcessScrubber scrubber;
+
+  InProcessScrubbingEditor(
+      @Provided FileSystem filesystem,
+      @Provided CodebaseMerger merger,
+      @Provided Gson gson,
+      String editorName,
+      EditorConfig config) {
+    this.filesystem = filesystem;
+    this.merger = merger;
+    this.name = editorName;
+    this.scrubber =
+        InProcessScrubber.create(
+            config.scrubberConfig() == null
+                ? new JsonObject()
+                : gson.toJsonTree(config.scrubberConfig()).getAsJsonObject());
+  }
+
+  @Override
+  public String getDescription() {
+    return name;
+  }
+
+  @Override
+  public InverseEditor validateInversion() throws InvalidProject {
+    return this;
+  }
+
+  @Override
+  public Codebase edit(Codebase input, Map<String, String> options) {
+    return new FusedEditor(filesystem, ImmutableList.of(this)).edit(input, options);
+  }
+
+  @Override
+  public EditedFile editFile(EditedFile file, Map<String, String> options) {
+    if (scrubber.ignores(file.name())) {
+      return null;
+    }
+    if (!scrubber.scrubs(file.name())) {
+      return file;
+    }
+    byte[] contents = file.contents();
+    byte[] scrubbed = scrubber.scrub(file.name(), contents);
+    return scrubbed == contents ? file : file.withContents(scrubbed);
+  }
+
+  /** Inverts scrubbing by merging, as {@link ScrubbingEditor#inverseEdit} does. */
+  @Override
+  public Codebase inverseEdit(
+      Codebase input, Codebase referenceFrom, Codebase referenceTo, Map<String, String> options) {
+    return merger.merge(referenceFrom, input, referenceTo).mergedCodebase();
+  }
+}
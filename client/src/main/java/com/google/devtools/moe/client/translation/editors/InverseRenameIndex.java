@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Maps the paths a {@link RenamingEditor} produces back to the paths of a reference codebase they
+ * came from, for its inverse edit.
+ *
+ * <p>Each reference file is renamed, and each directory prefix of its renamed path is mapped to
+ * the corresponding prefix of its reference path: renaming a/b/c/file to x/y/file maps x/y/file
+ * to a/b/c/file, x/y to a/b/c and x to a/b. Where two files map the same prefix differently, the
+ * later file's mapping holds. A path is then inverse-renamed by its longest mapped prefix.
+ *
+ * <p>The renamed paths are kept in a trie of path segments, each segment string shared by every
+ * node it labels, and each mapping is kept as the reference path and the length of its prefix, so
+ * that neither building the index nor looking a path up joins segments into prefix strings.
+ */
+final class InverseRenameIndex {
+  private static final char SEPARATOR = File.separatorChar;
+
+  private final Node root = new Node();
+
+  /**
+   * Builds the index of the given reference files.
+   *
+   * @param rename the forward renaming, from a reference path to its renamed path
+   */
+  static InverseRenameIndex build(
+      Iterable<String> referenceFilenames, UnaryOperator<String> rename) {
+    InverseRenameIndex index = new InverseRenameIndex();
+    Map<String, String> segments = new HashMap<>();
+    for (String referenceFilename : referenceFilenames) {
+      index.add(rename.apply(referenceFilename), referenceFilename, segments);
+    }
+    return index;
+  }
+
+  /** A node of the trie: a renamed path, and the reference path it maps to, if any. */
+  private static final class Node {
+    final Map<String, Node> children = new HashMap<>(4);
+    /** The reference path whose prefix this path maps to, or null. */
+    String reference;
+    /** The length of the prefix of reference which this path maps to. */
+    int referenceEnd;
+  }
+
+  private void add(String renamed, String reference, Map<String, String> segments) {
+    int[] renamedEnds = segmentEnds(renamed);
+    int[] referenceEnds = segmentEnds(reference);
+    // Only the deepest min(renamed, reference) prefixes are mapped, stopping at either's root.
+    int unmapped = renamedEnds.length - Math.min(renamedEnds.length, referenceEnds.length);
+    int offset = referenceEnds.length - renamedEnds.length;
+
+    Node node = root;
+    int start = 0;
+    for (int depth = 0; depth < renamedEnds.length; depth++) {
+      String segment = renamed.substring(start, renamedEnds[depth]);
+      segment = segments.computeIfAbsent(segment, s -> s);
+      node = node.children.computeIfAbsent(segment, s -> new Node());
+      if (depth >= unmapped) {
+        node.reference = reference;
+        node.referenceEnd = referenceEnds[depth + offset];
+      }
+      start = renamedEnds[depth] + 1;
+    }
+  }
+
+  /**
+   * Returns the inverse renaming of a path: the path with its longest mapped prefix replaced by
+   * the reference prefix it maps to, or the path itself if none of its prefixes is mapped.
+   */
+  String inverseRename(String renamed) {
+    Node node = root;
+    Node mapped = null;
+    int mappedEnd = 0;
+    int start = 0;
+    while (node != null && start <= renamed.length()) {
+      int end = renamed.indexOf(SEPARATOR, start);
+      if (end < 0) {
+        end = renamed.length();
+      }
+      node = node.children.get(renamed.substring(start, end));
+      if (node != null && node.reference != null) {
+        mapped = node;
+        mappedEnd = end;
+      }
+      start = end + 1;
+    }
+    if (mapped == null) {
+      return renamed;
+    }
+    // As ever, every occurrence of the prefix is replaced, not only the leading one.
+    return renamed.replace(
+        renamed.substring(0, mappedEnd), mapped.reference.substring(0, mapped.referenceEnd));
+  }
+
+  /** Returns the offset of the end of each segment of the path: each separator, then its length. */
+  private static int[] segmentEnds(String path) {
+    int count = 1;
+    for (int i = 0; i < path.length(); i++) {
+      if (path.charAt(i) == SEPARATOR) {
+        count++;
+      }
+    }
+    int[] ends = new int[count];
+    int segment = 0;
+    for (int i = 0; i < path.length(); i++) {
+      if (path.charAt(i) == SEPARATOR) {
+        ends[segment++] = i;
+      }
+    }
+    ends[segment] = path.length();
+    return ends;
+  }
+}
@@ -20,19 +20,45 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
 import com.google.devtools.moe.client.project.EditorConfig;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /** A PatchingEditor invokes the command patch */
 @AutoFactory(implementing = Editor.Factory.class)
 public class PatchingEditor implements Editor {
+  /** Matches the lines of unified and context diffs which may name a file to patch. */
+  private static final Pattern FILE_HEADER =
+      Pattern.compile("(?:---|\\+\\+\\+|\\*\\*\\*|Index:) ");
+
+  /**
+   * Matches the timestamp diff may write after a file name, separated by spaces rather than a tab:
+   * ISO 8601 (as by {@code diff -u}) or ctime format (as by {@code diff -c}).
+   */
+  private static final Pattern TRAILING_TIMESTAMP =
+      Pattern.compile(
+          "\\s+(?:"
+              // 2018-01-01 00:00:00.000000000
+              + "\\d{4}-\\d\\d-\\d\\d[ T]\\d\\d:\\d\\d(?::\\d\\d(?:\\.\\d+)?)?"
+              // Mon Jan  1 00:00:00 2018
+              + "|[A-Z][a-z]{2} [A-Z][a-z]{2} [ \\d]\\d \\d\\d:\\d\\d:\\d\\d(?: [A-Z]{3,4})? \\d{4}"
+              // An optional zone: +0000, -08:00, UTC or Z.
+              + ")(?: ?(?:[+-]\\d\\d:?\\d\\d|[A-Z]{3,4}|Z))?\\s*$");
 
   private final CommandRunner cmd;
   private final FileSystem filesystem;
@@ -58,7 +84,8 @@ public class PatchingEditor implements Editor {
 
   /**
    * Applies a patch to copied contents of the input Codebase, returning a new Codebase with the
-   * results of the patch.
+   * results of the patch. If the files the patch may modify are known, only those are copied, and
+   * the result is a {@link CodebaseLayer} over the input.
    */
   @Override
   public Codebase edit(Codebase input, Map<String, String> options) {
@@ -71,10 +98,16 @@ public class PatchingEditor implements Editor {
       if (!filesystem.isReadable(patchFile)) {
         throw new MoeProblem("cannot read file %s", patchFilePath);
       }
+      Set<String> patchedFiles = patchedFiles(patchFile);
+      Map<String, File> files = null;
       try {
-        filesystem.copyDirectory(input.path(), tempDir);
+        if (patchedFiles == null) {
+          filesystem.cloneDirectory(input.path(), tempDir, null);
+        } else {
+          files = copyPatchedFiles(input, patchedFiles, tempDir);
+        }
       } catch (IOException e) {
-        throw new MoeProblem(e, "Failed to copy directory %s to %s", input.path(), tempDir);
+        throw new MoeProblem(e, "Failed to copy directory %s to %s", input.directory(), tempDir);
       }
       try {
         cmd.runCommand(
@@ -84,7 +117,69 @@ public class PatchingEditor implements Editor {
       } catch (CommandRunner.CommandException e) {
         throw new MoeProblem("%s", e.getMessage());
       }
-      return Codebase.create(tempDir, input.projectSpace(), input.expression());
+      if (files == null) {
+        return Codebase.create(tempDir, input.projectSpace(), input.expression());
+      }
+      // Whatever the patch left in the directory, including any new files, supersedes the input's.
+      for (String name : filesystem.findRelativeFiles(tempDir)) {
+        files.put(name, new File(tempDir, name));
+      }
+      return CodebaseLayer.create(filesystem, input, tempDir, files);
+    }
+  }
+
+  /**
+   * Copies the input's files which the patch may modify into the directory, and returns the rest
+   * of its files, which the patch won't touch.
+   */
+  private Map<String, File> copyPatchedFiles(Codebase input, Set<String> patchedFiles, File dir)
+      throws IOException {
+    Map<String, File> files = new TreeMap<>(CodebaseLayer.files(input, filesystem));
+    filesystem.makeDirs(dir);
+    for (String name : patchedFiles) {
+      File file = files.remove(name);
+      if (file != null) {
+        File copy = new File(dir, name);
+        filesystem.makeDirsForFile(copy);
+        filesystem.copyFile(file, copy);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Returns the names of the files which {@code patch -p0} may modify when applying the given
+   * patch, or null if they can't be determined, in which case any of them may be.
+   */
+  @Nullable
+  private Set<String> patchedFiles(File patchFile) {
+    String patch;
+    try {
+      patch = filesystem.fileToString(patchFile);
+    } catch (IOException e) {
+      return null;
+    }
+    Set<String> patchedFiles = new HashSet<>();
+    for (String line : Splitter.on('\n').split(patch)) {
+      Matcher matcher = FILE_HEADER.matcher(line);
+      if (!matcher.lookingAt()) {
+        continue;
+      }
+      // Spurious matches (e.g. a removed line starting "-- ") only make extra files mutable.
+      String name = line.substring(matcher.end());
+      int tab = name.indexOf('\t');
+      name = tab < 0 ? TRAILING_TIMESTAMP.matcher(name).replaceFirst("") : name.substring(0, tab);
+      name = name.trim();
+      if (name.startsWith("\"")) {
+        return null; // A quoted name, with escapes patch would interpret.
+      }
+      if (CharMatcher.whitespace().matchesAnyOf(name)) {
+        // Patch versions differ on where such a name ends, e.g. at an unrecognized timestamp.
+        return null;
+      }
+      patchedFiles.add(name.startsWith("./") ? name.substring(2) : name);
     }
+    // Without any file headers, patch must work out which files to patch some other way.
+    return patchedFiles.isEmpty() ? null : patchedFiles;
   }
 }
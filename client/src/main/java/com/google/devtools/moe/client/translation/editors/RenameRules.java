@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * The ordered renaming rules of a {@link RenamingEditor}, compiled to find the first rule which
+ * applies to a path without trying each rule in turn.
+ *
+ * <p>A rule applies wherever its pattern is found in the path, so rules whose patterns are
+ * literals (all of them, unless the editor uses regexes) are compiled into one Aho-Corasick
+ * automaton, which finds all of them in a single pass over the path. The automaton's state after
+ * each directory is remembered, so that the files of a directory, and its subdirectories, resume
+ * from there rather than rescanning it. Other regexes are only tried if they come before the first
+ * literal rule found, as java.util.regex can't combine them without losing the rules' order.
+ */
+final class RenameRules {
+  /** Characters with special meaning in a regex; a pattern without any of them is a literal. */
+  private static final CharMatcher REGEX_METACHARACTERS = CharMatcher.anyOf("\\^$.|?*+()[]{}");
+
+  private static final int NO_RULE = Integer.MAX_VALUE;
+
+  private final ImmutableList<Pattern> patterns;
+  private final ImmutableList<String> replacements;
+  /** The indexes of the rules which aren't in the automaton, in order. */
+  private final int[] regexRules;
+
+  // The automaton: a trie of the literals, with each node's transitions, failure link, and the
+  // first rule among the literals which end there (or at any node its failure links lead to).
+  private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+  private final int[] failure;
+  private final int[] firstRule;
+
+  /** The automaton's state after each directory, and the first rule found in it. */
+  private final ConcurrentMap<String, DirectoryState> directories = new ConcurrentHashMap<>();
+
+  /**
+   * @param patterns the rules' patterns, in order of precedence
+   * @param replacements the rules' replacements, as for {@link
+   *     java.util.regex.Matcher#replaceFirst}
+   * @param literal whether the patterns are quoted literals, rather than regexes
+   */
+  RenameRules(List<Pattern> patterns, List<String> replacements, boolean literal) {
+    this.patterns = ImmutableList.copyOf(patterns);
+    this.replacements = ImmutableList.copyOf(replacements);
+
+    List<String> literals = new ArrayList<>();
+    List<Integer> regexRules = new ArrayList<>();
+    for (int i = 0; i < patterns.size(); i++) {
+      String source = patterns.get(i).pattern();
+      if (literal) {
+        literals.add(unquote(source));
+      } else if (REGEX_METACHARACTERS.matchesNoneOf(source)) {
+        literals.add(source);
+      } else {
+        literals.add(null);
+        regexRules.add(i);
+      }
+    }
+    this.regexRules = regexRules.stream().mapToInt(Integer::intValue).toArray();
+
+    List<Integer> ruleAtNode = new ArrayList<>();
+    transitions.add(new HashMap<>());
+    ruleAtNode.add(NO_RULE);
+    for (int rule = 0; rule < literals.size(); rule++) {
+      String text = literals.get(rule);
+      if (text == null) {
+        continue;
+      }
+      int node = 0;
+      for (int i = 0; i < text.length(); i++) {
+        Integer next = transitions.get(node).get(text.charAt(i));
+        if (next == null) {
+          next = transitions.size();
+          transitions.add(new HashMap<>());
+          ruleAtNode.add(NO_RULE);
+          transitions.get(node).put(text.charAt(i), next);
+        }
+        node = next;
+      }
+      ruleAtNode.set(node, Math.min(ruleAtNode.get(node), rule));
+    }
+
+    // Link each node to the node of its longest proper suffix in the trie, breadth first so that
+    // shorter suffixes are linked first.
+    failure = new int[transitions.size()];
+    firstRule = new int[transitions.size()];
+    firstRule[0] = ruleAtNode.get(0);
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int child : transitions.get(0).values()) {
+      firstRule[child] = Math.min(ruleAtNode.get(child), firstRule[0]);
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int node = queue.remove();
+      for (Map.Entry<Character, Integer> transition : transitions.get(node).entrySet()) {
+        int child = transition.getValue();
+        int fallback = failure[node];
+        while (fallback != 0 && !transitions.get(fallback).containsKey(transition.getKey())) {
+          fallback = failure[fallback];
+        }
+        Integer suffix = transitions.get(fallback).get(transition.getKey());
+        failure[child] = suffix == null || suffix == child ? 0 : suffix;
+        firstRule[child] = Math.min(ruleAtNode.get(child), firstRule[failure[child]]);
+        queue.add(child);
+      }
+    }
+  }
+
+  /** Returns the text of a pattern made by {@link Pattern#quote}. */
+  private static String unquote(String quoted) {
+    // Pattern.quote("a\\Eb") is "\\Qa\\E\\\\E\\Qb\\E", i.e. it splits the text at each "\\E".
+    StringBuilder text = new StringBuilder();
+    int i = 0;
+    while (i < quoted.length()) {
+      if (quoted.startsWith("\\Q", i)) {
+        int end = quoted.indexOf("\\E", i + 2);
+        text.append(quoted, i + 2, end);
+        i = end + 2;
+      } else {
+        // A "\\E" of the text, escaped as "\\\\E" between quoted sections.
+        text.append("\\E");
+        i += 3;
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns the path renamed by the first rule which applies to it, or null if none does.
+   *
+   * @param path a path relative to the root of a codebase, with '/' as separator
+   */
+  @Nullable
+  String rename(String path) {
+    int slash = path.lastIndexOf('/');
+    DirectoryState directory = directoryState(path.substring(0, slash + 1));
+    int rule = Math.min(directory.firstRule, scan(directory.node, path, slash + 1).firstRule);
+    for (int regexRule : regexRules) {
+      if (regexRule > rule) {
+        break;
+      }
+      if (patterns.get(regexRule).matcher(path).find()) {
+        rule = regexRule;
+        break;
+      }
+    }
+    return rule == NO_RULE
+        ? null
+        : patterns.get(rule).matcher(path).replaceFirst(replacements.get(rule));
+  }
+
+  /** Returns the state of the automaton after a directory, e.g. "a/b/", or "" for the root. */
+  private DirectoryState directoryState(String directory) {
+    DirectoryState state = directories.get(directory);
+    if (state == null) {
+      if (directory.isEmpty()) {
+        state = new DirectoryState(0, firstRule[0]);
+      } else {
+        int slash = directory.lastIndexOf('/', directory.length() - 2);
+        DirectoryState parent = directoryState(directory.substring(0, slash + 1));
+        DirectoryState scanned = scan(parent.node, directory, slash + 1);
+        state = new DirectoryState(scanned.node, Math.min(parent.firstRule, scanned.firstRule));
+      }
+      directories.putIfAbsent(directory, state);
+    }
+    return state;
+  }
+
+  /** Runs the automaton from the given node over the text from {@code start}. */
+  private DirectoryState scan(int node, String text, int start) {
+    int first = NO_RULE;
+    for (int i = start; i < text.length(); i++) {
+      char c = text.charAt(i);
+      Integer next = transitions.get(node).get(c);
+      while (next == null && node != 0) {
+        node = failure[node];
+        next = transitions.get(node).get(c);
+      }
+      node = next == null ? 0 : next;
+      first = Math.min(first, firstRule[node]);
+    }
+    return new DirectoryState(node, first);
+  }
+
+  /** A node of the automaton, and the first rule found on the way there. */
+  private static final class DirectoryState {
+    final int node;
+    final int firstRule;
+
+    DirectoryState(int node, int firstRule) {
+      this.node = node;
+      this.firstRule = firstRule;
+    }
+  }
+}
@@ -18,44 +18,41 @@ package com.google.devtools.moe.client.translation.editors;
 
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
-import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
 import com.google.devtools.moe.client.project.EditorConfig;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 /** The renaming editor reorganizes the project's hierarchy. */
 @AutoFactory(implementing = Editor.Factory.class)
-public class RenamingEditor implements Editor, InverseEditor {
+public class RenamingEditor implements FileLocalEditor, InverseEditor {
   private static final CharMatcher FILE_SEP_CHAR_MATCHER = CharMatcher.is(File.separatorChar);
-  private static final Joiner FILE_SEP_JOINER = Joiner.on(File.separator);
-  private static final Splitter FILE_SEP_SPLITTER = Splitter.on(File.separator);
   private static final java.lang.reflect.Type MAP_TYPE =
       new TypeToken<Map<String, String>>() {}.getType();
 
+  /** How many reference codebases' inverse renamings to keep. */
+  private static final int MAX_CACHED_INDEXES = 4;
+
   private final FileSystem filesystem;
   private final String editorName;
-  private final Map<Pattern, String> regexMappings;
+  private final RenameRules rules;
   private final boolean useRegex;
+  private final Cache<String, InverseRenameIndex> inverseRenameIndexes =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_INDEXES).build();
 
   RenamingEditor(
       @Provided FileSystem filesystem, @Provided Gson gson, String name, EditorConfig config) {
@@ -64,7 +61,12 @@ public class RenamingEditor implements Editor, InverseEditor {
     if (config.mappings() == null) {
       throw new MoeProblem("No mappings object found in the config for editor %s", editorName);
     }
-    regexMappings = mappingsFromConfig(gson, config);
+    Map<Pattern, String> regexMappings = mappingsFromConfig(gson, config);
+    this.rules =
+        new RenameRules(
+            ImmutableList.copyOf(regexMappings.keySet()),
+            ImmutableList.copyOf(regexMappings.values()),
+            !config.useRegex());
     this.useRegex = config.useRegex();
   }
 
@@ -99,31 +101,8 @@ public class RenamingEditor implements Editor, InverseEditor {
   }
 
   /**
-   * Recursively copies files from src to dest, changing the filenames as specified
-   * in mappings.
-   *
-   * @param srcFile  the absolute path of a file to rename and copy or a dir to crawl
-   * @param srcFolder  the absolute root of the from folder being crawled
-   * @param destFolder  the absolute root of the to folder receiving renamed files
-   */
-  @VisibleForTesting
-  void copyDirectoryAndRename(File srcFile, File srcFolder, File destFolder) throws IOException {
-    if (filesystem.isDirectory(srcFile)) {
-      File[] files = filesystem.listFiles(srcFile);
-      for (File subFile : files) {
-        copyDirectoryAndRename(subFile, srcFolder, destFolder);
-      }
-    } else {
-      // "/srcFolder/path/to/file" -> "path/to/file"
-      String relativePath = srcFolder.toURI().relativize(srcFile.toURI()).getPath();
-      File renamedFile = new File(destFolder, renameFile(relativePath));
-      filesystem.makeDirsForFile(renamedFile);
-      filesystem.copyFile(srcFile, renamedFile);
-    }
-  }
-
-  /**
-   * Returns the filename according to the rules in mappings.
+   * Returns the filename according to the rules in mappings: the first rule whose pattern is found
+   * in the filename applies.
    *
    * @param inputFilename  the filename to be renamed, relative to the root of the codebase
    *
@@ -131,14 +110,11 @@ public class RenamingEditor implements Editor, InverseEditor {
    * @throws MoeProblem  if a mapping for inputFilename could not be found
    */
   String renameFile(String inputFilename) {
-    for (Pattern searchExp : regexMappings.keySet()) {
-      Matcher matcher = searchExp.matcher(inputFilename);
-      if (matcher.find()) {
-        String renamed = matcher.replaceFirst(regexMappings.get(searchExp));
-        // Erase leading path separators, e.g. when the rule "dir" -> "" maps
-        // "dir/filename.txt" to "/filename.txt".
-        return FILE_SEP_CHAR_MATCHER.trimLeadingFrom(renamed);
-      }
+    String renamed = rules.rename(inputFilename);
+    if (renamed != null) {
+      // Erase leading path separators, e.g. when the rule "dir" -> "" maps
+      // "dir/filename.txt" to "/filename.txt".
+      return FILE_SEP_CHAR_MATCHER.trimLeadingFrom(renamed);
     }
     throw new MoeProblem(
         "Cannot find a rename mapping that covers file %s. "
@@ -147,25 +123,25 @@ public class RenamingEditor implements Editor, InverseEditor {
   }
 
   /**
-   * Copies the input Codebase's contents, renaming the files according to this.mappings and returns
-   * a new Codebase with the results.
+   * Renames the input Codebase's files according to this.mappings and returns a new Codebase with
+   * the results, as a {@link CodebaseLayer} over the input, since none of their contents change.
    *
    * @param input the Codebase to edit
    * @param options a map containing any command line options such as a specific revision
    */
   @Override
   public Codebase edit(Codebase input, Map<String, String> options) {
-
     File tempDir = filesystem.getTemporaryDirectory("rename_run_");
-    try {
-      copyDirectoryAndRename(
-          input.path().getAbsoluteFile(),
-          input.path().getAbsoluteFile(),
-          tempDir.getAbsoluteFile());
-    } catch (IOException e) {
-      throw new MoeProblem(e, "Failed to copy %s to %s", input.path(), tempDir);
+    Map<String, File> renamedFiles = new TreeMap<>();
+    for (Map.Entry<String, File> file : CodebaseLayer.files(input, filesystem).entrySet()) {
+      renamedFiles.put(renameFile(file.getKey()), file.getValue());
     }
-    return Codebase.create(tempDir, input.projectSpace(), input.expression());
+    return CodebaseLayer.create(filesystem, input, tempDir, renamedFiles);
+  }
+
+  @Override
+  public EditedFile editFile(EditedFile file, Map<String, String> options) {
+    return file.withName(renameFile(file.name()));
   }
 
   @Override
@@ -177,73 +153,40 @@ public class RenamingEditor implements Editor, InverseEditor {
   }
 
   private void inverseRenameAndCopy(Codebase input, File destination, Codebase reference) {
-    Set<String> renamedFilenames =
-        Utils.makeFilenamesRelative(filesystem.findFiles(input.path()), input.path());
-    Map<String, String> renamedToReferenceMap =
-        makeRenamedToReferenceMap(
-            Utils.makeFilenamesRelative(filesystem.findFiles(reference.path()), reference.path()));
-
-    for (String renamedFilename : renamedFilenames) {
-      String inverseRenamedFilename = inverseRename(renamedFilename, renamedToReferenceMap);
-      copyFile(renamedFilename, inverseRenamedFilename, input.path(), destination);
-    }
-  }
+    Map<String, File> renamedFiles = CodebaseLayer.files(input, filesystem);
+    InverseRenameIndex index = inverseRenameIndex(reference);
 
-  private void copyFile(String inputFilename, String destFilename, File inputRoot, File destRoot) {
-    File inputFile = new File(inputRoot, inputFilename);
-    File destFile = new File(destRoot, destFilename);
-    try {
-      filesystem.makeDirsForFile(destFile);
-      filesystem.copyFile(inputFile, destFile);
-    } catch (IOException e) {
-      throw new MoeProblem(e, "%s", e.getMessage());
+    for (Map.Entry<String, File> renamedFile : renamedFiles.entrySet()) {
+      String inverseRenamedFilename = index.inverseRename(renamedFile.getKey());
+      copyFile(renamedFile.getValue(), new File(destination, inverseRenamedFilename));
     }
   }
 
   /**
-   * Walks backwards through the dir prefixes of renamedFilename looking for a match in
-   * renamedToReferenceMap.
+   * Returns the index of the renamings of the reference codebase's files, reusing the one built for
+   * it last time, if any. Reference codebases are created once per expression and reused, e.g. a
+   * destination's head across the migrations of one run, so the index is kept by both the
+   * codebase's directory and its expression, and a directory reused for another revision is
+   * indexed afresh.
    */
-  private String inverseRename(String renamedFilename, Map<String, String> renamedToReferenceMap) {
-    List<String> renamedAllParts = FILE_SEP_SPLITTER.splitToList(renamedFilename);
-    for (int i = renamedAllParts.size(); i > 0; i--) {
-      String renamedParts = FILE_SEP_JOINER.join(renamedAllParts.subList(0, i));
-      String partsToSubstitute = renamedToReferenceMap.get(renamedParts);
-      if (partsToSubstitute != null) {
-        return renamedFilename.replace(renamedParts, partsToSubstitute);
-      }
+  private InverseRenameIndex inverseRenameIndex(Codebase reference) {
+    String key = reference.directory().getAbsolutePath() + " " + reference.expression();
+    InverseRenameIndex index = inverseRenameIndexes.getIfPresent(key);
+    if (index == null) {
+      index =
+          InverseRenameIndex.build(
+              CodebaseLayer.files(reference, filesystem).keySet(), this::renameFile);
+      inverseRenameIndexes.put(key, index);
     }
-    // No inverse renaming found.
-    return renamedFilename;
+    return index;
   }
 
-  /**
-   * Returns mappings (renamed path, original/reference path) for all paths in the renamed/input
-   * Codebase.
-   */
-  private Map<String, String> makeRenamedToReferenceMap(Set<String> referenceFilenames) {
-    // Use a HashMap instead of ImmutableMap.Builder because we may put the same key (e.g. a
-    // high-level dir) multiple times. We may want to complain if trying to put a new value for a
-    // dir (i.e. if two different reference paths are renamed to the same path), but we don't now.
-    HashMap<String, String> tmpPathMap = Maps.newHashMap();
-    for (String refFilename : referenceFilenames) {
-
-      String renamed = this.renameFile(refFilename);
-      LinkedList<String> renamedPathParts = Lists.newLinkedList(FILE_SEP_SPLITTER.split(renamed));
-      LinkedList<String> refPathParts = Lists.newLinkedList(FILE_SEP_SPLITTER.split(refFilename));
-
-      // Put a mapping for each directory prefix of the renaming, stopping at the root of either
-      // path. For example, a renaming a/b/c/file -> x/y/file creates mappings for each dir prefix:
-      // - x/y/file -> a/b/c/file
-      // - x/y -> a/b/c
-      // - x -> a/b
-      while (!renamedPathParts.isEmpty() && !refPathParts.isEmpty()) {
-        tmpPathMap.put(FILE_SEP_JOINER.join(renamedPathParts), FILE_SEP_JOINER.join(refPathParts));
-        renamedPathParts.removeLast();
-        refPathParts.removeLast();
-      }
+  private void copyFile(File inputFile, File destFile) {
+    try {
+      filesystem.makeDirsForFile(destFile);
+      filesystem.linkFile(inputFile, destFile);
+    } catch (IOException e) {
+      throw new MoeProblem(e, "%s", e.getMessage());
     }
-    return ImmutableMap.copyOf(tmpPathMap);
   }
-
 }
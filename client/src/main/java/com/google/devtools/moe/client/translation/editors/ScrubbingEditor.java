@@ -19,25 +19,54 @@ package com.google.devtools.moe.client.translation.editors;
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.CommandOutput;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
 import com.google.devtools.moe.client.codebase.CodebaseMerger;
 import com.google.devtools.moe.client.project.EditorConfig;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.ScrubberConfig;
+import com.google.devtools.moe.client.qualifiers.Argument;
 import com.google.devtools.moe.client.tools.TarUtils;
 import com.google.gson.Gson;
 import dagger.Lazy;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Named;
 
-/** A ScrubbingEditor invokes the MOE scrubber on a Codebase. */
+/**
+ * A ScrubbingEditor invokes the MOE scrubber on a Codebase.
+ *
+ * <p>With {@code --scrubber_shards} above one, the codebase's files are split into that many
+ * shards of about equal size, each linked into a directory of its own, and a scrubber is run on
+ * each shard concurrently. Their outputs are then linked together into one codebase. Each shard's
+ * {@link #REPORT_FILENAME report} is appended to the joined report, in shard order; any other file
+ * output by more than one shard is an error. Configs with options which relate files to each other,
+ * like renames, are always scrubbed whole (see {@link ScrubberConfig#relatesFiles}).
+ */
 @AutoFactory(implementing = Editor.Factory.class)
 public class ScrubbingEditor implements Editor, InverseEditor {
+  /** The report which the scrubber outputs alongside the scrubbed files. */
+  static final String REPORT_FILENAME = "report.txt";
+
   private final CommandRunner cmd;
   private final FileSystem filesystem;
   private final Lazy<File> executable;
@@ -46,6 +75,8 @@ public class ScrubbingEditor implements Editor, InverseEditor {
   private final TarUtils tarUtils;
   private final CodebaseMerger merger;
   private final Gson gson;
+  private final int shards;
+  private final int commandTimeoutSeconds;
 
   ScrubbingEditor(
       @Provided CommandRunner cmd,
@@ -55,7 +86,9 @@ public class ScrubbingEditor implements Editor, InverseEditor {
       @Provided CodebaseMerger merger,
       String editorName,
       EditorConfig config,
-      @Provided Gson gson) {
+      @Provided Gson gson,
+      @Provided @Argument("scrubber_shards") int shards,
+      @Provided @Argument("command_timeout_seconds") int commandTimeoutSeconds) {
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.executable = executable;
@@ -64,6 +97,8 @@ public class ScrubbingEditor implements Editor, InverseEditor {
     this.name = editorName;
     this.scrubberConfig = config.scrubberConfig();
     this.gson = gson;
+    this.shards = shards;
+    this.commandTimeoutSeconds = commandTimeoutSeconds;
   }
 
   /**
@@ -85,6 +120,13 @@ public class ScrubbingEditor implements Editor, InverseEditor {
    */
   @Override
   public Codebase edit(Codebase input, Map<String, String> options) {
+    String configData = (scrubberConfig == null) ? "{}" : gson.toJson(scrubberConfig);
+    if (shards > 1 && isShardable()) {
+      ImmutableSortedMap<String, File> files = CodebaseLayer.files(input, filesystem);
+      if (files.size() > 1) {
+        return editInShards(input, files, configData);
+      }
+    }
     File tempDir = filesystem.getTemporaryDirectory("scrubber_run_");
     File outputTar = new File(tempDir, "scrubbed.tar");
     try {
@@ -98,7 +140,7 @@ public class ScrubbingEditor implements Editor, InverseEditor {
               outputTar.getAbsolutePath(),
               // TODO(dbentley): allow configuring the scrubber config
               "--config_data",
-              (scrubberConfig == null) ? "{}" : gson.toJson(scrubberConfig),
+              configData,
               input.path().getAbsolutePath()));
     } catch (CommandRunner.CommandException | IOException e) {
       throw new MoeProblem(e, "Problem executing the scrubber: %s", e.getMessage());
@@ -114,6 +156,144 @@ public class ScrubbingEditor implements Editor, InverseEditor {
     return Codebase.create(expandedDir, input.projectSpace(), input.expression());
   }
 
+  private boolean isShardable() {
+    if (scrubberConfig == null) {
+      return true;
+    }
+    return !ScrubberConfig.relatesFiles(gson.toJsonTree(scrubberConfig).getAsJsonObject());
+  }
+
+  /** Scrubs the codebase's files in shards, concurrently, and joins the scrubbed shards. */
+  private Codebase editInShards(
+      Codebase input, ImmutableSortedMap<String, File> files, String configData) {
+    File tempDir = filesystem.getTemporaryDirectory("scrubber_run_");
+    List<Map<String, File>> shardFiles = partition(files, Math.min(shards, files.size()));
+    List<ListenableFuture<CommandOutput>> runs = new ArrayList<>();
+    List<File> outputTars = new ArrayList<>();
+    try {
+      String binary = executable.get().getCanonicalPath();
+      for (int shard = 0; shard < shardFiles.size(); shard++) {
+        File shardDir = new File(tempDir, "shard_" + shard);
+        File shardInput = new File(tempDir, "input_" + shard);
+        File outputTar = new File(shardDir, "scrubbed.tar");
+        filesystem.makeDirs(shardDir);
+        filesystem.makeDirs(shardInput);
+        for (Map.Entry<String, File> file : shardFiles.get(shard).entrySet()) {
+          File destination = new File(shardInput, file.getKey());
+          filesystem.makeDirsForFile(destination);
+          filesystem.linkFile(file.getValue(), destination);
+        }
+        outputTars.add(outputTar);
+        runs.add(
+            cmd.runCommandAsync(
+                executable.get().getParentFile().getPath(),
+                binary,
+                ImmutableList.of(
+                    "--temp_dir",
+                    shardDir.getAbsolutePath(),
+                    "--output_tar",
+                    outputTar.getAbsolutePath(),
+                    "--config_data",
+                    configData,
+                    shardInput.getAbsolutePath()),
+                commandTimeoutSeconds,
+                TimeUnit.SECONDS));
+      }
+      Futures.allAsList(runs).get();
+    } catch (IOException e) {
+      cancel(runs);
+      throw new MoeProblem(e, "Problem executing the scrubber: %s", e.getMessage());
+    } catch (InterruptedException e) {
+      cancel(runs);
+      Thread.currentThread().interrupt();
+      throw new MoeProblem(e, "Interrupted while scrubbing %s", input);
+    } catch (ExecutionException e) {
+      cancel(runs);
+      throw new MoeProblem(e.getCause(), "Problem executing the scrubber: %s", e.getCause());
+    }
+
+    // Join the shards' outputs, appending their reports to one another.
+    Map<String, List<File>> outputs = new TreeMap<>();
+    for (File outputTar : outputTars) {
+      File expandedDir;
+      try {
+        expandedDir = tarUtils.expandTar(outputTar);
+      } catch (IOException e) {
+        throw new MoeProblem(e, "Failed to run scrubber on copied content of input codebase");
+      } catch (CommandRunner.CommandException e) {
+        throw new MoeProblem("%s", e.getMessage());
+      }
+      for (String name : filesystem.findRelativeFiles(expandedDir)) {
+        outputs.computeIfAbsent(name, n -> new ArrayList<>()).add(new File(expandedDir, name));
+      }
+    }
+    File outputDir = filesystem.getTemporaryDirectory("scrubber_output_");
+    try {
+      filesystem.makeDirs(outputDir);
+      for (Map.Entry<String, List<File>> output : outputs.entrySet()) {
+        File destination = new File(outputDir, output.getKey());
+        filesystem.makeDirsForFile(destination);
+        List<File> versions = output.getValue();
+        if (versions.size() == 1) {
+          filesystem.linkFile(versions.get(0), destination);
+          continue;
+        }
+        if (!output.getKey().equals(REPORT_FILENAME)) {
+          throw new MoeProblem(
+              "More than one shard of %s was scrubbed to %s", input, output.getKey());
+        }
+        try (OutputStream out = new FileOutputStream(destination)) {
+          for (File version : versions) {
+            Files.copy(version.toPath(), out);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Could not join the scrubbed shards of %s", input);
+    }
+    return Codebase.create(outputDir, input.projectSpace(), input.expression());
+  }
+
+  /**
+   * Splits the files into shards of about equal total size, by giving each file in turn, largest
+   * first, to the shard with the fewest bytes so far.
+   */
+  private static List<Map<String, File>> partition(Map<String, File> files, int count) {
+    List<Map.Entry<String, File>> bySize = new ArrayList<>(files.entrySet());
+    Map<File, Long> sizes = new HashMap<>();
+    for (File file : files.values()) {
+      sizes.put(file, file.length());
+    }
+    bySize.sort(
+        Comparator.comparing((Map.Entry<String, File> file) -> sizes.get(file.getValue()))
+            .reversed()
+            .thenComparing(Map.Entry::getKey));
+    List<Map<String, File>> shardFiles = new ArrayList<>();
+    long[] shardSizes = new long[count];
+    PriorityQueue<Integer> smallestFirst =
+        new PriorityQueue<>(
+            count,
+            Comparator.comparingLong((Integer shard) -> shardSizes[shard])
+                .thenComparing(shard -> shard));
+    for (int shard = 0; shard < count; shard++) {
+      shardFiles.add(new TreeMap<>());
+      smallestFirst.add(shard);
+    }
+    for (Map.Entry<String, File> file : bySize) {
+      int shard = smallestFirst.remove();
+      shardFiles.get(shard).put(file.getKey(), file.getValue());
+      shardSizes[shard] += sizes.get(file.getValue());
+      smallestFirst.add(shard);
+    }
+    return shardFiles;
+  }
+
+  private static void cancel(List<ListenableFuture<CommandOutput>> runs) {
+    for (ListenableFuture<CommandOutput> run : runs) {
+      run.cancel(true);
+    }
+  }
+
   /**
    * An editor that inverts scrubbing via merging.
    *
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.devtools.moe.client.project.EditorConfig;
+import javax.inject.Inject;
+
+/**
+ * Makes scrubber editors, which run the external scrubber unless their config asks to scrub in
+ * process.
+ */
+class ScrubbingEditorSelector implements Editor.Factory {
+  private final ScrubbingEditorFactory external;
+  private final InProcessScrubbingEditorFactory inProcess;
+
+  @Inject
+  ScrubbingEditorSelector(
+      ScrubbingEditorFactory external, InProcessScrubbingEditorFactory inProcess) {
+    this.external = external;
+    this.inProcess = inProcess;
+  }
+
+  @Override
+  public Editor newEditor(String editorName, EditorConfig config) {
+    return config.scrubInProcess()
+        ? inProcess.create(editorName, config)
+        : external.newEditor(editorName, config);
+  }
+}
@@ -16,16 +16,30 @@
 
 package com.google.devtools.moe.client.translation.pipeline;
 
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.Ui.Task;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.project.ProjectContext;
+import com.google.devtools.moe.client.translation.editors.FileLocalEditor;
+import com.google.devtools.moe.client.translation.editors.FusedEditor;
 import java.util.List;
 import java.util.Map;
 
 /**
  * A TranslationPipeline that translates a Codebase from one project space to another by
  * calling its constituent Editors in turn in translate().
+ *
+ * <p>Editors which change only some files, like renaming and patching, return a {@link
+ * com.google.devtools.moe.client.codebase.CodebaseLayer} over their input, so a chain of them
+ * writes out a directory for the whole codebase only if and when something reads it. Given a
+ * {@link FileSystem}, the pipeline also runs each run of consecutive {@link FileLocalEditor}s as
+ * one {@link FusedEditor}, which edits each file with all of them at once; other editors, like
+ * {@link com.google.devtools.moe.client.translation.editors.ShellEditor}, separate such runs.
  */
 public class ForwardTranslationPipeline implements TranslationPipeline {
 
@@ -37,6 +51,41 @@ public class ForwardTranslationPipeline implements TranslationPipeline {
     this.steps = steps;
   }
 
+  /**
+   * Creates a pipeline which fuses consecutive file-local steps.
+   *
+   * @param filesystem the file system for fused steps to write their results to
+   */
+  public ForwardTranslationPipeline(Ui ui, FileSystem filesystem, List<TranslationStep> steps) {
+    this(ui, fuse(filesystem, steps));
+  }
+
+  /** Replaces each run of more than one file-local step with a single fused step. */
+  private static List<TranslationStep> fuse(FileSystem filesystem, List<TranslationStep> steps) {
+    ImmutableList.Builder<TranslationStep> fused = ImmutableList.builder();
+    int start = 0;
+    while (start < steps.size()) {
+      int end = start;
+      while (end < steps.size() && steps.get(end).editor instanceof FileLocalEditor) {
+        end++;
+      }
+      if (end - start < 2) {
+        fused.add(steps.get(start));
+        start++;
+        continue;
+      }
+      List<TranslationStep> run = steps.subList(start, end);
+      fused.add(
+          new TranslationStep(
+              run.stream().map(step -> step.name).collect(joining("+")),
+              new FusedEditor(
+                  filesystem,
+                  run.stream().map(step -> (FileLocalEditor) step.editor).collect(toList()))));
+      start = end;
+    }
+    return fused.build();
+  }
+
   @Override
   public Codebase translate(
       Codebase toTranslate, Map<String, String> options, ProjectContext context) {
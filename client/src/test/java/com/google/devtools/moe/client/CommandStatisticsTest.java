@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.CommandStatistics.CommandStats;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class CommandStatisticsTest extends TestCase {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  public void testKey() {
+    assertEquals("git log", CommandStatistics.key("git", ImmutableList.of("log", "-1")));
+    assertEquals("git add", CommandStatistics.key("/usr/bin/git", ImmutableList.of("add", ".")));
+    assertEquals("hg log", CommandStatistics.key("hg", ImmutableList.of("--debug", "log")));
+    assertEquals("diff", CommandStatistics.key("diff", ImmutableList.of("-N", "-u", "a", "b")));
+    assertEquals("scrubber.par", CommandStatistics.key("/tmp/scrubber.par", ImmutableList.of()));
+  }
+
+  public void testRecord() {
+    CommandStatistics stats = new CommandStatistics(true, null, GsonModule.provideGson());
+    stats.record("git", ImmutableList.of("log"), 5 * MILLIS, 100, 0, false);
+    stats.record("git", ImmutableList.of("log"), 1500 * MILLIS, 200, 10, true);
+    stats.record("tar", ImmutableList.of("-xf", "a.tar"), 20_000 * MILLIS, 0, 0, false);
+
+    List<CommandStats> snapshot = stats.snapshot();
+    assertEquals(2, snapshot.size());
+    // Most expensive first.
+    assertEquals("tar", snapshot.get(0).command);
+    CommandStats log = snapshot.get(1);
+    assertEquals("git log", log.command);
+    assertEquals(2, log.invocations);
+    assertEquals(1, log.failures);
+    assertEquals(1505, log.totalMillis);
+    assertEquals(1500, log.maxMillis);
+    assertEquals(300, log.stdoutBytes);
+    assertEquals(10, log.stderrBytes);
+    assertThat(log.histogram).asList().containsExactly(1L, 0L, 0L, 1L, 0L, 0L).inOrder();
+  }
+
+  public void testDisabledRecordsNothing() {
+    CommandStatistics stats = CommandStatistics.disabled();
+    stats.record("git", ImmutableList.of("log"), MILLIS, 100, 0, false);
+    assertThat(stats.snapshot()).isEmpty();
+  }
+
+  public void testReport() throws Exception {
+    File jsonFile = new File(Files.createTempDir(), "stats.json");
+    CommandStatistics stats =
+        new CommandStatistics(true, jsonFile.getPath(), GsonModule.provideGson());
+    stats.record("git", ImmutableList.of("log"), 5 * MILLIS, 100, 0, false);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    stats.report(new Ui(out));
+
+    String table = new String(out.toByteArray(), UTF_8);
+    assertThat(table).contains("External commands:");
+    assertThat(table).containsMatch("git log +1 +0 +0.0 +5 +100 +0 +1 +0");
+
+    JsonArray json = new JsonParser().parse(Files.asCharSource(jsonFile, UTF_8).read())
+        .getAsJsonArray();
+    JsonObject log = json.get(0).getAsJsonObject();
+    assertEquals("git log", log.get("command").getAsString());
+    assertEquals(1, log.get("invocations").getAsInt());
+    assertEquals(100, log.get("stdout_bytes").getAsInt());
+    new SystemFileSystem().deleteRecursively(jsonFile.getParentFile());
+  }
+}
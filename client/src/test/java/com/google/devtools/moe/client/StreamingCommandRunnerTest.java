@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.CommandRunner.CommandOutput;
+import com.google.devtools.moe.client.CommandRunner.CommandTimeoutException;
+import com.google.devtools.moe.client.gson.GsonModule;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class StreamingCommandRunnerTest extends TestCase {
+
+  private final StreamingCommandRunner c = new StreamingCommandRunner();
+
+  public void testLongStdout() throws Exception {
+    String data = c.runCommand("", "perl", ImmutableList.of("-e", "print (\"*\" x 17000)"));
+    assertEquals(17000, data.length());
+  }
+
+  public void testLongStderr() throws Exception {
+    String data = c.runCommand("", "perl", ImmutableList.of("-e", "print STDERR (\"*\" x 17000)"));
+    assertEquals(0, data.length());
+  }
+
+  /**
+   * Tests that a process with a large stdout and stderr doesn't produce stream contention or
+   * deadlock behavior.
+   */
+  public void testLongStdoutAndStderr() throws Exception {
+    int bytesOutput = 1000000;
+    // Sub in the desired output size and exit code for this script with String.format(size, exit).
+    String perlScript = "print STDOUT ('*' x %1$d); print STDERR ('*' x %1$d); exit %2$d";
+
+    String stdout =
+        c.runCommand("", "perl", ImmutableList.of("-e", String.format(perlScript, bytesOutput, 0)));
+    assertEquals(bytesOutput, stdout.length());
+
+    try {
+      c.runCommand("", "perl", ImmutableList.of("-e", String.format(perlScript, bytesOutput, 1)));
+      fail("Non-zero return code didn't raise CommandException.");
+
+    } catch (CommandException expected) {
+      assertEquals("returnStatus", 1, expected.returnStatus);
+      assertEquals("stdout length", bytesOutput, expected.stdout.length());
+      assertEquals("stderr length", bytesOutput, expected.stderr.length());
+    }
+  }
+
+  public void testRunCommand_timeout() throws Exception {
+    StreamingCommandRunner deadlined =
+        new StreamingCommandRunner(1, 0, 1, CommandStatistics.disabled());
+    assertEquals("ok", deadlined.runCommand("", "echo", ImmutableList.of("-n", "ok")));
+    long start = System.nanoTime();
+    try {
+      deadlined.runCommand("", "sleep", ImmutableList.of("30"));
+      fail("Command outliving its deadline didn't fail.");
+    } catch (CommandTimeoutException expected) {
+      assertEquals("sleep", expected.cmd);
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+  }
+
+  public void testRunCommandByLine() throws Exception {
+    List<String> lines = new ArrayList<>();
+    c.runCommandByLine(
+        "", "perl", ImmutableList.of("-e", "print \"a\\nbb\\n\\nccc\""), lines::add);
+    assertEquals(ImmutableList.of("a", "bb", "", "ccc"), lines);
+  }
+
+  public void testRunCommandByLine_failure() throws Exception {
+    List<String> lines = new ArrayList<>();
+    try {
+      c.runCommandByLine(
+          "", "perl", ImmutableList.of("-e", "print \"a\\n\"; print STDERR 'oops'; exit 3"),
+          lines::add);
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+      assertEquals(3, expected.returnStatus);
+      assertEquals("oops", expected.stderr);
+    }
+    assertEquals(ImmutableList.of("a"), lines);
+  }
+
+  public void testRunCommandAsStream() throws Exception {
+    try (InputStream in =
+        c.runCommandAsStream("", "perl", ImmutableList.of("-e", "print ('*' x 100000)"))) {
+      assertEquals(100000, new String(ByteStreams.toByteArray(in), UTF_8).length());
+    }
+  }
+
+  public void testRunCommandAsStream_failureReportedOnClose() throws Exception {
+    InputStream in =
+        c.runCommandAsStream("", "perl", ImmutableList.of("-e", "print STDERR 'oops'; exit 2"));
+    ByteStreams.exhaust(in);
+    try {
+      in.close();
+      fail("Non-zero return code didn't fail close().");
+    } catch (IOException expected) {
+      CommandException cause = (CommandException) expected.getCause();
+      assertEquals(2, cause.returnStatus);
+      assertEquals("oops", cause.stderr);
+    }
+  }
+
+  public void testRunCommandByLine_timeout() throws Exception {
+    StreamingCommandRunner deadlined =
+        new StreamingCommandRunner(1, 0, 1, CommandStatistics.disabled());
+    List<String> lines = new ArrayList<>();
+    try {
+      deadlined.runCommandByLine(
+          "", "perl", ImmutableList.of("-e", "$| = 1; print \"a\\n\"; sleep 30"), lines::add);
+      fail("Command outliving its deadline didn't fail.");
+    } catch (CommandTimeoutException expected) {
+      assertEquals("perl", expected.cmd);
+    }
+    assertEquals(ImmutableList.of("a"), lines);
+  }
+
+  public void testRunCommandAsStream_timeoutReportedOnClose() throws Exception {
+    StreamingCommandRunner deadlined =
+        new StreamingCommandRunner(1, 0, 1, CommandStatistics.disabled());
+    InputStream in = deadlined.runCommandAsStream("", "sleep", ImmutableList.of("30"));
+    ByteStreams.exhaust(in);
+    try {
+      in.close();
+      fail("Command outliving its deadline didn't fail close().");
+    } catch (IOException expected) {
+      assertTrue(expected.getCause() instanceof CommandTimeoutException);
+    }
+  }
+
+  public void testRunCommandAsync() throws Exception {
+    CommandOutput output =
+        c.runCommandAsync(
+                "", "perl", ImmutableList.of("-e", "print 'out'; print STDERR 'err'"), 0, SECONDS)
+            .get();
+    assertEquals("out", output.getStdout());
+    assertEquals("err", output.getStderr());
+  }
+
+  public void testRunCommandAsync_failure() throws Exception {
+    ListenableFuture<CommandOutput> result =
+        c.runCommandAsync(
+            "", "perl", ImmutableList.of("-e", "print STDERR 'oops'; exit 4"), 0, SECONDS);
+    try {
+      result.get();
+      fail("Non-zero return code didn't fail the future.");
+    } catch (ExecutionException expected) {
+      CommandException cause = (CommandException) expected.getCause();
+      assertEquals(4, cause.returnStatus);
+      assertEquals("oops", cause.stderr);
+    }
+  }
+
+  public void testRunCommandAsync_timeoutKillsProcessTree() throws Exception {
+    File tempDir = Files.createTempDir();
+    File marker = new File(tempDir, "survivor");
+    // The child outlives the deadline, then would leave a marker if it hadn't been killed.
+    String script = "sleep 2; touch " + marker.getPath();
+    long start = System.nanoTime();
+    ListenableFuture<CommandOutput> result =
+        c.runCommandAsync(
+            "", "sh", ImmutableList.of("-c", "sh -c '" + script + "'; true"), 200, MILLISECONDS);
+    try {
+      result.get();
+      fail("Command outliving its deadline didn't fail the future.");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof CommandTimeoutException);
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 2);
+    if (canKillDescendants()) {
+      Thread.sleep(2500);
+      assertFalse("Grandchild survived the timeout", marker.exists());
+    }
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  public void testRunCommandAsync_cancel() throws Exception {
+    ListenableFuture<CommandOutput> result =
+        c.runCommandAsync("", "sleep", ImmutableList.of("30"), 0, SECONDS);
+    Thread.sleep(100);
+    assertTrue(result.cancel(true));
+    // The cancelled command no longer holds a slot, so others still run.
+    StreamingCommandRunner single = new StreamingCommandRunner(1, 0);
+    single.runCommandAsync("", "sleep", ImmutableList.of("30"), 0, SECONDS).cancel(true);
+    ListenableFuture<CommandOutput> next =
+        single.runCommandAsync("", "echo", ImmutableList.of("-n", "ok"), 0, SECONDS);
+    assertEquals("ok", next.get(5, SECONDS).getStdout());
+  }
+
+  public void testRunCommandAsync_concurrencyLimit() throws Exception {
+    File tempDir = Files.createTempDir();
+    File log = new File(tempDir, "log");
+    StreamingCommandRunner limited = new StreamingCommandRunner(4, 1);
+    String script = "echo start >> " + log.getPath() + "; sleep 0.2; echo end >> " + log.getPath();
+    List<ListenableFuture<CommandOutput>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      results.add(limited.runCommandAsync("", "sh", ImmutableList.of("-c", script), 0, SECONDS));
+    }
+    Futures.allAsList(results).get(10, SECONDS);
+    // Only one "sh" may run at a time, so no two runs overlap.
+    assertEquals(
+        ImmutableList.of("start", "end", "start", "end", "start", "end"),
+        Files.readLines(log, UTF_8));
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  public void testRecordsStatistics() throws Exception {
+    CommandStatistics stats = new CommandStatistics(true, null, GsonModule.provideGson());
+    StreamingCommandRunner runner = new StreamingCommandRunner(1, 0, 0, stats);
+    runner.runCommand("", "perl", ImmutableList.of("-e", "print 'abc'; print STDERR 'de'"));
+    try {
+      runner.runCommandByLine(
+          "", "perl", ImmutableList.of("-e", "print \"x\\n\"; exit 1"), line -> {});
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+    }
+
+    CommandStatistics.CommandStats perl = Iterables.getOnlyElement(stats.snapshot());
+    assertEquals("perl", perl.command);
+    assertEquals(2, perl.invocations);
+    assertEquals(1, perl.failures);
+    assertEquals(5, perl.stdoutBytes);
+    assertEquals(2, perl.stderrBytes);
+  }
+
+  /** Java 8 can't enumerate a process's descendants, so only kills the direct child. */
+  private static boolean canKillDescendants() {
+    try {
+      Process.class.getMethod("descendants");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
@@ -20,13 +20,24 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.moe.client.Utils.makeFilenamesRelative;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.FileWriteMode;
 import com.google.common.io.Files;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.Ui.Task;
+import com.google.devtools.moe.client.codebase.BlobStore;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.testing.TestingModule;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.junit.Before;
@@ -58,6 +69,120 @@ public class SystemFileSystemTest {
         .containsExactly("file", "bar/baz");
   }
 
+  @Test
+  public void testFindRelativeFiles() throws Exception {
+    touchAndCreate(tempDir, "b");
+    touchAndCreate(tempDir, "a/c/d");
+    touchAndCreate(tempDir, "a/e");
+    new File(tempDir, "empty").mkdir();
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "dangling").toPath(), new File(tempDir, "nowhere").toPath());
+
+    assertThat(fs.findRelativeFiles(tempDir)).containsExactly("a/c/d", "a/e", "b").inOrder();
+    assertThat(fs.findRelativeFiles(new File(tempDir, "a/e"))).isEmpty();
+    assertThat(fs.findRelativeFiles(new File(tempDir, "missing"))).isEmpty();
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    File plain = touchAndCreate(tempDir, "a/plain");
+    Files.write("hello\n", plain, UTF_8);
+    plain.setLastModified(1_000_000L);
+    File executable = touchAndCreate(tempDir, "b");
+    executable.setExecutable(true, false);
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "dangling").toPath(), new File(tempDir, "nowhere").toPath());
+
+    CodebaseSnapshot snapshot = CodebaseSnapshot.take(fs, tempDir, true);
+
+    assertThat(snapshot.files()).containsExactly("a/plain", "b").inOrder();
+    FileInfo info = snapshot.get("a/plain");
+    assertThat(info.size()).isEqualTo(6);
+    assertThat(info.lastModifiedMillis()).isEqualTo(1_000_000L);
+    assertThat(info.isExecutable()).isFalse();
+    assertThat(info.hash()).isEqualTo(BlobStore.hash("hello\n".getBytes(UTF_8)));
+    assertThat(snapshot.isExecutable("b")).isTrue();
+    assertThat(snapshot.get("b").mode() & 0111).isEqualTo(0111);
+    assertThat(snapshot.exists("dangling")).isFalse();
+    assertThat(CodebaseSnapshot.take(fs, tempDir, false).get("a/plain").hash()).isNull();
+  }
+
+  @Test
+  public void testLinkFile() throws Exception {
+    File src = touchAndCreate(tempDir, "src");
+    File dest = new File(tempDir, "dest");
+    Files.write("old", dest, UTF_8);
+
+    fs.linkFile(src, dest);
+
+    assertThat(java.nio.file.Files.isSameFile(src.toPath(), dest.toPath())).isTrue();
+  }
+
+  @Test
+  public void testCloneDirectory() throws Exception {
+    File src = new File(tempDir, "src");
+    File dest = new File(tempDir, "dest");
+    Files.write("a", touchAndCreate(src, "a"), UTF_8);
+    Files.write("b", touchAndCreate(src, "dir/b"), UTF_8);
+    touchAndCreate(src, "dir/c").setExecutable(true, false);
+
+    fs.cloneDirectory(src, dest, ImmutableSet.of("dir/b"));
+
+    assertThat(fs.findRelativeFiles(dest)).containsExactly("a", "dir/b", "dir/c");
+    assertThat(fs.fileToString(new File(dest, "a"))).isEqualTo("a");
+    assertThat(fs.isExecutable(new File(dest, "dir/c"))).isTrue();
+
+    // However the rest were cloned, the mutable file can be modified without affecting src.
+    File mutable = new File(dest, "dir/b");
+    assertThat(java.nio.file.Files.isSameFile(mutable.toPath(), new File(src, "dir/b").toPath()))
+        .isFalse();
+    Files.asCharSink(mutable, UTF_8, FileWriteMode.APPEND).write("b");
+    assertThat(fs.fileToString(new File(src, "dir/b"))).isEqualTo("b");
+  }
+
+  @Test
+  public void testCloneDirectory_reflinkCopiesAreWritable() throws Exception {
+    File src = new File(tempDir, "src");
+    File dest = new File(tempDir, "dest");
+    touchAndCreate(src, "dir/a");
+    SystemFileSystem sysfs = new SystemFileSystem();
+    CommandRunner cmd = mock(CommandRunner.class);
+    sysfs.cmd = () -> cmd;
+    // Stands in for a reflink of read-only source files, which copies their permissions.
+    when(cmd.runCommand(eq(""), eq("cp"), anyListOf(String.class)))
+        .thenAnswer(
+            invocation -> {
+              File copy = touchAndCreate(dest, "dir/a");
+              copy.setWritable(false, false);
+              return "";
+            });
+
+    sysfs.cloneDirectory(src, dest, null);
+
+    verify(cmd)
+        .runCommand(
+            "", "cp", asList("-R", "-L", "--reflink=always", src.getPath() + "/.", dest.getPath()));
+    assertThat(new File(dest, "dir/a").canWrite()).isTrue();
+  }
+
+  @Test
+  public void testCloneDirectory_withoutReflinkSupport() throws Exception {
+    File src = new File(tempDir, "src");
+    Files.write("a", touchAndCreate(src, "a"), UTF_8);
+    SystemFileSystem sysfs = new SystemFileSystem();
+    CommandRunner cmd = mock(CommandRunner.class);
+    sysfs.cmd = () -> cmd;
+    when(cmd.runCommand(eq(""), eq("cp"), anyListOf(String.class)))
+        .thenThrow(new CommandException("cp", asList(), "", "Operation not supported", 1));
+
+    sysfs.cloneDirectory(src, new File(tempDir, "dest1"), null);
+    sysfs.cloneDirectory(src, new File(tempDir, "dest2"), null);
+
+    assertThat(sysfs.fileToString(new File(tempDir, "dest2/a"))).isEqualTo("a");
+    // Having failed once, reflinking isn't tried again between the same file stores.
+    verify(cmd).runCommand(eq(""), eq("cp"), anyListOf(String.class));
+  }
+
   @Test
   public void testFindFilesWithGlob() throws Exception {
     touchAndCreate(tempDir, "foo");
@@ -308,6 +433,40 @@ public class SystemFileSystemTest {
     assertThat(taskless.exists()).named("taskless").isFalse();
   }
 
+  @Test
+  public void testCleanUpTempDirsInBackground() throws Exception {
+    DaggerSystemFileSystemTest_Component.create().inject(this);
+
+    File big;
+    File neverCreated;
+    try (Task task = ui.newTask("task", "task")) {
+      big = fs.getTemporaryDirectory("big", lifetimes.currentTask());
+      for (int i = 0; i < 100; i++) {
+        touchAndCreate(big, "dir" + i % 10 + "/file" + i);
+      }
+      neverCreated = fs.getTemporaryDirectory("neverCreated", lifetimes.currentTask());
+    }
+    // Moved aside synchronously, even if not yet deleted.
+    assertThat(big.exists()).named("big").isFalse();
+    assertThat(neverCreated.exists()).named("neverCreated").isFalse();
+
+    fs.awaitCleanUp();
+    fs.awaitCleanUp(); // Idempotent.
+  }
+
+  @Test
+  public void testCloseWithTempDir() throws Exception {
+    DaggerSystemFileSystemTest_Component.create().inject(this);
+
+    AtomicInteger closed = new AtomicInteger();
+    try (Task task = ui.newTask("task", "task")) {
+      File clone = fs.getTemporaryDirectory("clone", lifetimes.currentTask());
+      fs.closeWithTempDir(clone, closed::incrementAndGet);
+      assertThat(closed.get()).isEqualTo(0);
+    }
+    assertThat(closed.get()).isEqualTo(1);
+  }
+
   @Test
   public void testMarkAsPersistentWithTasks() throws Exception {
     DaggerSystemFileSystemTest_Component.create().inject(this);
@@ -75,4 +75,19 @@ public class TaskTest {
     try (Task t = ui.newTask("foo", "bar")) {}
     assertThat(baos.toString()).containsMatch("Done");
   }
+
+  @Test
+  public void messageStream_IndentsLikeMessage() throws Exception {
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    Ui ui = new Ui(streamed, new SystemFileSystem(), false);
+    try (Task t = ui.newTask("foo", "bar")) {
+      ui.messageStream().append("line one\nline").append(' ').append("two\n\nlast\n", 0, 9);
+    }
+    ByteArrayOutputStream formatted = new ByteArrayOutputStream();
+    ui = new Ui(formatted, new SystemFileSystem(), false);
+    try (Task t = ui.newTask("foo", "bar")) {
+      ui.message("line one\nline two\n\nlast");
+    }
+    assertThat(streamed.toString()).isEqualTo(formatted.toString().replace("last\n", "last"));
+  }
 }
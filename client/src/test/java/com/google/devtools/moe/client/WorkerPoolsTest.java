@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import junit.framework.TestCase;
+
+public class WorkerPoolsTest extends TestCase {
+  public void testPoolsAreSharedByParallelism() {
+    assertThat(WorkerPools.withParallelism(3)).isSameAs(WorkerPools.withParallelism(3));
+    assertThat(WorkerPools.withParallelism(3)).isNotSameAs(WorkerPools.withParallelism(5));
+    assertThat(WorkerPools.withParallelism(3).getParallelism()).isEqualTo(3);
+  }
+
+  public void testWorkersAreDaemons() throws Exception {
+    assertThat(WorkerPools.withParallelism(2).submit(() -> Thread.currentThread().isDaemon()).get())
+        .isTrue();
+  }
+
+  public void testNonPositiveParallelism() {
+    try {
+      WorkerPools.withParallelism(0);
+      fail("Expected failure with no threads");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
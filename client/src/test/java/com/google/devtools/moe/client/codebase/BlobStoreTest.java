@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.SystemFileSystem;
+import java.io.File;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class BlobStoreTest extends TestCase {
+  // As given by "echo hello | git hash-object --stdin".
+  private static final String HELLO_HASH = "ce013625030ba8dba906f756967f9e9ca394464a";
+
+  private final SystemFileSystem filesystem = new SystemFileSystem();
+  private File tempDir;
+  private BlobStore store;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    store = new BlobStore(filesystem, new File(tempDir, "store"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    filesystem.deleteRecursively(tempDir);
+  }
+
+  public void testHash() {
+    assertEquals(HELLO_HASH, BlobStore.hash("hello\n".getBytes(UTF_8)));
+  }
+
+  public void testPutAndMaterialize() throws Exception {
+    assertFalse(store.contains(HELLO_HASH));
+    assertEquals(HELLO_HASH, store.put("hello\n".getBytes(UTF_8)));
+    assertTrue(store.contains(HELLO_HASH));
+    assertEquals(HELLO_HASH, store.put("hello\n".getBytes(UTF_8)));
+
+    File a = new File(tempDir, "a/hello.txt");
+    File b = new File(tempDir, "b/hello.txt");
+    store.materialize(HELLO_HASH, false, a);
+    store.materialize(HELLO_HASH, false, b);
+
+    assertEquals("hello\n", filesystem.fileToString(a));
+    assertTrue(java.nio.file.Files.isSameFile(a.toPath(), b.toPath()));
+    assertFalse(filesystem.isExecutable(a));
+  }
+
+  public void testMaterialize_executable() throws Exception {
+    store.put("hello\n".getBytes(UTF_8));
+    File plain = new File(tempDir, "hello.txt");
+    File executable = new File(tempDir, "hello.sh");
+    store.materialize(HELLO_HASH, false, plain);
+    store.materialize(HELLO_HASH, true, executable);
+
+    assertEquals("hello\n", filesystem.fileToString(executable));
+    assertTrue(filesystem.isExecutable(executable));
+    assertFalse(filesystem.isExecutable(plain));
+  }
+
+  public void testMaterialize_readOnly() throws Exception {
+    store.put("hello\n".getBytes(UTF_8));
+    File plain = new File(tempDir, "hello.txt");
+    File executable = new File(tempDir, "hello.sh");
+    store.materialize(HELLO_HASH, false, plain);
+    store.materialize(HELLO_HASH, true, executable);
+
+    assertNotWritable(plain);
+    assertNotWritable(executable);
+  }
+
+  public void testContains_modifiedBlob() throws Exception {
+    store.put("hello\n".getBytes(UTF_8));
+    File linked = new File(tempDir, "hello.txt");
+    store.materialize(HELLO_HASH, false, linked);
+    // Bypass the store's protection, as a careless editor running as root might.
+    linked.setWritable(true, false);
+    Files.asCharSink(linked, UTF_8).write("goodbye\n");
+
+    assertFalse(store.contains(HELLO_HASH));
+    store.put("hello\n".getBytes(UTF_8));
+    File restored = new File(tempDir, "restored.txt");
+    store.materialize(HELLO_HASH, false, restored);
+    assertEquals("hello\n", filesystem.fileToString(restored));
+    assertNotWritable(restored);
+  }
+
+  public void testContains_writableButIntactBlob() throws Exception {
+    store.put("hello\n".getBytes(UTF_8));
+    File linked = new File(tempDir, "hello.txt");
+    store.materialize(HELLO_HASH, false, linked);
+    linked.setWritable(true, false);
+
+    assertTrue(store.contains(HELLO_HASH));
+    assertNotWritable(linked);
+  }
+
+  private static void assertNotWritable(File file) throws Exception {
+    Set<PosixFilePermission> permissions =
+        java.nio.file.Files.getPosixFilePermissions(file.toPath());
+    assertFalse(permissions.toString(), permissions.contains(PosixFilePermission.OWNER_WRITE));
+    assertFalse(permissions.toString(), permissions.contains(PosixFilePermission.GROUP_WRITE));
+    assertFalse(permissions.toString(), permissions.contains(PosixFilePermission.OTHERS_WRITE));
+  }
+
+  public void testMaterialize_missing() throws Exception {
+    try {
+      store.materialize(HELLO_HASH, false, new File(tempDir, "hello.txt"));
+      fail();
+    } catch (NoSuchFileException expected) {
+    }
+  }
+}
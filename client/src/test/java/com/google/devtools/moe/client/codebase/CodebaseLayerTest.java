@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
+import java.io.File;
+import junit.framework.TestCase;
+
+public class CodebaseLayerTest extends TestCase {
+  private final SystemFileSystem filesystem = new SystemFileSystem();
+  private File tempDir;
+  private Codebase base;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    File baseDir = new File(tempDir, "base");
+    write("one\n", new File(baseDir, "a/one.txt"));
+    write("two\n", new File(baseDir, "b/two.txt"));
+    base = Codebase.create(baseDir, "internal", new RepositoryExpression("base"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    filesystem.deleteRecursively(tempDir);
+  }
+
+  private void write(String contents, File file) throws Exception {
+    filesystem.makeDirsForFile(file);
+    filesystem.write(contents, file);
+  }
+
+  public void testFiles_ofDirectory() {
+    assertEquals(
+        ImmutableMap.of(
+            "a/one.txt", new File(base.path(), "a/one.txt"),
+            "b/two.txt", new File(base.path(), "b/two.txt")),
+        CodebaseLayer.files(base, filesystem));
+  }
+
+  public void testPath_writesOutLayers() throws Exception {
+    File renamedDir = new File(tempDir, "renamed");
+    Codebase renamed =
+        CodebaseLayer.create(
+            filesystem,
+            base,
+            renamedDir,
+            ImmutableMap.of("c/one.txt", new File(base.path(), "a/one.txt")));
+    File patchedDir = new File(tempDir, "patched");
+    write("changed\n", new File(patchedDir, "c/one.txt"));
+    Codebase patched =
+        CodebaseLayer.create(
+            filesystem,
+            renamed,
+            patchedDir,
+            ImmutableMap.of(
+                "c/one.txt", new File(patchedDir, "c/one.txt"),
+                "d/one.txt", CodebaseLayer.files(renamed, filesystem).get("c/one.txt")));
+
+    assertEquals("internal", patched.projectSpace());
+    assertEquals(base.expression(), patched.expression());
+    assertEquals(patched, patched.copyWithProjectSpace("public"));
+    assertEquals(
+        ImmutableSet.of(patchedDir.toPath(), renamedDir.toPath(), base.path().toPath()),
+        ImmutableSet.copyOf(patched.toKeep()));
+    // None of that wrote anything out.
+    assertFalse(renamedDir.exists());
+    assertEquals(ImmutableSet.of("c/one.txt"), filesystem.findRelativeFiles(patchedDir));
+
+    assertEquals(patchedDir, patched.path());
+    assertEquals(
+        ImmutableSet.of("c/one.txt", "d/one.txt"), filesystem.findRelativeFiles(patchedDir));
+    assertEquals("changed\n", filesystem.fileToString(new File(patchedDir, "c/one.txt")));
+    assertEquals("one\n", filesystem.fileToString(new File(patchedDir, "d/one.txt")));
+    assertFalse(renamedDir.exists());
+  }
+
+  public void testPath_emptyLayer() {
+    File emptyDir = new File(tempDir, "empty");
+    Codebase empty =
+        CodebaseLayer.create(filesystem, base, emptyDir, ImmutableMap.<String, File>of());
+    assertEquals(emptyDir, empty.path());
+    assertTrue(emptyDir.isDirectory());
+    assertEquals(ImmutableSet.of(), filesystem.findRelativeFiles(emptyDir));
+  }
+}
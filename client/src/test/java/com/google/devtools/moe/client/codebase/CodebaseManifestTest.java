@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.moe.client.testing.FileTreeStubs.hashed;
+import static com.google.devtools.moe.client.testing.FileTreeStubs.stubWalk;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileVisitor;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
+import java.io.File;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class CodebaseManifestTest extends TestCase {
+  private static final long TAKEN = 1000000L;
+
+  private static FileInfo file(String hash) {
+    return new FileInfo(10, 5000, 0644, hash);
+  }
+
+  private static CodebaseManifest manifest(Map<String, FileInfo> files) {
+    return CodebaseManifest.create(CodebaseSnapshot.create(new File("/root"), files), TAKEN);
+  }
+
+  private static final ImmutableMap<String, FileInfo> FILES =
+      ImmutableMap.of(
+          "README", file("a"),
+          "src/Foo.java", file("b"),
+          "src/bar/Bar.java", file("c"),
+          "test/FooTest.java", file("d"));
+
+  public void testIdenticalCodebases() {
+    CodebaseManifest manifest1 = manifest(FILES);
+    CodebaseManifest manifest2 = manifest(FILES);
+
+    assertThat(manifest1.hash()).isEqualTo(manifest2.hash());
+    assertThat(CodebaseManifest.changedFiles(manifest1, manifest2)).isEmpty();
+  }
+
+  public void testChangedFile() {
+    CodebaseManifest manifest1 = manifest(FILES);
+    CodebaseManifest manifest2 =
+        manifest(
+            ImmutableMap.of(
+                "README", file("a"),
+                "src/Foo.java", file("b"),
+                "src/bar/Bar.java", file("changed"),
+                "test/FooTest.java", file("d")));
+
+    assertThat(manifest1.hash()).isNotEqualTo(manifest2.hash());
+    assertThat(manifest1.directoryHash("src")).isNotEqualTo(manifest2.directoryHash("src"));
+    assertThat(manifest1.directoryHash("test")).isEqualTo(manifest2.directoryHash("test"));
+    assertThat(CodebaseManifest.changedFiles(manifest1, manifest2))
+        .containsExactly("src/bar/Bar.java");
+  }
+
+  public void testChangedMode() {
+    CodebaseManifest manifest1 = manifest(FILES);
+    CodebaseManifest manifest2 =
+        manifest(
+            ImmutableMap.of(
+                "README", new FileInfo(10, 5000, 0755, "a"),
+                "src/Foo.java", file("b"),
+                "src/bar/Bar.java", file("c"),
+                "test/FooTest.java", file("d")));
+
+    assertThat(CodebaseManifest.changedFiles(manifest1, manifest2)).containsExactly("README");
+  }
+
+  public void testAddedAndRemovedDirectories() {
+    CodebaseManifest manifest1 = manifest(FILES);
+    CodebaseManifest manifest2 =
+        manifest(
+            ImmutableMap.of(
+                "README", file("a"),
+                "src/Foo.java", file("b"),
+                "docs/guide/index.html", file("e"),
+                "docs/guide/style.css", file("f")));
+
+    assertThat(CodebaseManifest.changedFiles(manifest1, manifest2))
+        .containsExactly(
+            "docs/guide/index.html",
+            "docs/guide/style.css",
+            "src/bar/Bar.java",
+            "test/FooTest.java")
+        .inOrder();
+    assertThat(manifest2.directoryHash("test")).isNull();
+  }
+
+  public void testIsCurrent() {
+    CodebaseManifest manifest = manifest(FILES);
+    File root = new File("/root");
+
+    assertTrue(manifest.isCurrent(CodebaseSnapshot.create(root, FILES)));
+    assertFalse(
+        manifest.isCurrent(
+            CodebaseSnapshot.create(root, ImmutableMap.of("README", file("a")))));
+    assertFalse(
+        manifest.isCurrent(
+            CodebaseSnapshot.create(
+                root,
+                ImmutableMap.of(
+                    "README", new FileInfo(10, 6000, 0644, null),
+                    "src/Foo.java", file("b"),
+                    "src/bar/Bar.java", file("c"),
+                    "test/FooTest.java", file("d")))));
+  }
+
+  public void testIsCurrent_recentlyModifiedFilesMightHaveChanged() {
+    ImmutableMap<String, FileInfo> files =
+        ImmutableMap.of("README", new FileInfo(10, TAKEN - 10, 0644, "a"));
+    CodebaseManifest manifest = manifest(files);
+
+    assertFalse(manifest.isCurrent(CodebaseSnapshot.create(new File("/root"), files)));
+  }
+
+  public void testTake_rehashesOnlyChangedFiles() throws Exception {
+    FileSystem filesystem = mock(FileSystem.class);
+    File root = new File("/root");
+    stubWalk(filesystem, root, FILES);
+    CodebaseManifest previous = CodebaseManifest.take(filesystem, root, null);
+    assertThat(previous.snapshot().get("README")).isEqualTo(hashed(file("a")));
+
+    FileInfo changed = new FileInfo(11, 6000, 0644, "changed");
+    stubWalk(
+        filesystem,
+        root,
+        ImmutableMap.of(
+            "README", file("a"),
+            "src/Foo.java", file("b"),
+            "src/bar/Bar.java", changed,
+            "test/FooTest.java", file("d")));
+    CodebaseManifest manifest = CodebaseManifest.take(filesystem, root, previous);
+
+    assertThat(CodebaseManifest.changedFiles(previous, manifest))
+        .containsExactly("src/bar/Bar.java");
+    verify(filesystem, times(2)).readBytes(new File(root, "src/bar/Bar.java"));
+    verify(filesystem).readBytes(new File(root, "README"));
+  }
+
+  public void testTake_unchangedCodebaseKeepsManifest() throws Exception {
+    FileSystem filesystem = mock(FileSystem.class);
+    File root = new File("/root");
+    stubWalk(filesystem, root, FILES);
+    CodebaseManifest previous = CodebaseManifest.take(filesystem, root, null);
+
+    assertThat(CodebaseManifest.take(filesystem, root, previous)).isSameAs(previous);
+    verify(filesystem, times(2)).walkFiles(eq(root), any(FileVisitor.class));
+    verify(filesystem).readBytes(new File(root, "README"));
+  }
+}
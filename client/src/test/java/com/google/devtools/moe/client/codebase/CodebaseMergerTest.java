@@ -17,25 +17,31 @@
 package com.google.devtools.moe.client.codebase;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.moe.client.testing.FileTreeStubs.stubWalk;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.CodebaseMerger.MergeResult;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.tools.FileDifference;
 import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileMerger;
+import com.google.devtools.moe.client.tools.FileMerger.ConcreteFileMerger;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -73,6 +79,7 @@ public class CodebaseMergerTest {
   private final Ui ui = new Ui(stream, /* fileSystem */ null);
   private final CommandRunner cmd = mock(CommandRunner.class);
   private final FileDiffer fileDiffer = new ConcreteFileDiffer(cmd, fileSystem);
+  private final FileMerger fileMerger = new ConcreteFileMerger(cmd);
 
   private final Codebase orig = mock(Codebase.class);
   private final Codebase dest = mock(Codebase.class);
@@ -111,7 +118,7 @@ public class CodebaseMergerTest {
     when(fileSystem.exists(destFile)).thenReturn(false);
     when(fileSystem.exists(modFile)).thenReturn(true);
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, fileDiffer);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, fileDiffer);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     verify(cmd)
@@ -141,7 +148,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(anyString(), eq("merge"), Mockito.anyListOf(String.class)))
         .thenThrow(new CommandException("merge", ImmutableList.of(), "", "", 1));
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, differ);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, differ);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     // Expect no changes to the failed/merged files, and merge in /dev/null forcing a user conflict.
@@ -164,7 +171,7 @@ public class CodebaseMergerTest {
     when(fileSystem.exists(destFile)).thenReturn(false);
     when(fileSystem.exists(modFile)).thenReturn(true);
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, differ);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, differ);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     assertThat(resultBuilder.mergedFilesBuilder().build()).isEmpty();
@@ -193,7 +200,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(mergedCodebaseLocation.getAbsolutePath(), "merge", mergeArgs))
         .thenReturn("");
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     assertThat(resultBuilder.failedFilesBuilder().build()).isEmpty();
@@ -223,7 +230,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(mergedCodebaseLocation.getAbsolutePath(), "merge", mergeArgs))
         .thenThrow(new CommandRunner.CommandException("merge", mergeArgs, "", "", 1));
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     assertThat(resultBuilder.mergedFilesBuilder().build()).isEmpty();
@@ -243,7 +250,7 @@ public class CodebaseMergerTest {
     when(fileSystem.exists(destFile)).thenReturn(true);
     when(fileSystem.exists(modFile)).thenReturn(false);
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     assertThat(resultBuilder.failedFilesBuilder().build()).isEmpty();
@@ -268,7 +275,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(mergedCodebaseLocation.getAbsolutePath(), "merge", mergeArgs))
         .thenReturn("");
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     assertThat(resultBuilder.failedFilesBuilder().build()).isEmpty();
@@ -299,7 +306,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(anyString(), eq("merge"), Mockito.anyListOf(String.class)))
         .thenThrow(new CommandRunner.CommandException("merge", mergeArgs, "", "", 1));
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     merger.generateMergedFile(orig, mod, dest, resultBuilder, "foo");
 
     // Verify that the file was copied, and that the merge command was executed.
@@ -319,11 +326,10 @@ public class CodebaseMergerTest {
     when(orig.path()).thenReturn(new File("orig"));
     when(dest.path()).thenReturn(new File("dest"));
     when(mod.path()).thenReturn(new File("mod"));
-    when(fileSystem.exists(origFile)).thenReturn(true);
-    when(fileSystem.exists(destFile)).thenReturn(true);
-    when(fileSystem.exists(modFile)).thenReturn(true);
-    when(fileSystem.findFiles(new File("dest"))).thenReturn(ImmutableSet.of(destFile));
-    when(fileSystem.findFiles(new File("mod"))).thenReturn(ImmutableSet.of(modFile));
+    ImmutableMap<String, FileInfo> foo = ImmutableMap.of("foo", FileInfo.withMode(0644));
+    stubWalk(fileSystem, new File("orig"), foo);
+    stubWalk(fileSystem, new File("dest"), foo);
+    stubWalk(fileSystem, new File("mod"), foo);
 
     File mergedFile = new File("merged_codebase_7/foo");
 
@@ -334,7 +340,7 @@ public class CodebaseMergerTest {
     when(cmd.runCommand(mergedCodebaseLocation.getAbsolutePath(), "merge", mergeArgs))
         .thenReturn("");
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, null);
     MergeResult result = merger.merge(orig, mod, dest);
 
     assertThat(result.mergedFiles()).contains(mergedFile.getAbsolutePath());
@@ -349,4 +355,109 @@ public class CodebaseMergerTest {
         .message("Merged codebase generated at: %s", mergedCodebaseLocation.getAbsolutePath());
     verify(ui).message("%d files merged successfully. No merge conflicts.", 1);
   }
+
+  private void snapshotFoo(FileInfo origInfo, FileInfo modInfo, FileInfo destInfo)
+      throws Exception {
+    when(orig.path()).thenReturn(new File("orig"));
+    when(dest.path()).thenReturn(new File("dest"));
+    when(mod.path()).thenReturn(new File("mod"));
+    stubWalk(fileSystem, new File("orig"), ImmutableMap.of("foo", origInfo));
+    stubWalk(fileSystem, new File("mod"), ImmutableMap.of("foo", modInfo));
+    stubWalk(fileSystem, new File("dest"), ImmutableMap.of("foo", destInfo));
+  }
+
+  /** If a file is unchanged between orig and mod, the dest version is taken without merging. */
+  @Test
+  public void testMergeTakesDestWhenUnmodified() throws Exception {
+    snapshotFoo(
+        new FileInfo(-1, -1, 0644, "abc"),
+        new FileInfo(-1, -1, 0644, "abc"),
+        new FileInfo(-1, -1, 0755, "def"));
+    File mergedFile = new File("merged_codebase_7/foo");
+
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, fileDiffer);
+    MergeResult result = merger.merge(orig, mod, dest);
+
+    assertThat(result.mergedFiles()).containsExactly(mergedFile.getAbsolutePath());
+    assertThat(result.failedFiles()).isEmpty();
+    verify(fileSystem).copyFile(destFile, mergedFile);
+    verify(fileSystem, never()).linkFile(any(File.class), any(File.class));
+    verify(cmd, never()).runCommand(anyString(), anyString(), Mockito.anyListOf(String.class));
+  }
+
+  /** If a file is unchanged between orig and dest, the mod version is taken without merging. */
+  @Test
+  public void testMergeTakesModWhenDestUnchanged() throws Exception {
+    snapshotFoo(
+        new FileInfo(-1, -1, 0644, "abc"),
+        new FileInfo(-1, -1, 0644, "def"),
+        new FileInfo(-1, -1, 0644, "abc"));
+    File mergedFile = new File("merged_codebase_7/foo");
+
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, fileDiffer);
+    MergeResult result = merger.merge(orig, mod, dest);
+
+    assertThat(result.mergedFiles()).containsExactly(mergedFile.getAbsolutePath());
+    verify(fileSystem).copyFile(modFile, mergedFile);
+    verify(fileSystem, never()).setExecutable(any(File.class));
+    verify(fileSystem, never()).setNonExecutable(any(File.class));
+    verify(cmd, never()).runCommand(anyString(), anyString(), Mockito.anyListOf(String.class));
+  }
+
+  /** When the mod version is taken, the file keeps its mode in dest, as a merge would. */
+  @Test
+  public void testMergeTakesModWithDestMode() throws Exception {
+    snapshotFoo(
+        new FileInfo(-1, -1, 0755, "abc"),
+        new FileInfo(-1, -1, 0644, "def"),
+        new FileInfo(-1, -1, 0755, "abc"));
+    File mergedFile = new File("merged_codebase_7/foo");
+
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileMerger, fileDiffer);
+    merger.merge(orig, mod, dest);
+
+    verify(fileSystem).copyFile(modFile, mergedFile);
+    verify(fileSystem).setExecutable(mergedFile);
+    verify(fileSystem, never()).linkFile(any(File.class), any(File.class));
+  }
+
+  /** Files merged in parallel are still reported in order of file name. */
+  @Test
+  public void testMergeReportsFilesInOrder() throws Exception {
+    ImmutableMap.Builder<String, FileInfo> files = ImmutableMap.builder();
+    for (int i = 0; i < 20; i++) {
+      String name = String.format("file%02d", i);
+      files.put(name, FileInfo.withMode(0644));
+      when(orig.getFile(name)).thenReturn(new File("orig", name));
+      when(mod.getFile(name)).thenReturn(new File("mod", name));
+      when(dest.getFile(name)).thenReturn(new File("dest", name));
+      when(merged.getFile(name)).thenReturn(new File(mergedCodebaseLocation, name));
+    }
+    when(orig.path()).thenReturn(new File("orig"));
+    when(dest.path()).thenReturn(new File("dest"));
+    when(mod.path()).thenReturn(new File("mod"));
+    for (String codebase : ImmutableList.of("orig", "mod", "dest")) {
+      stubWalk(fileSystem, new File(codebase), files.build());
+    }
+    // Odd-numbered files have conflicts.
+    FileMerger merger = mock(FileMerger.class);
+    when(merger.merge(any(File.class), any(File.class), any(File.class)))
+        .thenAnswer(
+            invocation -> {
+              String name = ((File) invocation.getArguments()[0]).getName();
+              return name.charAt(name.length() - 1) % 2 == 0;
+            });
+
+    MergeResult result =
+        new CodebaseMerger(ui, fileSystem, merger, fileDiffer, 4).merge(orig, mod, dest);
+
+    List<String> merged = new ArrayList<>();
+    List<String> failed = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      File mergedFile = new File(mergedCodebaseLocation, String.format("file%02d", i));
+      (i % 2 == 0 ? merged : failed).add(mergedFile.getAbsolutePath());
+    }
+    assertThat(result.mergedFiles()).containsExactlyElementsIn(merged).inOrder();
+    assertThat(result.failedFiles()).containsExactlyElementsIn(failed).inOrder();
+  }
 }
@@ -81,8 +81,8 @@ public class ExpressionProcessingTest extends TestCase {
     expect(mockFs.isDirectory(srcLocation)).andReturn(true);
     File copyLocation = new File("/tmp/copy");
     expect(mockFs.getTemporaryDirectory("file_codebase_copy_")).andReturn(copyLocation);
-    // Short-circuit Utils.copyDirectory().
-    mockFs.copyDirectory(srcLocation, copyLocation);
+    // Short-circuit FileSystem.cloneDirectory().
+    mockFs.cloneDirectory(srcLocation, copyLocation, null);
     mockFs.setLifetime(EasyMock.eq(copyLocation), EasyMock.<Lifetime>anyObject());
     mockFs.cleanUpTempDirs();
 
@@ -82,8 +82,8 @@ public class BookkeepingDirectiveTest extends TestCase {
     return contextFactory;
   }
 
-  private void expectDiffs() throws Exception {
-    // updateCompletedMigrations
+  private void expectMigratedDiff() throws Exception {
+    // updateCompletedMigrations. The heads have different files, so aren't diffed.
     ImmutableList<String> args =
         ImmutableList.of(
             "-N",
@@ -91,10 +91,6 @@ public class BookkeepingDirectiveTest extends TestCase {
             "/dummy/codebase/int/migrated_from/file",
             "/dummy/codebase/pub/migrated_to/file");
     expect(cmd.runCommand("", "diff", args)).andReturn("unused");
-
-    // updateHeadEquivalence
-    args = ImmutableList.of("-N", "-u", "/dummy/codebase/int/1/file", "/dummy/codebase/pub/1/file");
-    expect(cmd.runCommand("", "diff", args)).andReturn("unused");
   }
 
   /**
@@ -181,7 +177,7 @@ public class BookkeepingDirectiveTest extends TestCase {
         new BookkeepingDirective(new Bookkeeper(context, codebaseDiffer, db, ui, expressionEngine));
     d.dbLocation = DB_FILE.getAbsolutePath();
 
-    expectDiffs();
+    // Neither pair of codebases has the same files, so no files are diffed.
 
     control.replay();
     assertEquals(0, d.perform());
@@ -225,7 +221,7 @@ public class BookkeepingDirectiveTest extends TestCase {
         new BookkeepingDirective(new Bookkeeper(context, codebaseDiffer, db, ui, expressionEngine));
     d.dbLocation = DB_FILE.getAbsolutePath();
 
-    expectDiffs();
+    expectMigratedDiff();
 
     control.replay();
     assertEquals(0, d.perform());
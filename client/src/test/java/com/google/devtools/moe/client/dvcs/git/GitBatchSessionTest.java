@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.StreamingCommandRunner;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.dvcs.git.GitBatchSession.GitObject;
+import java.io.File;
+import junit.framework.TestCase;
+
+/** Tests for {@link GitBatchSession} against a real, throwaway git repository. */
+public class GitBatchSessionTest extends TestCase {
+  private final StreamingCommandRunner cmd = new StreamingCommandRunner();
+  private File repo;
+
+  @Override
+  protected void setUp() throws Exception {
+    repo = Files.createTempDir();
+    git("init", "-q");
+    git("commit", "-q", "--allow-empty", "-m", "first");
+    git("commit", "-q", "--allow-empty", "-m", "second");
+    git("tag", "-a", "-m", "annotated", "v1");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new SystemFileSystem().deleteRecursively(repo);
+  }
+
+  private String git(String... args) throws Exception {
+    return cmd.runCommand(
+        repo.getAbsolutePath(),
+        "git",
+        ImmutableList.<String>builder()
+            .add("-c", "user.name=Foo Bar", "-c", "user.email=foo@google.com")
+            .add(args)
+            .build());
+  }
+
+  public void testResolveCommit() throws Exception {
+    String head = git("rev-parse", "HEAD").trim();
+    String parent = git("rev-parse", "HEAD~1").trim();
+    try (GitBatchSession session = GitBatchSession.start(repo)) {
+      assertEquals(head, session.resolveCommit("HEAD"));
+      assertEquals(head, session.resolveCommit("v1")); // Peels the annotated tag.
+      assertEquals(parent, session.resolveCommit(parent));
+      assertEquals(parent, session.resolveCommit(parent.substring(0, 10)));
+      assertNull(session.resolveCommit("no_such_branch"));
+      assertEquals(head, session.resolveCommit("HEAD")); // Still usable after a miss.
+    }
+  }
+
+  public void testReadCommit() throws Exception {
+    String head = git("rev-parse", "HEAD").trim();
+    String parent = git("rev-parse", "HEAD~1").trim();
+    try (GitBatchSession session = GitBatchSession.start(repo)) {
+      GitObject commit = session.readCommit("HEAD");
+      assertEquals(head, commit.hash);
+      assertThat(commit.content).contains("\nparent " + parent + "\n");
+      assertThat(commit.content).endsWith("\n\nsecond\n");
+    }
+  }
+
+  public void testReadBlob() throws Exception {
+    Files.write("hello\n", new File(repo, "hello.txt"), UTF_8);
+    git("add", "hello.txt");
+    git("commit", "-q", "-m", "third");
+    String blob = git("rev-parse", "HEAD:hello.txt").trim();
+    String tree = git("rev-parse", "HEAD^{tree}").trim();
+    try (GitBatchSession session = GitBatchSession.start(repo)) {
+      assertEquals("hello\n", new String(session.readBlob(blob), UTF_8));
+      assertNull(session.readBlob(tree)); // Not a blob.
+      assertNull(session.readBlob("HEAD:hello.txt")); // Not a hash.
+      assertNull(session.readBlob(Strings.repeat("0", 40)));
+      assertEquals("hello\n", new String(session.readBlob(blob), UTF_8));
+    }
+  }
+
+  public void testReadCommit_encoding() throws Exception {
+    File message = new File(repo.getParentFile(), repo.getName() + ".msg");
+    Files.write("caf\u00e9\n", message, ISO_8859_1);
+    try {
+      git(
+          "-c",
+          "i18n.commitEncoding=ISO-8859-1",
+          "commit",
+          "-q",
+          "--allow-empty",
+          "-F",
+          message.getAbsolutePath());
+    } finally {
+      message.delete();
+    }
+    try (GitBatchSession session = GitBatchSession.start(repo)) {
+      assertThat(session.readCommit("HEAD").content).endsWith("\n\ncaf\u00e9\n");
+    }
+  }
+
+  public void testFailureReportsStderr() throws Exception {
+    File notARepository = Files.createTempDir();
+    try (GitBatchSession session = GitBatchSession.start(notARepository)) {
+      session.readCommit("HEAD");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).contains("not a git repository");
+    } finally {
+      notARepository.delete();
+    }
+  }
+
+  public void testFailureKillsSession() throws Exception {
+    File notARepository = Files.createTempDir();
+    try (GitBatchSession session = GitBatchSession.start(notARepository)) {
+      assertFalse(session.isDead());
+      try {
+        session.readCommit("HEAD");
+        fail("Expected MoeProblem");
+      } catch (MoeProblem expected) {
+      }
+      assertTrue(session.isDead());
+      try {
+        session.readBlob(Strings.repeat("0", 40));
+        fail("Expected MoeProblem from a dead session");
+      } catch (MoeProblem expected) {
+        assertThat(expected.getMessage()).contains("failed earlier");
+      }
+    } finally {
+      notARepository.delete();
+    }
+  }
+}
@@ -16,15 +16,22 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.StreamingCommandRunner;
+import com.google.devtools.moe.client.SystemFileSystem;
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.Ui.Task;
+import com.google.devtools.moe.client.codebase.BlobStore;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import java.io.File;
 import java.util.List;
@@ -40,7 +47,8 @@ public class GitClonedRepositoryTest extends TestCase {
   private final FileSystem mockFS = control.createMock(FileSystem.class);
   private final CommandRunner cmd = control.createMock(CommandRunner.class);
   private final RepositoryConfig repositoryConfig = control.createMock(RepositoryConfig.class);
-  private final Lifetimes lifetimes = new Lifetimes(new Ui(System.err));
+  private final Ui ui = new Ui(System.err);
+  private final Lifetimes lifetimes = new Lifetimes(ui);
 
   private final String repositoryName = "mockrepo";
   private final String repositoryURL = "http://foo/git";
@@ -233,4 +241,68 @@ public class GitClonedRepositoryTest extends TestCase {
     repo.updateToRevision(updateRevId);
     control.verify();
   }
+
+  public void testArchiveAtRevision_blobStore() throws Exception {
+    StreamingCommandRunner realCmd = new StreamingCommandRunner();
+    SystemFileSystem realFs = new SystemFileSystem();
+    File origin = Files.createTempDir();
+    File tempDir = Files.createTempDir();
+    try (Task task = ui.newTask("archive", "Archiving")) {
+      realCmd.runCommand(origin.getPath(), "git", ImmutableList.of("init", "-q"));
+      realCmd.runCommand(
+          origin.getPath(), "git", ImmutableList.of("symbolic-ref", "HEAD", "refs/heads/master"));
+      Files.write("same\n", new File(origin, "same.txt"), UTF_8);
+      Files.createParentDirs(new File(origin, "dir/changed.sh"));
+      Files.write("one\n", new File(origin, "dir/changed.sh"), UTF_8);
+      new File(origin, "dir/changed.sh").setExecutable(true, false);
+      String first = commit(realCmd, origin);
+      Files.write("two\n", new File(origin, "dir/changed.sh"), UTF_8);
+      String second = commit(realCmd, origin);
+
+      expect(repositoryConfig.getUrl()).andReturn(origin.getPath()).anyTimes();
+      expect(repositoryConfig.getBranch()).andReturn(Optional.absent()).anyTimes();
+      expect(repositoryConfig.shallowCheckout()).andReturn(false).anyTimes();
+      expect(repositoryConfig.getCheckoutPaths()).andReturn(ImmutableList.of()).anyTimes();
+      control.replay();
+
+      GitClonedRepository repo =
+          new GitClonedRepository(
+              realCmd,
+              realFs,
+              repositoryName,
+              repositoryConfig,
+              origin.getPath(),
+              lifetimes,
+              new BlobStore(realFs, new File(tempDir, "blobs")));
+      repo.cloneLocallyAtHead(Lifetimes.persistent());
+      File firstArchive = repo.archiveAtRevision(first);
+      File secondArchive = repo.archiveAtRevision(second);
+
+      assertEquals("one\n", realFs.fileToString(new File(firstArchive, "dir/changed.sh")));
+      assertEquals("two\n", realFs.fileToString(new File(secondArchive, "dir/changed.sh")));
+      assertTrue(realFs.isExecutable(new File(secondArchive, "dir/changed.sh")));
+      assertFalse(realFs.isExecutable(new File(secondArchive, "same.txt")));
+      // The unchanged file is stored once.
+      assertTrue(
+          java.nio.file.Files.isSameFile(
+              new File(firstArchive, "same.txt").toPath(),
+              new File(secondArchive, "same.txt").toPath()));
+      assertEquals(
+          ImmutableSet.of("same.txt", "dir/changed.sh"), realFs.findRelativeFiles(secondArchive));
+      control.verify();
+    } finally {
+      realFs.deleteRecursively(origin);
+      realFs.deleteRecursively(tempDir);
+    }
+  }
+
+  private static String commit(StreamingCommandRunner cmd, File repo) throws Exception {
+    cmd.runCommand(repo.getPath(), "git", ImmutableList.of("add", "-A"));
+    cmd.runCommand(
+        repo.getPath(),
+        "git",
+        ImmutableList.of(
+            "-c", "user.name=Foo Bar", "-c", "user.email=foo@google.com", "commit", "-qm", "c"));
+    return cmd.runCommand(repo.getPath(), "git", ImmutableList.of("rev-parse", "HEAD")).trim();
+  }
 }
@@ -21,6 +21,7 @@ import static com.google.devtools.moe.client.repositories.RevisionHistory.Search
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -34,6 +35,7 @@ import com.google.devtools.moe.client.database.RepositoryEquivalenceMatcher.Resu
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionCache;
 import com.google.devtools.moe.client.repositories.RevisionHistory.SearchType;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.testing.DummyDb;
@@ -149,6 +151,25 @@ public class GitRevisionHistoryTest extends TestCase {
     control.verify();
   }
 
+  public void testGetMetadata_cached() throws Exception {
+    GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
+    String hash = Strings.repeat("1", 40);
+
+    // Only one 'git log' is run for repeated queries of a full hash.
+    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, hash)
+        .andReturn(METADATA_JOINER.join(hash, "foo@google.com", GIT_COMMIT_DATE, "", "desc\n"));
+
+    control.replay();
+
+    GitRevisionHistory rh =
+        new GitRevisionHistory(
+            Suppliers.ofInstance(mockRepo), false, new RevisionCache(null, 1 << 20));
+    Revision revision = Revision.create(hash, repositoryName);
+    assertEquals(rh.getMetadata(revision), rh.getMetadata(revision));
+
+    control.verify();
+  }
+
   public void testParseMetadata_multiLine() throws CommandException {
     GitRevisionHistory rh =
         new GitRevisionHistory(Suppliers.ofInstance(mockClonedRepo(repositoryName)));
@@ -173,6 +194,36 @@ public class GitRevisionHistoryTest extends TestCase {
         .inOrder();
   }
 
+  public void testParseCommitObject() throws CommandException {
+    GitRevisionHistory rh =
+        new GitRevisionHistory(Suppliers.ofInstance(mockClonedRepo(repositoryName)), true);
+
+    control.replay();
+    RevisionMetadata rm =
+        rh.parseCommitObject(
+            "1",
+            "tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n"
+                + "parent 2\n"
+                + "parent 3\n"
+                + "author Foo Bar <foo@google.com> 1341838800 -0700\n"
+                + "committer Foo Bar <foo@google.com> 1341838800 -0700\n"
+                + "gpgsig -----BEGIN PGP SIGNATURE-----\n"
+                + " \n"
+                + " -----END PGP SIGNATURE-----\n"
+                + "\n"
+                + "desc with \n\nmultiple lines\n");
+    control.verify();
+
+    assertEquals("1", rm.id());
+    assertEquals("Foo Bar", rm.author());
+    assertThat(rm.date()).isEquivalentAccordingToCompareTo(DATE);
+    // Matches what 'git log --format=%B' would produce.
+    assertEquals("desc with \n\nmultiple lines\n\n", rm.description());
+    assertThat(rm.parents())
+        .containsExactly(Revision.create(2, repositoryName), Revision.create(3, repositoryName))
+        .inOrder();
+  }
+
   /**
    * Mocks most of gh.findHeadRevisions(). Used by both of the next tests.
    *
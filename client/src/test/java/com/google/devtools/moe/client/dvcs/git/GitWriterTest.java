@@ -16,10 +16,10 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import static com.google.devtools.moe.client.testing.FileTreeStubs.expectWalk;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
@@ -66,12 +66,9 @@ public class GitWriterTest extends TestCase {
   public void testPutCodebase_emptyCodebase() throws Exception {
     expect(mockRepoConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.<String>of());
     // Define the files in the codebase and in the writer (git repo).
-    expect(mockFs.findFiles(codebaseRoot)).andReturn(ImmutableSet.<File>of());
-    expect(mockFs.findFiles(writerRoot))
-        .andReturn(
-            ImmutableSet.<File>of(
-                // Doesn't seem to matter that much what we return here, other than .git.
-                new File(writerRoot, ".git/branches")));
+    expectWalk(mockFs, codebaseRoot);
+    // Doesn't seem to matter that much what we return here, other than .git.
+    expectWalk(mockFs, writerRoot, ".git/branches");
 
     // Expect no other mockFs calls from GitWriter.putFile().
 
@@ -88,12 +85,8 @@ public class GitWriterTest extends TestCase {
   public void testPutCodebase_addFile() throws Exception {
     expect(mockRepoConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.<String>of());
 
-    expect(mockFs.findFiles(codebaseRoot))
-        .andReturn(ImmutableSet.<File>of(new File(codebaseRoot, "file1")));
-    expect(mockFs.findFiles(writerRoot)).andReturn(ImmutableSet.<File>of());
-
-    expect(mockFs.exists(new File(codebaseRoot, "file1"))).andReturn(true);
-    expect(mockFs.exists(new File(writerRoot, "file1"))).andReturn(false);
+    expectWalk(mockFs, codebaseRoot, "file1");
+    expectWalk(mockFs, writerRoot);
 
     mockFs.makeDirsForFile(new File(writerRoot, "file1"));
     mockFs.copyFile(new File(codebaseRoot, "file1"), new File(writerRoot, "file1"));
@@ -110,13 +103,8 @@ public class GitWriterTest extends TestCase {
   public void testPutCodebase_editFile() throws Exception {
     expect(mockRepoConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.<String>of());
 
-    expect(mockFs.findFiles(codebaseRoot))
-        .andReturn(ImmutableSet.<File>of(new File(codebaseRoot, "file1")));
-    expect(mockFs.findFiles(writerRoot))
-        .andReturn(ImmutableSet.<File>of(new File(writerRoot, "file1")));
-
-    expect(mockFs.exists(new File(codebaseRoot, "file1"))).andReturn(true);
-    expect(mockFs.exists(new File(writerRoot, "file1"))).andReturn(true);
+    expectWalk(mockFs, codebaseRoot, "file1");
+    expectWalk(mockFs, writerRoot, "file1");
 
     mockFs.makeDirsForFile(new File(writerRoot, "file1"));
     mockFs.copyFile(new File(codebaseRoot, "file1"), new File(writerRoot, "file1"));
@@ -133,12 +121,8 @@ public class GitWriterTest extends TestCase {
   public void testPutCodebase_removeFile() throws Exception {
     expect(mockRepoConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.<String>of());
 
-    expect(mockFs.findFiles(codebaseRoot)).andReturn(ImmutableSet.<File>of());
-    expect(mockFs.findFiles(writerRoot))
-        .andReturn(ImmutableSet.<File>of(new File(writerRoot, "file1")));
-
-    expect(mockFs.exists(new File(codebaseRoot, "file1"))).andReturn(false);
-    expect(mockFs.exists(new File(writerRoot, "file1"))).andReturn(true);
+    expectWalk(mockFs, codebaseRoot);
+    expectWalk(mockFs, writerRoot, "file1");
 
     expectGitCmd("rm", "file1");
 
@@ -154,16 +138,13 @@ public class GitWriterTest extends TestCase {
     expect(mockRepoConfig.getIgnoreFilePatterns())
         .andReturn(ImmutableList.of("^.*ignored_\\w+\\.txt$"));
 
-    expect(mockFs.findFiles(codebaseRoot)).andReturn(ImmutableSet.<File>of());
-    expect(mockFs.findFiles(writerRoot))
-        .andReturn(
-            ImmutableSet.<File>of(
-                new File(writerRoot, ".git/branches"),
-                new File(writerRoot, "not_really_ignored_dir/file1"),
-                new File(writerRoot, "included_dir/ignored_file.txt")));
-
-    expect(mockFs.exists(new File(codebaseRoot, "not_really_ignored_dir/file1"))).andReturn(false);
-    expect(mockFs.exists(new File(writerRoot, "not_really_ignored_dir/file1"))).andReturn(true);
+    expectWalk(mockFs, codebaseRoot);
+    expectWalk(
+        mockFs,
+        writerRoot,
+        ".git/branches",
+        "not_really_ignored_dir/file1",
+        "included_dir/ignored_file.txt");
 
     expectGitCmd("rm", "not_really_ignored_dir/file1");
 
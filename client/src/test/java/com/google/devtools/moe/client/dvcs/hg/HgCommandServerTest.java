@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.hg;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.SystemFileSystem;
+import java.io.File;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HgCommandServer}, run against a fake hg which speaks the command server
+ * protocol: it echoes its arguments on the output channel, and fails any "bogus" command.
+ */
+public class HgCommandServerTest extends TestCase {
+  private static final String FAKE_HG =
+      "#!/usr/bin/perl\n"
+          + "$| = 1; binmode STDIN; binmode STDOUT;\n"
+          + "sub msg { my ($ch, $data) = @_; print $ch . pack('N', length $data) . $data; }\n"
+          + "sub result { print 'r' . pack('N', 4) . pack('N', $_[0]); }\n"
+          + "msg('o', \"capabilities: getencoding runcommand\\nencoding: UTF-8\\n\");\n"
+          + "while (my $cmd = <STDIN>) {\n"
+          + "  read(STDIN, my $len, 4); read(STDIN, my $args, unpack('N', $len));\n"
+          + "  my @args = split(/\\0/, $args);\n"
+          + "  if ($args[0] eq 'bogus') { msg('e', \"abort: bogus\\n\"); result(255); next; }\n"
+          + "  msg('d', 'debug noise'); msg('o', join(' ', @args)); msg('o', \"\\n\"); result(0);\n"
+          + "}\n";
+
+  private File tempDir;
+  private File hg;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    hg = new File(tempDir, "hg");
+    Files.asCharSink(hg, UTF_8).write(FAKE_HG);
+    hg.setExecutable(true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  public void testRunCommand() throws Exception {
+    HgCommandServer server = HgCommandServer.start(hg, tempDir);
+    try {
+      assertEquals("log --limit=1\n", server.runCommand(ImmutableList.of("log", "--limit=1")));
+      assertEquals(
+          "heads default --template={node} {branch}\n",
+          server.runCommand(ImmutableList.of("heads", "default", "--template={node} {branch}")));
+    } finally {
+      server.close();
+    }
+  }
+
+  public void testRunCommand_failure() throws Exception {
+    HgCommandServer server = HgCommandServer.start(hg, tempDir);
+    try {
+      server.runCommand(ImmutableList.of("bogus"));
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+      assertEquals(255, expected.returnStatus);
+      assertEquals("abort: bogus\n", expected.stderr);
+    }
+    // The server survives a failed command.
+    assertEquals("log\n", server.runCommand(ImmutableList.of("log")));
+    server.close();
+  }
+
+  public void testStart_noServer() throws Exception {
+    assertNull(HgCommandServer.start(new File(tempDir, "no_such_hg"), tempDir));
+  }
+}
@@ -63,6 +63,7 @@ public class HgRevisionHistoryTest extends TestCase {
     expect(mockRepo.getLocalTempDir()).andReturn(new File(CLONE_TEMP_DIR)).anyTimes();
     expect(mockRepo.getBranch()).andReturn("mybranch").anyTimes();
     expect(mockRepo.getConfig()).andReturn(config).anyTimes();
+    expect(mockRepo.commandServer()).andReturn(null).anyTimes();
     return mockRepo;
   }
 
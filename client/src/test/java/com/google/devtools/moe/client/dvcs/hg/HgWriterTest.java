@@ -16,10 +16,10 @@
 
 package com.google.devtools.moe.client.dvcs.hg;
 
+import static com.google.devtools.moe.client.testing.FileTreeStubs.expectWalk;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
@@ -70,14 +70,8 @@ public class HgWriterTest extends TestCase {
   public void testPutCodebase_emptyCodebase() throws Exception {
 
     // Define the files in the codebase and in the writer (hg repo).
-    expect(mockFs.findFiles(CODEBASE_ROOT)).andReturn(ImmutableSet.<File>of());
-    expect(mockFs.findFiles(WRITER_ROOT))
-        .andReturn(
-            ImmutableSet.<File>of(
-                new File(WRITER_ROOT, ".hg"),
-                new File(WRITER_ROOT, ".hgignore"),
-                new File(WRITER_ROOT, ".hg/branch"),
-                new File(WRITER_ROOT, ".hg/cache/tags")));
+    expectWalk(mockFs, CODEBASE_ROOT);
+    expectWalk(mockFs, WRITER_ROOT, ".hg", ".hgignore", ".hg/branch", ".hg/cache/tags");
 
     // Expect no other mockFs calls from HgWriter.putFile().
 
@@ -93,12 +87,8 @@ public class HgWriterTest extends TestCase {
 
   public void testPutCodebase_addFile() throws Exception {
 
-    expect(mockFs.findFiles(CODEBASE_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(CODEBASE_ROOT, "file1")));
-    expect(mockFs.findFiles(WRITER_ROOT)).andReturn(ImmutableSet.<File>of());
-
-    expect(mockFs.exists(new File(CODEBASE_ROOT, "file1"))).andReturn(true);
-    expect(mockFs.exists(new File(WRITER_ROOT, "file1"))).andReturn(false);
+    expectWalk(mockFs, CODEBASE_ROOT, "file1");
+    expectWalk(mockFs, WRITER_ROOT);
 
     mockFs.makeDirsForFile(new File(WRITER_ROOT, "file1"));
     mockFs.copyFile(new File(CODEBASE_ROOT, "file1"), new File(WRITER_ROOT, "file1"));
@@ -116,13 +106,8 @@ public class HgWriterTest extends TestCase {
 
   public void testPutCodebase_editFile() throws Exception {
 
-    expect(mockFs.findFiles(CODEBASE_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(CODEBASE_ROOT, "file1")));
-    expect(mockFs.findFiles(WRITER_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(WRITER_ROOT, "file1")));
-
-    expect(mockFs.exists(new File(CODEBASE_ROOT, "file1"))).andReturn(true);
-    expect(mockFs.exists(new File(WRITER_ROOT, "file1"))).andReturn(true);
+    expectWalk(mockFs, CODEBASE_ROOT, "file1");
+    expectWalk(mockFs, WRITER_ROOT, "file1");
 
     mockFs.makeDirsForFile(new File(WRITER_ROOT, "file1"));
     mockFs.copyFile(new File(CODEBASE_ROOT, "file1"), new File(WRITER_ROOT, "file1"));
@@ -139,12 +124,8 @@ public class HgWriterTest extends TestCase {
 
   public void testPutCodebase_removeFile() throws Exception {
 
-    expect(mockFs.findFiles(CODEBASE_ROOT)).andReturn(ImmutableSet.<File>of());
-    expect(mockFs.findFiles(WRITER_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(WRITER_ROOT, "file1")));
-
-    expect(mockFs.exists(new File(CODEBASE_ROOT, "file1"))).andReturn(false);
-    expect(mockFs.exists(new File(WRITER_ROOT, "file1"))).andReturn(true);
+    expectWalk(mockFs, CODEBASE_ROOT);
+    expectWalk(mockFs, WRITER_ROOT, "file1");
 
     expectHgCmd("rm", "file1");
 
@@ -159,13 +140,8 @@ public class HgWriterTest extends TestCase {
   }
 
   public void testPutCodebase_editFileWithMetadata() throws Exception {
-    expect(mockFs.findFiles(CODEBASE_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(CODEBASE_ROOT, "file1")));
-    expect(mockFs.findFiles(WRITER_ROOT))
-        .andReturn(ImmutableSet.<File>of(new File(WRITER_ROOT, "file1")));
-
-    expect(mockFs.exists(new File(CODEBASE_ROOT, "file1"))).andReturn(true);
-    expect(mockFs.exists(new File(WRITER_ROOT, "file1"))).andReturn(true);
+    expectWalk(mockFs, CODEBASE_ROOT, "file1");
+    expectWalk(mockFs, WRITER_ROOT, "file1");
 
     mockFs.makeDirsForFile(new File(WRITER_ROOT, "file1"));
     mockFs.copyFile(new File(CODEBASE_ROOT, "file1"), new File(WRITER_ROOT, "file1"));
@@ -18,7 +18,7 @@ package com.google.devtools.moe.client.options;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
-
+import com.google.devtools.moe.client.WorkerPools;
 import junit.framework.TestCase;
 
 /**
@@ -50,6 +50,65 @@ public class OptionsModuleTest extends TestCase {
     expectException("--config_file", "-f");
   }
 
+  public void testDiffThreadsParsing() {
+    assertThat(OptionsModule.diffThreads("--diff_threads", "3")).isEqualTo(3);
+    assertThat(OptionsModule.diffThreads("a", "b")).isEqualTo(WorkerPools.IO_BOUND_PARALLELISM);
+    try {
+      OptionsModule.diffThreads("--diff_threads=0");
+      fail("Expected failure with a non-positive thread count");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMergeThreadsParsing() {
+    assertThat(OptionsModule.mergeThreads("--merge_threads", "3")).isEqualTo(3);
+    assertThat(OptionsModule.mergeThreads("--merge_threads=5")).isEqualTo(5);
+    assertThat(OptionsModule.mergeThreads("a", "b")).isEqualTo(WorkerPools.CPU_BOUND_PARALLELISM);
+    try {
+      OptionsModule.mergeThreads("--merge_threads", "-1");
+      fail("Expected failure with a non-positive thread count");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testScrubberShardsParsing() {
+    assertThat(OptionsModule.scrubberShards("--scrubber_shards", "4")).isEqualTo(4);
+    assertThat(OptionsModule.scrubberShards("a", "b")).isEqualTo(1);
+    try {
+      OptionsModule.scrubberShards("--scrubber_shards=0");
+      fail("Expected failure with a non-positive shard count");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMaxConcurrentCommandsParsing() {
+    assertThat(OptionsModule.maxConcurrentCommands("--max_concurrent_commands", "3")).isEqualTo(3);
+    assertThat(OptionsModule.maxConcurrentCommands("--max_concurrent_commands=5")).isEqualTo(5);
+    assertThat(OptionsModule.maxConcurrentCommands("a", "b"))
+        .isEqualTo(Runtime.getRuntime().availableProcessors());
+    assertThat(OptionsModule.maxConcurrentCommandsPerBinary("a", "b")).isEqualTo(0);
+    assertThat(
+            OptionsModule.maxConcurrentCommandsPerBinary("--max_concurrent_commands_per_binary=0"))
+        .isEqualTo(0);
+    try {
+      OptionsModule.maxConcurrentCommandsPerBinary("--max_concurrent_commands_per_binary=-1");
+      fail("Expected failure with a negative limit");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testCommandTimeoutParsing() {
+    assertThat(OptionsModule.commandTimeoutSeconds("--command_timeout_seconds", "60"))
+        .isEqualTo(60);
+    assertThat(OptionsModule.commandTimeoutSeconds("a", "b")).isEqualTo(3 * 60 * 60);
+    assertThat(OptionsModule.commandTimeoutSeconds("--command_timeout_seconds=0")).isEqualTo(0);
+    try {
+      OptionsModule.commandTimeoutSeconds("--command_timeout_seconds=-1");
+      fail("Expected failure with a negative timeout");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
   private static void expectException(String... args) {
     try {
       OptionsModule.configFile(args);
@@ -1,7 +1,10 @@
 package com.google.devtools.moe.client.project;
 
 
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import junit.framework.TestCase;
 
@@ -47,4 +50,21 @@ public class ScrubberConfigTest extends TestCase {
     assertFalse(scrubberConfig.shouldScrubAuthor(PUBLISHABLE_AUTHOR));
     assertFalse(scrubberConfig.shouldScrubAuthor(UNKNOWN_AUTHOR));
   }
+
+  public void testOptionClassification() throws Exception {
+    JsonObject renames =
+        new JsonParser()
+            .parse("{\"java_renames\": [{}], \"extension_map\": [], \"scrub_authors\": true}")
+            .getAsJsonObject();
+    assertTrue(ScrubberConfig.relatesFiles(renames));
+    assertEquals(ImmutableList.of("java_renames"), ScrubberConfig.externalOnlyOptions(renames));
+
+    JsonObject extensions =
+        new JsonParser()
+            .parse("{\"extension_map\": [{}], \"java_renames\": []}")
+            .getAsJsonObject();
+    assertFalse(ScrubberConfig.relatesFiles(extensions));
+    assertEquals(
+        ImmutableList.of("extension_map"), ScrubberConfig.externalOnlyOptions(extensions));
+  }
 }
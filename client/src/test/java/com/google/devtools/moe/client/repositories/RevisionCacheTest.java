@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.SystemFileSystem;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class RevisionCacheTest extends TestCase {
+  private static final String HASH_A = Strings.repeat("a", 40);
+  private static final String HASH_B = Strings.repeat("b", 40);
+  private static final String HASH_C = Strings.repeat("c", 40);
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  private RevisionCache.Loader loader(String result) {
+    return () -> {
+      loads.incrementAndGet();
+      return result;
+    };
+  }
+
+  public void testIsImmutableRevisionId() {
+    assertTrue(RevisionCache.isImmutableRevisionId(HASH_A));
+    assertTrue(RevisionCache.isImmutableRevisionId(Strings.repeat("0f", 32)));
+    assertFalse(RevisionCache.isImmutableRevisionId("HEAD"));
+    assertFalse(RevisionCache.isImmutableRevisionId("master"));
+    assertFalse(RevisionCache.isImmutableRevisionId("abc123"));
+    assertFalse(RevisionCache.isImmutableRevisionId(Strings.repeat("A", 40)));
+  }
+
+  public void testMemoizesImmutableRevisions() throws Exception {
+    RevisionCache cache = new RevisionCache(null, 1 << 20);
+    assertEquals("log a", cache.get("git-log", HASH_A, loader("log a")));
+    assertEquals("log a", cache.get("git-log", HASH_A, loader("other")));
+    assertEquals(1, loads.get());
+    // Different kinds of query are cached separately.
+    assertEquals("commit a", cache.get("git-commit", HASH_A, loader("commit a")));
+    assertEquals(2, loads.get());
+  }
+
+  public void testNeverCachesRefNames() throws Exception {
+    RevisionCache cache = new RevisionCache(tempDir.toPath(), 1 << 20);
+    assertEquals("one", cache.get("git-log", "HEAD", loader("one")));
+    assertEquals("two", cache.get("git-log", "HEAD", loader("two")));
+    assertEquals("three", cache.get("hg-log", "default", loader("three")));
+    assertEquals("four", cache.get("hg-log", "default", loader("four")));
+    assertEquals(4, loads.get());
+    assertThat(tempDir.list()).isEmpty();
+  }
+
+  public void testNeverCachesMissingRevisions() throws Exception {
+    RevisionCache cache = new RevisionCache(tempDir.toPath(), 1 << 20);
+    assertNull(cache.get("git-commit", HASH_A, loader(null)));
+    assertEquals("", cache.get("git-log", HASH_A, loader("")));
+    assertEquals("found", cache.get("git-log", HASH_A, loader("found")));
+    assertEquals(3, loads.get());
+  }
+
+  public void testPersistsAcrossInstances() throws Exception {
+    new RevisionCache(tempDir.toPath(), 1 << 20).get("hg-log", HASH_A, loader("log a"));
+    RevisionCache cache = new RevisionCache(tempDir.toPath(), 1 << 20);
+    assertEquals("log a", cache.get("hg-log", HASH_A, loader("other")));
+    assertEquals(1, loads.get());
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    String data = Strings.repeat("*", 400);
+    RevisionCache cache = new RevisionCache(tempDir.toPath(), 1100);
+    cache.get("git-log", HASH_A, loader(data));
+    Thread.sleep(20);
+    cache.get("git-log", HASH_B, loader(data));
+    Thread.sleep(20);
+    // Reading A from a fresh instance (so not from memory) makes B the least recently used.
+    new RevisionCache(tempDir.toPath(), 1100).get("git-log", HASH_A, loader("unused"));
+    Thread.sleep(20);
+    cache.get("git-log", HASH_C, loader(data));
+    assertThat(cache.directoryBytes()).isAtMost(1100L);
+
+    RevisionCache reloaded = new RevisionCache(tempDir.toPath(), 1100);
+    loads.set(0);
+    reloaded.get("git-log", HASH_A, loader(data));
+    reloaded.get("git-log", HASH_C, loader(data));
+    assertEquals(0, loads.get());
+    reloaded.get("git-log", HASH_B, loader(data));
+    assertEquals(1, loads.get());
+  }
+}
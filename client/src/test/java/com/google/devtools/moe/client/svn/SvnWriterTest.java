@@ -16,11 +16,11 @@
 
 package com.google.devtools.moe.client.svn;
 
+import static com.google.devtools.moe.client.testing.FileTreeStubs.expectWalk;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
@@ -99,8 +99,8 @@ public class SvnWriterTest extends TestCase {
   }
 
   public void testPutEmptyCodebase() throws Exception {
-    expect(fileSystem.findFiles(f("/codebase"))).andReturn(ImmutableSet.<File>of());
-    expect(fileSystem.findFiles(f("/writer"))).andReturn(ImmutableSet.<File>of(f("/writer/.svn/")));
+    expectWalk(fileSystem, f("/codebase"));
+    expectWalk(fileSystem, f("/writer"), ".svn");
 
     control.replay();
     Codebase c =
@@ -127,7 +127,6 @@ public class SvnWriterTest extends TestCase {
     expect(fileSystem.exists(f("/codebase/foo"))).andReturn(false);
     expect(fileSystem.exists(f("/writer/foo"))).andReturn(true);
 
-    expect(fileSystem.isExecutable(f("/codebase/foo"))).andReturn(false);
     expect(fileSystem.isExecutable(f("/writer/foo"))).andReturn(false);
     expectSvnCommand(ImmutableList.of("rm", "foo"), "/writer", "", cmd);
     control.replay();
@@ -159,7 +158,6 @@ public class SvnWriterTest extends TestCase {
     expect(fileSystem.exists(f("/writer/foo"))).andReturn(false);
 
     expect(fileSystem.isExecutable(f("/codebase/foo"))).andReturn(false);
-    expect(fileSystem.isExecutable(f("/writer/foo"))).andReturn(false);
     fileSystem.makeDirsForFile(f("/writer/foo"));
     fileSystem.copyFile(f("/codebase/foo"), f("/writer/foo"));
     expectSvnCommand(ImmutableList.of("add", "--parents", "foo"), "/writer", "", cmd);
@@ -176,7 +174,6 @@ public class SvnWriterTest extends TestCase {
     expect(fileSystem.exists(f("/writer/test.html"))).andReturn(false);
 
     expect(fileSystem.isExecutable(f("/codebase/test.html"))).andReturn(false);
-    expect(fileSystem.isExecutable(f("/writer/test.html"))).andReturn(false);
     fileSystem.makeDirsForFile(f("/writer/test.html"));
     fileSystem.copyFile(f("/codebase/test.html"), f("/writer/test.html"));
     expectSvnCommand(ImmutableList.of("add", "--parents", "test.html"), "/writer", "", cmd);
@@ -226,8 +223,8 @@ public class SvnWriterTest extends TestCase {
   }
 
   public void testPutEmptyCodebaseWithMetadata() throws Exception {
-    expect(fileSystem.findFiles(f("/codebase"))).andReturn(ImmutableSet.<File>of());
-    expect(fileSystem.findFiles(f("/writer"))).andReturn(ImmutableSet.<File>of(f("/writer/.svn/")));
+    expectWalk(fileSystem, f("/codebase"));
+    expectWalk(fileSystem, f("/writer"), ".svn");
 
     File script = new File("/writer/svn_commit.sh");
     fileSystem.write(
@@ -45,8 +45,8 @@ public class FileCodebaseCreatorTest extends TestCase {
     expect(mockfs.exists(EasyMock.eq(src))).andReturn(true);
     expect(mockfs.isDirectory(EasyMock.eq(src))).andReturn(true);
     expect(mockfs.getTemporaryDirectory("file_codebase_copy_")).andReturn(dest);
-    // Short-circuit Utils.copyDirectory().
-    mockfs.copyDirectory(src, dest);
+    // Short-circuit FileSystem.cloneDirectory().
+    mockfs.cloneDirectory(src, dest, null);
   }
 
   /**
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileVisitor;
+import com.google.devtools.moe.client.codebase.BlobStore;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.easymock.EasyMock;
+
+/**
+ * Stubs {@link FileSystem#walkFiles} on mock filesystems, so that code under test which takes
+ * {@link com.google.devtools.moe.client.codebase.CodebaseSnapshot}s of them sees the given files.
+ */
+public final class FileTreeStubs {
+
+  /**
+   * Expects an EasyMock {@code filesystem} to be walked from {@code root}, finding the given files,
+   * each with mode 0644.
+   */
+  public static void expectWalk(FileSystem filesystem, File root, String... files) {
+    filesystem.walkFiles(EasyMock.eq(root), EasyMock.anyObject(FileVisitor.class));
+    EasyMock.expectLastCall()
+        .andAnswer(
+            () -> {
+              FileVisitor visitor = (FileVisitor) EasyMock.getCurrentArguments()[1];
+              for (String file : files) {
+                visitor.visit(file, new File(root, file), -1, -1, 0644);
+              }
+              return null;
+            });
+  }
+
+  /**
+   * Stubs a Mockito {@code filesystem} so that walking {@code root} finds the given files, with
+   * their attributes. A file's contents are its hash, so files given the same hash have the same
+   * contents, and its snapshot has the hash {@link #hashed} gives it. Files without hashes have
+   * unique contents.
+   */
+  public static void stubWalk(FileSystem filesystem, File root, Map<String, FileInfo> files)
+      throws IOException {
+    doAnswer(
+            invocation -> {
+              FileVisitor visitor = (FileVisitor) invocation.getArguments()[1];
+              for (Map.Entry<String, FileInfo> file : files.entrySet()) {
+                FileInfo info = file.getValue();
+                visitor.visit(
+                    file.getKey(),
+                    new File(root, file.getKey()),
+                    info.size(),
+                    info.lastModifiedMillis(),
+                    info.mode());
+              }
+              return null;
+            })
+        .when(filesystem)
+        .walkFiles(eq(root), any(FileVisitor.class));
+    for (Map.Entry<String, FileInfo> file : files.entrySet()) {
+      File path = new File(root, file.getKey());
+      String contents = file.getValue().hash() == null ? path.getPath() : file.getValue().hash();
+      when(filesystem.readBytes(path)).thenReturn(contents.getBytes(UTF_8));
+    }
+  }
+
+  /** Returns the attributes a file given to {@link #stubWalk} has in a hashed snapshot. */
+  public static FileInfo hashed(FileInfo info) {
+    return new FileInfo(
+        info.size(),
+        info.lastModifiedMillis(),
+        info.mode(),
+        BlobStore.hash(info.hash().getBytes(UTF_8)));
+  }
+
+  private FileTreeStubs() {}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.devtools.moe.client.testing;
+
+import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.Ui;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link SystemFileSystem} for tests of code which makes temp dirs on the real file system. As
+ * in MOE, each temp dir is registered with the lifetime of the current task of {@link #ui()}, so
+ * that it can be kept, closed with, or cleaned up; tests run within a task of their own. {@link
+ * #close} deletes every temp dir made, whether kept or not.
+ */
+public final class TempDirFileSystem extends SystemFileSystem implements Closeable {
+  private final Ui ui = new Ui(new ByteArrayOutputStream(), this);
+  private final Lifetimes testLifetimes = new Lifetimes(ui);
+  private final Ui.Task testTask = ui.newTask("test", "Running test");
+  private final List<File> tempDirs = new CopyOnWriteArrayList<>();
+
+  /** The UI whose tasks the temp dirs live in. */
+  public Ui ui() {
+    return ui;
+  }
+
+  @Override
+  public File getTemporaryDirectory(String prefix) {
+    return getTemporaryDirectory(prefix, testLifetimes.currentTask());
+  }
+
+  @Override
+  public File getTemporaryDirectory(String prefix, Lifetime lifetime) {
+    File tempDir = super.getTemporaryDirectory(prefix, lifetime);
+    tempDirs.add(tempDir);
+    return tempDir;
+  }
+
+  @Override
+  public void close() throws IOException {
+    testTask.close();
+    awaitCleanUp();
+    for (File tempDir : tempDirs) {
+      if (tempDir.exists()) {
+        deleteRecursively(tempDir);
+      }
+    }
+  }
+}
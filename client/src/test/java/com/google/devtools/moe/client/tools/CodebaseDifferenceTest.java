@@ -17,15 +17,21 @@
 package com.google.devtools.moe.client.tools;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.moe.client.testing.FileTreeStubs.hashed;
+import static com.google.devtools.moe.client.testing.FileTreeStubs.stubWalk;
+import static java.util.stream.Collectors.toList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
 import com.google.devtools.moe.client.tools.FileDifference.Comparison;
 import java.io.File;
+import java.util.List;
 import junit.framework.TestCase;
 
 public class CodebaseDifferenceTest extends TestCase {
@@ -36,12 +42,17 @@ public class CodebaseDifferenceTest extends TestCase {
       Codebase.create(new File("/2"), "internal", new RepositoryExpression("ignored"));
   private final File f1 = new File("/1/foo");
   private final File f2 = new File("/2/foo");
+  private final FileInfo info = new FileInfo(3, 0, 0644, "abc");
   private final FileDifference.FileDiffer fileDiffer = mock(FileDifference.FileDiffer.class);
 
+  @Override
+  protected void setUp() throws Exception {
+    stubWalk(filesystem, new File("/1"), ImmutableMap.of("foo", info));
+    stubWalk(filesystem, new File("/2"), ImmutableMap.of("foo", info));
+  }
+
   public void testSame() throws Exception {
-    when(filesystem.findFiles(new File("/1"))).thenReturn(ImmutableSet.of(f1));
-    when(filesystem.findFiles(new File("/2"))).thenReturn(ImmutableSet.of(f2));
-    when(fileDiffer.diffFiles("foo", f1, f2))
+    when(fileDiffer.diffFiles("foo", f1, hashed(info), f2, hashed(info)))
         .thenReturn(FileDifference.create("foo", f1, f2, Comparison.SAME, Comparison.SAME, null));
 
     CodebaseDifference d = new CodebaseDiffer(fileDiffer, filesystem).diffCodebases(c1, c2);
@@ -49,14 +60,105 @@ public class CodebaseDifferenceTest extends TestCase {
     assertThat(d.areDifferent()).named("areDifferent").isFalse();
   }
 
+  public void testIdenticalFilesAreNotDiffed() throws Exception {
+    CodebaseDifference d = new CodebaseDiffer(fileDiffer, filesystem).diffCodebases(c1, c2);
+
+    assertThat(d.areDifferent()).named("areDifferent").isFalse();
+    verifyZeroInteractions(fileDiffer);
+  }
+
   public void testDifferent() throws Exception {
-    when(filesystem.findFiles(new File("/1"))).thenReturn(ImmutableSet.of(f1));
-    when(filesystem.findFiles(new File("/2"))).thenReturn(ImmutableSet.of(f2));
-    when(fileDiffer.diffFiles("foo", f1, f2))
-        .thenReturn(FileDifference.create("foo", f1, f2, Comparison.ONLY1, Comparison.SAME, null));
+    FileInfo info2 = new FileInfo(3, 0, 0644, "abd");
+    stubWalk(filesystem, new File("/2"), ImmutableMap.of("foo", info2));
+    when(fileDiffer.diffFiles("foo", f1, hashed(info), f2, hashed(info2)))
+        .thenReturn(
+            FileDifference.create("foo", f1, f2, Comparison.SAME, Comparison.SAME, "diff"));
 
     CodebaseDifference d = new CodebaseDiffer(fileDiffer, filesystem).diffCodebases(c1, c2);
 
     assertThat(d.areDifferent()).named("areDifferent").isTrue();
   }
+
+  public void testDifferencesAreSorted() throws Exception {
+    ImmutableMap.Builder<String, FileInfo> files1 = ImmutableMap.builder();
+    ImmutableMap.Builder<String, FileInfo> files2 = ImmutableMap.builder();
+    for (int i = 99; i >= 0; i--) {
+      String name = String.format("file%02d", i);
+      (i % 2 == 0 ? files1 : files2).put(name, info);
+      File file1 = new File("/1/" + name);
+      File file2 = new File("/2/" + name);
+      FileInfo info1 = i % 2 == 0 ? hashed(info) : null;
+      FileInfo info2 = i % 2 == 0 ? null : hashed(info);
+      when(fileDiffer.diffFiles(name, file1, info1, file2, info2))
+          .thenReturn(
+              FileDifference.create(
+                  name,
+                  file1,
+                  file2,
+                  Comparison.diffBools(info1 != null, info2 != null),
+                  Comparison.SAME,
+                  null));
+    }
+    stubWalk(filesystem, new File("/1"), files1.build());
+    stubWalk(filesystem, new File("/2"), files2.build());
+
+    CodebaseDifference d = new CodebaseDiffer(fileDiffer, filesystem, 8).diffCodebases(c1, c2);
+
+    List<String> names =
+        d.fileDiffs.stream().map(FileDifference::relativeFilename).collect(toList());
+    assertThat(names).hasSize(100);
+    assertThat(names).isOrdered();
+  }
+
+  private void snapshots(
+      ImmutableMap<String, FileInfo> files1, ImmutableMap<String, FileInfo> files2)
+      throws Exception {
+    stubWalk(filesystem, new File("/1"), files1);
+    stubWalk(filesystem, new File("/2"), files2);
+  }
+
+  public void testAreEquivalent() throws Exception {
+    FileInfo unhashed = new FileInfo(3, 0, 0644, null);
+    snapshots(ImmutableMap.of("foo", unhashed), ImmutableMap.of("foo", unhashed));
+    when(fileDiffer.diffFiles("foo", f1, unhashed, f2, unhashed))
+        .thenReturn(FileDifference.create("foo", f1, f2, Comparison.SAME, Comparison.SAME, null));
+
+    assertThat(new CodebaseDiffer(fileDiffer, filesystem).areEquivalent(c1, c2)).isTrue();
+  }
+
+  public void testAreEquivalent_differentContents() throws Exception {
+    FileInfo unhashed = new FileInfo(3, 0, 0644, null);
+    snapshots(ImmutableMap.of("foo", unhashed), ImmutableMap.of("foo", unhashed));
+    when(fileDiffer.diffFiles("foo", f1, unhashed, f2, unhashed))
+        .thenReturn(
+            FileDifference.create("foo", f1, f2, Comparison.SAME, Comparison.SAME, "diff"));
+
+    assertThat(new CodebaseDiffer(fileDiffer, filesystem).areEquivalent(c1, c2)).isFalse();
+  }
+
+  public void testAreEquivalent_differentFilesAreNotDiffed() throws Exception {
+    FileInfo unhashed = new FileInfo(3, 0, 0644, null);
+    snapshots(ImmutableMap.of("foo", unhashed), ImmutableMap.of("foo", unhashed, "bar", unhashed));
+
+    assertThat(new CodebaseDiffer(fileDiffer, filesystem).areEquivalent(c1, c2)).isFalse();
+    verifyZeroInteractions(fileDiffer);
+  }
+
+  public void testAreEquivalent_differentExecutabilityIsNotDiffed() throws Exception {
+    snapshots(
+        ImmutableMap.of("foo", new FileInfo(3, 0, 0644, null)),
+        ImmutableMap.of("foo", new FileInfo(3, 0, 0755, null)));
+
+    assertThat(new CodebaseDiffer(fileDiffer, filesystem).areEquivalent(c1, c2)).isFalse();
+    verifyZeroInteractions(fileDiffer);
+  }
+
+  public void testAreEquivalent_differentSizesAreNotDiffed() throws Exception {
+    snapshots(
+        ImmutableMap.of("foo", new FileInfo(3, 0, 0644, null)),
+        ImmutableMap.of("foo", new FileInfo(4, 0, 0644, null)));
+
+    assertThat(new CodebaseDiffer(fileDiffer, filesystem).areEquivalent(c1, c2)).isFalse();
+    verifyZeroInteractions(fileDiffer);
+  }
 }
@@ -21,9 +21,11 @@ import static org.easymock.EasyMock.expect;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
 import com.google.devtools.moe.client.tools.FileDifference.Comparison;
 import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -173,4 +175,81 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertFalse(d.isDifferent());
   }
+
+  public void testKnownAttributes() throws Exception {
+    File file1 = new File("/1/foo");
+    File file2 = new File("/2/foo");
+    expect(cmd.runCommand("", "diff", ImmutableList.of("-N", "-u", "/1/foo", "/2/foo")))
+        .andReturn("");
+
+    control.replay();
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0755), file2, FileInfo.withMode(0644));
+    control.verify();
+    assertEquals(Comparison.SAME, d.existence());
+    assertEquals(Comparison.ONLY1, d.executability());
+    assertEquals(null, d.contentDiff());
+  }
+
+  public void testKnownAttributes_matchingHashesAreNotDiffed() throws Exception {
+    File file1 = new File("/1/foo");
+    File file2 = new File("/2/foo");
+
+    control.replay();
+    FileDifference d =
+        differ.diffFiles(
+            "foo",
+            file1,
+            new FileInfo(3, 1, 0644, "abc"),
+            file2,
+            new FileInfo(3, 2, 0644, "abc"));
+    control.verify();
+    assertFalse(d.isDifferent());
+  }
+
+  public void testLazyContentDiff() throws Exception {
+    AtomicInteger computed = new AtomicInteger();
+    FileDifference d =
+        FileDifference.createLazily(
+            "foo",
+            new File("/1/foo"),
+            new File("/2/foo"),
+            Comparison.SAME,
+            Comparison.SAME,
+            () -> {
+              computed.incrementAndGet();
+              return "diff";
+            });
+
+    assertTrue(d.isDifferent());
+    assertEquals(0, computed.get());
+    assertEquals("diff", d.contentDiff());
+    assertEquals(1, computed.get());
+    // The diff isn't kept, so asking again computes it again.
+    assertEquals("diff", d.contentDiff());
+    assertEquals(2, computed.get());
+  }
+
+  public void testEqualityIgnoresHowContentDiffIsSupplied() throws Exception {
+    FileDifference d1 =
+        FileDifference.create(
+            "foo", new File("/1/foo"), new File("/2/foo"), Comparison.SAME, Comparison.SAME, "a");
+    FileDifference d2 =
+        FileDifference.createLazily(
+            "foo",
+            new File("/1/foo"),
+            new File("/2/foo"),
+            Comparison.SAME,
+            Comparison.SAME,
+            () -> {
+              throw new AssertionError("Equality computed the diff");
+            });
+    FileDifference d3 =
+        FileDifference.create(
+            "foo", new File("/1/foo"), new File("/2/foo"), Comparison.SAME, Comparison.SAME, null);
+
+    assertEquals(d1, d2);
+    assertEquals(d1.hashCode(), d2.hashCode());
+    assertFalse(d1.equals(d3));
+  }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.codebase.CodebaseSnapshot.FileInfo;
+import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+import java.io.File;
+import java.time.Instant;
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+public class InProcessFileDifferTest extends TestCase {
+  private static final long MODIFIED = 1500000000000L;
+
+  private final IMocksControl control = EasyMock.createControl();
+  private final FileSystem fileSystem = control.createMock(FileSystem.class);
+  private final InProcessFileDiffer differ = new InProcessFileDiffer(fileSystem);
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  private File write(String name, String content) throws Exception {
+    File file = new File(tempDir, name);
+    Files.write(content.getBytes(UTF_8), file);
+    assertTrue(file.setLastModified(MODIFIED));
+    return file;
+  }
+
+  private static String header(File file1, Instant modified1, File file2, Instant modified2) {
+    return "--- "
+        + UnifiedDiff.label(file1.getAbsolutePath(), modified1)
+        + "\n+++ "
+        + UnifiedDiff.label(file2.getAbsolutePath(), modified2)
+        + "\n";
+  }
+
+  public void testSameContents() throws Exception {
+    File file1 = write("1", "foo\nbar\n");
+    File file2 = write("2", "foo\nbar\n");
+
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0755));
+    assertEquals(Comparison.SAME, d.existence());
+    assertEquals(Comparison.ONLY2, d.executability());
+    assertNull(d.contentDiff());
+  }
+
+  public void testDifferentContents() throws Exception {
+    File file1 = write("1", "foo\nbar\n");
+    File file2 = write("2", "foo\nbaz\n");
+
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0644));
+    Instant modified = Instant.ofEpochMilli(MODIFIED);
+    assertEquals(
+        header(file1, modified, file2, modified) + "@@ -1,2 +1,2 @@\n foo\n-bar\n+baz\n",
+        d.contentDiff());
+  }
+
+  public void testContentDiffIsComputedOnDemand() throws Exception {
+    File file1 = write("1", "foo\nbar\n");
+    File file2 = write("2", "foo\nbaz\n");
+
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0644));
+    assertTrue(d.isDifferent());
+    assertTrue(file1.delete());
+    // The contents were compared, but not diffed, so the difference is known without file1.
+    assertTrue(d.isDifferent());
+    try {
+      d.contentDiff();
+      fail("Diffed a file which no longer exists");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).contains("changed after it was compared");
+    }
+  }
+
+  public void testContentDiffOfChangedFileFails() throws Exception {
+    File file1 = write("1", "foo\nbar\n");
+    File file2 = write("2", "foo\nbaz\n");
+
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0644));
+    write("2", "foo\nquux\n");
+    try {
+      d.contentDiff();
+      fail("Diffed a file which changed after it was compared");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).contains(file2.getAbsolutePath());
+    }
+  }
+
+  public void testMissingFile() throws Exception {
+    File file1 = write("1", "foo\n");
+    File file2 = new File(tempDir, "2");
+
+    expect(fileSystem.exists(file1)).andReturn(true);
+    expect(fileSystem.exists(file2)).andReturn(false);
+    expect(fileSystem.isExecutable(file1)).andReturn(false);
+    expect(fileSystem.isExecutable(file2)).andReturn(false);
+
+    control.replay();
+    FileDifference d = differ.diffFiles("foo", file1, file2);
+    control.verify();
+    assertEquals(Comparison.ONLY1, d.existence());
+    assertEquals(Comparison.SAME, d.executability());
+    assertEquals(
+        header(file1, Instant.ofEpochMilli(MODIFIED), file2, Instant.EPOCH)
+            + "@@ -1 +0,0 @@\n-foo\n",
+        d.contentDiff());
+  }
+
+  public void testBinaryFiles() throws Exception {
+    File file1 = write("1", "foo\0");
+    File file2 = write("2", "bar\0");
+
+    FileDifference d =
+        differ.diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0644));
+    assertEquals(
+        "Binary files " + file1.getAbsolutePath() + " and " + file2.getAbsolutePath() + " differ\n",
+        d.contentDiff());
+  }
+
+  public void testLargeFiles() throws Exception {
+    String content = Strings.repeat("0123456789abcdef\n", 10000);
+    File file1 = write("1", content);
+    File file2 = write("2", content);
+    File file3 = write("3", content.replaceFirst("f\n$", "F\n"));
+
+    assertNull(
+        differ
+            .diffFiles("foo", file1, FileInfo.withMode(0644), file2, FileInfo.withMode(0644))
+            .contentDiff());
+    assertTrue(
+        differ
+            .diffFiles("foo", file1, FileInfo.withMode(0644), file3, FileInfo.withMode(0644))
+            .contentDiff()
+            .endsWith(" 0123456789abcdef\n-0123456789abcdef\n+0123456789abcdeF\n"));
+  }
+
+  public void testMatchingHashesAreNotDiffed() throws Exception {
+    File file1 = write("1", "foo\n");
+    File file2 = write("2", "bar\n");
+
+    FileDifference d =
+        differ.diffFiles(
+            "foo",
+            file1,
+            new FileInfo(4, MODIFIED, 0644, "hash"),
+            file2,
+            new FileInfo(4, MODIFIED, 0644, "hash"));
+    assertFalse(d.isDifferent());
+  }
+}
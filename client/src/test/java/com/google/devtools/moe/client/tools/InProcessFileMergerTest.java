@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.SystemFileSystem;
+import java.io.File;
+import junit.framework.TestCase;
+
+public class InProcessFileMergerTest extends TestCase {
+  private final InProcessFileMerger merger = new InProcessFileMerger();
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new SystemFileSystem().deleteRecursively(tempDir);
+  }
+
+  private File write(String name, String content) throws Exception {
+    File file = new File(tempDir, name);
+    Files.write(content.getBytes(UTF_8), file);
+    return file;
+  }
+
+  public void testCleanMerge() throws Exception {
+    File merged = write("merged", "one\n2\n3\n4\n5\n");
+    File original = write("original", "1\n2\n3\n4\n5\n");
+    File modified = write("modified", "1\n2\n3\n4\nfive\n");
+
+    assertTrue(merger.merge(merged, original, modified));
+    assertEquals("one\n2\n3\n4\nfive\n", Files.toString(merged, UTF_8));
+  }
+
+  public void testConflictsAreLabelledWithFileNames() throws Exception {
+    File merged = write("merged", "1\ntwo\n3\n");
+    File original = write("original", "1\n2\n3\n");
+    File modified = write("modified", "1\nTWO\n3\n");
+
+    assertFalse(merger.merge(merged, original, modified));
+    assertEquals(
+        "1\n<<<<<<< "
+            + merged.getAbsolutePath()
+            + "\ntwo\n=======\nTWO\n>>>>>>> "
+            + modified.getAbsolutePath()
+            + "\n3\n",
+        Files.toString(merged, UTF_8));
+  }
+
+  public void testMergeWithDevNull() throws Exception {
+    File merged = write("merged", "a\n");
+    File modified = write("modified", "a\n");
+
+    assertTrue(merger.merge(merged, new File("/dev/null"), modified));
+    assertEquals("a\n", Files.toString(merged, UTF_8));
+  }
+}
@@ -16,10 +16,15 @@
 
 package com.google.devtools.moe.client.tools;
 
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import junit.framework.TestCase;
 
 public class PatchCodebaseDifferenceRendererTest extends TestCase {
@@ -82,12 +87,53 @@ public class PatchCodebaseDifferenceRendererTest extends TestCase {
 
     CodebaseDifference d = new CodebaseDifference(c1, c2, diffs.build());
     assertEquals(
-        "diff c1 c2\ndiff --moe c1/foo c2/foo\n<<< c1/foo\n>>> c2/foo\n"
-            + "> foo\ndiff --moe c1/bar c2/bar\n+mode:executable\n<<< c1/bar\n"
-            + ">>> c2/bar\ndiff --moe c1/baz c2/baz\n-mode:executable\n<<< c1/baz\n"
-            + ">>> c2/baz\ndiff --moe c1/quux c2/quux\n+mode:executable\n<<< c1/quux\n"
-            + ">>> c2/quux\n> quux\ndiff --moe c1/fuzzy c2/fuzzy\n<<< c1/fuzzy\n"
-            + ">>> c2/fuzzy\n> fuzzy\n",
+        "diff c1 c2\ndiff --moe c1/bar c2/bar\n+mode:executable\n<<< c1/bar\n>>> c2/bar\n"
+            + "diff --moe c1/baz c2/baz\n-mode:executable\n<<< c1/baz\n>>> c2/baz\n"
+            + "diff --moe c1/foo c2/foo\n<<< c1/foo\n>>> c2/foo\n> foo\n"
+            + "diff --moe c1/fuzzy c2/fuzzy\n<<< c1/fuzzy\n>>> c2/fuzzy\n> fuzzy\n"
+            + "diff --moe c1/quux c2/quux\n+mode:executable\n<<< c1/quux\n>>> c2/quux\n"
+            + "> quux\n",
         (new PatchCodebaseDifferenceRenderer()).render(d));
   }
+
+  public void testRenderStreamsFilesInOrder() throws Exception {
+    Codebase c1 = makeCodebase("c1");
+    Codebase c2 = makeCodebase("c2");
+    StringBuilder out = new StringBuilder();
+    List<String> rendered = new ArrayList<>();
+
+    ImmutableSet.Builder<FileDifference> diffs = ImmutableSet.builder();
+    for (String name : ImmutableList.of("b", "c", "a")) {
+      diffs.add(
+          FileDifference.createLazily(
+              name,
+              new File("/c1/" + name),
+              new File("/c2/" + name),
+              FileDifference.Comparison.SAME,
+              FileDifference.Comparison.SAME,
+              () -> {
+                // Everything before this file's diff has been written already.
+                rendered.add(out.toString());
+                return "> " + name;
+              }));
+    }
+
+    new PatchCodebaseDifferenceRenderer()
+        .render(new CodebaseDifference(c1, c2, diffs.build()), out);
+
+    assertEquals(
+        "diff c1 c2\ndiff --moe c1/a c2/a\n<<< c1/a\n>>> c2/a\n> a\n"
+            + "diff --moe c1/b c2/b\n<<< c1/b\n>>> c2/b\n> b\n"
+            + "diff --moe c1/c c2/c\n<<< c1/c\n>>> c2/c\n> c\n",
+        out.toString());
+    assertThat(rendered)
+        .containsExactly(
+            "diff c1 c2\ndiff --moe c1/a c2/a\n<<< c1/a\n>>> c2/a\n",
+            "diff c1 c2\ndiff --moe c1/a c2/a\n<<< c1/a\n>>> c2/a\n> a\n"
+                + "diff --moe c1/b c2/b\n<<< c1/b\n>>> c2/b\n",
+            "diff c1 c2\ndiff --moe c1/a c2/a\n<<< c1/a\n>>> c2/a\n> a\n"
+                + "diff --moe c1/b c2/b\n<<< c1/b\n>>> c2/b\n> b\n"
+                + "diff --moe c1/c c2/c\n<<< c1/c\n>>> c2/c\n")
+        .inOrder();
+  }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import junit.framework.TestCase;
+
+public class ThreeWayMergeTest extends TestCase {
+  private static final String CONFLICT = "conflict: ";
+
+  /** Returns the merged contents, prefixed with CONFLICT if there were conflicts. */
+  private static String merge(String mine, String older, String yours) {
+    ThreeWayMerge.Result result =
+        ThreeWayMerge.merge(
+            mine.getBytes(UTF_8), "mine", older.getBytes(UTF_8), yours.getBytes(UTF_8), "yours");
+    return (result.conflicts ? CONFLICT : "") + new String(result.merged, UTF_8);
+  }
+
+  public void testUnchanged() {
+    assertEquals("1\n2\n3\n", merge("1\n2\n3\n", "1\n2\n3\n", "1\n2\n3\n"));
+  }
+
+  public void testSeparateChanges() {
+    assertEquals(
+        "one\n2\n3\n4\n5\n6\nseven\n",
+        merge("one\n2\n3\n4\n5\n6\n7\n", "1\n2\n3\n4\n5\n6\n7\n", "1\n2\n3\n4\n5\n6\nseven\n"));
+  }
+
+  public void testSameChange() {
+    assertEquals("1\ntwo\n3\n", merge("1\ntwo\n3\n", "1\n2\n3\n", "1\ntwo\n3\n"));
+  }
+
+  public void testConflict() {
+    assertEquals(
+        CONFLICT + "1\n<<<<<<< mine\ntwo\n=======\nTWO\n>>>>>>> yours\n3\n",
+        merge("1\ntwo\n3\n", "1\n2\n3\n", "1\nTWO\n3\n"));
+  }
+
+  public void testAdjacentChangesConflict() {
+    assertEquals(
+        CONFLICT + "1\n<<<<<<< mine\ntwo\n3\n=======\n2\nthree\n>>>>>>> yours\n",
+        merge("1\ntwo\n3\n", "1\n2\n3\n", "1\n2\nthree\n"));
+  }
+
+  public void testNoOlderFile() {
+    assertEquals(
+        CONFLICT + "<<<<<<< mine\na\nb\n=======\na\nc\n>>>>>>> yours\n",
+        merge("a\nb\n", "", "a\nc\n"));
+  }
+
+  public void testMissingNewlineIsKept() {
+    // Like diff3, the marker follows an incomplete line directly.
+    assertEquals(
+        CONFLICT + "1\n2\n<<<<<<< mine\n3=======\nthree\n>>>>>>> yours\n",
+        merge("1\n2\n3", "1\n2\n3\n", "1\n2\nthree\n"));
+  }
+}
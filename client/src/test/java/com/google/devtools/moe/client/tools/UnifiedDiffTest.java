@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class UnifiedDiffTest extends TestCase {
+
+  private static String diff(String content1, String content2) {
+    byte[] diff = UnifiedDiff.diff(content1.getBytes(UTF_8), "a", content2.getBytes(UTF_8), "b");
+    return diff == null ? null : new String(diff, UTF_8);
+  }
+
+  public void testIdentical() {
+    assertNull(diff("1\n2\n", "1\n2\n"));
+  }
+
+  public void testSeparateHunks() {
+    assertEquals(
+        "--- a\n"
+            + "+++ b\n"
+            + "@@ -1,6 +1,6 @@\n"
+            + " 1\n 2\n-3\n+three\n 4\n 5\n 6\n"
+            + "@@ -10,6 +10,5 @@\n"
+            + " 10\n 11\n 12\n-13\n 14\n 15\n",
+        diff(
+            "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n13\n14\n15\n",
+            "1\n2\nthree\n4\n5\n6\n7\n8\n9\n10\n11\n12\n14\n15\n"));
+  }
+
+  public void testMergedHunk() {
+    assertEquals(
+        "--- a\n"
+            + "+++ b\n"
+            + "@@ -1,7 +1,7 @@\n"
+            + " 1\n-2\n+two\n 3\n 4\n 5\n-6\n+six\n 7\n",
+        diff("1\n2\n3\n4\n5\n6\n7\n", "1\ntwo\n3\n4\n5\nsix\n7\n"));
+  }
+
+  public void testMissingNewline() {
+    assertEquals(
+        "--- a\n"
+            + "+++ b\n"
+            + "@@ -1,2 +1,2 @@\n"
+            + " 1\n-2\n+2\n\\ No newline at end of file\n",
+        diff("1\n2\n", "1\n2"));
+  }
+
+  public void testEmptyFile() {
+    assertEquals("--- a\n+++ b\n@@ -0,0 +1,2 @@\n+1\n+2\n", diff("", "1\n2\n"));
+    assertEquals("--- a\n+++ b\n@@ -1 +0,0 @@\n-1\n", diff("1\n", ""));
+  }
+
+  public void testChangesAreShiftedForward() {
+    assertEquals(
+        "--- a\n+++ b\n@@ -1,4 +1,2 @@\n a\n b\n-a\n-b\n", diff("a\nb\na\nb\n", "a\nb\n"));
+  }
+
+  public void testIsBinary() {
+    assertFalse(UnifiedDiff.isBinary("text\n".getBytes(UTF_8)));
+    assertTrue(UnifiedDiff.isBinary(new byte[] {'a', 0, 'b'}));
+
+    // Like diff, only the first block is checked.
+    byte[] lateNul = new byte[4097];
+    Arrays.fill(lateNul, (byte) 'a');
+    lateNul[4096] = 0;
+    assertFalse(UnifiedDiff.isBinary(lateNul));
+  }
+
+  public void testLabel() {
+    Instant modified = Instant.ofEpochSecond(1500000000L, 123456789);
+    String time =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS xx")
+            .format(modified.atZone(ZoneId.systemDefault()));
+    assertTrue(time.contains(".123456789 "));
+    assertEquals("/tmp/foo.txt\t" + time, UnifiedDiff.label("/tmp/foo.txt", modified));
+  }
+
+  public void testLabel_quotesUnusualNames() {
+    assertTrue(
+        UnifiedDiff.label("/tmp/a b\\\u00e9\t\"", Instant.EPOCH)
+            .startsWith("\"/tmp/a b\\\\\\303\\251\\t\\\"\"\t"));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
+import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
+import com.google.devtools.moe.client.testing.TempDirFileSystem;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class FusedEditorTest extends TestCase {
+  private final TempDirFileSystem filesystem = new TempDirFileSystem();
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = filesystem.getTemporaryDirectory("test_");
+    filesystem.makeDirs(tempDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    filesystem.close();
+  }
+
+  /** A file-local editor which applies a function to each file, for testing. */
+  private abstract static class TestEditor implements FileLocalEditor {
+    @Override
+    public String getDescription() {
+      return "test";
+    }
+
+    @Override
+    public Codebase edit(Codebase input, Map<String, String> options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public void testEdit() throws Exception {
+    File input = new File(tempDir, "input");
+    File script = new File(input, "bin/script.sh");
+    File drop = new File(input, "drop.txt");
+    File readme = new File(input, "readme.txt");
+    for (File file : ImmutableList.of(script, drop, readme)) {
+      filesystem.makeDirsForFile(file);
+      filesystem.write("contents of " + file.getName() + "\n", file);
+    }
+    filesystem.setExecutable(script);
+    Codebase codebase = Codebase.create(input, "internal", new RepositoryExpression("input"));
+
+    AtomicInteger edits = new AtomicInteger();
+    FileLocalEditor upcaseScripts =
+        new TestEditor() {
+          @Override
+          public EditedFile editFile(EditedFile file, Map<String, String> options) {
+            edits.incrementAndGet();
+            if (!file.name().endsWith(".sh")) {
+              return file;
+            }
+            String contents = new String(file.contents(), UTF_8);
+            return file.withContents(contents.toUpperCase().getBytes(UTF_8));
+          }
+        };
+    FileLocalEditor moveAndDrop =
+        new TestEditor() {
+          @Override
+          public EditedFile editFile(EditedFile file, Map<String, String> options) {
+            edits.incrementAndGet();
+            return file.name().startsWith("drop") ? null : file.withName("moved/" + file.name());
+          }
+        };
+    FusedEditor editor =
+        new FusedEditor(filesystem, ImmutableList.of(upcaseScripts, moveAndDrop, upcaseScripts));
+
+    Codebase edited = editor.edit(codebase, ImmutableMap.<String, String>of());
+
+    assertEquals(8, edits.get());
+    File output = edited.directory();
+    assertTrue(output.getName(), output.getName().startsWith("moe_fused_edit_run_"));
+    // Only the modified file was written.
+    assertEquals(ImmutableSet.of("moved/bin/script.sh"), filesystem.findRelativeFiles(output));
+    assertEquals(
+        ImmutableMap.of(
+            "moved/bin/script.sh", new File(output, "moved/bin/script.sh"),
+            "moved/readme.txt", readme),
+        CodebaseLayer.files(edited, filesystem));
+
+    assertEquals(output, edited.path());
+    assertEquals(
+        ImmutableSet.of("moved/bin/script.sh", "moved/readme.txt"),
+        filesystem.findRelativeFiles(output));
+    assertEquals(
+        "CONTENTS OF SCRIPT.SH\n",
+        filesystem.fileToString(new File(output, "moved/bin/script.sh")));
+    assertTrue(filesystem.isExecutable(new File(output, "moved/bin/script.sh")));
+    assertEquals(
+        "contents of readme.txt\n", filesystem.fileToString(new File(output, "moved/readme.txt")));
+  }
+
+  public void testEditFile_readsContentsOnce() throws Exception {
+    File file = new File(tempDir, "file.txt");
+    filesystem.write("before\n", file);
+    EditedFile edited = EditedFile.of("file.txt", file).withName("renamed.txt");
+    assertFalse(edited.isModified());
+    byte[] contents = edited.contents();
+    filesystem.write("after\n", file);
+    assertSame(contents, edited.withName("again.txt").contents());
+    assertEquals("before\n", new String(contents, UTF_8));
+
+    EditedFile modified = edited.withContents("changed\n".getBytes(UTF_8));
+    assertTrue(modified.isModified());
+    assertEquals("changed\n", new String(modified.withName("other.txt").contents(), UTF_8));
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.project.InvalidProject;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+
+public class InProcessScrubberTest extends TestCase {
+
+  private static InProcessScrubber scrubber(String config) {
+    return InProcessScrubber.create(new JsonParser().parse(config).getAsJsonObject());
+  }
+
+  private static String scrub(InProcessScrubber scrubber, String filename, String... lines) {
+    return new String(scrubber.scrub(filename, Joiner.on('\n').join(lines).getBytes(UTF_8)), UTF_8);
+  }
+
+  private static String lines(String... lines) {
+    return Joiner.on('\n').join(lines);
+  }
+
+  public void testUnchangedContentsAreReturnedAsIs() {
+    byte[] contents = "class Foo {}\n".getBytes(UTF_8);
+    assertSame(contents, scrubber("{}").scrub("Foo.java", contents));
+  }
+
+  public void testBinaryFilesAreLeftAlone() {
+    byte[] contents = {'M', 'O', 'E', ':', 's', 't', 'r', 'i', 'p', '_', 'l', 'i', 'n', 'e', 0};
+    assertSame(contents, scrubber("{}").scrub("blob.bin", contents));
+  }
+
+  public void testIgnoredAndUnscrubbedFiles() {
+    InProcessScrubber scrubber =
+        scrubber("{\"ignore_files_re\": \"secret/\", \"do_not_scrub_files_re\": \"\\\\.txt$\"}");
+    assertTrue(scrubber.ignores("a/secret/b.java"));
+    assertFalse(scrubber.ignores("a/b.java"));
+    assertFalse(scrubber.scrubs("notes.txt"));
+    assertTrue(scrubber.scrubs("notes.java"));
+  }
+
+  public void testStripMarkers() {
+    assertEquals(
+        lines(
+            "class Foo {",
+            "  int kept;",
+            "  int replacement;",
+            "  int inserted;",
+            "}",
+            ""),
+        scrub(
+            scrubber("{}"),
+            "Foo.java",
+            "class Foo {",
+            "  int kept;",
+            "  int secret; // MOE:strip_line",
+            "  // MOE:begin_strip",
+            "  int internal;",
+            "  // MOE:end_strip_and_replace int replacement;",
+            "  // MOE:begin_strip",
+            "  int alsoInternal;",
+            "  // MOE:end_strip",
+            "  /* MOE:insert int inserted; */",
+            "}",
+            ""));
+  }
+
+  public void testUnbalancedStripMarkers() {
+    try {
+      scrub(scrubber("{}"), "Foo.java", "// MOE:begin_strip", "int x;");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("Foo.java:1"));
+    }
+    try {
+      scrub(scrubber("{}"), "Foo.java", "int x;", "// MOE:end_strip");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("Foo.java:2"));
+    }
+  }
+
+  public void testReplacements() {
+    InProcessScrubber scrubber =
+        scrubber(
+            "{\"string_replacements\": [{\"original\": \"com.google\", \"replacement\": \"org\"}],"
+                + " \"regex_replacements\": [{\"original\": \"v(\\\\d+)\","
+                + " \"replacement\": \"version$1\"}]}");
+    assertEquals(
+        "import org.foo; // version2", scrub(scrubber, "Foo.java", "import com.google.foo; // v2"));
+  }
+
+  public void testScrubNonDocumentationComments() {
+    assertEquals(
+        lines(
+            "/** Docs. */",
+            "class Foo {",
+            "  String s = \"// not a comment\";",
+            "  int x;",
+            "}"),
+        scrub(
+            scrubber("{\"scrub_non_documentation_comments\": true}"),
+            "Foo.java",
+            "/** Docs. */",
+            "class Foo {",
+            "  // A comment.",
+            "  String s = \"// not a comment\";",
+            "  int x; /* trailing */",
+            "  /*",
+            "   * Block.",
+            "   */",
+            "}"));
+  }
+
+  public void testScrubAllHashComments() {
+    assertEquals(
+        lines("#!/usr/bin/env python", "x = '#not'", "y = 1", ""),
+        scrub(
+            scrubber("{\"scrub_all_comments\": true}"),
+            "tool.py",
+            "#!/usr/bin/env python",
+            "# Comment.",
+            "x = '#not'",
+            "y = 1  # trailing",
+            ""));
+  }
+
+  public void testShellHashNeedsWordStart() {
+    assertEquals(
+        lines("echo ${#array}", ""),
+        scrub(
+            scrubber("{\"scrub_all_comments\": true}"),
+            "run.sh",
+            "echo ${#array} # length",
+            ""));
+  }
+
+  public void testScrubProtoComments() {
+    InProcessScrubber scrubber = scrubber("{\"scrub_proto_comments\": true}");
+    assertEquals(
+        lines("message Foo {", "}"), scrub(scrubber, "foo.proto", "message Foo {", "  // x", "}"));
+    assertEquals(
+        lines("class Foo {", "  // x", "}"),
+        scrub(scrubber, "Foo.java", "class Foo {", "  // x", "}"));
+  }
+
+  public void testScrubsUsernames() {
+    InProcessScrubber scrubber =
+        scrubber(
+            "{\"scrub_unknown_users\": true, \"usernames_to_publish\": [\"alice\"],"
+                + " \"scrub_authors\": true}");
+    assertEquals(
+        lines(
+            "/**",
+            " * Docs.",
+            " *",
+            " * @author alice@example.com (Alice)",
+            " */",
+            "// TODO(user): Fix. TODO(alice): Also.",
+            "class Foo {}"),
+        scrub(
+            scrubber,
+            "Foo.java",
+            "/**",
+            " * Docs.",
+            " *",
+            " * @author bob@example.com (Bob)",
+            " * @author alice@example.com (Alice)",
+            " */",
+            "// TODO(bob): Fix. TODO(alice): Also.",
+            "class Foo {}"));
+  }
+
+  public void testScrubsListedUsernamesOnly() {
+    InProcessScrubber scrubber = scrubber("{\"usernames_to_scrub\": [\"bob\"]}");
+    assertEquals(
+        "# TODO(user) TODO(carol)", scrub(scrubber, "BUILD", "# TODO(bob) TODO(carol)"));
+    assertEquals("TODO(user) TODO(carol)", scrub(scrubber, "notes.txt", "TODO(bob) TODO(carol)"));
+  }
+
+  public void testCommentEmptiedOfAuthorsIsRemoved() {
+    assertEquals(
+        lines("class Foo {}"),
+        scrub(
+            scrubber("{\"scrub_unknown_users\": true}"),
+            "Foo.java",
+            "/** @author bob */",
+            "class Foo {}"));
+  }
+
+  public void testSensitiveComments() {
+    InProcessScrubber scrubber = scrubber("{\"sensitive_words\": [\"codename\"]}");
+    assertEquals(
+        lines("int x;", "// Public."),
+        scrub(scrubber, "Foo.java", "int x; // Project Codename.", "// Public."));
+    try {
+      scrub(scrubber, "Foo.java", "// Public.", "int codename;");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("Foo.java:2"));
+    }
+  }
+
+  public void testSensitiveContentInKeptComments() {
+    InProcessScrubber scrubber =
+        scrubber(
+            "{\"sensitive_res\": [\"secret\\\\w+\"], \"scrub_sensitive_comments\": false,"
+                + " \"whitelist\": [{\"filter\": \"sensitive\", \"trigger\": \"secretsauce\","
+                + " \"filename\": \"Foo.java\"}]}");
+    assertEquals("// secretsauce", scrub(scrubber, "Foo.java", "// secretsauce"));
+    try {
+      scrub(scrubber, "Bar.java", "// secretsauce");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("secretsauce"));
+    }
+  }
+
+  public void testWhitelistTriggerMustMatchExactly() {
+    InProcessScrubber scrubber =
+        scrubber(
+            "{\"sensitive_words\": [\"foobar\"], \"scrub_sensitive_comments\": false,"
+                + " \"whitelist\": [{\"trigger\": \"b\"}, {\"trigger\": \"Q\"},"
+                + " {\"trigger\": \"E\"}, {\"trigger\": \"foo\"}]}");
+    try {
+      scrub(scrubber, "Foo.java", "int foobar;");
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("foobar"));
+    }
+  }
+
+  public void testWhitelistTriggerMatchesConfiguredRegex() {
+    InProcessScrubber scrubber =
+        scrubber(
+            "{\"sensitive_res\": [\"secret\\\\w+\"], \"scrub_sensitive_comments\": false,"
+                + " \"whitelist\": [{\"trigger\": \"secret\\\\w+\"}]}");
+    assertEquals("// secretsauce", scrub(scrubber, "Foo.java", "// secretsauce"));
+    assertEquals("int secretKey;", scrub(scrubber, "Bar.java", "int secretKey;"));
+  }
+
+  public void testMaximumBlankLines() {
+    InProcessScrubber scrubber = scrubber("{\"maximum_blank_lines\": 1}");
+    assertEquals(
+        lines("a;", "", "b;", ""), scrub(scrubber, "Foo.java", "a;", "", "", "", "b;", ""));
+    assertEquals(
+        lines("a", "", "", "b"), scrub(scrubber, "notes.txt", "a", "", "", "b"));
+  }
+
+  public void testLatin1IsPreserved() {
+    byte[] contents = "// caf\u00e9 TODO(bob)\n".getBytes(ISO_8859_1);
+    byte[] scrubbed = scrubber("{\"usernames_to_scrub\": [\"bob\"]}").scrub("Foo.java", contents);
+    assertEquals("// caf\u00e9 TODO(user)\n", new String(scrubbed, ISO_8859_1));
+  }
+
+  public void testUnsupportedOptionsAreRejected() {
+    InProcessScrubber.create(new JsonObject());
+    scrubber("{\"java_renames\": [], \"scrub_java_testsize_annotations\": false}");
+    try {
+      scrubber("{\"java_renames\": [{\"original\": \"a\", \"replacement\": \"b\"}]}");
+      fail("Expected InvalidProject");
+    } catch (InvalidProject expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("java_renames"));
+    }
+  }
+}
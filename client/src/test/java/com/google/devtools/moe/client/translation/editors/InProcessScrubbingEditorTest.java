@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import static com.google.devtools.moe.client.translation.editors.Editor.Type.scrubber;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
+import com.google.devtools.moe.client.codebase.CodebaseMerger;
+import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.project.EditorConfig;
+import com.google.devtools.moe.client.project.ScrubberConfig;
+import com.google.devtools.moe.client.testing.TempDirFileSystem;
+import com.google.devtools.moe.client.tools.EagerLazy;
+import com.google.devtools.moe.client.tools.TarUtils;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import dagger.Lazy;
+import java.io.File;
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+public class InProcessScrubbingEditorTest extends TestCase {
+  private final Gson gson = GsonModule.provideGson();
+  private final TempDirFileSystem filesystem = new TempDirFileSystem();
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = filesystem.getTemporaryDirectory("test_");
+    filesystem.makeDirs(tempDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    filesystem.close();
+  }
+
+  public void testEdit() throws Exception {
+    File input = new File(tempDir, "input");
+    File scrubbed = new File(input, "src/Foo.java");
+    File unchanged = new File(input, "src/Bar.java");
+    File ignored = new File(input, "internal/Baz.java");
+    filesystem.makeDirsForFile(scrubbed);
+    filesystem.makeDirsForFile(ignored);
+    filesystem.write("// TODO(bob): Scrub.\nclass Foo {} // MOE:strip_line\n", scrubbed);
+    filesystem.write("class Bar {}\n", unchanged);
+    filesystem.write("class Baz {}\n", ignored);
+    Codebase codebase = Codebase.create(input, "internal", new RepositoryExpression("input"));
+
+    ScrubberConfig scrubberConfig =
+        gson.fromJson(
+            "{\"usernames_to_scrub\": [\"bob\"], \"ignore_files_re\": \"^internal/\"}",
+            ScrubberConfig.class);
+    EditorConfig config =
+        EditorConfig.create(scrubber, scrubberConfig, null, new JsonObject(), false, true);
+    InProcessScrubbingEditor editor =
+        new InProcessScrubbingEditor(filesystem, null, gson, "scrubber", config);
+    Codebase edited = editor.edit(codebase, ImmutableMap.of());
+
+    ImmutableMap<String, File> files = CodebaseLayer.files(edited, filesystem);
+    assertEquals(ImmutableSet.of("src/Bar.java", "src/Foo.java"), files.keySet());
+    assertEquals(unchanged, files.get("src/Bar.java"));
+    assertEquals("// TODO(user): Scrub.\n", filesystem.fileToString(files.get("src/Foo.java")));
+  }
+
+  public void testSelector() throws Exception {
+    IMocksControl control = EasyMock.createControl();
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    CodebaseMerger merger = control.createMock(CodebaseMerger.class);
+    Lazy<File> executable = EagerLazy.fromInstance(new File("/scrubber.par"));
+    ScrubbingEditorSelector selector =
+        new ScrubbingEditorSelector(
+            new ScrubbingEditorFactory(
+                () -> cmd,
+                () -> filesystem,
+                () -> executable,
+                () -> new TarUtils(filesystem, cmd),
+                () -> merger,
+                () -> gson,
+                () -> 1,
+                () -> 0),
+            new InProcessScrubbingEditorFactory(() -> filesystem, () -> merger, () -> gson));
+    ScrubberConfig scrubberConfig = gson.fromJson("{}", ScrubberConfig.class);
+    assertTrue(
+        selector.newEditor(
+                "scrubber",
+                EditorConfig.create(scrubber, scrubberConfig, null, new JsonObject(), false, true))
+            instanceof InProcessScrubbingEditor);
+    assertTrue(
+        selector.newEditor(
+                "scrubber",
+                EditorConfig.create(scrubber, scrubberConfig, null, new JsonObject(), false))
+            instanceof ScrubbingEditor);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class InverseRenameIndexTest extends TestCase {
+
+  private static InverseRenameIndex index(Map<String, String> renamings) {
+    return InverseRenameIndex.build(renamings.keySet(), renamings::get);
+  }
+
+  public void testMapsEachPrefix() {
+    InverseRenameIndex index = index(ImmutableMap.of("a/b/c/file", "x/y/file"));
+    assertEquals("a/b/c/file", index.inverseRename("x/y/file"));
+    assertEquals("a/b/c/new", index.inverseRename("x/y/new"));
+    assertEquals("a/b/z/new", index.inverseRename("x/z/new"));
+    assertEquals("toplevel", index.inverseRename("toplevel"));
+  }
+
+  public void testStopsAtShorterPath() {
+    InverseRenameIndex index = index(ImmutableMap.of("file", "x/y/file"));
+    assertEquals("file", index.inverseRename("x/y/file"));
+    assertEquals("x/new", index.inverseRename("x/new"));
+  }
+
+  public void testLongestPrefixWins() {
+    InverseRenameIndex index =
+        index(ImmutableMap.of("a/b/file", "x/y/file", "c/d/other", "x/z/other"));
+    assertEquals("a/b/new", index.inverseRename("x/y/new"));
+    assertEquals("c/d/new", index.inverseRename("x/z/new"));
+    assertEquals("c/w/new", index.inverseRename("x/w/new"));
+  }
+
+  public void testLaterFilesOverride() {
+    InverseRenameIndex index =
+        index(ImmutableMap.of("a/one", "x/one", "b/two", "x/two"));
+    assertEquals("b/new", index.inverseRename("x/new"));
+  }
+
+  public void testReplacesEveryOccurrenceOfPrefix() {
+    InverseRenameIndex index = index(ImmutableMap.of("a/file", "x/file"));
+    assertEquals("a/a/file", index.inverseRename("x/x/file"));
+  }
+
+  /** Compares the index with joining each prefix and looking it up in a map. */
+  public void testMatchesPrefixMap() {
+    Random random = new Random(0);
+    List<String> segments = ImmutableList.of("a", "b", "c", "ab", "");
+    for (int round = 0; round < 200; round++) {
+      Map<String, String> renamings = new HashMap<>();
+      for (int i = 0; i < 5; i++) {
+        renamings.put(randomPath(random, segments), randomPath(random, segments));
+      }
+      InverseRenameIndex index = index(renamings);
+      Map<String, String> prefixes = prefixMap(renamings);
+      for (int i = 0; i < 20; i++) {
+        String path = randomPath(random, segments);
+        assertEquals(renamings + " " + path, lookUp(prefixes, path), index.inverseRename(path));
+      }
+    }
+  }
+
+  private static String randomPath(Random random, List<String> segments) {
+    List<String> path = new ArrayList<>();
+    int depth = 1 + random.nextInt(4);
+    for (int i = 0; i < depth; i++) {
+      path.add(segments.get(random.nextInt(segments.size())));
+    }
+    return Joiner.on('/').join(path);
+  }
+
+  private static Map<String, String> prefixMap(Map<String, String> renamings) {
+    Map<String, String> prefixes = new HashMap<>();
+    for (String reference : renamings.keySet()) {
+      List<String> renamedParts = Splitter.on('/').splitToList(renamings.get(reference));
+      List<String> referenceParts = Splitter.on('/').splitToList(reference);
+      for (int i = 0; i < Math.min(renamedParts.size(), referenceParts.size()); i++) {
+        prefixes.put(
+            Joiner.on('/').join(renamedParts.subList(0, renamedParts.size() - i)),
+            Joiner.on('/').join(referenceParts.subList(0, referenceParts.size() - i)));
+      }
+    }
+    return prefixes;
+  }
+
+  private static String lookUp(Map<String, String> prefixes, String path) {
+    List<String> parts = Splitter.on('/').splitToList(path);
+    for (int i = parts.size(); i > 0; i--) {
+      String prefix = Joiner.on('/').join(parts.subList(0, i));
+      if (prefixes.containsKey(prefix)) {
+        return path.replace(prefix, prefixes.get(prefix));
+      }
+    }
+    return path;
+  }
+}
@@ -57,16 +57,16 @@ public class InverseRenamingEditorTest extends TestCase {
 
     expect(mockFs.getTemporaryDirectory("inverse_rename_run_")).andReturn(new File("/output"));
 
-    expect(mockFs.findFiles(new File("/input")))
+    expect(mockFs.findRelativeFiles(new File("/input")))
         .andReturn(
             ImmutableSet.of(
-                new File("/input/toplevel.txt"),
-                new File("/input/public_root/1.txt"),
-                new File("/input/public_root/new.txt"),
-                new File("/input/public_root/inner1/inner2/innernew.txt")));
+                "toplevel.txt",
+                "public_root/1.txt",
+                "public_root/new.txt",
+                "public_root/inner1/inner2/innernew.txt"));
 
-    expect(mockFs.findFiles(new File("/destination")))
-        .andReturn(ImmutableSet.of(new File("/destination/internal_root/1.txt")));
+    expect(mockFs.findRelativeFiles(new File("/destination")))
+        .andReturn(ImmutableSet.of("internal_root/1.txt"));
 
     expectCopy(mockFs, "/input/toplevel.txt", "/output/toplevel.txt");
     expectCopy(mockFs, "/input/public_root/1.txt", "/output/internal_root/1.txt");
@@ -84,8 +84,36 @@ public class InverseRenamingEditorTest extends TestCase {
     control.verify();
   }
 
+  public void testReusesIndexOfReference() throws Exception {
+    JsonObject mappings =
+        new JsonParser().parse("{\"internal_root\": \"public_root\"}").getAsJsonObject();
+    EditorConfig config = EditorConfig.create(renamer, scrubberConfig, "", mappings, false);
+    RenamingEditor inverseRenamey = new RenamingEditor(mockFs, gson, "renamey", config);
+
+    Codebase input =
+        Codebase.create(new File("/input"), "public", new RepositoryExpression("input"));
+    Codebase destination =
+        Codebase.create(
+            new File("/destination"), "public", new RepositoryExpression("destination"));
+
+    expect(mockFs.findRelativeFiles(new File("/destination")))
+        .andReturn(ImmutableSet.of("internal_root/1.txt"))
+        .once();
+    for (String output : new String[] {"/output1", "/output2"}) {
+      expect(mockFs.getTemporaryDirectory("inverse_rename_run_")).andReturn(new File(output));
+      expect(mockFs.findRelativeFiles(new File("/input")))
+          .andReturn(ImmutableSet.of("public_root/1.txt"));
+      expectCopy(mockFs, "/input/public_root/1.txt", output + "/internal_root/1.txt");
+    }
+
+    control.replay();
+    inverseRenamey.inverseEdit(input, null, destination, ImmutableMap.<String, String>of());
+    inverseRenamey.inverseEdit(input, null, destination, ImmutableMap.<String, String>of());
+    control.verify();
+  }
+
   private void expectCopy(FileSystem mockFs, String srcPath, String destPath) throws IOException {
     mockFs.makeDirsForFile(new File(destPath));
-    mockFs.copyFile(new File(srcPath), new File(destPath));
+    mockFs.linkFile(new File(srcPath), new File(destPath));
   }
 }
@@ -19,10 +19,13 @@ package com.google.devtools.moe.client.translation.editors;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
 import java.io.File;
 import java.util.HashMap;
@@ -72,17 +75,153 @@ public class PatchingEditorTest extends TestCase {
 
     expect(fileSystem.getTemporaryDirectory("patcher_run_")).andReturn(patcherRun);
     expect(fileSystem.isReadable(patchFile)).andReturn(true);
-    fileSystem.copyDirectory(codebaseFile, patcherRun);
+    expect(fileSystem.fileToString(patchFile))
+        .andReturn(
+            "--- foo/bar.txt\t2018-01-01 00:00:00\n"
+                + "+++ foo/bar.txt\t2018-01-02 00:00:00\n"
+                + "@@ -1 +1 @@\n"
+                + "-old\n"
+                + "+new\n"
+                + "Index: ./baz.txt\n"
+                + "--- baz.txt\n"
+                + "+++ baz.txt\n");
+    expect(fileSystem.findRelativeFiles(codebaseFile))
+        .andReturn(ImmutableSet.of("foo/bar.txt", "other.txt"));
+    fileSystem.makeDirs(patcherRun);
+    fileSystem.makeDirsForFile(new File("/patcher_run_foo/foo/bar.txt"));
+    fileSystem.copyFile(
+        new File("/codebase/foo/bar.txt"), new File("/patcher_run_foo/foo/bar.txt"));
 
     expect(
             cmd.runCommand(
                 "/patcher_run_foo", "patch", ImmutableList.of("-p0", "--input=/patchfile")))
         .andReturn("");
+    expect(fileSystem.findRelativeFiles(patcherRun))
+        .andReturn(ImmutableSet.of("foo/bar.txt", "baz.txt"));
 
     control.replay();
 
-    new PatchingEditor(cmd, fileSystem, "patcher", null).edit(codebase, options);
+    Codebase patched =
+        new PatchingEditor(cmd, fileSystem, "patcher", null).edit(codebase, options);
 
     control.verify();
+    assertEquals(patcherRun, patched.directory());
+    assertEquals(
+        ImmutableMap.of(
+            "baz.txt", new File("/patcher_run_foo/baz.txt"),
+            "foo/bar.txt", new File("/patcher_run_foo/foo/bar.txt"),
+            "other.txt", new File("/codebase/other.txt")),
+        CodebaseLayer.files(patched, fileSystem));
+  }
+
+  public void testPatching_unknownFiles() throws Exception {
+    File patcherRun = new File("/patcher_run_foo");
+    File patchFile = new File("/patchfile");
+    File codebaseFile = new File("/codebase");
+
+    Codebase codebase =
+        Codebase.create(codebaseFile, "internal", new RepositoryExpression("ignored"));
+
+    Map<String, String> options = new HashMap<>();
+    options.put("file", "/patchfile");
+
+    expect(fileSystem.getTemporaryDirectory("patcher_run_")).andReturn(patcherRun);
+    expect(fileSystem.isReadable(patchFile)).andReturn(true);
+    expect(fileSystem.fileToString(patchFile)).andReturn("@@ -1 +1 @@\n-old\n+new\n");
+    fileSystem.cloneDirectory(codebaseFile, patcherRun, null);
+
+    expect(
+            cmd.runCommand(
+                "/patcher_run_foo", "patch", ImmutableList.of("-p0", "--input=/patchfile")))
+        .andReturn("");
+
+    control.replay();
+
+    Codebase patched =
+        new PatchingEditor(cmd, fileSystem, "patcher", null).edit(codebase, options);
+
+    control.verify();
+    assertEquals(patcherRun, patched.path());
+  }
+
+  public void testPatching_spaceSeparatedTimestamps() throws Exception {
+    File patcherRun = new File("/patcher_run_foo");
+    File patchFile = new File("/patchfile");
+    File codebaseFile = new File("/codebase");
+
+    Codebase codebase =
+        Codebase.create(codebaseFile, "internal", new RepositoryExpression("ignored"));
+
+    Map<String, String> options = new HashMap<>();
+    options.put("file", "/patchfile");
+
+    expect(fileSystem.getTemporaryDirectory("patcher_run_")).andReturn(patcherRun);
+    expect(fileSystem.isReadable(patchFile)).andReturn(true);
+    expect(fileSystem.fileToString(patchFile))
+        .andReturn(
+            "--- foo.c 2020-01-01 00:00:00.000000000 +0000\n"
+                + "+++ foo.c 2020-01-02 12:34:56.789012345 -0800\n"
+                + "@@ -1 +1 @@\n"
+                + "-old\n"
+                + "+new\n"
+                + "*** bar.c Wed Jan  1 00:00:00 2020\n"
+                + "--- bar.c Thu Jan  2 00:00:00 2020\n");
+    expect(fileSystem.findRelativeFiles(codebaseFile))
+        .andReturn(ImmutableSet.of("bar.c", "foo.c", "other.c"));
+    fileSystem.makeDirs(patcherRun);
+    fileSystem.makeDirsForFile(new File("/patcher_run_foo/bar.c"));
+    fileSystem.copyFile(new File("/codebase/bar.c"), new File("/patcher_run_foo/bar.c"));
+    fileSystem.makeDirsForFile(new File("/patcher_run_foo/foo.c"));
+    fileSystem.copyFile(new File("/codebase/foo.c"), new File("/patcher_run_foo/foo.c"));
+
+    expect(
+            cmd.runCommand(
+                "/patcher_run_foo", "patch", ImmutableList.of("-p0", "--input=/patchfile")))
+        .andReturn("");
+    expect(fileSystem.findRelativeFiles(patcherRun)).andReturn(ImmutableSet.of("bar.c", "foo.c"));
+
+    control.replay();
+
+    Codebase patched =
+        new PatchingEditor(cmd, fileSystem, "patcher", null).edit(codebase, options);
+
+    control.verify();
+    assertEquals(
+        ImmutableMap.of(
+            "bar.c", new File("/patcher_run_foo/bar.c"),
+            "foo.c", new File("/patcher_run_foo/foo.c"),
+            "other.c", new File("/codebase/other.c")),
+        CodebaseLayer.files(patched, fileSystem));
+  }
+
+  public void testPatching_unrecognizedTextAfterName() throws Exception {
+    File patcherRun = new File("/patcher_run_foo");
+    File patchFile = new File("/patchfile");
+    File codebaseFile = new File("/codebase");
+
+    Codebase codebase =
+        Codebase.create(codebaseFile, "internal", new RepositoryExpression("ignored"));
+
+    Map<String, String> options = new HashMap<>();
+    options.put("file", "/patchfile");
+
+    expect(fileSystem.getTemporaryDirectory("patcher_run_")).andReturn(patcherRun);
+    expect(fileSystem.isReadable(patchFile)).andReturn(true);
+    expect(fileSystem.fileToString(patchFile))
+        .andReturn("--- foo.c 1577836800\n+++ foo.c 1577923200\n@@ -1 +1 @@\n-old\n+new\n");
+    fileSystem.cloneDirectory(codebaseFile, patcherRun, null);
+
+    expect(
+            cmd.runCommand(
+                "/patcher_run_foo", "patch", ImmutableList.of("-p0", "--input=/patchfile")))
+        .andReturn("");
+
+    control.replay();
+
+    Codebase patched =
+        new PatchingEditor(cmd, fileSystem, "patcher", null).edit(codebase, options);
+
+    control.verify();
+    assertEquals(patcherRun, patched.path());
   }
 }
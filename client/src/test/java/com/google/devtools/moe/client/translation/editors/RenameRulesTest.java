@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.editors;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+public class RenameRulesTest extends TestCase {
+
+  private static RenameRules literalRules(String... mappings) {
+    List<Pattern> patterns = new ArrayList<>();
+    List<String> replacements = new ArrayList<>();
+    for (int i = 0; i < mappings.length; i += 2) {
+      patterns.add(Pattern.compile(Pattern.quote(mappings[i])));
+      replacements.add(mappings[i + 1]);
+    }
+    return new RenameRules(patterns, replacements, true);
+  }
+
+  private static RenameRules regexRules(String... mappings) {
+    List<Pattern> patterns = new ArrayList<>();
+    List<String> replacements = new ArrayList<>();
+    for (int i = 0; i < mappings.length; i += 2) {
+      patterns.add(Pattern.compile(mappings[i]));
+      replacements.add(mappings[i + 1]);
+    }
+    return new RenameRules(patterns, replacements, false);
+  }
+
+  public void testFirstRuleWins() {
+    RenameRules rules = literalRules("bar", "BAR", "foo", "FOO");
+    // "foo" is found first in the path, but "bar" is the earlier rule.
+    assertEquals("foo/BAR/foo.txt", rules.rename("foo/bar/foo.txt"));
+    assertEquals("x/FOO.txt", rules.rename("x/foo.txt"));
+    assertNull(rules.rename("x/baz.txt"));
+  }
+
+  public void testLiteralsMatchAnywhere() {
+    RenameRules rules = literalRules("r/fo", "R", "a.b", "c");
+    assertEquals("baRo.txt", rules.rename("bar/foo.txt"));
+    assertEquals("x/c.txt", rules.rename("x/a.b.txt"));
+    assertNull(rules.rename("x/aab.txt"));
+  }
+
+  public void testQuotedEndMarker() {
+    RenameRules rules = literalRules("a\\Eb", "c");
+    assertEquals("x/c", rules.rename("x/a\\Eb"));
+  }
+
+  public void testEmptyLiteralMatchesEverything() {
+    RenameRules rules = literalRules("zzz", "y", "", "prefix/");
+    assertEquals("prefix/a/b", rules.rename("a/b"));
+    assertEquals("a/y", rules.rename("a/zzz"));
+  }
+
+  public void testSiblingsAndSubdirectories() {
+    RenameRules rules = literalRules("dir/sp", "SP", "dir", "DIR");
+    assertEquals("DIR/a.txt", rules.rename("dir/a.txt"));
+    assertEquals("SPecial.txt", rules.rename("dir/special.txt"));
+    assertEquals("DIR/sub/a.txt", rules.rename("dir/sub/a.txt"));
+    assertEquals("SPace/a.txt", rules.rename("dir/space/a.txt"));
+  }
+
+  public void testRegexesKeepTheirOrderAmongLiterals() {
+    RenameRules rules = regexRules("x", "X", "/old([^/]*)", "/new$1", "o", "0");
+    assertEquals("X/olddir/a", rules.rename("x/olddir/a"));
+    // "o" is found first in the path, but the regex is the earlier rule.
+    assertEquals("o/newdir/a", rules.rename("o/olddir/a"));
+    assertEquals("a/0/b", rules.rename("a/o/b"));
+  }
+
+  /** Compares the rules with trying each rule in turn, on random rules and paths. */
+  public void testMatchesSequentialSearch() {
+    Random random = new Random(20181016);
+    for (int round = 0; round < 200; round++) {
+      boolean literal = random.nextBoolean();
+      List<Pattern> patterns = new ArrayList<>();
+      List<String> replacements = new ArrayList<>();
+      for (int i = random.nextInt(8); i >= 0; i--) {
+        String text = randomPath(random, 3);
+        if (!literal && random.nextInt(3) == 0) {
+          text = text.replace('b', '.') + (random.nextBoolean() ? "$" : "");
+        }
+        patterns.add(Pattern.compile(literal ? Pattern.quote(text) : text));
+        replacements.add("<" + i + ">");
+      }
+      RenameRules rules = new RenameRules(patterns, replacements, literal);
+
+      for (int j = 0; j < 50; j++) {
+        String path = randomPath(random, 12);
+        String expected = null;
+        for (int i = 0; i < patterns.size(); i++) {
+          Matcher matcher = patterns.get(i).matcher(path);
+          if (matcher.find()) {
+            expected = matcher.replaceFirst(replacements.get(i));
+            break;
+          }
+        }
+        assertEquals(patterns + " on " + path, expected, rules.rename(path));
+      }
+    }
+  }
+
+  private static String randomPath(Random random, int maxLength) {
+    StringBuilder path = new StringBuilder();
+    for (int i = random.nextInt(maxLength); i >= 0; i--) {
+      path.append("ab/".charAt(random.nextInt(3)));
+    }
+    return path.toString();
+  }
+}
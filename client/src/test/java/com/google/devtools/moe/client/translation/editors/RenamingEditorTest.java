@@ -20,9 +20,11 @@ import static com.google.devtools.moe.client.translation.editors.Editor.Type.ren
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.project.EditorConfig;
@@ -82,58 +84,48 @@ public class RenamingEditorTest extends TestCase {
     }
   }
 
-  public void testCopyDirectoryAndRename() throws Exception {
-    File srcContents = new File("/src/olddummy/file1");
-    File srcContents2 = new File("/src/olddummy/file2");
-    File src = new File("/src");
-    File dest = new File("/dest");
-    String mappings = "{\"olddummy\": \"newdummy\"}";
-    EditorConfig config = EditorConfig.create(renamer, scrubberConfig, "", parse(mappings), false);
-    RenamingEditor renamer = new RenamingEditor(fileSystem, gson, "renamey", config);
-
-    expect(fileSystem.isDirectory(src)).andReturn(true);
-    expect(fileSystem.listFiles(src)).andReturn(new File[] {new File("/src/olddummy")});
-
-    expect(fileSystem.isDirectory(new File("/src/olddummy"))).andReturn(true);
-    expect(fileSystem.listFiles(new File("/src/olddummy")))
-        .andReturn(new File[] {new File("/src/olddummy/file1"), new File("/src/olddummy/file2")});
-
-    expect(fileSystem.isDirectory(new File("/src/olddummy/file1"))).andReturn(false);
-    fileSystem.makeDirsForFile(new File("/dest/newdummy/file1"));
-    fileSystem.copyFile(srcContents, new File("/dest/newdummy/file1"));
-
-    expect(fileSystem.isDirectory(new File("/src/olddummy/file2"))).andReturn(false);
-    fileSystem.makeDirsForFile(new File("/dest/newdummy/file2"));
-    fileSystem.copyFile(srcContents2, new File("/dest/newdummy/file2"));
-
-    control.replay();
-    renamer.copyDirectoryAndRename(src, src, dest);
-    control.verify();
-  }
-
   public void testEdit() throws Exception {
     File codebaseFile = new File("/codebase/");
     Codebase codebase =
         Codebase.create(codebaseFile, "internal", new RepositoryExpression("ignored"));
 
-    File oldSubFile = new File("/codebase/moe.txt");
     File renameRun = new File("/rename_run_foo");
-    File newSubFile = new File(renameRun, "joe.txt");
-
     expect(fileSystem.getTemporaryDirectory("rename_run_")).andReturn(renameRun);
-
-    expect(fileSystem.isDirectory(codebaseFile)).andReturn(true);
-    expect(fileSystem.listFiles(codebaseFile)).andReturn(new File[] {oldSubFile});
-    expect(fileSystem.isDirectory(oldSubFile)).andReturn(false);
-    fileSystem.makeDirsForFile(newSubFile);
-    fileSystem.copyFile(oldSubFile, newSubFile);
+    expect(fileSystem.findRelativeFiles(codebaseFile))
+        .andReturn(ImmutableSet.of("moe.txt", "olddummy/file1", "olddummy/file2"));
 
     control.replay();
 
-    String mappings = "{\"moe\": \"joe\"}";
+    String mappings = "{\"moe\": \"joe\", \"olddummy\": \"newdummy\"}";
     EditorConfig config = EditorConfig.create(renamer, scrubberConfig, "", parse(mappings), false);
-    new RenamingEditor(fileSystem, gson, "renamey", config)
-        .edit(codebase, ImmutableMap.<String, String>of());
+    Codebase renamed =
+        new RenamingEditor(fileSystem, gson, "renamey", config)
+            .edit(codebase, ImmutableMap.<String, String>of());
+
+    // Nothing is written until the renamed codebase's directory is asked for.
+    control.verify();
+    assertEquals(renameRun, renamed.directory());
+    assertEquals(
+        ImmutableMap.of(
+            "joe.txt", new File("/codebase/moe.txt"),
+            "newdummy/file1", new File("/codebase/olddummy/file1"),
+            "newdummy/file2", new File("/codebase/olddummy/file2")),
+        CodebaseLayer.files(renamed, fileSystem));
+
+    control.reset();
+    fileSystem.makeDirs(renameRun);
+    fileSystem.makeDirsForFile(new File("/rename_run_foo/joe.txt"));
+    fileSystem.linkFile(new File("/codebase/moe.txt"), new File("/rename_run_foo/joe.txt"));
+    fileSystem.makeDirsForFile(new File("/rename_run_foo/newdummy/file1"));
+    fileSystem.linkFile(
+        new File("/codebase/olddummy/file1"), new File("/rename_run_foo/newdummy/file1"));
+    fileSystem.makeDirsForFile(new File("/rename_run_foo/newdummy/file2"));
+    fileSystem.linkFile(
+        new File("/codebase/olddummy/file2"), new File("/rename_run_foo/newdummy/file2"));
+    control.replay();
+
+    assertEquals(renameRun, renamed.path());
+    assertEquals(renameRun, renamed.path());
 
     control.verify();
   }
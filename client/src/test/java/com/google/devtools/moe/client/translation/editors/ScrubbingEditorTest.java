@@ -20,21 +20,28 @@ import static com.google.devtools.moe.client.translation.editors.Editor.Type.scr
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.StreamingCommandRunner;
+import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.project.EditorConfig;
 import com.google.devtools.moe.client.project.ScrubberConfig;
+import com.google.devtools.moe.client.testing.TempDirFileSystem;
 import com.google.devtools.moe.client.tools.EagerLazy;
 import com.google.devtools.moe.client.tools.TarUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import dagger.Lazy;
 import java.io.File;
+import java.util.List;
 import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -103,8 +110,113 @@ public class ScrubbingEditorTest extends TestCase {
     EditorConfig config =
         EditorConfig.create(scrubber, scrubberConfig, "tar", new JsonObject(), false);
     ScrubbingEditor editor =
-        new ScrubbingEditor(cmd, fileSystem, executable, tarUtils, null, "scrubber", config, gson);
+        new ScrubbingEditor(
+            cmd, fileSystem, executable, tarUtils, null, "scrubber", config, gson, 1, 0);
     editor.edit(codebase, ImmutableMap.<String, String>of());
     control.verify();
   }
+
+  /**
+   * Returns an editor which scrubs in three shards, with a stand-in for the scrubber which
+   * upper-cases its input's files and reports their names, then runs the given extra commands.
+   */
+  private static ScrubbingEditor shardedEditor(
+      TempDirFileSystem filesystem, File tempDir, String... extraCommands) throws Exception {
+    File scrubberBin = new File(tempDir, "bin/scrubber.sh");
+    filesystem.makeDirsForFile(scrubberBin);
+    filesystem.write(
+        Joiner.on('\n')
+            .join(
+                ImmutableList.<String>builder()
+                    .add(
+                        "#!/bin/sh",
+                        "out=\"$2/out\"",
+                        "mkdir \"$out\"",
+                        "cd \"$7\"",
+                        "for f in $(find . -type f | sort); do",
+                        "  mkdir -p \"$out/$(dirname $f)\"",
+                        "  tr a-z A-Z < $f > \"$out/$f\"",
+                        "  echo $f >> \"$out/report.txt\"",
+                        "done")
+                    .add(extraCommands)
+                    .add("cd \"$out\" && tar -cf \"$4\" .", "")
+                    .build()),
+        scrubberBin);
+    filesystem.setExecutable(scrubberBin);
+
+    CommandRunner runner = new StreamingCommandRunner();
+    Gson gson = GsonModule.provideGson();
+    EditorConfig config =
+        EditorConfig.create(
+            scrubber, gson.fromJson("{}", ScrubberConfig.class), null, new JsonObject(), false);
+    return new ScrubbingEditor(
+        runner,
+        filesystem,
+        EagerLazy.fromInstance(scrubberBin),
+        new TarUtils(filesystem, runner),
+        null,
+        "scrubber",
+        config,
+        gson,
+        3,
+        60);
+  }
+
+  private static Codebase shardedInput(TempDirFileSystem filesystem, File tempDir)
+      throws Exception {
+    File input = new File(tempDir, "input");
+    for (String name : ImmutableList.of("a.txt", "dir/b.txt", "dir/c.txt", "d.txt")) {
+      File file = new File(input, name);
+      filesystem.makeDirsForFile(file);
+      filesystem.write("contents of " + name + "\n", file);
+    }
+    return Codebase.create(input, "internal", new RepositoryExpression("input"));
+  }
+
+  public void testShardedScrubbing() throws Exception {
+    try (TempDirFileSystem filesystem = new TempDirFileSystem()) {
+      File tempDir = filesystem.getTemporaryDirectory("test_");
+      ScrubbingEditor editor = shardedEditor(filesystem, tempDir);
+      Codebase codebase = shardedInput(filesystem, tempDir);
+
+      // The scrubbed codebase outlives the task which scrubbed it, as in a translation.
+      Codebase scrubbed;
+      try (Ui.Task task = filesystem.ui().newTask("scrub", "Scrubbing")) {
+        scrubbed = task.keep(editor.edit(codebase, ImmutableMap.<String, String>of()));
+      }
+      filesystem.awaitCleanUp();
+
+      assertEquals(
+          ImmutableSet.of("a.txt", "d.txt", "dir/b.txt", "dir/c.txt", "report.txt"),
+          filesystem.findRelativeFiles(scrubbed.path()));
+      assertEquals(
+          "CONTENTS OF DIR/B.TXT\n",
+          filesystem.fileToString(new File(scrubbed.path(), "dir/b.txt")));
+      // Each shard's report is in the joined report, once.
+      List<String> reported =
+          Splitter.on('\n')
+              .omitEmptyStrings()
+              .splitToList(filesystem.fileToString(new File(scrubbed.path(), "report.txt")));
+      assertEquals(4, reported.size());
+      assertEquals(
+          ImmutableSet.of("./a.txt", "./d.txt", "./dir/b.txt", "./dir/c.txt"),
+          ImmutableSet.copyOf(reported));
+    }
+  }
+
+  public void testShardedScrubbing_sameOutputFromShardsFails() throws Exception {
+    try (TempDirFileSystem filesystem = new TempDirFileSystem()) {
+      File tempDir = filesystem.getTemporaryDirectory("test_");
+      ScrubbingEditor editor =
+          shardedEditor(filesystem, tempDir, "echo scrubbed > \"$out/summary.txt\"");
+      Codebase codebase = shardedInput(filesystem, tempDir);
+
+      try {
+        editor.edit(codebase, ImmutableMap.<String, String>of());
+        fail("Expected MoeProblem");
+      } catch (MoeProblem expected) {
+        assertTrue(expected.getMessage(), expected.getMessage().contains("summary.txt"));
+      }
+    }
+  }
 }
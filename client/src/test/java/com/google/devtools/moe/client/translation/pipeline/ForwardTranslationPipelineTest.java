@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.translation.pipeline;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseLayer;
+import com.google.devtools.moe.client.codebase.expressions.RepositoryExpression;
+import com.google.devtools.moe.client.translation.editors.EditedFile;
+import com.google.devtools.moe.client.translation.editors.Editor;
+import com.google.devtools.moe.client.translation.editors.FileLocalEditor;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+public class ForwardTranslationPipelineTest extends TestCase {
+  private final IMocksControl control = EasyMock.createControl();
+  private final FileSystem filesystem = control.createMock(FileSystem.class);
+  private final Editor shell = control.createMock(Editor.class);
+  private final Ui ui = new Ui(new ByteArrayOutputStream(), null);
+  private final List<String> wholeCodebaseEdits = new ArrayList<>();
+
+  /** Prefixes each file's name with a directory. */
+  private class MovingEditor implements FileLocalEditor {
+    private final String directory;
+
+    MovingEditor(String directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    public String getDescription() {
+      return "move to " + directory;
+    }
+
+    @Override
+    public EditedFile editFile(EditedFile file, Map<String, String> options) {
+      return file.withName(directory + "/" + file.name());
+    }
+
+    @Override
+    public Codebase edit(Codebase input, Map<String, String> options) {
+      wholeCodebaseEdits.add(directory);
+      return input;
+    }
+  }
+
+  public void testTranslate_fusesFileLocalSteps() throws Exception {
+    Codebase input =
+        Codebase.create(new File("/input"), "internal", new RepositoryExpression("input"));
+    Codebase shellOutput =
+        Codebase.create(new File("/shell"), "internal", new RepositoryExpression("input"));
+    Map<String, String> options = ImmutableMap.of();
+
+    expect(filesystem.getTemporaryDirectory("fused_edit_run_")).andReturn(new File("/fused"));
+    expect(filesystem.findRelativeFiles(new File("/input"))).andReturn(ImmutableSet.of("file"));
+    Capture<Codebase> shellInput = new Capture<>();
+    expect(shell.edit(capture(shellInput), eq(options))).andReturn(shellOutput);
+
+    control.replay();
+
+    TranslationPipeline pipeline =
+        new ForwardTranslationPipeline(
+            ui,
+            filesystem,
+            ImmutableList.of(
+                new TranslationStep("a", new MovingEditor("a")),
+                new TranslationStep("b", new MovingEditor("b")),
+                new TranslationStep("shell", shell),
+                new TranslationStep("c", new MovingEditor("c"))));
+    Codebase translated = pipeline.translate(input, options, null);
+
+    control.verify();
+    assertEquals(new File("/fused"), shellInput.getValue().directory());
+    assertEquals(
+        ImmutableMap.of("b/a/file", new File("/input/file")),
+        CodebaseLayer.files(shellInput.getValue(), filesystem));
+    // The last file-local step has none to fuse with.
+    assertEquals(ImmutableList.of("c"), wholeCodebaseEdits);
+    assertEquals(shellOutput, translated);
+  }
+
+  public void testTranslate_withoutFileSystem() throws Exception {
+    Codebase input =
+        Codebase.create(new File("/input"), "internal", new RepositoryExpression("input"));
+
+    TranslationPipeline pipeline =
+        new ForwardTranslationPipeline(
+            ui,
+            ImmutableList.of(
+                new TranslationStep("a", new MovingEditor("a")),
+                new TranslationStep("b", new MovingEditor("b"))));
+    pipeline.translate(input, ImmutableMap.<String, String>of(), null);
+
+    assertEquals(ImmutableList.of("a", "b"), wholeCodebaseEdits);
+  }
+}